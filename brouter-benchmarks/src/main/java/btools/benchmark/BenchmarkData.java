@@ -0,0 +1,70 @@
+package btools.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import btools.router.OsmNodeNamed;
+
+/**
+ * Locations of the test data for the benchmarks: the segments of the
+ * dreieich test map built by MapcreatorTest (mvn install) and the profiles
+ *
+ * Other data: system properties "segmentDir", "profile"
+ * (paths relative to brouter-benchmarks)
+ */
+public final class BenchmarkData
+{
+  /**
+   * the test route of RouterTest (crossing a tile border)
+   */
+  public static final double[] TEST_ROUTE = new double[]{ 8.720897, 50.002515, 8.723658, 49.997510 };
+
+  /**
+   * the via-point route of RouterTest
+   */
+  public static final double[] VIA_ROUTE = new double[]{ 8.720897, 50.002515, 8.722800, 50.000100, 8.721800, 49.998800, 8.723658, 49.997510 };
+
+  private BenchmarkData()
+  {
+  }
+
+  public static String getSegmentDir()
+  {
+    String segmentDir = System.getProperty( "segmentDir", "../brouter-map-creator/target/test-classes/tmp/segments" );
+    if ( !new File( segmentDir ).isDirectory() )
+    {
+      throw new IllegalArgumentException( "segment directory not found: " + segmentDir );
+    }
+    return segmentDir;
+  }
+
+  public static String getProfile()
+  {
+    File profile = new File( System.getProperty( "profile", "../misc/profiles2/trekking.brf" ) );
+    if ( !profile.isFile() )
+    {
+      throw new IllegalArgumentException( "profile not found: " + profile );
+    }
+    return profile.getAbsolutePath();
+  }
+
+  public static File getLookupFile()
+  {
+    return new File( new File( getProfile() ).getParentFile(), "lookups.dat" );
+  }
+
+  public static List<OsmNodeNamed> createWaypoints( double[] lonlats )
+  {
+    List<OsmNodeNamed> wplist = new ArrayList<OsmNodeNamed>();
+    for ( int i = 0; i < lonlats.length; i += 2 )
+    {
+      OsmNodeNamed n = new OsmNodeNamed();
+      n.name = i == 0 ? "from" : ( i == lonlats.length - 2 ? "to" : "via" + i / 2 );
+      n.ilon = 180000000 + (int) ( lonlats[i] * 1000000 + 0.5 );
+      n.ilat = 90000000 + (int) ( lonlats[i + 1] * 1000000 + 0.5 );
+      wplist.add( n );
+    }
+    return wplist;
+  }
+}
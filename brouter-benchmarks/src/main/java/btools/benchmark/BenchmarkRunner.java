@@ -0,0 +1,35 @@
+package btools.benchmark;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Main class of the benchmark jar: runs JMH (same arguments as
+ * org.openjdk.jmh.Main), by default writing the results as JSON to
+ * jmh-result-<timestamp>.json, to compare them over time
+ * (e.g. with the JMH visualizers). "-rf"/"-rff" override the default
+ */
+public final class BenchmarkRunner
+{
+  private BenchmarkRunner()
+  {
+  }
+
+  public static void main( String[] args ) throws Exception
+  {
+    List<String> jmhArgs = new ArrayList<String>( Arrays.asList( args ) );
+    boolean listOrHelp = jmhArgs.contains( "-l" ) || jmhArgs.contains( "-lp" ) || jmhArgs.contains( "-h" );
+    if ( !listOrHelp && !jmhArgs.contains( "-rf" ) && !jmhArgs.contains( "-rff" ) )
+    {
+      String timestamp = new SimpleDateFormat( "yyyyMMdd-HHmmss" ).format( new Date() );
+      jmhArgs.add( 0, "-rf" );
+      jmhArgs.add( 1, "json" );
+      jmhArgs.add( 2, "-rff" );
+      jmhArgs.add( 3, "jmh-result-" + timestamp + ".json" );
+    }
+    org.openjdk.jmh.Main.main( jmhArgs.toArray( new String[jmhArgs.size()] ) );
+  }
+}
@@ -0,0 +1,74 @@
+package btools.benchmark;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import btools.expressions.BExpressionContextWay;
+import btools.expressions.BExpressionMetaData;
+
+/**
+ * BExpressionContext.evaluate on way descriptions of the profile, cycling
+ * through a set of random descriptions: 64 of them fit into the result
+ * cache (cache hits), 65536 of them do not (mostly cache misses, i.e.
+ * evaluating the profile). Time per evaluation
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ExpressionEvaluateBenchmark
+{
+  @Param( { "64", "65536" } )
+  public int descriptionCount;
+
+  private BExpressionContextWay expctxWay;
+  private byte[][] descriptions;
+  private int idx;
+
+  @Setup
+  public void setup()
+  {
+    BExpressionMetaData meta = new BExpressionMetaData();
+    expctxWay = new BExpressionContextWay( meta );
+    meta.readMetaData( BenchmarkData.getLookupFile() );
+    expctxWay.parseFile( new File( BenchmarkData.getProfile() ), "global" );
+
+    Random rnd = new Random( 4711 );
+    descriptions = new byte[descriptionCount][];
+    for ( int i = 0; i < descriptionCount; )
+    {
+      byte[] description = expctxWay.encode( expctxWay.generateRandomValues( rnd ) );
+      if ( description != null ) // null = no way tags
+      {
+        descriptions[i++] = description;
+      }
+    }
+  }
+
+  @Benchmark
+  public float evaluate()
+  {
+    byte[] description = descriptions[idx];
+    if ( ++idx == descriptions.length )
+    {
+      idx = 0;
+    }
+    expctxWay.evaluate( false, description, null );
+    return expctxWay.getCostfactor();
+  }
+}
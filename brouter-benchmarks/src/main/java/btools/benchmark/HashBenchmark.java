@@ -0,0 +1,64 @@
+package btools.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import btools.util.Crc32;
+import btools.util.MixHash;
+
+/**
+ * Checksums and hashes of byte arrays: the table-driven crc loop
+ * (Crc32.crcWithInverseBit), Crc32.crc (java.util.zip.CRC32 for longer
+ * arrays) and MixHash (the cache keys). The sizes are about a short and
+ * a long way description, a node and a micro cache. Time per array
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class HashBenchmark
+{
+  @Param( { "12", "24", "64", "16384" } )
+  public int size;
+
+  private byte[] ab;
+
+  @Setup
+  public void setup()
+  {
+    ab = new byte[size];
+    new Random( 4711 ).nextBytes( ab );
+  }
+
+  @Benchmark
+  public int tableCrc()
+  {
+    return Crc32.crcWithInverseBit( ab, -1 );
+  }
+
+  @Benchmark
+  public int crc()
+  {
+    return Crc32.crc( ab, 0, ab.length );
+  }
+
+  @Benchmark
+  public long mixHash()
+  {
+    return MixHash.hashWithInverseBit( ab, -1 );
+  }
+}
@@ -0,0 +1,93 @@
+package btools.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import btools.util.CompactLongMap;
+import btools.util.FrozenLongMap;
+
+/**
+ * Lookups in CompactLongMap and FrozenLongMap with node-id like keys
+ * (lon << 32 | lat), half of them hits, half misses. Time per lookup
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class LongMapBenchmark
+{
+  @Param( { "1000", "1000000" } )
+  public int size;
+
+  private CompactLongMap<Object> compactMap;
+  private FrozenLongMap<Object> frozenMap;
+  private long[] queries;
+  private int idx;
+
+  @Setup
+  public void setup()
+  {
+    Random rnd = new Random( 4711 );
+    Object value = new Object();
+    CompactLongMap<Object> map = new CompactLongMap<Object>();
+    CompactLongMap<Object> mapToFreeze = new CompactLongMap<Object>();
+    queries = new long[2 * size];
+    int n = 0;
+    while ( n < size )
+    {
+      long id = createId( rnd );
+      if ( !map.put( id, value ) )
+      {
+        mapToFreeze.fastPut( id, value );
+        queries[2 * n] = id;
+        queries[2 * n + 1] = createId( rnd ); // (most likely) a miss
+        n++;
+      }
+    }
+    compactMap = map;
+    frozenMap = new FrozenLongMap<Object>( mapToFreeze );
+  }
+
+  private static long createId( Random rnd )
+  {
+    long ilon = 188000000 + rnd.nextInt( 1000000 );
+    long ilat = 140000000 + rnd.nextInt( 1000000 );
+    return ilon << 32 | ilat;
+  }
+
+  private long nextQuery()
+  {
+    long id = queries[idx];
+    if ( ++idx == queries.length )
+    {
+      idx = 0;
+    }
+    return id;
+  }
+
+  @Benchmark
+  public Object compactGet()
+  {
+    return compactMap.get( nextQuery() );
+  }
+
+  @Benchmark
+  public Object frozenGet()
+  {
+    return frozenMap.get( nextQuery() );
+  }
+}
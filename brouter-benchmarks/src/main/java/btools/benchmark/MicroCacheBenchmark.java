@@ -0,0 +1,130 @@
+package btools.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import btools.codec.DataBuffers;
+import btools.codec.DecodedTile;
+import btools.codec.MicroCache2;
+import btools.expressions.BExpressionContextWay;
+import btools.expressions.BExpressionMetaData;
+import btools.mapaccess.OsmFile;
+import btools.mapaccess.PhysicalFile;
+
+/**
+ * Decoding of the micro-caches of the test tile (E5_N50, the part of the
+ * test map north of 50 degrees): the profile-independent bitstream decoding
+ * (DecodedTile) and the complete MicroCache2 including the access filtering
+ * by the way context of the profile. Time per tile (all its micro-caches)
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class MicroCacheBenchmark
+{
+  private static final int LON_DEGREE = 188; // 8 degrees east
+  private static final int LAT_DEGREE = 140; // 50 degrees north
+
+  private int divisor;
+  private int[] lonIdxs;
+  private int[] latIdxs;
+  private byte[][] cellData;
+  private DataBuffers dataBuffers;
+  private BExpressionContextWay expctxWay;
+
+  @Setup
+  public void setup() throws Exception
+  {
+    File segmentFile = new File( BenchmarkData.getSegmentDir(), "E5_N50.rd5" );
+    DataBuffers fileBuffers = new DataBuffers();
+    PhysicalFile pf = new PhysicalFile( segmentFile, fileBuffers, -1, -1 );
+    OsmFile osmf = new OsmFile( pf, LON_DEGREE, LAT_DEGREE, fileBuffers );
+    divisor = pf.divisor;
+
+    // keep the raw data of the non-empty micro-caches
+    List<byte[]> cells = new ArrayList<byte[]>();
+    List<int[]> cellIdxs = new ArrayList<int[]>();
+    int maxSize = 0;
+    for ( int latIdx = LAT_DEGREE * divisor; latIdx < ( LAT_DEGREE + 1 ) * divisor; latIdx++ )
+    {
+      for ( int lonIdx = LON_DEGREE * divisor; lonIdx < ( LON_DEGREE + 1 ) * divisor; lonIdx++ )
+      {
+        int subIdx = ( latIdx - divisor * LAT_DEGREE ) * divisor + ( lonIdx - divisor * LON_DEGREE );
+        int size = osmf.getDataInputForSubIdx( subIdx, fileBuffers.iobuffer );
+        if ( size == 0 )
+        {
+          continue;
+        }
+        byte[] ab = new byte[size];
+        if ( osmf.getDataInputForSubIdx( subIdx, ab ) != size )
+        {
+          throw new IllegalArgumentException( "cannot read micro-cache " + subIdx );
+        }
+        cells.add( ab );
+        cellIdxs.add( new int[]{ lonIdx, latIdx } );
+        maxSize = Math.max( maxSize, size );
+      }
+    }
+    if ( cells.isEmpty() )
+    {
+      throw new IllegalArgumentException( "no data in " + segmentFile );
+    }
+    pf.close();
+    cellData = cells.toArray( new byte[cells.size()][] );
+    lonIdxs = new int[cells.size()];
+    latIdxs = new int[cells.size()];
+    for ( int i = 0; i < lonIdxs.length; i++ )
+    {
+      lonIdxs[i] = cellIdxs.get( i )[0];
+      latIdxs[i] = cellIdxs.get( i )[1];
+    }
+    dataBuffers = new DataBuffers( new byte[Math.max( maxSize, 65636 )] );
+
+    BExpressionMetaData meta = new BExpressionMetaData();
+    expctxWay = new BExpressionContextWay( meta );
+    meta.readMetaData( BenchmarkData.getLookupFile() );
+    expctxWay.parseFile( new File( BenchmarkData.getProfile() ), "global" );
+  }
+
+  @Benchmark
+  public int decodeTiles() throws Exception
+  {
+    int dataSize = 0;
+    for ( int i = 0; i < cellData.length; i++ )
+    {
+      System.arraycopy( cellData[i], 0, dataBuffers.iobuffer, 0, cellData[i].length );
+      DecodedTile tile = new DecodedTile( dataBuffers, lonIdxs[i], latIdxs[i], divisor, false );
+      dataSize += tile.getDataSize();
+    }
+    return dataSize;
+  }
+
+  @Benchmark
+  public int decodeMicroCaches() throws Exception
+  {
+    int size = 0;
+    for ( int i = 0; i < cellData.length; i++ )
+    {
+      System.arraycopy( cellData[i], 0, dataBuffers.iobuffer, 0, cellData[i].length );
+      MicroCache2 mc = new MicroCache2( dataBuffers, lonIdxs[i], latIdxs[i], divisor, expctxWay, null );
+      size += mc.getSize();
+    }
+    return size;
+  }
+}
@@ -0,0 +1,153 @@
+package btools.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import btools.router.OsmPath;
+import btools.router.RoutingContext;
+import btools.router.RoutingEngine;
+import btools.util.OpenSet;
+import btools.util.OpenSetFactory;
+
+/**
+ * The open set implementations (see OpenSetFactory) replaying the add/pop
+ * sequence of real searches: the routes of BenchmarkData are run once in
+ * the setup with a recording open set. Time per replay of all of them
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class OpenSetBenchmark
+{
+  private static final byte OP_ADD = 0;
+  private static final byte OP_POP = 1;
+  private static final byte OP_CLEAR = 2;
+
+  @Param( { "sorted", "radix" } )
+  public String type;
+
+  private OpenSet<Object> openSet;
+  private Object value = new Object();
+
+  // the recorded trace
+  private byte[] ops = new byte[4096];
+  private int[] keys = new int[4096];
+  private int opCount;
+
+  @Setup
+  public void setup()
+  {
+    record( BenchmarkData.TEST_ROUTE );
+    record( BenchmarkData.VIA_ROUTE );
+    openSet = OpenSetFactory.create( type );
+  }
+
+  private void record( double[] lonlats )
+  {
+    RoutingContext rc = new RoutingContext();
+    rc.localFunction = BenchmarkData.getProfile();
+    RoutingEngine re = new RoutingEngine( null, null, BenchmarkData.getSegmentDir(), BenchmarkData.createWaypoints( lonlats ), rc );
+    re.quite = true;
+    re.setOpenSet( new RecordingOpenSet( OpenSetFactory.<OsmPath>create() ) );
+    re.doRun( 0 );
+    if ( re.getErrorMessage() != null )
+    {
+      throw new IllegalArgumentException( re.getErrorMessage() );
+    }
+  }
+
+  private void addOp( byte op, int key )
+  {
+    if ( opCount == ops.length )
+    {
+      byte[] newOps = new byte[2 * opCount];
+      int[] newKeys = new int[2 * opCount];
+      System.arraycopy( ops, 0, newOps, 0, opCount );
+      System.arraycopy( keys, 0, newKeys, 0, opCount );
+      ops = newOps;
+      keys = newKeys;
+    }
+    ops[opCount] = op;
+    keys[opCount++] = key;
+  }
+
+  @Benchmark
+  public int replay()
+  {
+    int pops = 0;
+    for ( int i = 0; i < opCount; i++ )
+    {
+      switch ( ops[i] )
+      {
+        case OP_ADD:
+          openSet.add( keys[i], value );
+          break;
+        case OP_POP:
+          if ( openSet.popLowestKeyValue() != null ) pops++;
+          break;
+        default:
+          openSet.clear();
+      }
+    }
+    openSet.clear();
+    return pops;
+  }
+
+  private final class RecordingOpenSet implements OpenSet<OsmPath>
+  {
+    private OpenSet<OsmPath> delegate;
+
+    RecordingOpenSet( OpenSet<OsmPath> delegate )
+    {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void add( int key, OsmPath value )
+    {
+      addOp( OP_ADD, key );
+      delegate.add( key, value );
+    }
+
+    @Override
+    public OsmPath popLowestKeyValue()
+    {
+      addOp( OP_POP, 0 );
+      return delegate.popLowestKeyValue();
+    }
+
+    @Override
+    public void clear()
+    {
+      addOp( OP_CLEAR, 0 );
+      delegate.clear();
+    }
+
+    @Override
+    public int getSize()
+    {
+      return delegate.getSize();
+    }
+
+    @Override
+    public List<OsmPath> getExtract()
+    {
+      return delegate.getExtract();
+    }
+  }
+}
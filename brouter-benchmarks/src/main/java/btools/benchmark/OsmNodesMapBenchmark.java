@@ -0,0 +1,145 @@
+package btools.benchmark;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import btools.mapaccess.OsmNode;
+import btools.mapaccess.OsmNodesMap;
+
+/**
+ * OsmNodesMap (open addressing on long keys) against the former
+ * HashMap-based implementation, for the access pattern of a search:
+ * lookup-or-insert of link targets, lookups with misses, and removal
+ * of nodes when they are expanded
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class OsmNodesMapBenchmark
+{
+  /**
+   * The former implementation: HashMap keyed by the nodes itself
+   */
+  static final class HashMapNodesMap
+  {
+    private HashMap<OsmNode,OsmNode> hmap = new HashMap<OsmNode,OsmNode>();
+    private OsmNode testKey = new OsmNode();
+
+    OsmNode get( long id )
+    {
+      testKey.ilon = (int)(id >> 32);
+      testKey.ilat = (int)(id & 0xffffffff);
+      return hmap.get( testKey );
+    }
+
+    void remove( OsmNode node )
+    {
+      hmap.remove( node );
+    }
+
+    OsmNode put( OsmNode node )
+    {
+      return hmap.put( node, node );
+    }
+  }
+
+  @Param( { "10000", "200000" } )
+  public int nodeCount;
+
+  private OsmNode[] nodes;
+  private long[] lookupIds;
+
+  private OsmNodesMap reusedMap = new OsmNodesMap();
+
+  @Setup
+  public void setup()
+  {
+    // nodes clustered like in a 5x5 degree datafile area
+    Random rand = new Random( 4711 );
+    nodes = new OsmNode[nodeCount];
+    for( int i=0; i<nodeCount; i++ )
+    {
+      nodes[i] = new OsmNode( 188000000 + rand.nextInt( 250000 ), 140000000 + rand.nextInt( 250000 ) );
+    }
+    // half hits, half misses
+    lookupIds = new long[nodeCount];
+    for( int i=0; i<nodeCount; i++ )
+    {
+      lookupIds[i] = ( i & 1 ) == 0 ? nodes[rand.nextInt( nodeCount )].getIdFromPos()
+                                    : new OsmNode( 189000000 + rand.nextInt( 250000 ), 140000000 + rand.nextInt( 250000 ) ).getIdFromPos();
+    }
+  }
+
+  @Benchmark
+  public int hashMap()
+  {
+    HashMapNodesMap map = new HashMapNodesMap();
+    int found = 0;
+    for( OsmNode n : nodes )
+    {
+      if ( map.get( n.getIdFromPos() ) == null )
+      {
+        map.put( n );
+      }
+    }
+    for( long id : lookupIds )
+    {
+      if ( map.get( id ) != null ) found++;
+    }
+    for( int i=0; i<nodes.length; i+=2 )
+    {
+      map.remove( nodes[i] );
+    }
+    return found;
+  }
+
+  @Benchmark
+  public int openAddressing()
+  {
+    return run( new OsmNodesMap() );
+  }
+
+  @Benchmark
+  public int openAddressingReused()
+  {
+    reusedMap.clear();
+    return run( reusedMap );
+  }
+
+  private int run( OsmNodesMap map )
+  {
+    int found = 0;
+    for( OsmNode n : nodes )
+    {
+      if ( map.get( n.getIdFromPos() ) == null )
+      {
+        map.put( n );
+      }
+    }
+    for( long id : lookupIds )
+    {
+      if ( map.get( id ) != null ) found++;
+    }
+    for( int i=0; i<nodes.length; i+=2 )
+    {
+      map.remove( nodes[i] );
+    }
+    return found;
+  }
+}
@@ -0,0 +1,93 @@
+package btools.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import btools.mapaccess.OsmLink;
+import btools.mapaccess.OsmNode;
+import btools.router.OsmPath;
+import btools.router.ProfileCache;
+import btools.router.RoutingContext;
+import btools.util.ByteDataWriter;
+
+/**
+ * Construction of an OsmPath, i.e. the cost calculation for a link, for a
+ * residential way with the given number of transfer nodes, in the search
+ * mode and in the detail mode (recording transfer nodes and messages).
+ * Time per path
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class OsmPathBenchmark
+{
+  @Param( { "0", "8" } )
+  public int transferNodes;
+
+  @Param( { "false", "true" } )
+  public boolean detailMode;
+
+  private RoutingContext rc;
+  private OsmNode sourceNode;
+  private OsmPath originPath;
+  private OsmLink link;
+
+  @Setup
+  public void setup()
+  {
+    rc = new RoutingContext();
+    rc.localFunction = BenchmarkData.getProfile();
+    ProfileCache.parseProfile( rc );
+
+    int[] lookupData = rc.expctxWay.createNewLookupData();
+    rc.expctxWay.addLookupValue( "highway", "residential", lookupData );
+    byte[] description = rc.expctxWay.encode( lookupData );
+
+    // start -> source -> (transfer nodes) -> target, 10 m steps to the north-east
+    OsmNode startNode = new OsmNode( 188720000, 140000000 );
+    sourceNode = new OsmNode( 188720100, 140000100 );
+    int step = 100;
+    OsmNode targetNode = new OsmNode( sourceNode.ilon + ( transferNodes + 1 ) * step, sourceNode.ilat + ( transferNodes + 1 ) * step );
+
+    OsmLink startLink = new OsmLink();
+    startLink.targetNode = sourceNode;
+    originPath = new OsmPath( startLink );
+    originPath.originLon = startNode.ilon;
+    originPath.originLat = startNode.ilat;
+
+    link = new OsmLink();
+    link.targetNode = targetNode;
+    link.descriptionBitmap = description;
+    if ( transferNodes > 0 )
+    {
+      ByteDataWriter w = new ByteDataWriter( new byte[16 * transferNodes] );
+      for ( int i = 0; i < transferNodes; i++ )
+      {
+        w.writeVarLengthSigned( step );
+        w.writeVarLengthSigned( step );
+        w.writeVarLengthSigned( 4 ); // 1 m up
+      }
+      link.setGeometry( w.toByteArray() );
+    }
+  }
+
+  @Benchmark
+  public OsmPath createPath()
+  {
+    return new OsmPath( sourceNode, originPath, link, null, detailMode, rc );
+  }
+}
@@ -0,0 +1,68 @@
+package btools.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import btools.router.RoutingContext;
+import btools.router.RoutingEngine;
+
+/**
+ * End-to-end routing on the test map (see BenchmarkData): the test route
+ * and the route with via points of RouterTest, each with a new engine,
+ * i.e. including the loading of the data. The profile is cached
+ * (ProfileCache) after the first run. Time per route
+ *
+ * Run with "-prof gc" for the allocations per route (gc.alloc.rate.norm),
+ * e.g. of the paths created in findTrack. Only there the saving of the
+ * message data not recorded in the search shows up: OsmPathBenchmark
+ * does not see it, as the JIT removes the unused object there
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class RoutingBenchmark
+{
+  @Param( { "test", "via" } )
+  public String route;
+
+  private String segmentDir;
+  private String profile;
+  private double[] lonlats;
+
+  @Setup
+  public void setup()
+  {
+    segmentDir = BenchmarkData.getSegmentDir();
+    profile = BenchmarkData.getProfile();
+    lonlats = "via".equals( route ) ? BenchmarkData.VIA_ROUTE : BenchmarkData.TEST_ROUTE;
+  }
+
+  @Benchmark
+  public int route()
+  {
+    RoutingContext rc = new RoutingContext();
+    rc.localFunction = profile;
+    RoutingEngine re = new RoutingEngine( null, null, segmentDir, BenchmarkData.createWaypoints( lonlats ), rc );
+    re.quite = true;
+    re.doRun( 0 );
+    if ( re.getErrorMessage() != null )
+    {
+      throw new IllegalArgumentException( re.getErrorMessage() );
+    }
+    return re.getFoundTrack().cost;
+  }
+}
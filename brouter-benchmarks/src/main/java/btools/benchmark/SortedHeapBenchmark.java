@@ -0,0 +1,92 @@
+package btools.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import btools.util.SortedHeap;
+
+/**
+ * SortedHeap as the open set of a search: fill it with random keys and
+ * empty it (sort), and a steady state of popping the lowest entry and
+ * adding its "neighbours" with higher keys (dijkstra). Time per operation
+ * sequence of the given size
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class SortedHeapBenchmark
+{
+  @Param( { "1000", "100000" } )
+  public int size;
+
+  private int[] keys;
+  private int[] increments;
+  private Object value = new Object();
+
+  @Setup
+  public void setup()
+  {
+    Random rnd = new Random( 4711 );
+    keys = new int[size];
+    increments = new int[size];
+    for ( int i = 0; i < size; i++ )
+    {
+      keys[i] = rnd.nextInt( 10000000 );
+      increments[i] = 1 + rnd.nextInt( 1000 );
+    }
+  }
+
+  @Benchmark
+  public int addAndPopAll()
+  {
+    SortedHeap<Object> heap = new SortedHeap<Object>();
+    for ( int i = 0; i < size; i++ )
+    {
+      heap.add( keys[i], value );
+    }
+    int n = 0;
+    while ( heap.popLowestKeyValue() != null )
+    {
+      n++;
+    }
+    return n;
+  }
+
+  @Benchmark
+  public int dijkstra()
+  {
+    SortedHeap<int[]> heap = new SortedHeap<int[]>();
+    heap.add( 0, new int[]{ 0 } );
+    int n = 0;
+    int[] entry;
+    while ( ( entry = heap.popLowestKeyValue() ) != null )
+    {
+      // two neighbours for the first half, then just drain
+      if ( n < size / 2 )
+      {
+        int key = entry[0];
+        int k1 = key + increments[n];
+        int k2 = key + increments[size - 1 - n];
+        heap.add( k1, new int[]{ k1 } );
+        heap.add( k2, new int[]{ k2 } );
+      }
+      n++;
+    }
+    return n;
+  }
+}
@@ -8,6 +8,7 @@ public final class DataBuffers
   public byte[] iobuffer;
   public byte[] tagbuf1 = new byte[256];
   public byte[] bbuf1 = new byte[65636];
+  public byte[] bbuf2; // for DecodedTile, allocated on first use
   public int[] ibuf1 = new int[4096];
   public int[] ibuf2 = new int[2048];
   public int[] ibuf3 = new int[2048];
@@ -0,0 +1,219 @@
+package btools.codec;
+
+import btools.util.ByteDataReader;
+import btools.util.ByteDataWriter;
+
+/**
+ * DecodedTile is the profile-independent result of statistically
+ * decoding a micro-tile in the MicroCache2 format.
+ *
+ * The expensive bit-level decoding (huffman-trees, noisy numbers,
+ * predicted values) is done here once, and the result is kept in
+ * a compact var-length stream with the tag-value-sets replaced
+ * by indices into the tile's dictionaries.
+ *
+ * A MicroCache2 for a specific profile (access filtering, waypoint matching)
+ * can then be assembled from that without touching the datafile again.
+ *
+ * If constructed with copyData=true, the instance does not reference
+ * the decoder's buffers and is immutable, so it can be shared
+ * between threads (see SharedTileCache)
+ *
+ * Stream layout, per node:
+ *   selev, nodeTagIdx, linkCount
+ * and per link:
+ *   nodeIdx, [ isReverse, dlon, dlat ]( external only ), wayTagIdx,
+ *   [ transcount, transcount*( dlon, dlat, dele ) ]( forward only )
+ *
+ * with tag-indices being 0 for null, else 1 + dictionary-index
+ */
+public final class DecodedTile extends ByteDataWriter
+{
+  int lonIdx;
+  int latIdx;
+  int divisor;
+  int size;
+  int[] faid;
+  int netdatasize;
+  byte[][] wayTagSets;
+  byte[][] nodeTagSets;
+
+  public DecodedTile( DataBuffers dataBuffers, int lonIdx, int latIdx, int divisor, boolean copyData ) throws Exception
+  {
+    super( getBuffer( dataBuffers ) );
+    this.lonIdx = lonIdx;
+    this.latIdx = latIdx;
+    this.divisor = divisor;
+
+    StatCoderContext bc = new StatCoderContext( dataBuffers.iobuffer );
+
+    TagValueCoder wayTagCoder = new TagValueCoder( bc, dataBuffers.tagbuf1, null );
+    TagValueCoder nodeTagCoder = new TagValueCoder( bc, dataBuffers.tagbuf1, null );
+    NoisyDiffCoder nodeIdxDiff = new NoisyDiffCoder( bc );
+    NoisyDiffCoder nodeEleDiff = new NoisyDiffCoder( bc );
+    NoisyDiffCoder extLonDiff = new NoisyDiffCoder( bc );
+    NoisyDiffCoder extLatDiff = new NoisyDiffCoder( bc );
+    NoisyDiffCoder transEleDiff = new NoisyDiffCoder( bc );
+
+    wayTagSets = wayTagCoder.getTagValueSets();
+    nodeTagSets = nodeTagCoder.getTagValueSets();
+
+    size = bc.decodeNoisyNumber( 5 );
+    faid = size > dataBuffers.ibuf2.length ? new int[size] : dataBuffers.ibuf2;
+    int[] alon = size > dataBuffers.alon.length ? new int[size] : dataBuffers.alon;
+    int[] alat = size > dataBuffers.alat.length ? new int[size] : dataBuffers.alat;
+
+    if ( MicroCache.debug ) System.out.println( "*** decoding tile of size=" + size );
+
+    bc.decodeSortedArray( faid, 0, size, 0x20000000, 0 );
+
+    // positions relative to the tile's base are sufficient for the deltas
+    for ( int n = 0; n < size; n++ )
+    {
+      long id64 = MicroCache2.expandId( faid[n], 0, 0 );
+      alon[n] = (int) ( id64 >> 32 );
+      alat[n] = (int) ( id64 & 0xffffffff );
+    }
+
+    netdatasize = bc.decodeNoisyNumber( 10 );
+
+    int selev = 0;
+    for ( int n = 0; n < size; n++ ) // loop over nodes
+    {
+      // future feature escape (turn restrictions?)
+      for ( ;; )
+      {
+        int featureId = bc.decodeVarBits();
+        if ( featureId == 0 ) break;
+        int bitsize = bc.decodeNoisyNumber( 5 );
+        for ( int i = 0; i < bitsize; i++ ) bc.decodeBit(); // just skip
+      }
+
+      ensureCapacity( 15 );
+      selev += nodeEleDiff.decodeSignedValue();
+      writeVarLengthSigned( selev );
+      writeVarLengthUnsigned( tagIndex( nodeTagCoder.decodeTagValueWrapper() ) );
+
+      int links = bc.decodeNoisyNumber( 1 );
+      if ( MicroCache.debug ) System.out.println( "*** decoding node with links=" + links );
+      writeVarLengthUnsigned( links );
+      for ( int li = 0; li < links; li++ )
+      {
+        ensureCapacity( 26 );
+        int nodeIdx = n + nodeIdxDiff.decodeSignedValue();
+        writeVarLengthUnsigned( nodeIdx );
+
+        int dlon_remaining;
+        int dlat_remaining;
+
+        boolean isReverse = false;
+        if ( nodeIdx != n ) // internal (forward-) link
+        {
+          dlon_remaining = alon[nodeIdx] - alon[n];
+          dlat_remaining = alat[nodeIdx] - alat[n];
+        }
+        else
+        {
+          isReverse = bc.decodeBit();
+          writeBoolean( isReverse );
+          writeVarLengthSigned( dlon_remaining = extLonDiff.decodeSignedValue() );
+          writeVarLengthSigned( dlat_remaining = extLatDiff.decodeSignedValue() );
+        }
+        writeVarLengthUnsigned( tagIndex( wayTagCoder.decodeTagValueWrapper() ) );
+
+        if ( !isReverse ) // geometry for forward links only
+        {
+          int transcount = bc.decodeVarBits();
+          if ( MicroCache.debug ) System.out.println( "*** decoding geometry with count=" + transcount );
+          writeVarLengthUnsigned( transcount );
+          int count = transcount + 1;
+          for ( int i = 0; i < transcount; i++ )
+          {
+            ensureCapacity( 15 );
+            int dlon = bc.decodePredictedValue( dlon_remaining / count );
+            int dlat = bc.decodePredictedValue( dlat_remaining / count );
+            dlon_remaining -= dlon;
+            dlat_remaining -= dlat;
+            count--;
+            writeVarLengthSigned( dlon );
+            writeVarLengthSigned( dlat );
+            writeVarLengthSigned( transEleDiff.decodeSignedValue() );
+          }
+        }
+      }
+    }
+
+    if ( copyData )
+    {
+      byte[] nab = new byte[aboffset];
+      System.arraycopy( ab, 0, nab, 0, aboffset );
+      ab = nab;
+      int[] nfaid = new int[size];
+      System.arraycopy( faid, 0, nfaid, 0, size );
+      faid = nfaid;
+    }
+    else if ( ab.length > dataBuffers.bbuf2.length )
+    {
+      dataBuffers.bbuf2 = ab; // keep the grown buffer for re-use
+    }
+    aboffsetEnd = aboffset;
+  }
+
+  private static byte[] getBuffer( DataBuffers dataBuffers )
+  {
+    if ( dataBuffers.bbuf2 == null )
+    {
+      dataBuffers.bbuf2 = new byte[65636];
+    }
+    return dataBuffers.bbuf2;
+  }
+
+  /**
+   * @return the approximate memory footprint of that tile in bytes
+   */
+  public int getDataSize()
+  {
+    int sz = ab.length + 4 * faid.length + 64;
+    for ( int i = 0; i < wayTagSets.length; i++ )
+    {
+      sz += wayTagSets[i].length + 16;
+    }
+    for ( int i = 0; i < nodeTagSets.length; i++ )
+    {
+      sz += nodeTagSets[i].length + 16;
+    }
+    return sz;
+  }
+
+  /**
+   * @return true if this tile was decoded for the given position and divisor
+   */
+  public boolean matches( int lonIdx, int latIdx, int divisor )
+  {
+    return this.lonIdx == lonIdx && this.latIdx == latIdx && this.divisor == divisor;
+  }
+
+  /**
+   * @return a new reader on the decoded stream (the tile itself is not used for reading
+   * to keep it stateless for concurrent assembly)
+   */
+  ByteDataReader newReader()
+  {
+    return new ByteDataReader( ab );
+  }
+
+  private static int tagIndex( TagValueCoder.TagValueWrapper w )
+  {
+    return w == null ? 0 : w.id + 1;
+  }
+
+  private void ensureCapacity( int len )
+  {
+    if ( aboffset + len > ab.length )
+    {
+      byte[] nab = new byte[2 * ab.length + len];
+      System.arraycopy( ab, 0, nab, 0, aboffset );
+      ab = nab;
+    }
+  }
+}
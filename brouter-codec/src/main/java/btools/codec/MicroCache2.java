@@ -171,6 +171,139 @@ public final class MicroCache2 extends MicroCache
       fapos[n] = aboffset;
     }
     
+    appendReverseLinks( validNodes, finaldatasize, reverseLinks, alon, alat );
+  }
+
+  /**
+   * Assemble a micro-cache from an already decoded tile, doing
+   * the profile-dependent access filtering and waypoint matching
+   */
+  public MicroCache2( DecodedTile tile, DataBuffers dataBuffers, TagValueValidator wayValidator, WaypointMatcher waypointMatcher )
+  {
+    super( null );
+    cellsize = 1000000 / tile.divisor;
+    lonBase = tile.lonIdx*cellsize;
+    latBase = tile.latIdx*cellsize;
+
+    // access filtering is done once per dictionary entry
+    byte[][] wayTagSets = tile.wayTagSets;
+    byte[][] nodeTagSets = tile.nodeTagSets;
+    boolean[] wayTagsValid = new boolean[wayTagSets.length];
+    for( int i=0; i<wayTagSets.length; i++ )
+    {
+      wayTagsValid[i] = wayValidator == null || wayValidator.accessAllowed( wayTagSets[i] );
+    }
+
+    size = tile.size;
+    faid = tile.faid;
+    fapos = size > dataBuffers.ibuf3.length ? new int[size] : dataBuffers.ibuf3;
+    
+    int[] alon =  size > dataBuffers.alon.length ? new int[size] : dataBuffers.alon;
+    int[] alat =  size > dataBuffers.alat.length ? new int[size] : dataBuffers.alat;
+
+    if ( debug ) System.out.println( "*** assembling cache of size=" + size );
+
+    for( int n = 0; n<size; n++ )
+    {
+      long id64 = expandId( faid[n] );
+      alon[n] = (int)(id64 >> 32);
+      alat[n] = (int)(id64 & 0xffffffff);
+    }
+    
+    int netdatasize = tile.netdatasize;
+    ab = netdatasize > dataBuffers.bbuf1.length ? new byte[netdatasize] : dataBuffers.bbuf1;
+    aboffset = 0;
+    BitSet validNodes = new BitSet( size );
+    int finaldatasize = 0;
+
+    LinkedListContainer reverseLinks = new LinkedListContainer( size, dataBuffers.ibuf1 );
+
+    ByteDataReader r = tile.newReader();
+    for( int n=0; n<size; n++ ) // loop over nodes
+    { 
+      int ilon = alon[n];
+      int ilat = alat[n];
+
+      writeShort( (short) r.readVarLengthSigned() );
+      int nodeTagIdx = r.readVarLengthUnsigned();
+      writeVarBytes( nodeTagIdx == 0 ? null : nodeTagSets[nodeTagIdx-1] );
+
+      int links = r.readVarLengthUnsigned();
+      for( int li=0; li<links; li++ )
+      {
+      	int startPointer = aboffset;
+        int sizeoffset = writeSizePlaceHolder();
+        int nodeIdx = r.readVarLengthUnsigned();
+        
+        int dlon_remaining;
+        int dlat_remaining;
+
+        boolean isReverse = false;
+        if ( nodeIdx != n ) // internal (forward-) link
+        {
+          writeVarLengthSigned( dlon_remaining = alon[nodeIdx] - ilon );
+          writeVarLengthSigned( dlat_remaining = alat[nodeIdx] - ilat );
+        }
+        else
+        {
+          isReverse = r.readBoolean();
+          writeVarLengthSigned( dlon_remaining = r.readVarLengthSigned() );
+          writeVarLengthSigned( dlat_remaining = r.readVarLengthSigned() );
+        }
+        int wayTagIdx = r.readVarLengthUnsigned();
+        byte[] wayTags = wayTagIdx == 0 || !wayTagsValid[wayTagIdx-1] ? null : wayTagSets[wayTagIdx-1];
+
+        if ( wayTags != null )
+        {
+          validNodes.set( n, true ); // mark source-node valid
+          if ( nodeIdx != n ) // valid internal (forward-) link
+          {
+            reverseLinks.addDataElement( nodeIdx, n ); // register reverse link
+            finaldatasize += 1 + aboffset-startPointer; // reserve place for reverse
+            validNodes.set( nodeIdx, true ); // mark target-node valid
+          }
+        }
+
+        writeModeAndDesc( isReverse, wayTags );
+        if ( !isReverse ) // write geometry for forward links only
+        {
+          WaypointMatcher matcher = wayTags == null ? null : waypointMatcher;
+          if ( matcher != null ) matcher.startNode( ilon, ilat );
+          int ilontarget = ilon + dlon_remaining;
+          int ilattarget = ilat + dlat_remaining;
+          
+          int transcount = r.readVarLengthUnsigned();
+          for( int i=0; i<transcount; i++ )
+          {
+            int dlon = r.readVarLengthSigned();
+            int dlat = r.readVarLengthSigned();
+            dlon_remaining -= dlon;
+            dlat_remaining -= dlat;
+            writeVarLengthSigned( dlon );
+            writeVarLengthSigned( dlat );
+            writeVarLengthSigned( r.readVarLengthSigned() );
+            
+            if ( matcher != null ) matcher.transferNode( ilontarget - dlon_remaining, ilattarget - dlat_remaining );
+          }
+          if ( matcher != null ) matcher.endNode( ilontarget, ilattarget );
+        }
+        if ( wayTags == null )
+        {
+      	  aboffset = startPointer; // not a valid link, delete it
+        }
+        else
+        {
+          injectSize( sizeoffset );
+        }
+      }
+      fapos[n] = aboffset;
+    }
+    
+    appendReverseLinks( validNodes, finaldatasize, reverseLinks, alon, alat );
+  }
+
+  private void appendReverseLinks( BitSet validNodes, int finaldatasize, LinkedListContainer reverseLinks, int[] alon, int[] alat )
+  {
     // calculate final data size
     int finalsize = 0;
     for( int i=0; i<size; i++ )
@@ -228,6 +361,11 @@ public final class MicroCache2 extends MicroCache
 
   @Override
   public long expandId( int id32 )
+  {
+    return expandId( id32, lonBase, latBase );
+  }
+
+  static long expandId( int id32, int lonBase, int latBase )
   {
     int dlon = 0;
     int dlat = 0;
@@ -20,6 +20,7 @@ public final class TagValueCoder
   private Object tree;
   private BitCoderContext bc;
   private int pass;
+  private int nextTagValueSetId;
 
   public void encodeTagValueSet( byte[] data )
   {
@@ -46,6 +47,18 @@ public final class TagValueCoder
   }
 
   public byte[] decodeTagValueSet()
+  {
+    TagValueWrapper w = decodeTagValueWrapper();
+    return w == null ? null : w.data;
+  }
+
+  /**
+   * Decode the next tag-value-set as a wrapper that carries,
+   * besides the data, an id unique within this coder's dictionary
+   *
+   * @return the wrapper, or null for an empty or invalid set
+   */
+  public TagValueWrapper decodeTagValueWrapper()
   {
     Object node = tree;
     while (node instanceof TreeNode)
@@ -54,7 +67,40 @@ public final class TagValueCoder
       boolean nextBit = bc.decodeBit();
       node = nextBit ? tn.child2 : tn.child1;
     }
-    return (byte[]) node;
+    return (TagValueWrapper) node;
+  }
+
+  /**
+   * @return the number of distinct (non-null) tag-value-sets in the decoded dictionary
+   */
+  public int getTagValueSetCount()
+  {
+    return nextTagValueSetId;
+  }
+
+  /**
+   * @return the decoded dictionary, indexed by the wrapper id's
+   */
+  public byte[][] getTagValueSets()
+  {
+    byte[][] sets = new byte[nextTagValueSetId][];
+    collectTagValueSets( tree, sets );
+    return sets;
+  }
+
+  private void collectTagValueSets( Object node, byte[][] sets )
+  {
+    if ( node instanceof TreeNode )
+    {
+      TreeNode tn = (TreeNode) node;
+      collectTagValueSets( tn.child1, sets );
+      collectTagValueSets( tn.child2, sets );
+    }
+    else if ( node != null )
+    {
+      TagValueWrapper w = (TagValueWrapper) node;
+      sets[w.id] = w.data;
+    }
   }
 
   public void encodeDictionary( BitCoderContext bc )
@@ -120,11 +166,20 @@ public final class TagValueCoder
 
     if ( validator == null || validator.accessAllowed( res ) )
     {
-      return res;
+      TagValueWrapper w = new TagValueWrapper();
+      w.data = res;
+      w.id = nextTagValueSetId++;
+      return w;
     }
     return null;
   }
 
+  public static final class TagValueWrapper
+  {
+    public byte[] data;
+    public int id;
+  }
+
   public static final class TreeNode
   {
     public Object child1;
@@ -0,0 +1,96 @@
+/**
+ * Container for the alternatives found for a routing request
+ *
+ * @author ab
+ */
+package btools.router;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The sequence of alternative tracks found for a routing request,
+ * together with the search state needed to compute the next alternative
+ * (the matched waypoints and the ways used by the previous alternatives)
+ *
+ * A RoutingEngine can continue from the alternatives of a previous
+ * run for the same request, see RoutingEngine.setAlternatives, so asking
+ * for alternative N after 0..N-1 costs one search instead of N+1
+ *
+ * The tracks are not modified after they were added, so they
+ * can be shared. The search state is copied when continuing
+ */
+public final class AlternativeTracks
+{
+  private List<OsmTrack> tracks = new ArrayList<OsmTrack>();
+
+  OsmTrack[] refTracks; // used ways for alternatives
+  OsmTrack[] lastTracks;
+  List<MatchedWaypoint> matchedWaypoints;
+
+  /**
+   * @return the number of alternatives found so far
+   */
+  public int size()
+  {
+    return tracks.size();
+  }
+
+  public OsmTrack getTrack( int idx )
+  {
+    return tracks.get( idx );
+  }
+
+  void addTrack( OsmTrack track )
+  {
+    tracks.add( track );
+  }
+
+  // keep a copy of the matched waypoints that does not reference the routing graph
+  void setMatchedWaypoints( List<MatchedWaypoint> mwps )
+  {
+    matchedWaypoints = copyWaypoints( mwps );
+  }
+
+  /**
+   * @return a copy to continue the search from, sharing the
+   *         (immutable) tracks but not the search state
+   */
+  public AlternativeTracks copy()
+  {
+    AlternativeTracks c = new AlternativeTracks();
+    c.tracks.addAll( tracks );
+    c.matchedWaypoints = copyWaypoints( matchedWaypoints );
+    if ( refTracks != null )
+    {
+      c.refTracks = new OsmTrack[refTracks.length];
+      for ( int i = 0; i < refTracks.length; i++ )
+      {
+        if ( refTracks[i] != null )
+        {
+          c.refTracks[i] = new OsmTrack();
+          c.refTracks[i].addNodes( refTracks[i] );
+        }
+      }
+    }
+    if ( lastTracks != null )
+    {
+      c.lastTracks = lastTracks.clone();
+    }
+    return c;
+  }
+
+  private static List<MatchedWaypoint> copyWaypoints( List<MatchedWaypoint> mwps )
+  {
+    if ( mwps == null )
+    {
+      return null;
+    }
+    List<MatchedWaypoint> list = new ArrayList<MatchedWaypoint>( mwps.size() );
+    for ( MatchedWaypoint mwp : mwps )
+    {
+      list.add( mwp.copy() );
+    }
+    return list;
+  }
+}
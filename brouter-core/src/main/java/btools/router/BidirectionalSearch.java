@@ -0,0 +1,287 @@
+package btools.router;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+import btools.mapaccess.NodesCache;
+import btools.mapaccess.OsmLink;
+import btools.mapaccess.OsmNode;
+import btools.util.OpenSet;
+import btools.util.OpenSetFactory;
+
+/**
+ * Bidirectional search: a search from the start and a search in inverse
+ * direction from the end, alternately expanded. Each side works on its own
+ * copy of the graph, because expanding a node unlinks the link it came from.
+ *
+ * The keys use the balanced potential factor*(dist-to-end - dist-to-start)/2
+ * (negated for the inverse side), so the search can stop as soon as the sum
+ * of the lowest keys of both sides reaches the best connection found.
+ *
+ * The costs depend on the path (elevation buffers, initial costs, turns),
+ * so the inverse costs and the sum at the meeting node are approximations.
+ * The connection is therefore only used as a guide track, see
+ * RoutingEngine.findTrackBidirectional
+ */
+final class BidirectionalSearch
+{
+  // one side of the search
+  private final class SearchSide extends PathExpander
+  {
+    boolean inverse;
+    NodesCache nodesCache;
+    OpenSet<OsmPath> openSet = OpenSetFactory.create();
+    HashMap<Long,OsmPath> bestPaths = new HashMap<Long,OsmPath>(); // cheapest path per reached node
+    long targetNodeId1;
+    long targetNodeId2;
+    OsmNodeNamed targetPos;
+    int lastKey; // of the last path taken from the open set, not clamped
+
+    SearchSide( RoutingContext rc, OsmTrack refTrack, boolean inverse, NodesCache nodesCache, MatchedWaypoint target )
+    {
+      super( rc, refTrack, false, null );
+      this.inverse = inverse;
+      this.nodesCache = nodesCache;
+      targetNodeId1 = target.node1.getIdFromPos();
+      targetNodeId2 = target.node2.getIdFromPos();
+      targetPos = target.crosspoint;
+    }
+
+    @Override
+    protected OsmNodeNamed getFinalPos( OsmNode currentNode, OsmNode nextNode )
+    {
+      long currentNodeId = currentNode.getIdFromPos();
+      long targetNodeId = nextNode.getIdFromPos();
+      if ( ( currentNodeId == targetNodeId1 || currentNodeId == targetNodeId2 )
+        && ( targetNodeId == targetNodeId1 || targetNodeId == targetNodeId2 ) )
+      {
+        return targetPos;
+      }
+      return null;
+    }
+
+    @Override
+    protected void addPath( OsmPath path, OsmLink link, OsmPath bestPath, boolean isFinalLink )
+    {
+      if ( isFinalLink )
+      {
+        // complete connection found by one side alone
+        if ( bestPath.cost < bestCost )
+        {
+          bestCost = bestPath.cost;
+          bestForward = inverse ? null : bestPath;
+          bestBackward = inverse ? bestPath : null;
+        }
+        return;
+      }
+
+      bestPath.airdistance = link.targetNode.calcDistance( targetPos );
+      if ( bestCost < Integer.MAX_VALUE && bestPath.cost + bestPath.airdistance > bestCost + 10 )
+      {
+        return;
+      }
+
+      // add only if this may beat an existing path for that link
+      if ( isDominated( bestPath, link ) )
+      {
+        return;
+      }
+      bestPath.treedepth = path.treedepth + 1;
+      addLinkHolder( link, bestPath );
+      add( this, bestPath );
+    }
+  }
+
+  private RoutingEngine engine;
+  private RoutingContext routingContext;
+  private SearchSide forward;
+  private SearchSide backward;
+  private OsmNodeNamed startPos;
+  private OsmNodeNamed endPos;
+  private double factor;
+  private int offset;
+
+  // best connection so far, one path is null if found by a final link
+  private int bestCost = Integer.MAX_VALUE;
+  private OsmPath bestForward;
+  private OsmPath bestBackward;
+
+  int nodesVisited;
+
+  /**
+   * @param nodesCache the graph of the forward search
+   * @param inverseCache the graph of the inverse search
+   */
+  BidirectionalSearch( RoutingEngine engine, RoutingContext rc, MatchedWaypoint startWp, MatchedWaypoint endWp, double factor,
+                       NodesCache nodesCache, NodesCache inverseCache, OsmTrack refTrack )
+  {
+    this.engine = engine;
+    routingContext = rc;
+    startPos = startWp.crosspoint;
+    endPos = endWp.crosspoint;
+    this.factor = factor;
+    offset = (int)( factor * startPos.calcDistance( endPos ) / 2. ) + 1;
+    forward = new SearchSide( rc, refTrack, false, nodesCache, endWp );
+    backward = new SearchSide( rc, refTrack, true, inverseCache, startWp );
+  }
+
+  /**
+   * @return the guide track, or null if not found
+   */
+  OsmTrack run( MatchedWaypoint startWp, MatchedWaypoint endWp )
+  {
+    if ( !init( forward, startWp ) || !init( backward, endWp ) )
+    {
+      return null;
+    }
+    for( int step = 0;; step++ )
+    {
+      engine.checkRunningTime( "bidirectional search" );
+
+      SearchSide side = ( step & 1 ) == 0 ? forward : backward;
+      OsmPath path = side.openSet.popLowestKeyValue();
+      if ( path == null )
+      {
+        break; // one side is exhausted, no further connections
+      }
+      if ( path.airdistance == -1 )
+      {
+        continue;
+      }
+      side.lastKey = getKey( side, path );
+      if ( bestCost < Integer.MAX_VALUE )
+      {
+        if ( forward.lastKey + backward.lastKey >= bestCost + 2*offset )
+        {
+          break;
+        }
+        if ( path.cost + path.airdistance > bestCost + 10 )
+        {
+          continue;
+        }
+      }
+      nodesVisited++;
+      routingContext.inverseDirection = side.inverse;
+      side.expand( path, side.nodesCache );
+    }
+    if ( bestCost == Integer.MAX_VALUE )
+    {
+      return null;
+    }
+    engine.logInfo( "bidirectional search found connection at cost " + bestCost + " nodesVisited = " + nodesVisited );
+    return compileGuideTrack();
+  }
+
+  private boolean init( SearchSide side, MatchedWaypoint wp )
+  {
+    routingContext.inverseDirection = side.inverse;
+    OsmNode n1 = RoutingEngine.getStartNode( side.nodesCache, wp.node1.getIdFromPos() );
+    if ( n1 == null )
+    {
+      return false;
+    }
+    long id2 = wp.node2.getIdFromPos();
+    OsmNode n2 = null;
+    for( OsmLink link = n1.firstlink; link != null; link = link.next )
+    {
+      if ( link.targetNode.getIdFromPos() == id2 )
+      {
+        n2 = link.targetNode;
+        break;
+      }
+    }
+    if ( n2 == null )
+    {
+      return false;
+    }
+    add( side, engine.getStartPath( n1, n2, wp.waypoint, side.targetPos ) );
+    add( side, engine.getStartPath( n2, n1, wp.waypoint, side.targetPos ) );
+    return true;
+  }
+
+  /**
+   * @return the key of the path, not clamped: the stopping rule needs the
+   *         exact sum of the keys of both sides
+   */
+  private int getKey( SearchSide side, OsmPath path )
+  {
+    OsmNode n = path.getLink().targetNode;
+    int potential = (int)( factor * ( n.calcDistance( endPos ) - n.calcDistance( startPos ) ) / 2. );
+    return path.cost + offset + ( side.inverse ? -potential : potential );
+  }
+
+  private long getOriginId( OsmPath path )
+  {
+    return path.originElement == null ? -1L : path.originElement.getIdFromPos();
+  }
+
+  private void add( SearchSide side, OsmPath path )
+  {
+    if ( path.cost < 0 )
+    {
+      return;
+    }
+    int key = getKey( side, path );
+    side.openSet.add( key < 0 ? 0 : key, path ); // the open set takes no negative keys
+
+    Long nodeId = Long.valueOf( path.getLink().targetNode.getIdFromPos() );
+    OsmPath best = side.bestPaths.get( nodeId );
+    if ( best == null || path.cost < best.cost )
+    {
+      side.bestPaths.put( nodeId, path );
+    }
+
+    // check for a connection with the other side (but not by a u-turn)
+    OsmPath other = ( side.inverse ? forward : backward ).bestPaths.get( nodeId );
+    if ( other != null && getOriginId( other ) != getOriginId( path ) )
+    {
+      int cost = path.cost + other.cost;
+      if ( cost < bestCost )
+      {
+        bestCost = cost;
+        bestForward = side.inverse ? other : path;
+        bestBackward = side.inverse ? path : other;
+      }
+    }
+  }
+
+  // chain the forward path with the reversed inverse path
+  private OsmTrack compileGuideTrack()
+  {
+    ArrayList<OsmPathElement> elements = new ArrayList<OsmPathElement>();
+    OsmPathElement last = null;
+    if ( bestForward != null )
+    {
+      for( OsmPathElement e = OsmPathElement.create( bestForward, false ); e != null; e = e.origin )
+      {
+        elements.add( e );
+      }
+      Collections.reverse( elements );
+      last = elements.get( elements.size() - 1 );
+    }
+    if ( bestBackward != null )
+    {
+      OsmPathElement e = OsmPathElement.create( bestBackward, false );
+      if ( last != null )
+      {
+        e = e.origin; // the meeting node is already there
+      }
+      for( ; e != null; e = e.origin )
+      {
+        last = OsmPathElement.create( e.getILon(), e.getILat(), e.getSElev(), last, false );
+        last.cost = bestCost - e.cost;
+        elements.add( last );
+      }
+    }
+
+    OsmTrack track = new OsmTrack();
+    for( int i = elements.size() - 1; i >= 0; i-- )
+    {
+      track.addNode( elements.get( i ) );
+    }
+    track.cost = bestCost;
+    track.buildMap();
+    return track;
+  }
+}
@@ -0,0 +1,88 @@
+package btools.router;
+
+import java.util.ArrayList;
+
+import btools.mapaccess.OsmLink;
+import btools.mapaccess.OsmNode;
+
+/**
+ * Records the changes a search makes to the decoded node graph, that is
+ * the links getting paths (link holders) and the links removed behind
+ * the search front, so they can be undone and the graph re-used
+ * by the next search instead of decoding it again
+ */
+final class GraphJournal
+{
+  private ArrayList<OsmLink> holderLinks = new ArrayList<OsmLink>();
+
+  // removed links with their node and predecessor (null for the first link)
+  private ArrayList<OsmNode> unlinkedNodes = new ArrayList<OsmNode>();
+  private ArrayList<OsmLink> unlinkedLinks = new ArrayList<OsmLink>();
+  private ArrayList<OsmLink> unlinkedPredecessors = new ArrayList<OsmLink>();
+
+  void addLinkHolder( OsmLink link, OsmPath path )
+  {
+    if ( link.firstlinkholder == null )
+    {
+      holderLinks.add( link );
+    }
+    link.addLinkHolder( path );
+  }
+
+  void unlinkLink( OsmNode node, OsmLink link )
+  {
+    OsmLink predecessor = null;
+    for ( OsmLink l = node.firstlink; l != link; l = l.next )
+    {
+      if ( l == null )
+      {
+        return; // not linked
+      }
+      predecessor = l;
+    }
+    if ( predecessor == null )
+    {
+      node.firstlink = link.next;
+    }
+    else
+    {
+      predecessor.next = link.next;
+    }
+    unlinkedNodes.add( node );
+    unlinkedLinks.add( link );
+    unlinkedPredecessors.add( predecessor );
+  }
+
+  /**
+   * Undo the changes, the removed links in reverse order to restore
+   * the original order of the link lists
+   */
+  void rollback()
+  {
+    for ( int i = unlinkedLinks.size() - 1; i >= 0; i-- )
+    {
+      OsmNode node = unlinkedNodes.get( i );
+      OsmLink link = unlinkedLinks.get( i );
+      OsmLink predecessor = unlinkedPredecessors.get( i );
+      if ( predecessor == null )
+      {
+        link.next = node.firstlink;
+        node.firstlink = link;
+      }
+      else
+      {
+        link.next = predecessor.next;
+        predecessor.next = link;
+      }
+    }
+    unlinkedNodes.clear();
+    unlinkedLinks.clear();
+    unlinkedPredecessors.clear();
+
+    for ( OsmLink link : holderLinks )
+    {
+      link.firstlinkholder = null;
+    }
+    holderLinks.clear();
+  }
+}
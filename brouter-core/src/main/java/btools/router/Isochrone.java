@@ -0,0 +1,218 @@
+package btools.router;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import btools.mapaccess.OsmNode;
+
+/**
+ * Formats the result of the reachability search (see RoutingEngine.doReachability)
+ * as GeoJSON: the reached links as LineStrings, written while the search is
+ * running, and finally the outline of the reached area as a Polygon
+ *
+ * The outline is star-shaped around the start: for each of the angular
+ * sectors it takes the reached position farthest from the start. This is
+ * cheap, but cuts off bays that are not reachable from the start directly
+ */
+public final class Isochrone implements ReachabilityListener
+{
+  private static final int SECTORS = 72;
+
+  private OsmNode center;
+  private double coslat;
+  private Writer out;
+  private boolean writeLinks;
+  private boolean started;
+
+  private int linkCount;
+  private int maxCostReached;
+  private int maxDistanceReached;
+
+  // the farthest position per sector, squared distance in scaled degrees
+  private int[] sectorLons = new int[SECTORS];
+  private int[] sectorLats = new int[SECTORS];
+  private double[] sectorDist2 = new double[SECTORS];
+
+  /**
+   * @param center the start of the search
+   * @param out the writer for the GeoJSON output
+   * @param writeLinks if true, the reached links are written as they come in
+   */
+  public Isochrone( OsmNode center, Writer out, boolean writeLinks )
+  {
+    this.center = center;
+    this.out = out;
+    this.writeLinks = writeLinks;
+    double l = ( center.ilat - 90000000 ) * 0.00000001234134;
+    double l2 = l * l;
+    coslat = 1. - l2 + l2 * l2 / 6.;
+    for ( int i = 0; i < SECTORS; i++ )
+    {
+      sectorDist2[i] = -1.;
+    }
+  }
+
+  public void linkReached( int[] ilons, int[] ilats, int startCost, int endCost, int endDistance ) throws IOException
+  {
+    linkCount++;
+    if ( endCost > maxCostReached )
+    {
+      maxCostReached = endCost;
+    }
+    if ( endDistance > maxDistanceReached )
+    {
+      maxDistanceReached = endDistance;
+    }
+    for ( int i = 0; i < ilons.length; i++ )
+    {
+      addPosition( ilons[i], ilats[i] );
+    }
+    if ( writeLinks )
+    {
+      startCollection();
+      out.write( "    {\n" );
+      out.write( "      \"type\": \"Feature\",\n" );
+      out.write( "      \"properties\": { \"start-cost\": " + startCost + ", \"cost\": " + endCost + ", \"distance\": " + endDistance + " },\n" );
+      out.write( "      \"geometry\": { \"type\": \"LineString\", \"coordinates\": [" );
+      for ( int i = 0; i < ilons.length; i++ )
+      {
+        if ( i > 0 )
+        {
+          out.write( ", " );
+        }
+        appendPosition( ilons[i], ilats[i] );
+      }
+      out.write( "] }\n" );
+      out.write( "    },\n" );
+    }
+  }
+
+  private void addPosition( int ilon, int ilat )
+  {
+    double dlon = ( ilon - center.ilon ) * coslat;
+    double dlat = ilat - center.ilat;
+    double d2 = dlon * dlon + dlat * dlat;
+    if ( d2 == 0. )
+    {
+      return;
+    }
+    int sector = (int) ( ( Math.atan2( dlat, dlon ) + Math.PI ) * SECTORS / ( 2. * Math.PI ) );
+    if ( sector >= SECTORS )
+    {
+      sector = 0;
+    }
+    if ( d2 > sectorDist2[sector] )
+    {
+      sectorDist2[sector] = d2;
+      sectorLons[sector] = ilon;
+      sectorLats[sector] = ilat;
+    }
+  }
+
+  public int getLinkCount()
+  {
+    return linkCount;
+  }
+
+  public int getMaxCostReached()
+  {
+    return maxCostReached;
+  }
+
+  /**
+   * @return the outline of the reached area as lon,lat pairs (closed ring),
+   *         or null if the reached positions do not span an area
+   */
+  public int[] getPolygon()
+  {
+    int n = 0;
+    for ( int i = 0; i < SECTORS; i++ )
+    {
+      if ( sectorDist2[i] > 0. )
+      {
+        n++;
+      }
+    }
+    if ( n < 3 )
+    {
+      return null;
+    }
+    int[] polygon = new int[2 * n + 2];
+    int k = 0;
+    for ( int i = 0; i < SECTORS; i++ )
+    {
+      if ( sectorDist2[i] > 0. )
+      {
+        polygon[k++] = sectorLons[i];
+        polygon[k++] = sectorLats[i];
+      }
+    }
+    polygon[k++] = polygon[0];
+    polygon[k] = polygon[1];
+    return polygon;
+  }
+
+  /**
+   * Write the outline and finish the output
+   *
+   * @param errorMessage the error that stopped the search, or null
+   */
+  public void finish( String errorMessage ) throws IOException
+  {
+    startCollection();
+    out.write( "    {\n" );
+    out.write( "      \"type\": \"Feature\",\n" );
+    out.write( "      \"properties\": {\n" );
+    out.write( "        \"creator\": \"BRouter-1.1\",\n" );
+    out.write( "        \"links\": " + linkCount + ",\n" );
+    out.write( "        \"max-cost\": " + maxCostReached + ",\n" );
+    out.write( "        \"max-distance\": " + maxDistanceReached );
+    if ( errorMessage != null )
+    {
+      out.write( ",\n        \"error\": \"" + errorMessage.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ) + "\"" );
+    }
+    out.write( "\n      },\n" );
+    int[] polygon = getPolygon();
+    if ( polygon == null )
+    {
+      out.write( "      \"geometry\": null\n" );
+    }
+    else
+    {
+      out.write( "      \"geometry\": {\n" );
+      out.write( "        \"type\": \"Polygon\",\n" );
+      out.write( "        \"coordinates\": [ [" );
+      for ( int i = 0; i < polygon.length; i += 2 )
+      {
+        out.write( i == 0 ? "\n          " : ",\n          " );
+        appendPosition( polygon[i], polygon[i + 1] );
+      }
+      out.write( "\n        ] ]\n" );
+      out.write( "      }\n" );
+    }
+    out.write( "    }\n" );
+    out.write( "  ]\n" );
+    out.write( "}\n" );
+    out.flush();
+  }
+
+  private void startCollection() throws IOException
+  {
+    if ( !started )
+    {
+      started = true;
+      out.write( "{\n" );
+      out.write( "  \"type\": \"FeatureCollection\",\n" );
+      out.write( "  \"features\": [\n" );
+    }
+  }
+
+  private void appendPosition( int ilon, int ilat ) throws IOException
+  {
+    out.write( '[' );
+    OsmTrack.appendPos( out, ilon - 180000000 );
+    out.write( ", " );
+    OsmTrack.appendPos( out, ilat - 90000000 );
+    out.write( ']' );
+  }
+}
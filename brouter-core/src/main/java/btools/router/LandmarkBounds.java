@@ -0,0 +1,157 @@
+package btools.router;
+
+import java.io.File;
+import java.io.IOException;
+
+import btools.mapaccess.LandmarkTile;
+import btools.mapaccess.NodesCache;
+import btools.mapaccess.OsmNode;
+import btools.mapaccess.ShortcutTile;
+
+/**
+ * Lower bounds of the cost from a node to the end of a route, derived
+ * from the precomputed landmark distances of the profile (see LandmarkTile)
+ *
+ * The route ends on the segment between the two end nodes, so the bound
+ * is the lower of the bounds to these two. Nodes not covered by the
+ * landmark distances get a bound of 0
+ */
+final class LandmarkBounds
+{
+  private static SideFileCache<LandmarkTile> tileCache = new SideFileCache<LandmarkTile>( 64 )
+  {
+    protected LandmarkTile load( File f ) throws IOException
+    {
+      return LandmarkTile.readFrom( f );
+    }
+  };
+
+  private File segmentDir;
+  private File landmarkDir;
+  private int profileCrc;
+
+  private int landmarkCount;
+  private int[][] targetCostsTo = new int[2][];
+  private int[][] targetCostsFrom = new int[2][];
+
+  // the tile of the last lookup
+  private long lastTileKey = -1L;
+  private LandmarkTile lastTile;
+
+  private LandmarkBounds()
+  {
+  }
+
+  /**
+   * @return the bounds for the given end, or null if there are
+   *         no landmark distances for the profile and the end
+   */
+  static LandmarkBounds create( String segmentDir, RoutingContext rc, MatchedWaypoint endWp )
+  {
+    File profileFile = ProfileCache.getProfileFile( rc );
+    String profileName = profileFile.getName();
+    if ( profileName.endsWith( ".brf" ) )
+    {
+      profileName = profileName.substring( 0, profileName.length() - 4 );
+    }
+    LandmarkBounds b = new LandmarkBounds();
+    b.segmentDir = new File( segmentDir );
+    b.landmarkDir = LandmarkTile.getDirectory( b.segmentDir, profileName );
+    if ( !b.landmarkDir.isDirectory() )
+    {
+      return null;
+    }
+    try
+    {
+      b.profileCrc = ShortcutTile.getProfileCrc( profileFile );
+    }
+    catch (IOException ioe)
+    {
+      return null;
+    }
+    return b.setTarget( 0, endWp.node1 ) && b.setTarget( 1, endWp.node2 ) ? b : null;
+  }
+
+  private boolean setTarget( int i, OsmNode n )
+  {
+    LandmarkTile tile = getTile( n.ilon, n.ilat );
+    int idx = tile == null ? -1 : tile.indexOf( n.getIdFromPos() );
+    if ( idx < 0 || ( i > 0 && tile.landmarkCount != landmarkCount ) )
+    {
+      return false;
+    }
+    landmarkCount = tile.landmarkCount;
+    targetCostsTo[i] = new int[landmarkCount];
+    targetCostsFrom[i] = new int[landmarkCount];
+    for ( int k = 0; k < landmarkCount; k++ )
+    {
+      targetCostsTo[i][k] = tile.getCostTo( idx, k );
+      targetCostsFrom[i][k] = tile.getCostFrom( idx, k );
+    }
+    return true;
+  }
+
+  /**
+   * @return the landmark distances for the datafile containing the position,
+   *         or null if missing or not matching profile or datafile
+   */
+  private LandmarkTile getTile( int ilon, int ilat )
+  {
+    long tileKey = ( (long) ( ilon / 5000000 ) ) << 32 | ( ilat / 5000000 );
+    if ( tileKey == lastTileKey )
+    {
+      return lastTile;
+    }
+    String baseName = NodesCache.getFileBaseName( ilon / 1000000, ilat / 1000000 );
+    LandmarkTile tile = tileCache.get( new File( landmarkDir, baseName + LandmarkTile.SUFFIX ) );
+    if ( tile != null )
+    {
+      File datafile = new File( segmentDir, baseName + ".rd5" );
+      if ( tile.profileCrc != profileCrc || tile.datafileLength != datafile.length() )
+      {
+        tile = null; // outdated
+      }
+    }
+    lastTileKey = tileKey;
+    lastTile = tile;
+    return tile;
+  }
+
+  /**
+   * @return a lower bound of the cost from the node to the end
+   */
+  int getBound( OsmNode n )
+  {
+    LandmarkTile tile = getTile( n.ilon, n.ilat );
+    int idx = tile == null || tile.landmarkCount != landmarkCount ? -1 : tile.indexOf( n.getIdFromPos() );
+    if ( idx < 0 )
+    {
+      return 0;
+    }
+    int bound = Integer.MAX_VALUE;
+    for ( int i = 0; i < 2; i++ )
+    {
+      int b = 0;
+      for ( int k = 0; k < landmarkCount; k++ )
+      {
+        int nodeTo = tile.getCostTo( idx, k );
+        int targetTo = targetCostsTo[i][k];
+        if ( nodeTo != LandmarkTile.UNREACHABLE && targetTo != LandmarkTile.UNREACHABLE && nodeTo - targetTo > b )
+        {
+          b = nodeTo - targetTo;
+        }
+        int nodeFrom = tile.getCostFrom( idx, k );
+        int targetFrom = targetCostsFrom[i][k];
+        if ( nodeFrom != LandmarkTile.UNREACHABLE && targetFrom != LandmarkTile.UNREACHABLE && targetFrom - nodeFrom > b )
+        {
+          b = targetFrom - nodeFrom;
+        }
+      }
+      if ( b < bound )
+      {
+        bound = b;
+      }
+    }
+    return bound;
+  }
+}
@@ -20,6 +20,37 @@ final class MatchedWaypoint
   public double radius;
   public boolean hasUpdate;
 
+  /**
+   * @return a copy that does not reference the routing graph
+   */
+  MatchedWaypoint copy()
+  {
+    MatchedWaypoint mwp = new MatchedWaypoint();
+    mwp.node1 = node1 == null ? null : new OsmNode( node1.ilon, node1.ilat );
+    mwp.node2 = node2 == null ? null : new OsmNode( node2.ilon, node2.ilat );
+    mwp.crosspoint = copyNode( crosspoint );
+    mwp.waypoint = copyNode( waypoint );
+    mwp.radius = radius;
+    mwp.hasUpdate = hasUpdate;
+    return mwp;
+  }
+
+  private static OsmNodeNamed copyNode( OsmNodeNamed n )
+  {
+    if ( n == null )
+    {
+      return null;
+    }
+    OsmNodeNamed c = new OsmNodeNamed();
+    c.ilon = n.ilon;
+    c.ilat = n.ilat;
+    c.selev = n.selev;
+    c.name = n.name;
+    c.radius = n.radius;
+    c.isNogo = n.isNogo;
+    return c;
+  }
+
   public void writeToStream( DataOutput dos ) throws IOException
   {
     dos.writeInt( node1.ilat );
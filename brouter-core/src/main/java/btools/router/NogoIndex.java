@@ -0,0 +1,218 @@
+package btools.router;
+
+import java.util.List;
+
+import btools.util.CompactLongMap;
+import btools.util.FrozenLongMap;
+
+/**
+ * Spatial index of the nogos for the segment checks in RoutingContext.calcDistance
+ *
+ * The bounding boxes of the nogos are registered in a grid of cells, so a
+ * segment is checked only against the nogos in the cells covered by its
+ * bounding box, and of these only the ones whose bounding box it overlaps
+ *
+ * Not thread-safe: the queries share the candidate buffer
+ */
+final class NogoIndex
+{
+  private static final int CELL_SHIFT = 14; // 16384 units = ~1.8 km in latitude
+  private static final int MAX_CELLS_PER_NOGO = 1024; // larger ones are always checked
+
+  private List<OsmNodeNamed> source;
+  private int sourceSize;
+
+  private OsmNodeNamed[] nogos;
+  private int[] minLons;
+  private int[] maxLons;
+  private int[] minLats;
+  private int[] maxLats;
+  private int cellCount;
+  private FrozenLongMap<int[]> cells;
+  private int[] largeNogos;
+
+  // query state: candidates of the last query, and the query stamp per nogo
+  private int[] candidates;
+  private int[] checkedStamps;
+  private int stamp;
+
+  /**
+   * @param nogopoints the nogos; entries that are not flagged as nogo are ignored
+   */
+  NogoIndex( List<OsmNodeNamed> nogopoints )
+  {
+    source = nogopoints;
+    sourceSize = nogopoints.size();
+
+    int n = 0;
+    for ( OsmNodeNamed nogo : nogopoints )
+    {
+      if ( nogo.isNogo ) n++;
+    }
+    nogos = new OsmNodeNamed[n];
+    minLons = new int[n];
+    maxLons = new int[n];
+    minLats = new int[n];
+    maxLats = new int[n];
+    candidates = new int[n];
+    checkedStamps = new int[n];
+
+    CompactLongMap<int[]> map = new CompactLongMap<int[]>();
+    int[] large = new int[n];
+    int largeCount = 0;
+    int idx = 0;
+    for ( OsmNodeNamed nogo : nogopoints )
+    {
+      if ( !nogo.isNogo ) continue;
+      nogos[idx] = nogo;
+      setBoundingBox( idx, nogo );
+      long nogoCells = (long) ( ( maxLons[idx] >> CELL_SHIFT ) - ( minLons[idx] >> CELL_SHIFT ) + 1 )
+                           * ( ( maxLats[idx] >> CELL_SHIFT ) - ( minLats[idx] >> CELL_SHIFT ) + 1 );
+      if ( nogoCells > MAX_CELLS_PER_NOGO )
+      {
+        large[largeCount++] = idx++;
+        continue;
+      }
+      for ( int cx = minLons[idx] >> CELL_SHIFT; cx <= maxLons[idx] >> CELL_SHIFT; cx++ )
+      {
+        for ( int cy = minLats[idx] >> CELL_SHIFT; cy <= maxLats[idx] >> CELL_SHIFT; cy++ )
+        {
+          long key = ( (long) cx ) << 32 | cy;
+          int[] entries = map.get( key );
+          int[] newEntries;
+          if ( entries == null )
+          {
+            newEntries = new int[1];
+            cellCount++;
+          }
+          else
+          {
+            newEntries = new int[entries.length + 1];
+            System.arraycopy( entries, 0, newEntries, 0, entries.length );
+          }
+          newEntries[newEntries.length - 1] = idx;
+          map.put( key, newEntries );
+        }
+      }
+      idx++;
+    }
+    cells = new FrozenLongMap<int[]>( map );
+    largeNogos = new int[largeCount];
+    System.arraycopy( large, 0, largeNogos, 0, largeCount );
+  }
+
+  private void setBoundingBox( int idx, OsmNodeNamed nogo )
+  {
+    if ( nogo instanceof OsmNogoPolygon )
+    {
+      OsmNogoPolygon polygon = (OsmNogoPolygon) nogo;
+      minLons[idx] = polygon.getMinLon();
+      maxLons[idx] = polygon.getMaxLon();
+      minLats[idx] = polygon.getMinLat();
+      maxLats[idx] = polygon.getMaxLat();
+      return;
+    }
+    // calcDistance scales the longitudes by the cosine at the end of the
+    // segment: use the one at 1 degree closer to the pole to be on the safe side
+    int dlat = (int) ( nogo.radius * 1000000. ) + 1;
+    int poleLat = Math.abs( nogo.ilat - 90000000 ) + dlat + 1000000;
+    double l = Math.min( poleLat, 89000000 ) * 0.00000001234134;
+    double l2 = l * l;
+    double coslat = 1. - l2 + l2 * l2 / 6.;
+    int dlon = (int) ( nogo.radius * 1000000. / coslat ) + 1;
+    minLons[idx] = nogo.ilon - dlon;
+    maxLons[idx] = nogo.ilon + dlon;
+    minLats[idx] = nogo.ilat - dlat;
+    maxLats[idx] = nogo.ilat + dlat;
+  }
+
+  /**
+   * Only a cheap check for another list or a changed size, as it is done for
+   * each segment: changes of the entries are not detected, so the index has
+   * to be rebuilt for each route calculation (see RoutingContext.cleanNogolist)
+   *
+   * @return true if this index was built for the given list
+   */
+  boolean isIndexOf( List<OsmNodeNamed> nogopoints )
+  {
+    return source == nogopoints && sourceSize == nogopoints.size();
+  }
+
+  boolean isEmpty()
+  {
+    return nogos.length == 0;
+  }
+
+  /**
+   * Find the nogos whose bounding box overlaps the bounding box of the segment
+   *
+   * @return the number of candidates, see getCandidate
+   */
+  int findCandidates( int lon1, int lat1, int lon2, int lat2 )
+  {
+    int minLon = Math.min( lon1, lon2 );
+    int maxLon = Math.max( lon1, lon2 );
+    int minLat = Math.min( lat1, lat2 );
+    int maxLat = Math.max( lat1, lat2 );
+
+    int n = 0;
+    int cx0 = minLon >> CELL_SHIFT;
+    int cx1 = maxLon >> CELL_SHIFT;
+    int cy0 = minLat >> CELL_SHIFT;
+    int cy1 = maxLat >> CELL_SHIFT;
+    if ( (long) ( cx1 - cx0 + 1 ) * ( cy1 - cy0 + 1 ) > cellCount )
+    {
+      // a long segment: cheaper to check all bounding boxes
+      for ( int idx = 0; idx < nogos.length; idx++ )
+      {
+        if ( overlaps( idx, minLon, maxLon, minLat, maxLat ) )
+        {
+          candidates[n++] = idx;
+        }
+      }
+      return n;
+    }
+
+    if ( ++stamp == 0 ) // wrapped: reset the stamps
+    {
+      for ( int idx = 0; idx < checkedStamps.length; idx++ ) checkedStamps[idx] = 0;
+      stamp = 1;
+    }
+    for ( int i = 0; i < largeNogos.length; i++ )
+    {
+      if ( overlaps( largeNogos[i], minLon, maxLon, minLat, maxLat ) )
+      {
+        candidates[n++] = largeNogos[i];
+      }
+    }
+    for ( int cx = cx0; cx <= cx1; cx++ )
+    {
+      for ( int cy = cy0; cy <= cy1; cy++ )
+      {
+        int[] entries = cells.get( ( (long) cx ) << 32 | cy );
+        if ( entries == null ) continue;
+        for ( int i = 0; i < entries.length; i++ )
+        {
+          int idx = entries[i];
+          if ( checkedStamps[idx] == stamp ) continue;
+          checkedStamps[idx] = stamp;
+          if ( overlaps( idx, minLon, maxLon, minLat, maxLat ) )
+          {
+            candidates[n++] = idx;
+          }
+        }
+      }
+    }
+    return n;
+  }
+
+  OsmNodeNamed getCandidate( int i )
+  {
+    return nogos[candidates[i]];
+  }
+
+  private boolean overlaps( int idx, int minLon, int maxLon, int minLat, int maxLat )
+  {
+    return minLon <= maxLons[idx] && maxLon >= minLons[idx] && minLat <= maxLats[idx] && maxLat >= minLats[idx];
+  }
+}
@@ -0,0 +1,189 @@
+package btools.router;
+
+/**
+ * A nogo area given as a polygon, or a nogo line given as a polyline
+ * (e.g. a closed road), to be checked by RoutingContext.calcDistance
+ */
+public class OsmNogoPolygon extends OsmNodeNamed
+{
+  private int[] ilons;
+  private int[] ilats;
+  public final boolean isClosed;
+
+  /**
+   * The position (ilon/ilat) and the radius of the node are set to
+   * the circle around the bounding box, see RoutingContext.getNogoChecksums
+   *
+   * @param ilons the longitudes of the vertices
+   * @param ilats the latitudes of the vertices
+   * @param isClosed true for a polygon, false for a polyline
+   */
+  public OsmNogoPolygon( int[] ilons, int[] ilats, boolean isClosed )
+  {
+    if ( ilons.length != ilats.length || ilons.length < ( isClosed ? 3 : 2 ) )
+    {
+      throw new IllegalArgumentException( "not enough vertices for a " + ( isClosed ? "polygon" : "polyline" ) );
+    }
+    this.ilons = ilons;
+    this.ilats = ilats;
+    this.isClosed = isClosed;
+    name = isClosed ? "nogopolygon" : "nogopolyline";
+    isNogo = true;
+
+    ilon = ( getMinLon() + getMaxLon() ) >> 1;
+    ilat = ( getMinLat() + getMaxLat() ) >> 1;
+    double l = ( ilat - 90000000 ) * 0.00000001234134;
+    double l2 = l * l;
+    double coslat6 = ( 1. - l2 + l2 * l2 / 6. ) * 0.000001;
+    double r2 = 0.;
+    for ( int i = 0; i < ilons.length; i++ )
+    {
+      double x = ( ilons[i] - ilon ) * coslat6;
+      double y = ( ilats[i] - ilat ) * 0.000001;
+      r2 = Math.max( r2, x * x + y * y );
+    }
+    radius = Math.sqrt( r2 );
+  }
+
+  public int getVertexCount()
+  {
+    return ilons.length;
+  }
+
+  public int getVertexLon( int idx )
+  {
+    return ilons[idx];
+  }
+
+  public int getVertexLat( int idx )
+  {
+    return ilats[idx];
+  }
+
+  public int getMinLon()
+  {
+    int min = Integer.MAX_VALUE;
+    for ( int i = 0; i < ilons.length; i++ ) min = Math.min( min, ilons[i] );
+    return min;
+  }
+
+  public int getMaxLon()
+  {
+    int max = Integer.MIN_VALUE;
+    for ( int i = 0; i < ilons.length; i++ ) max = Math.max( max, ilons[i] );
+    return max;
+  }
+
+  public int getMinLat()
+  {
+    int min = Integer.MAX_VALUE;
+    for ( int i = 0; i < ilats.length; i++ ) min = Math.min( min, ilats[i] );
+    return min;
+  }
+
+  public int getMaxLat()
+  {
+    int max = Integer.MIN_VALUE;
+    for ( int i = 0; i < ilats.length; i++ ) max = Math.max( max, ilats[i] );
+    return max;
+  }
+
+  /**
+   * @return true if the segment crosses or touches the outline,
+   *         or (for a polygon) lies inside
+   */
+  public boolean intersects( int lon0, int lat0, int lon1, int lat1 )
+  {
+    int n = isClosed ? ilons.length : ilons.length - 1;
+    for ( int i = 0; i < n; i++ )
+    {
+      int j = i + 1 == ilons.length ? 0 : i + 1;
+      if ( segmentsIntersect( lon0, lat0, lon1, lat1, ilons[i], ilats[i], ilons[j], ilats[j] ) )
+      {
+        return true;
+      }
+    }
+    return isClosed && isWithin( lon0, lat0 );
+  }
+
+  /**
+   * @return true if the position is inside the polygon (false for a polyline)
+   */
+  public boolean isWithin( int lon, int lat )
+  {
+    if ( !isClosed )
+    {
+      return false;
+    }
+    boolean inside = false;
+    for ( int i = 0, j = ilons.length - 1; i < ilons.length; j = i++ )
+    {
+      if ( ( ilats[i] > lat ) != ( ilats[j] > lat ) )
+      {
+        double x = ilons[i] + (double) ( lat - ilats[i] ) * ( ilons[j] - ilons[i] ) / ( ilats[j] - ilats[i] );
+        if ( lon < x )
+        {
+          inside = !inside;
+        }
+      }
+    }
+    return inside;
+  }
+
+  /**
+   * @return the distance in meters from the position to the closest
+   *         edge of the outline (also if inside a polygon)
+   */
+  public double distanceTo( int lon, int lat )
+  {
+    double l = ( lat - 90000000 ) * 0.00000001234134;
+    double l2 = l * l;
+    double coslat6 = ( 1. - l2 + l2 * l2 / 6. ) * 0.000001;
+    double d2 = Double.MAX_VALUE;
+    int n = isClosed ? ilons.length : ilons.length - 1;
+    for ( int i = 0; i < n; i++ )
+    {
+      int j = i + 1 == ilons.length ? 0 : i + 1;
+      double x1 = ( ilons[i] - lon ) * coslat6;
+      double y1 = ( ilats[i] - lat ) * 0.000001;
+      double dx = ( ilons[j] - ilons[i] ) * coslat6;
+      double dy = ( ilats[j] - ilats[i] ) * 0.000001;
+      double s = dx * dx + dy * dy;
+      double t = s > 0. ? -( x1 * dx + y1 * dy ) / s : 0.;
+      t = t < 0. ? 0. : ( t > 1. ? 1. : t );
+      double x = x1 + t * dx;
+      double y = y1 + t * dy;
+      d2 = Math.min( d2, x * x + y * y );
+    }
+    return Math.sqrt( d2 ) * 111894.;
+  }
+
+  private static boolean segmentsIntersect( int ax, int ay, int bx, int by, int cx, int cy, int dx, int dy )
+  {
+    long d1 = orientation( cx, cy, dx, dy, ax, ay );
+    long d2 = orientation( cx, cy, dx, dy, bx, by );
+    long d3 = orientation( ax, ay, bx, by, cx, cy );
+    long d4 = orientation( ax, ay, bx, by, dx, dy );
+    if ( ( ( d1 > 0 && d2 < 0 ) || ( d1 < 0 && d2 > 0 ) ) && ( ( d3 > 0 && d4 < 0 ) || ( d3 < 0 && d4 > 0 ) ) )
+    {
+      return true;
+    }
+    return ( d1 == 0 && onSegment( cx, cy, dx, dy, ax, ay ) )
+        || ( d2 == 0 && onSegment( cx, cy, dx, dy, bx, by ) )
+        || ( d3 == 0 && onSegment( ax, ay, bx, by, cx, cy ) )
+        || ( d4 == 0 && onSegment( ax, ay, bx, by, dx, dy ) );
+  }
+
+  // sign of the cross product (b-a)x(p-a), exact in long arithmetic
+  private static long orientation( int ax, int ay, int bx, int by, int px, int py )
+  {
+    long v = (long) ( bx - ax ) * ( py - ay ) - (long) ( by - ay ) * ( px - ax );
+    return v > 0 ? 1 : ( v < 0 ? -1 : 0 );
+  }
+
+  // assumes p is on the line through a and b
+  private static boolean onSegment( int ax, int ay, int bx, int by, int px, int py )
+  {
+    return px >= Math.min( ax, bx ) && px <= Math.max( ax, bx ) && py >= Math.min( ay, by ) && py <= Math.max( ay, by );
+  }
+}
@@ -11,9 +11,8 @@ import java.util.ArrayList;
 import btools.mapaccess.OsmLink;
 import btools.mapaccess.OsmLinkHolder;
 import btools.mapaccess.OsmNode;
-import btools.mapaccess.OsmTransferNode;
 
-final class OsmPath implements OsmLinkHolder
+public final class OsmPath implements OsmLinkHolder
 {
   /**
    * The cost of that path (a modified distance)
@@ -83,14 +82,14 @@ final class OsmPath implements OsmLinkHolder
   {
   }
 
-  OsmPath( OsmLink link )
+  public OsmPath( OsmLink link )
   {
     this();
     this.link = link;
     this.selev = link.targetNode.getSElev();
   }
 
-  OsmPath( OsmNode sourcenode, OsmPath origin, OsmLink link, OsmTrack refTrack, boolean detailMode, RoutingContext rc )
+  public OsmPath( OsmNode sourcenode, OsmPath origin, OsmLink link, OsmTrack refTrack, boolean detailMode, RoutingContext rc )
   {
     this();
     if ( origin.myElement == null )
@@ -127,9 +126,11 @@ final class OsmPath implements OsmLinkHolder
 
     int linkdisttotal = 0;
 
-    MessageData msgData = new MessageData();
+    MessageData msgData = recordMessageData ? new MessageData() : null;
 
-    OsmTransferNode transferNode = link.decodeFirsttransfer( p1 );
+    // the transfer nodes are decoded once per link and then read from the link
+    int transferCount = link.decodeGeometry( p1 );
+    int transferIdx = 0;
     OsmNode targetNode = link.targetNode;
     for(;;)
     {
@@ -141,7 +142,7 @@ final class OsmPath implements OsmLinkHolder
       short ele2;
       byte[] description;
 
-      if ( transferNode == null )
+      if ( transferIdx == transferCount )
       {
         lon2 = targetNode.ilon;
         lat2 = targetNode.ilat;
@@ -151,11 +152,11 @@ final class OsmPath implements OsmLinkHolder
       }
       else
       {
-        lon2 = transferNode.ilon;
-        lat2 = transferNode.ilat;
-        ele2 = transferNode.selev;
-        description = transferNode.descriptionBitmap;
-    	if ( description == null ) throw new IllegalArgumentException( "null description for class: " + transferNode.getClass() + "/" + link.getClass() + " counterlinkwritten=" + link.counterLinkWritten );
+        lon2 = link.getTransferLon( transferIdx );
+        lat2 = link.getTransferLat( transferIdx );
+        ele2 = link.getTransferElev( transferIdx );
+        description = link.getTransferDescription( transferIdx );
+    	if ( description == null ) throw new IllegalArgumentException( "null description for transfer node of class: " + link.getClass() + " counterlinkwritten=" + link.counterLinkWritten );
       }
 
       rc.messageHandler.setCurrentPos( lon2, lat2 );
@@ -199,7 +200,7 @@ final class OsmPath implements OsmLinkHolder
         }
       }
 
-      msgData.linkdist += dist;
+      if ( recordMessageData ) msgData.linkdist += dist;
       linkdisttotal += dist;
 
       boolean isTrafficBackbone = cost == 0 && rc.expctxWay.getIsTrafficBackbone() > 0.f;
@@ -211,7 +212,7 @@ final class OsmPath implements OsmLinkHolder
         double cos = rc.calcCosAngle( lon0, lat0, lon1, lat1, lon2, lat2 );
         int turncost = (int)(cos * rc.expctxWay.getTurncost() + 0.2 ); // e.g. turncost=90 -> 90 degree = 90m penalty
         cost += turncost;
-        msgData.linkturncost += turncost;
+        if ( recordMessageData ) msgData.linkturncost += turncost;
       }
 
       // *** penalty for elevation (penalty is for descend! in a way that slow descends give no penalty)
@@ -247,7 +248,7 @@ final class OsmPath implements OsmLinkHolder
          {
            int elevationCost = reduce/rc.downhillcostdiv;
            cost += elevationCost;
-           msgData.linkelevationcost += elevationCost;
+           if ( recordMessageData ) msgData.linkelevationcost += elevationCost;
          }
       }
       else if ( ehbd < 0 )
@@ -277,7 +278,7 @@ final class OsmPath implements OsmLinkHolder
         {
           int elevationCost = reduce/rc.uphillcostdiv;
           cost += elevationCost;
-          msgData.linkelevationcost += elevationCost;
+          if ( recordMessageData ) msgData.linkelevationcost += elevationCost;
         }
       }
       else if ( ehbu < 0 )
@@ -327,7 +328,7 @@ final class OsmPath implements OsmLinkHolder
           lastClassifier = newClassifier;
           float initialcost = rc.expctxWay.getInitialcost();
           int iicost = (int)initialcost;
-          msgData.linkinitcost += iicost;
+          if ( recordMessageData ) msgData.linkinitcost += iicost;
           cost += iicost;
       }
 
@@ -358,7 +359,7 @@ final class OsmPath implements OsmLinkHolder
         return;
       }
 
-      if ( transferNode == null )
+      if ( transferIdx == transferCount )
       {
         // *** penalty for being part of the reference track
         if ( refTrack != null && refTrack.containsNode( targetNode ) && refTrack.containsNode( origin.link.targetNode ) )
@@ -369,7 +370,7 @@ final class OsmPath implements OsmLinkHolder
         selev = ele2;
         break;
       }
-      transferNode = transferNode.next;
+      transferIdx++;
 
       if ( recordTransferNodes )
       {
@@ -406,7 +407,7 @@ final class OsmPath implements OsmLinkHolder
           return;
         }
         int iicost = (int)initialcost;
-        msgData.linknodecost += iicost;
+        if ( recordMessageData ) msgData.linknodecost += iicost;
 
         cost += iicost;
 
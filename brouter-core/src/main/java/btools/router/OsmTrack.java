@@ -16,6 +16,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
@@ -247,14 +248,30 @@ public final class OsmTrack
   {
     BufferedWriter bw = new BufferedWriter( new FileWriter( filename ) );
 
-    bw.write( formatAsGpx() );
+    writeGpx( bw );
     bw.close();
   }
 
   public String formatAsGpx()
   {
     StringBuilder sb = new StringBuilder( 8192 );
+    try
+    {
+      writeGpx( sb );
+    }
+    catch (IOException ioe)
+    {
+      throw new RuntimeException( ioe ); // cannot happen for a StringBuilder
+    }
+    return sb.toString();
+  }
 
+  /**
+   * writes the track in gpx-format to the given Appendable,
+   * emitting the nodes as they are iterated
+   */
+  public void writeGpx( Appendable sb ) throws IOException
+  {
     sb.append( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
     for ( int i = messageList.size() - 1; i >= 0; i-- )
     {
@@ -275,30 +292,52 @@ public final class OsmTrack
 
     for ( OsmPathElement n : nodes )
     {
-      String sele = n.getSElev() == Short.MIN_VALUE ? "" : "<ele>" + n.getElev() + "</ele>";
-      sb.append( "   <trkpt lon=\"" ).append( formatPos( n.getILon() - 180000000 ) ).append( "\" lat=\"" )
-          .append( formatPos( n.getILat() - 90000000 ) ).append( "\">" ).append( sele ).append( "</trkpt>\n" );
+      sb.append( "   <trkpt lon=\"" );
+      appendPos( sb, n.getILon() - 180000000 );
+      sb.append( "\" lat=\"" );
+      appendPos( sb, n.getILat() - 90000000 );
+      sb.append( "\">" );
+      if ( n.getSElev() != Short.MIN_VALUE )
+      {
+        sb.append( "<ele>" );
+        appendElev( sb, n.getSElev() );
+        sb.append( "</ele>" );
+      }
+      sb.append( "</trkpt>\n" );
     }
 
     sb.append( "  </trkseg>\n" );
     sb.append( " </trk>\n" );
     sb.append( "</gpx>\n" );
-
-    return sb.toString();
   }
 
   public void writeKml( String filename ) throws Exception
   {
     BufferedWriter bw = new BufferedWriter( new FileWriter( filename ) );
 
-    bw.write( formatAsKml() );
+    writeKml( bw );
     bw.close();
   }
 
   public String formatAsKml()
   {
     StringBuilder sb = new StringBuilder( 8192 );
+    try
+    {
+      writeKml( sb );
+    }
+    catch (IOException ioe)
+    {
+      throw new RuntimeException( ioe ); // cannot happen for a StringBuilder
+    }
+    return sb.toString();
+  }
 
+  /**
+   * writes the track in kml-format to the given Appendable
+   */
+  public void writeKml( Appendable sb ) throws IOException
+  {
     sb.append( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
 
     sb.append( "<kml xmlns=\"http://earth.google.com/kml/2.0\">\n" );
@@ -322,7 +361,10 @@ public final class OsmTrack
 
     for ( OsmPathElement n : nodes )
     {
-      sb.append( formatPos( n.getILon() - 180000000 ) ).append( "," ).append( formatPos( n.getILat() - 90000000 ) ).append( "\n" );
+      appendPos( sb, n.getILon() - 180000000 );
+      sb.append( ',' );
+      appendPos( sb, n.getILat() - 90000000 );
+      sb.append( '\n' );
     }
 
     sb.append( "          </coordinates>\n" );
@@ -331,8 +373,6 @@ public final class OsmTrack
     sb.append( "    </Folder>\n" );
     sb.append( "  </Document>\n" );
     sb.append( "</kml>\n" );
-
-    return sb.toString();
   }
 
   public List<String> iternity;
@@ -340,7 +380,25 @@ public final class OsmTrack
   public String formatAsGeoJson()
   {
     StringBuilder sb = new StringBuilder( 8192 );
+    try
+    {
+      writeGeoJson( sb );
+    }
+    catch (IOException ioe)
+    {
+      throw new RuntimeException( ioe ); // cannot happen for a StringBuilder
+    }
+    return sb.toString();
+  }
 
+  /**
+   * writes the track in geojson-format to the given Appendable
+   * 
+   * (list separators are written ahead of the next element,
+   * so no look-back into the output is needed)
+   */
+  public void writeGeoJson( Appendable sb ) throws IOException
+  {
     sb.append( "{\n" );
     sb.append( "  \"type\": \"FeatureCollection\",\n" );
     sb.append( "  \"features\": [\n" );
@@ -349,69 +407,103 @@ public final class OsmTrack
     sb.append( "      \"properties\": {\n" );
     sb.append( "        \"creator\": \"BRouter-1.1\",\n" );
     sb.append( "        \"name\": \"" ).append( name ).append( "\",\n" );
-    sb.append( "        \"track-length\": \"" ).append( distance ).append( "\",\n" );
-    sb.append( "        \"filtered ascend\": \"" ).append( ascend ).append( "\",\n" );
-    sb.append( "        \"plain-ascend\": \"" ).append( plainAscend ).append( "\",\n" );
-    sb.append( "        \"cost\": \"" ).append( cost ).append( "\",\n" );
+    sb.append( "        \"track-length\": \"" ).append( String.valueOf( distance ) ).append( "\",\n" );
+    sb.append( "        \"filtered ascend\": \"" ).append( String.valueOf( ascend ) ).append( "\",\n" );
+    sb.append( "        \"plain-ascend\": \"" ).append( String.valueOf( plainAscend ) ).append( "\",\n" );
+    sb.append( "        \"cost\": \"" ).append( String.valueOf( cost ) ).append( "\",\n" );
     sb.append( "        \"messages\": [\n" );
-    sb.append( "          [\"" ).append( MESSAGES_HEADER.replaceAll( "\t", "\", \"" ) ).append( "\"],\n" );
+    sb.append( "          [\"" ).append( MESSAGES_HEADER.replaceAll( "\t", "\", \"" ) ).append( "\"]" );
     for ( String m : aggregateMessages() )
     {
-      sb.append( "          [\"" ).append( m.replaceAll( "\t", "\", \"" ) ).append( "\"],\n" );
+      sb.append( ",\n          [\"" ).append( m.replaceAll( "\t", "\", \"" ) ).append( "\"]" );
     }
-    sb.deleteCharAt( sb.lastIndexOf( "," ) );
-    sb.append( "        ]\n" );
+    sb.append( "\n        ]\n" );
 
     sb.append( "      },\n" );
 
     if ( iternity != null )
     {
       sb.append( "      \"iternity\": [\n" );
+      String sep = "";
       for ( String s : iternity )
       {
-        sb.append( "        \"" ).append( s ).append( "\",\n" );
+        sb.append( sep ).append( "        \"" ).append( s ).append( "\"" );
+        sep = ",\n";
       }
-      sb.deleteCharAt( sb.lastIndexOf( "," ) );
-      sb.append( "        ],\n" );
+      sb.append( "\n        ],\n" );
     }
     sb.append( "      \"geometry\": {\n" );
     sb.append( "        \"type\": \"LineString\",\n" );
     sb.append( "        \"coordinates\": [\n" );
 
+    boolean first = true;
     for ( OsmPathElement n : nodes )
     {
-      String sele = n.getSElev() == Short.MIN_VALUE ? "" : ", " + n.getElev();
-      sb.append( "          [" ).append( formatPos( n.getILon() - 180000000 ) ).append( ", " ).append( formatPos( n.getILat() - 90000000 ) )
-          .append( sele ).append( "],\n" );
+      if ( !first )
+        sb.append( ",\n" );
+      first = false;
+      sb.append( "          [" );
+      appendPos( sb, n.getILon() - 180000000 );
+      sb.append( ", " );
+      appendPos( sb, n.getILat() - 90000000 );
+      if ( n.getSElev() != Short.MIN_VALUE )
+      {
+        sb.append( ", " );
+        appendElev( sb, n.getSElev() );
+      }
+      sb.append( ']' );
     }
-    sb.deleteCharAt( sb.lastIndexOf( "," ) );
 
-    sb.append( "        ]\n" );
+    sb.append( "\n        ]\n" );
     sb.append( "      }\n" );
     sb.append( "    }\n" );
     sb.append( "  ]\n" );
     sb.append( "}\n" );
-
-    return sb.toString();
   }
 
-  private static String formatPos( int p )
+  // append a micro-degree position as decimal degrees (6 digits) without allocation
+  static void appendPos( Appendable sb, int p ) throws IOException
   {
-    boolean negative = p < 0;
-    if ( negative )
+    if ( p < 0 )
+    {
+      sb.append( '-' );
       p = -p;
-    char[] ac = new char[12];
-    int i = 11;
-    while (p != 0 || i > 3)
+    }
+    appendInt( sb, p / 1000000 );
+    sb.append( '.' );
+    int frac = p % 1000000;
+    for ( int div = 100000; div > 0; div /= 10 )
+    {
+      sb.append( (char) ( '0' + ( frac / div ) % 10 ) );
+    }
+  }
+
+  // append an elevation given in 1/4 meters as Double.toString would do
+  private static void appendElev( Appendable sb, short selev ) throws IOException
+  {
+    int e = selev;
+    if ( e < 0 )
+    {
+      sb.append( '-' );
+      e = -e;
+    }
+    appendInt( sb, e >> 2 );
+    switch ( e & 3 )
+    {
+      case 0: sb.append( ".0" ); break;
+      case 1: sb.append( ".25" ); break;
+      case 2: sb.append( ".5" ); break;
+      default: sb.append( ".75" ); break;
+    }
+  }
+
+  private static void appendInt( Appendable sb, int v ) throws IOException
+  {
+    if ( v >= 10 )
     {
-      ac[i--] = (char) ( '0' + ( p % 10 ) );
-      p /= 10;
-      if ( i == 5 )
-        ac[i--] = '.';
+      appendInt( sb, v / 10 );
     }
-    if ( negative )
-      ac[i--] = '-';
-    return new String( ac, i + 1, 11 - i );
+    sb.append( (char) ( '0' + v % 10 ) );
   }
 
   public void dumpMessages( String filename, RoutingContext rc ) throws Exception
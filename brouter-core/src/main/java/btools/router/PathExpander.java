@@ -0,0 +1,173 @@
+package btools.router;
+
+import btools.mapaccess.NodesCache;
+import btools.mapaccess.OsmLink;
+import btools.mapaccess.OsmLinkHolder;
+import btools.mapaccess.OsmNode;
+
+/**
+ * The expansion step shared by the searches: for a path taken from the
+ * open set, a path over each link leaving its target node, calculated
+ * from the cheapest of the paths holding the current link (the other
+ * ones are invalidated in the open set)
+ *
+ * The searches differ only in the hooks: the links to follow, the links
+ * ending at a waypoint and what to do with the new paths
+ */
+abstract class PathExpander
+{
+  protected RoutingContext routingContext;
+  protected OsmTrack refTrack;
+  protected boolean detailMode;
+  protected GraphJournal journal; // null if the changes of the graph are not recorded
+
+  PathExpander( RoutingContext rc, OsmTrack refTrack, boolean detailMode, GraphJournal journal )
+  {
+    routingContext = rc;
+    this.refTrack = refTrack;
+    this.detailMode = detailMode;
+    this.journal = journal;
+  }
+
+  /**
+   * @return false to skip that link
+   */
+  protected boolean acceptLink( OsmPath path, OsmNode currentNode, OsmLink link )
+  {
+    return true;
+  }
+
+  /**
+   * @return the waypoint if the link ends the search there, else null
+   */
+  protected OsmNodeNamed getFinalPos( OsmNode currentNode, OsmNode nextNode )
+  {
+    return null;
+  }
+
+  /**
+   * Handle the cheapest new path over a link
+   *
+   * @param isFinalLink if it ends at the waypoint of getFinalPos
+   */
+  protected abstract void addPath( OsmPath path, OsmLink link, OsmPath bestPath, boolean isFinalLink );
+
+  final void expand( OsmPath path, NodesCache nodesCache )
+  {
+    OsmLink currentLink = path.getLink();
+    OsmNode currentNode = currentLink.targetNode;
+    OsmNode sourceNode = path.getSourceNode();
+
+    RoutingEngine.expandHollowLinkTargets( nodesCache, currentNode );
+
+    if ( sourceNode != null )
+    {
+      unlinkLink( sourceNode, currentLink );
+    }
+
+    OsmLink counterLink = null;
+    for( OsmLink link = currentNode.firstlink; link != null; link = link.next )
+    {
+      OsmNode nextNode = link.targetNode;
+
+      if ( nextNode.isHollow() )
+      {
+        continue; // border node?
+      }
+      if ( nextNode.firstlink == null )
+      {
+        continue; // don't care about dead ends
+      }
+      if ( nextNode == sourceNode )
+      {
+        counterLink = link;
+        continue;
+      }
+      if ( !acceptLink( path, currentNode, link ) )
+      {
+        continue;
+      }
+
+      OsmNodeNamed finalPos = getFinalPos( currentNode, nextNode );
+      OsmPath bestPath = null;
+      for( OsmLinkHolder linkHolder = currentLink.firstlinkholder; linkHolder != null; linkHolder = linkHolder.getNextForLink() )
+      {
+        OsmPath otherPath = (OsmPath)linkHolder;
+        OsmPath testPath;
+        if ( finalPos != null )
+        {
+          try
+          {
+            finalPos.radius = 1e-5;
+            routingContext.setWaypoint( finalPos, true );
+            testPath = new OsmPath( currentNode, otherPath, link, refTrack, detailMode, routingContext );
+          }
+          finally
+          {
+            routingContext.unsetWaypoint();
+          }
+        }
+        else
+        {
+          testPath = new OsmPath( currentNode, otherPath, link, refTrack, detailMode, routingContext );
+        }
+        if ( testPath.cost >= 0 && ( bestPath == null || testPath.cost < bestPath.cost ) )
+        {
+          bestPath = testPath;
+        }
+        if ( otherPath != path )
+        {
+          otherPath.airdistance = -1; // invalidate the entry in the open set
+        }
+      }
+      if ( bestPath != null )
+      {
+        addPath( path, link, bestPath, finalPos != null );
+      }
+    }
+    // if the counterlink does not yet have a path, remove it
+    if ( counterLink != null && counterLink.firstlinkholder == null )
+    {
+      unlinkLink( currentNode, counterLink );
+    }
+  }
+
+  /**
+   * @return true if the path cannot beat one of the paths holding that link
+   */
+  protected final boolean isDominated( OsmPath path, OsmLink link )
+  {
+    for( OsmLinkHolder dominator = link.firstlinkholder; dominator != null; dominator = dominator.getNextForLink() )
+    {
+      if ( path.definitlyWorseThan( (OsmPath)dominator, routingContext ) )
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  protected final void addLinkHolder( OsmLink link, OsmPath path )
+  {
+    if ( journal != null )
+    {
+      journal.addLinkHolder( link, path );
+    }
+    else
+    {
+      link.addLinkHolder( path );
+    }
+  }
+
+  protected final void unlinkLink( OsmNode node, OsmLink link )
+  {
+    if ( journal != null )
+    {
+      journal.unlinkLink( node, link );
+    }
+    else
+    {
+      node.unlinkLink( link );
+    }
+  }
+}
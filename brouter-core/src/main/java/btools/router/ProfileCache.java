@@ -6,90 +6,252 @@
 package btools.router;
 
 import java.io.File;
+import java.util.ArrayList;
 
 import btools.expressions.BExpressionContextGlobal;
 import btools.expressions.BExpressionContextNode;
 import btools.expressions.BExpressionContextWay;
 import btools.expressions.BExpressionMetaData;
+import btools.expressions.BExpressionSharedCache;
 
-public final class ProfileCache 
+/**
+ * Pool of parsed profiles (way- and node-contexts incl. their
+ * warmed-up expression caches)
+ *
+ * A context pair is checked out by parseProfile and returned by
+ * releaseProfile. There may be several instances per profile
+ * for concurrent requests, the total number of pooled pairs
+ * is limited by the system property "profileCacheSize" (default 8),
+ * the least recently used idle entry is replaced if the pool is full.
+ *
+ * Profile parsing is done outside the lock, so requests
+ * for other profiles are not blocked by that.
+ *
+ * With the system property "sharedExpressionCache" set to true, the
+ * instances of the same profile share a second-tier expression cache,
+ * see BExpressionSharedCache
+ */
+public final class ProfileCache
 {
-  private static BExpressionContextWay expctxWay;
-  private static BExpressionContextNode expctxNode;
- 
-  private static File lastLookupFile;
-  private static File lastProfileFile;
-
-  private static long lastLookupTimestamp;
-  private static long lastProfileTimestamp;
-  
-  private static boolean profilesBusy;
-
-  public static synchronized boolean parseProfile( RoutingContext rc )
+  private static ArrayList<ProfileCacheEntry> entries = new ArrayList<ProfileCacheEntry>();
+  private static int maxEntries = parseMaxEntries();
+  private static long useCounter;
+  private static boolean sharedExpressionCache = Boolean.getBoolean( "sharedExpressionCache" )
+                                              && !Boolean.getBoolean( "disableExpressionCache" );
+
+  private static final class ProfileCacheEntry
   {
-      String profileBaseDir = System.getProperty( "profileBaseDir" );
-      File profileDir;
-      File profileFile;
-      if ( profileBaseDir == null )
-      {
-        profileDir = new File( rc.localFunction ).getParentFile();
-        profileFile = new File( rc.localFunction ) ;
-      }
-      else
-      {
-        profileDir = new File( profileBaseDir );
-        profileFile = new File( profileDir, rc.localFunction + ".brf" ) ;
-      }
+    BExpressionContextWay expctxWay;
+    BExpressionContextNode expctxNode;
+    BExpressionSharedCache sharedWayCache;
+    BExpressionSharedCache sharedNodeCache;
+
+    File lookupFile;
+    File profileFile;
+    long lookupTimestamp;
+    long profileTimestamp;
+    boolean serversizing;
+
+    boolean busy;
+    long lastUse;
+
+    boolean matches( File profileFile, File lookupFile, boolean serversizing )
+    {
+      return profileFile.equals( this.profileFile ) && lookupFile.equals( this.lookupFile )
+          && serversizing == this.serversizing;
+    }
+
+    boolean isSameVersion( ProfileCacheEntry e )
+    {
+      return e.matches( profileFile, lookupFile, serversizing )
+          && e.profileTimestamp == profileTimestamp && e.lookupTimestamp == lookupTimestamp;
+    }
+
+    boolean isCurrent()
+    {
+      return profileFile.lastModified() == profileTimestamp
+          && lookupFile.lastModified() == lookupTimestamp;
+    }
+  }
+
+  private static int parseMaxEntries()
+  {
+    String s = System.getProperty( "profileCacheSize" );
+    return s == null ? 8 : Integer.parseInt( s );
+  }
+
+  private static File getProfileDir( RoutingContext rc )
+  {
+    String profileBaseDir = System.getProperty( "profileBaseDir" );
+    return profileBaseDir == null ? new File( rc.localFunction ).getParentFile() : new File( profileBaseDir );
+  }
+
+  static File getProfileFile( RoutingContext rc )
+  {
+    String profileBaseDir = System.getProperty( "profileBaseDir" );
+    return profileBaseDir == null ? new File( rc.localFunction ) : new File( new File( profileBaseDir ), rc.localFunction + ".brf" );
+  }
+
+  /**
+   * @return a string identifying the profile of the given context
+   *         and the version of the profile- and lookup-file. It changes
+   *         when one of these files is modified
+   */
+  public static String getProfileIdentity( RoutingContext rc )
+  {
+    File profileFile = getProfileFile( rc );
+    File lookupFile = new File( getProfileDir( rc ), "lookups.dat" );
+    return profileFile.getAbsolutePath() + "|" + profileFile.lastModified() + "|" + profileFile.length()
+         + "|" + lookupFile.lastModified();
+  }
+
+  public static boolean parseProfile( RoutingContext rc )
+  {
+    return parseProfile( rc, true );
+  }
+
+  /**
+   * Check out the way- and node-contexts for a copy of a routing context
+   * (see RoutingContext.createSectionContext), keeping its configuration
+   */
+  static void parseProfileContexts( RoutingContext rc )
+  {
+    parseProfile( rc, false );
+  }
+
+  private static boolean parseProfile( RoutingContext rc, boolean readGlobalConfig )
+  {
+      File profileDir = getProfileDir( rc );
+      File profileFile = getProfileFile( rc );
       File lookupFile = new File( profileDir, "lookups.dat" );
 
       // check for re-use
-      if ( expctxWay != null && expctxNode != null && !profilesBusy )
+      ProfileCacheEntry entry = checkout( profileFile, lookupFile, rc.serversizing );
+      if ( entry != null )
       {
-        if ( profileFile.equals( lastProfileFile ) && lookupFile.equals( lastLookupFile ) )
+        rc.expctxWay = entry.expctxWay;
+        rc.expctxNode = entry.expctxNode;
+        if ( readGlobalConfig )
         {
-          if ( profileFile.lastModified() == lastProfileTimestamp
-            && lookupFile.lastModified() ==  lastLookupTimestamp )
-          {
-            rc.expctxWay = expctxWay;
-            rc.expctxNode = expctxNode;
-            profilesBusy = true;
-            rc.readGlobalConfig(expctxWay);
-            return true;
-          }
+          rc.readGlobalConfig(entry.expctxWay);
         }
+        return true;
       }
-      
+
+      entry = new ProfileCacheEntry();
+      entry.profileTimestamp = profileFile.lastModified();
+      entry.lookupTimestamp = lookupFile.lastModified();
+      entry.profileFile = profileFile;
+      entry.lookupFile = lookupFile;
+      entry.serversizing = rc.serversizing;
+
       BExpressionMetaData meta = new BExpressionMetaData();
-      
+
       BExpressionContextGlobal expctxGlobal = new BExpressionContextGlobal( meta );
       rc.expctxWay = new BExpressionContextWay( rc.serversizing ? 262144 : 8192, meta );
       rc.expctxNode = new BExpressionContextNode( rc.serversizing ?  16384 : 2048, meta );
-      
+
       meta.readMetaData( new File( profileDir, "lookups.dat" ) );
 
       expctxGlobal.parseFile( profileFile, null );
       expctxGlobal.evaluate( new int[0] );
-      rc.readGlobalConfig(expctxGlobal);
+      if ( readGlobalConfig )
+      {
+        rc.readGlobalConfig(expctxGlobal);
+      }
 
       rc.expctxWay.parseFile( profileFile, "global" );
       rc.expctxNode.parseFile( profileFile, "global" );
-      
-      lastProfileTimestamp = profileFile.lastModified();
-      lastLookupTimestamp = lookupFile.lastModified();
-      lastProfileFile = profileFile;
-      lastLookupFile = lookupFile;
-      expctxWay = rc.expctxWay;
-      expctxNode = rc.expctxNode;
-      profilesBusy = true;
+
+      entry.expctxWay = rc.expctxWay;
+      entry.expctxNode = rc.expctxNode;
+      register( entry );
       return false;
   }
 
+  private static synchronized ProfileCacheEntry checkout( File profileFile, File lookupFile, boolean serversizing )
+  {
+    for ( int i = 0; i < entries.size(); i++ )
+    {
+      ProfileCacheEntry e = entries.get( i );
+      if ( e.busy || !e.matches( profileFile, lookupFile, serversizing ) )
+      {
+        continue;
+      }
+      if ( !e.isCurrent() )
+      {
+        entries.remove( i-- ); // outdated profile, drop it
+        continue;
+      }
+      e.busy = true;
+      e.lastUse = ++useCounter;
+      return e;
+    }
+    return null;
+  }
+
+  // add a freshly parsed (and busy) entry to the pool, replacing
+  // the least recently used idle one if full. If all are busy,
+  // the entry is not pooled
+  private static synchronized void register( ProfileCacheEntry entry )
+  {
+    entry.busy = true;
+    entry.lastUse = ++useCounter;
+    if ( sharedExpressionCache )
+    {
+      shareExpressionCaches( entry );
+    }
+    if ( entries.size() < maxEntries )
+    {
+      entries.add( entry );
+      return;
+    }
+    int lruIdx = -1;
+    for ( int i = 0; i < entries.size(); i++ )
+    {
+      ProfileCacheEntry e = entries.get( i );
+      if ( !e.busy && ( lruIdx < 0 || e.lastUse < entries.get( lruIdx ).lastUse ) )
+      {
+        lruIdx = i;
+      }
+    }
+    if ( lruIdx >= 0 )
+    {
+      entries.set( lruIdx, entry );
+    }
+  }
+
+  // use the shared caches of another instance of the same profile, or create them
+  private static void shareExpressionCaches( ProfileCacheEntry entry )
+  {
+    for ( ProfileCacheEntry e : entries )
+    {
+      if ( e.sharedWayCache != null && entry.isSameVersion( e ) )
+      {
+        entry.sharedWayCache = e.sharedWayCache;
+        entry.sharedNodeCache = e.sharedNodeCache;
+        break;
+      }
+    }
+    if ( entry.sharedWayCache == null )
+    {
+      entry.sharedWayCache = entry.expctxWay.createSharedCache();
+      entry.sharedNodeCache = entry.expctxNode.createSharedCache();
+    }
+    entry.expctxWay.setSharedCache( entry.sharedWayCache );
+    entry.expctxNode.setSharedCache( entry.sharedNodeCache );
+  }
+
   public static synchronized void releaseProfile( RoutingContext rc )
   {
     // only the thread that holds the cached instance can release it
-    if ( rc.expctxWay == expctxWay && rc.expctxNode == expctxNode )
+    for ( ProfileCacheEntry e : entries )
     {
-      profilesBusy = false;
+      if ( rc.expctxWay == e.expctxWay && rc.expctxNode == e.expctxNode )
+      {
+        e.busy = false;
+        break;
+      }
     }
     rc.expctxWay = null;
     rc.expctxNode = null;
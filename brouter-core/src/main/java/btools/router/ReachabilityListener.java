@@ -0,0 +1,19 @@
+package btools.router;
+
+import java.io.IOException;
+
+/**
+ * Receives the links reached by the reachability search (see
+ * RoutingEngine.doReachability) in the order of their costs
+ */
+public interface ReachabilityListener
+{
+  /**
+   * @param ilons the positions of the link, transfer nodes included, ending at the
+   * @param ilats cut position for links crossing the limit
+   * @param startCost the cost at the start of the link
+   * @param endCost the cost at the end of the (cut) link
+   * @param endDistance the track length to the end of the (cut) link
+   */
+  void linkReached( int[] ilons, int[] ilats, int startCost, int endCost, int endDistance ) throws IOException;
+}
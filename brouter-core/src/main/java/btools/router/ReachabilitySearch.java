@@ -0,0 +1,212 @@
+package btools.router;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+
+import btools.mapaccess.NodesCache;
+import btools.mapaccess.OsmLink;
+import btools.mapaccess.OsmNode;
+import btools.util.OpenSet;
+
+/**
+ * Exhaustive search up to the limits, see RoutingEngine.doReachability. A path
+ * ending beyond a limit is reported cut at the limit when taken from the open
+ * set, and not expanded. Links are reported once, for the cheapest path
+ */
+final class ReachabilitySearch extends PathExpander
+{
+  // a link on the way of a path
+  private static final class ReachedLink
+  {
+    int[] ilons;
+    int[] ilats;
+    int startCost;
+    int startDistance;
+    int distance;
+
+    ReachedLink( int[] ilons, int[] ilats, int startCost, int startDistance )
+    {
+      this.ilons = ilons;
+      this.ilats = ilats;
+      this.startCost = startCost;
+      this.startDistance = startDistance;
+      distance = startDistance;
+      for( int i=1; i<ilons.length; i++ )
+      {
+        distance += calcDistance( ilons[i-1], ilats[i-1], ilons[i], ilats[i] );
+      }
+    }
+  }
+
+  private RoutingEngine engine;
+  private OpenSet<OsmPath> openSet;
+  private int maxCost;
+  private int maxDistance;
+  private ReachabilityListener listener;
+
+  private IdentityHashMap<OsmPath,ReachedLink> reachedLinks = new IdentityHashMap<OsmPath,ReachedLink>();
+  private IdentityHashMap<OsmLink,Boolean> reportedLinks = new IdentityHashMap<OsmLink,Boolean>();
+  private ReachedLink reached; // of the path being expanded
+
+  int nodesVisited;
+
+  ReachabilitySearch( RoutingEngine engine, RoutingContext rc, GraphJournal journal, OpenSet<OsmPath> openSet,
+                      int maxCost, int maxDistance, ReachabilityListener listener )
+  {
+    super( rc, null, false, journal );
+    this.engine = engine;
+    this.openSet = openSet;
+    this.maxCost = maxCost;
+    this.maxDistance = maxDistance;
+    this.listener = listener;
+  }
+
+  /**
+   * @param startPath1 the start paths in both directions of the start segment
+   */
+  void run( OsmNodeNamed startPos, OsmPath startPath1, OsmPath startPath2, NodesCache nodesCache ) throws IOException
+  {
+    addStartPath( startPos, startPath1 );
+    addStartPath( startPos, startPath2 );
+    for(;;)
+    {
+      engine.checkRunningTime( "reachability" );
+
+      OsmPath path = null;
+      synchronized( openSet )
+      {
+        path = openSet.popLowestKeyValue();
+      }
+      if ( path == null ) break;
+
+      reached = reachedLinks.remove( path );
+      if ( path.airdistance == -1 )
+      {
+        path.unregisterUpTree( routingContext );
+        continue;
+      }
+      nodesVisited++;
+
+      if ( reportedLinks.put( path.getLink(), Boolean.TRUE ) == null )
+      {
+        reportLink( reached, path.cost, maxCost, maxDistance, listener );
+      }
+      if ( path.cost > maxCost || ( maxDistance > 0 && reached.distance > maxDistance ) )
+      {
+        path.unregisterUpTree( routingContext );
+        continue; // cut at the limit
+      }
+
+      expand( path, nodesCache );
+      path.unregisterUpTree( routingContext );
+    }
+  }
+
+  private void addStartPath( OsmNodeNamed startPos, OsmPath path )
+  {
+    OsmNode n = path.getLink().targetNode;
+    reachedLinks.put( path, new ReachedLink( new int[]{ startPos.ilon, n.ilon }, new int[]{ startPos.ilat, n.ilat }, 0, 0 ) );
+    add( path );
+  }
+
+  private void add( OsmPath path )
+  {
+    if ( path.cost >= 0 )
+    {
+      synchronized( openSet )
+      {
+        openSet.add( path.cost, path );
+      }
+      path.registerUpTree();
+    }
+  }
+
+  @Override
+  protected void addPath( OsmPath path, OsmLink link, OsmPath bestPath, boolean isFinalLink )
+  {
+    bestPath.airdistance = 0;
+
+    // add only if this may beat an existing path for that link
+    if ( isDominated( bestPath, link ) )
+    {
+      return;
+    }
+    bestPath.treedepth = path.treedepth + 1;
+    reachedLinks.put( bestPath, getReachedLink( path.getLink().targetNode, link, path.cost, reached.distance ) );
+    addLinkHolder( link, bestPath );
+    add( bestPath );
+  }
+
+  private static ReachedLink getReachedLink( OsmNode sourceNode, OsmLink link, int startCost, int startDistance )
+  {
+    int transferCount = link.decodeGeometry( sourceNode );
+    int[] ilons = new int[transferCount + 2];
+    int[] ilats = new int[transferCount + 2];
+    ilons[0] = sourceNode.ilon;
+    ilats[0] = sourceNode.ilat;
+    for( int i = 0; i < transferCount; i++ )
+    {
+      ilons[i + 1] = link.getTransferLon( i );
+      ilats[i + 1] = link.getTransferLat( i );
+    }
+    ilons[transferCount + 1] = link.targetNode.ilon;
+    ilats[transferCount + 1] = link.targetNode.ilat;
+    return new ReachedLink( ilons, ilats, startCost, startDistance );
+  }
+
+  /**
+   * Report a link, if crossing a limit cut at the position where it is reached,
+   * assuming cost and distance to grow evenly along the link
+   */
+  private static void reportLink( ReachedLink r, int endCost, int maxCost, int maxDistance, ReachabilityListener listener ) throws IOException
+  {
+    double f = 1.;
+    if ( endCost > maxCost )
+    {
+      f = ( maxCost - r.startCost ) / (double)( endCost - r.startCost );
+    }
+    if ( maxDistance > 0 && r.distance > maxDistance )
+    {
+      f = Math.min( f, ( maxDistance - r.startDistance ) / (double)( r.distance - r.startDistance ) );
+    }
+    if ( f <= 0. )
+    {
+      return;
+    }
+    if ( f >= 1. )
+    {
+      listener.linkReached( r.ilons, r.ilats, r.startCost, endCost, r.distance );
+      return;
+    }
+
+    // walk along the link to the cut position
+    double cutLength = f * ( r.distance - r.startDistance );
+    double length = 0.;
+    int i = 1;
+    for( ; i < r.ilons.length - 1; i++ )
+    {
+      double d = calcDistance( r.ilons[i-1], r.ilats[i-1], r.ilons[i], r.ilats[i] );
+      if ( length + d >= cutLength )
+      {
+        break;
+      }
+      length += d;
+    }
+    double d = calcDistance( r.ilons[i-1], r.ilats[i-1], r.ilons[i], r.ilats[i] );
+    double g = d > 0. ? Math.min( 1., ( cutLength - length ) / d ) : 1.;
+    int[] ilons = new int[i+1];
+    int[] ilats = new int[i+1];
+    System.arraycopy( r.ilons, 0, ilons, 0, i );
+    System.arraycopy( r.ilats, 0, ilats, 0, i );
+    ilons[i] = r.ilons[i-1] + (int)( g * ( r.ilons[i] - r.ilons[i-1] ) + 0.5 );
+    ilats[i] = r.ilats[i-1] + (int)( g * ( r.ilats[i] - r.ilats[i-1] ) + 0.5 );
+    int cost = r.startCost + (int)( f * ( endCost - r.startCost ) + 0.5 );
+    int distance = r.startDistance + (int)( cutLength + 0.5 );
+    listener.linkReached( ilons, ilats, r.startCost, cost, distance );
+  }
+
+  private static int calcDistance( int ilon1, int ilat1, int ilon2, int ilat2 )
+  {
+    return new OsmNode( ilon1, ilat1 ).calcDistance( new OsmNode( ilon2, ilat2 ) );
+  }
+}
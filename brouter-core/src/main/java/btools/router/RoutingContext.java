@@ -15,7 +15,7 @@ import btools.expressions.BExpressionContextWay;
 import btools.mapaccess.DistanceChecker;
 import btools.mapaccess.OsmTransferNode;
 
-public final class RoutingContext implements DistanceChecker
+public final class RoutingContext implements DistanceChecker, Cloneable
 {
   public void setAlternativeIdx( int idx )
   {
@@ -45,6 +45,8 @@ public final class RoutingContext implements DistanceChecker
   public BExpressionContextNode expctxNode;
 
   public boolean serversizing = false;
+
+  public int sectionThreads = 0; // >1: calculate the sections of a route (the rows of a matrix) concurrently
   
   public int downhillcostdiv;
   public int downhillcutoff;
@@ -52,6 +54,9 @@ public final class RoutingContext implements DistanceChecker
   public int uphillcutoff;
   public boolean carMode;
   public boolean forceSecondaryData;
+  public boolean bidirectionalSearch;
+  public boolean useShortcuts; // faster, but the route may cost up to ~10% more, see profile_developers_guide
+  public boolean useLandmarks;
   public double pass1coefficient;
   public double pass2coefficient;
   public int elevationpenaltybuffer;
@@ -75,6 +80,9 @@ public final class RoutingContext implements DistanceChecker
     if ( uphillcostdiv != 0 ) uphillcostdiv = 1000000/uphillcostdiv;
     carMode = 0.f != expctxGlobal.getVariableValue( "validForCars", 0.f );
     forceSecondaryData = 0.f != expctxGlobal.getVariableValue( "forceSecondaryData", 0.f );
+    bidirectionalSearch = 0.f != expctxGlobal.getVariableValue( "bidirectionalSearch", 0.f );
+    useShortcuts = 0.f != expctxGlobal.getVariableValue( "useShortcuts", 0.f );
+    useLandmarks = 0.f != expctxGlobal.getVariableValue( "useLandmarks", 0.f );
     pass1coefficient = expctxGlobal.getVariableValue( "pass1coefficient", 1.5f );
     pass2coefficient = expctxGlobal.getVariableValue( "pass2coefficient", 0.f );
     elevationpenaltybuffer = (int)(expctxGlobal.getVariableValue( "elevationpenaltybuffer", 5.f )*1000000);
@@ -100,7 +108,9 @@ public final class RoutingContext implements DistanceChecker
   public RoutingMessageHandler messageHandler = new RoutingMessageHandler();
 
   public List<OsmNodeNamed> nogopoints = null;
-  private List<OsmNodeNamed> keepnogopoints = null;
+  private static final double NOGO_LINE_WAYPOINT_DISTANCE = 20.; // meters, see cleanNogolist
+  private NogoIndex nogoIndex; // built on demand for the current nogopoints
+  private OsmNodeNamed waypoint; // see setWaypoint
 
   private double coslat;
   public boolean nogomatch = false;
@@ -123,10 +133,39 @@ public final class RoutingContext implements DistanceChecker
   public double trafficSourceExponent;
   public double trafficSourceMinDist;
 
+  /**
+   * @return a copy for the calculation of a route section in another thread:
+   *         the same configuration, but a search state of its own. The way-
+   *         and node-contexts are not copied, see ProfileCache.parseProfileContexts
+   */
+  RoutingContext createSectionContext()
+  {
+    RoutingContext rc;
+    try
+    {
+      rc = (RoutingContext)clone();
+    }
+    catch( CloneNotSupportedException e )
+    {
+      throw new RuntimeException( e );
+    }
+    rc.expctxWay = null;
+    rc.expctxNode = null;
+    rc.messageHandler = new RoutingMessageHandler();
+    rc.nogopoints = nogopoints == null ? null : new ArrayList<OsmNodeNamed>( nogopoints );
+    rc.nogoIndex = null;
+    rc.waypoint = null;
+    rc.countTraffic = false;
+    rc.inverseDirection = false;
+    rc.trafficOutputStream = null;
+    return rc;
+  }
+
   public static void prepareNogoPoints( List<OsmNodeNamed> nogos )
   {
     for( OsmNodeNamed nogo : nogos )
     {
+        if ( nogo instanceof OsmNogoPolygon ) continue; // radius given by the vertices
         String s = nogo.name;
         int idx = s.indexOf( ' ' );
         if ( idx > 0 ) s = s.substring( 0 , idx );
@@ -140,8 +179,14 @@ public final class RoutingContext implements DistanceChecker
     }
   }
 
+  /**
+   * Drop the nogos that contain a waypoint, or (for a nogo line) pass close
+   * to it. Called at the start of each route calculation, so the nogo index
+   * is rebuilt here for the current contents of the list
+   */
   public void cleanNogolist( List<OsmNodeNamed> waypoints )
   {
+    nogoIndex = null;
     if ( nogopoints == null ) return;
     List<OsmNodeNamed> nogos = new ArrayList<OsmNodeNamed>();
     for( OsmNodeNamed nogo : nogopoints )
@@ -150,7 +195,17 @@ public final class RoutingContext implements DistanceChecker
       boolean goodGuy = true;
       for( OsmNodeNamed wp : waypoints )
       {
-        if ( wp.calcDistance( nogo ) < radiusInMeter )
+        if ( nogo instanceof OsmNogoPolygon )
+        {
+          OsmNogoPolygon polygon = (OsmNogoPolygon)nogo;
+          if ( polygon.isClosed ? polygon.isWithin( wp.ilon, wp.ilat )
+                                : polygon.distanceTo( wp.ilon, wp.ilat ) < NOGO_LINE_WAYPOINT_DISTANCE )
+          {
+            goodGuy = false;
+            break;
+          }
+        }
+        else if ( wp.calcDistance( nogo ) < radiusInMeter )
         {
           goodGuy = false;
           break;
@@ -161,6 +216,12 @@ public final class RoutingContext implements DistanceChecker
     nogopoints = nogos;
   }
 
+  /**
+   * Checksums of the nogos, stored with the reference track (see OsmTrack.readBinary,
+   * which accepts small differences). The positions are weighted by their index in
+   * the list (and the vertices by their index in the polygon), so the order counts,
+   * and a nogo line gives another checksum than a polygon with the same vertices
+   */
   public long[] getNogoChecksums()
   {
     long[] cs = new long[3];
@@ -168,28 +229,52 @@ public final class RoutingContext implements DistanceChecker
     for( int i=0; i<n; i++ )
     {
     	OsmNodeNamed nogo = nogopoints.get(i);
-    	cs[0] += nogo.ilon;
-    	cs[1] += nogo.ilat;
+    	long weight = i+1;
+    	cs[0] += weight * nogo.ilon;
+    	cs[1] += weight * nogo.ilat;
     	cs[2] += (long) ( nogo.radius*111894.*10.);
+    	if ( nogo instanceof OsmNogoPolygon )
+    	{
+    	  OsmNogoPolygon polygon = (OsmNogoPolygon)nogo;
+    	  for( int k=0; k<polygon.getVertexCount(); k++ )
+    	  {
+    	    cs[0] += weight * (k+1) * polygon.getVertexLon( k );
+    	    cs[1] += weight * (k+1) * polygon.getVertexLat( k );
+    	  }
+    	  if ( !polygon.isClosed )
+    	  {
+    	    cs[2] += weight << 32;
+    	  }
+    	}
     }
     return cs;
   }
   
+  /**
+   * Set the waypoint to match the next segments against (see calcDistance)
+   * until unsetWaypoint. It is checked before the nogos
+   */
   public void setWaypoint( OsmNodeNamed wp, boolean endpoint )
   {
-    keepnogopoints = nogopoints;
-    nogopoints = new ArrayList<OsmNodeNamed>();
-    nogopoints.add( wp );
-    if ( keepnogopoints != null ) nogopoints.addAll( keepnogopoints );
+    waypoint = wp;
     isEndpoint = endpoint;
   }
 
   public void unsetWaypoint()
   {
-    nogopoints = keepnogopoints;
+    waypoint = null;
     isEndpoint = false;
   }
 
+  private NogoIndex getNogoIndex()
+  {
+    if ( nogoIndex == null || !nogoIndex.isIndexOf( nogopoints ) ) // see cleanNogolist
+    {
+      nogoIndex = new NogoIndex( nogopoints );
+    }
+    return nogoIndex;
+  }
+
   public int calcDistance( int lon1, int lat1, int lon2, int lat2 )
   {
     double l = (lat2 - 90000000) * 0.00000001234134;
@@ -204,10 +289,90 @@ public final class RoutingContext implements DistanceChecker
 
     shortestmatch = false;
 
-    if ( d > 0. && nogopoints != null )
+    if ( d > 0. && waypoint != null )
+    {
+      OsmNodeNamed wp = waypoint;
+      double x1 = (lon1 - wp.ilon) * coslat6;
+      double y1 = (lat1 - wp.ilat) * 0.000001;
+      double x2 = (lon2 - wp.ilon) * coslat6;
+      double y2 = (lat2 - wp.ilat) * 0.000001;
+      double r12 = x1*x1 + y1*y1;
+      double r22 = x2*x2 + y2*y2;
+      double radius = Math.abs( r12 < r22 ? y1*dx - x1*dy : y2*dx - x2*dy ) / d;
+
+      if ( radius < wp.radius ) // 20m
+      {
+        double s1 = x1*dx + y1*dy;
+        double s2 = x2*dx + y2*dy;
+
+
+        if ( s1 < 0. ) { s1 = -s1; s2 = -s2; }
+        if ( s2 > 0. )
+        {
+          radius = Math.sqrt( s1 < s2 ? r12 : r22 );
+        }
+        if ( radius <= wp.radius ) // 20m ^ 2
+        {
+          shortestmatch = true;
+          wp.radius = radius; // shortest distance to way
+          // calculate remaining distance
+          if ( s2 < 0. )
+          {
+            wayfraction = -s2 / (d*d);
+            double xm = x2 - wayfraction*dx;
+            double ym = y2 - wayfraction*dy;
+            ilonshortest = (int)(xm / coslat6 + wp.ilon);
+            ilatshortest = (int)(ym / 0.000001 + wp.ilat);
+          }
+          else if ( s1 > s2 )
+          {
+            wayfraction = 0.;
+            ilonshortest = lon2;
+            ilatshortest = lat2;
+          }
+          else
+          {
+            wayfraction = 1.;
+            ilonshortest = lon1;
+            ilatshortest = lat1;
+          }
+
+          // here it gets nasty: there can be nogo-points
+          // *after* the shortest distance point. In case of a shortest-match
+          // we use the reduced way segment for nogo-matching, in order not
+          // to cut our escape-way if we placed a nogo just in front of where we are
+          if ( isEndpoint )
+          {
+            wayfraction = 1. - wayfraction;
+            lon2 = ilonshortest;
+            lat2 = ilatshortest;
+          }
+          else
+          {
+            nogomatch = false;
+            lon1 = ilonshortest;
+            lat1 = ilatshortest;
+          }
+          dx = (lon2 - lon1 ) * coslat6;
+          dy = (lat2 - lat1 ) * 0.000001;
+          d = Math.sqrt( dy*dy + dx*dx );
+        }
+      }
+    }
+
+    // check the nogos near the segment (once matched, no need to check more)
+    if ( d > 0. && nogopoints != null && !nogomatch )
     {
-      for( OsmNodeNamed nogo : nogopoints )
+      NogoIndex index = getNogoIndex();
+      int n = index.findCandidates( lon1, lat1, lon2, lat2 );
+      for( int i=0; i<n && !nogomatch; i++ )
       {
+        OsmNodeNamed nogo = index.getCandidate( i );
+        if ( nogo instanceof OsmNogoPolygon )
+        {
+          nogomatch = ((OsmNogoPolygon)nogo).intersects( lon1, lat1, lon2, lat2 );
+          continue;
+        }
         double x1 = (lon1 - nogo.ilon) * coslat6;
         double y1 = (lat1 - nogo.ilat) * 0.000001;
         double x2 = (lon2 - nogo.ilon) * coslat6;
@@ -220,61 +385,12 @@ public final class RoutingContext implements DistanceChecker
         {
           double s1 = x1*dx + y1*dy;
           double s2 = x2*dx + y2*dy;
-
-
           if ( s1 < 0. ) { s1 = -s1; s2 = -s2; }
           if ( s2 > 0. )
           {
             radius = Math.sqrt( s1 < s2 ? r12 : r22 );
-            if ( radius > nogo.radius ) continue; // 20m ^ 2
-          }
-          if ( nogo.isNogo ) nogomatch = true;
-          else
-          {
-            shortestmatch = true;
-            nogo.radius = radius; // shortest distance to way
-            // calculate remaining distance
-            if ( s2 < 0. )
-            {
-              wayfraction = -s2 / (d*d);
-              double xm = x2 - wayfraction*dx;
-              double ym = y2 - wayfraction*dy;
-              ilonshortest = (int)(xm / coslat6 + nogo.ilon);
-              ilatshortest = (int)(ym / 0.000001 + nogo.ilat);
-            }
-            else if ( s1 > s2 )
-            {
-              wayfraction = 0.;
-              ilonshortest = lon2;
-              ilatshortest = lat2;
-            }
-            else
-            {
-              wayfraction = 1.;
-              ilonshortest = lon1;
-              ilatshortest = lat1;
-            }
-
-            // here it gets nasty: there can be nogo-points in the list
-            // *after* the shortest distance point. In case of a shortest-match
-            // we use the reduced way segment for nogo-matching, in order not
-            // to cut our escape-way if we placed a nogo just in front of where we are
-            if ( isEndpoint )
-            {
-              wayfraction = 1. - wayfraction;
-              lon2 = ilonshortest;
-              lat2 = ilatshortest;
-            }
-            else
-            {
-              nogomatch = false;
-              lon1 = ilonshortest;
-              lat1 = ilatshortest;
-            }
-            dx = (lon2 - lon1 ) * coslat6;
-            dy = (lat2 - lat1 ) * 0.000001;
-            d = Math.sqrt( dy*dy + dx*dx );
           }
+          nogomatch = radius <= nogo.radius;
         }
       }
     }
@@ -299,7 +415,7 @@ public final class RoutingContext implements DistanceChecker
   @Override
   public boolean isWithinRadius( int ilon0, int ilat0, OsmTransferNode firstTransfer, int ilon1, int ilat1 )
   {
-    OsmNodeNamed wp = nogopoints.get(0);
+    OsmNodeNamed wp = waypoint;
     double keepRadius = wp.radius;
     try
     {
@@ -8,20 +8,31 @@ import java.io.StringWriter;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import btools.mapaccess.NodesCache;
 import btools.mapaccess.OsmLink;
 import btools.mapaccess.OsmLinkHolder;
 import btools.mapaccess.OsmNode;
 import btools.mapaccess.OsmNodesMap;
-import btools.util.SortedHeap;
+import btools.mapaccess.SharedTileCache;
+import btools.util.OpenSet;
+import btools.util.OpenSetFactory;
 
 public class RoutingEngine extends Thread
 {
   private OsmNodesMap nodesMap;
   private NodesCache nodesCache;
-  private SortedHeap<OsmPath> openSet = new SortedHeap<OsmPath>();
+  private OpenSet<OsmPath> openSet = OpenSetFactory.create();
   private boolean finished = false;
 
   protected List<OsmNodeNamed> waypoints = null;
@@ -52,10 +63,24 @@ public class RoutingEngine extends Thread
   
   private long startTime;
   private long maxRunningTime;
+
+  private boolean skipApproximations; // after a failed re-tracking of an approximated track
+  private LandmarkBounds landmarks; // lower bounds to the end of the current section, if any
+
+  // re-use of the decoded graph by the following searches, up to a size limit
+  private static final int MAX_REUSED_NODES = 500000;
+  private GraphJournal journal; // null if the graph cannot be re-used
   public SearchBoundary boundary;
 
   public boolean quite = false;
 
+  private List<File> usedDataFiles;
+  private AlternativeTracks alternatives;
+
+  private volatile List<RoutingEngine> sectionEngines; // while calculating sections concurrently
+  private static ExecutorService sectionExecutor; // shared by all requests, see getSectionExecutor
+  private List<File> sectionDataFiles = new ArrayList<File>();
+
   public RoutingEngine( String outfileBase, String logfileBase, String segmentDir,
           List<OsmNodeNamed> waypoints, RoutingContext rc )
   {
@@ -87,12 +112,25 @@ public class RoutingEngine extends Thread
     }
   }
 
+  /**
+   * Engine for a section of the route, see findTrackParallel
+   */
+  private RoutingEngine( RoutingEngine parent, RoutingContext rc )
+  {
+    this.segmentDir = parent.segmentDir;
+    this.routingContext = rc;
+    this.startTime = parent.startTime;
+    this.maxRunningTime = parent.maxRunningTime;
+    this.quite = true;
+    ProfileCache.parseProfileContexts( rc );
+  }
+
   private boolean hasInfo()
   {
     return infoLogEnabled || infoLogWriter != null;
   }
 
-  private void logInfo( String s )
+  void logInfo( String s )
   {
     if ( infoLogEnabled )
     {
@@ -136,19 +174,40 @@ public class RoutingEngine extends Thread
       startTime = System.currentTimeMillis();
       this.maxRunningTime = maxRunningTime;
       int nsections = waypoints.size() - 1;
-      OsmTrack[] refTracks = new OsmTrack[nsections]; // used ways for alternatives
-      OsmTrack[] lastTracks = new OsmTrack[nsections];
+      if ( alternatives == null )
+      {
+        alternatives = new AlternativeTracks();
+      }
+      if ( alternatives.refTracks == null )
+      {
+        alternatives.refTracks = new OsmTrack[nsections]; // used ways for alternatives
+        alternatives.lastTracks = new OsmTrack[nsections];
+      }
+      matchedWaypoints = alternatives.matchedWaypoints;
       OsmTrack track = null;
       ArrayList<String> messageList = new ArrayList<String>();
       for( int i=0;; i++ )
       {
-        track = findTrack( refTracks, lastTracks );
-        track.message = "track-length = " + track.distance + " filtered ascend = " + track.ascend
-        + " plain-ascend = " +  track.plainAscend + " cost=" + track.cost;
-        track.name = "brouter_" + routingContext.getProfileName() + "_" + i;
-
-        messageList.add( track.message );
-        track.messageList = messageList;
+        if ( i < alternatives.size() )
+        {
+          track = alternatives.getTrack( i ); // found by a previous run
+          messageList.add( track.message );
+        }
+        else
+        {
+          track = findTrack( alternatives.refTracks, alternatives.lastTracks );
+          track.message = "track-length = " + track.distance + " filtered ascend = " + track.ascend
+          + " plain-ascend = " +  track.plainAscend + " cost=" + track.cost;
+          track.name = "brouter_" + routingContext.getProfileName() + "_" + i;
+
+          messageList.add( track.message );
+          track.messageList = new ArrayList<String>( messageList );
+          alternatives.addTrack( track );
+          if ( alternatives.matchedWaypoints == null )
+          {
+            alternatives.setMatchedWaypoints( matchedWaypoints );
+          }
+        }
         if ( outfileBase != null )
         {
           String filename = outfileBase + i + ".gpx";
@@ -214,21 +273,7 @@ public class RoutingEngine extends Thread
     }
     finally
     {
-      ProfileCache.releaseProfile( routingContext );
-
-      if ( nodesCache != null )
-      {
-        nodesCache.close();
-        nodesCache = null;
-      }
-      openSet.clear();
-      finished = true; // this signals termination to outside
-
-      if ( infoLogWriter != null )
-      {
-        try { infoLogWriter.close(); } catch( Exception e ) {}
-        infoLogWriter = null;
-      }
+      finishRun();
     }
   }
 
@@ -282,6 +327,171 @@ public class RoutingEngine extends Thread
     }
   }
 
+  /**
+   * Matrix mode: calculate the routes from each of the waypoints (the
+   * sources) to each of the given targets, see RoutingMatrix. The points
+   * are matched once, each source is a one-to-many search that stops when
+   * all targets are reached, and with sectionThreads > 1 the sources are
+   * distributed to concurrent engines
+   *
+   * @return the matrix, or null on error (see getErrorMessage)
+   */
+  public RoutingMatrix doMatrix( List<OsmNodeNamed> targets, long maxRunningTime )
+  {
+    try
+    {
+      List<OsmNodeNamed> points = new ArrayList<OsmNodeNamed>( waypoints );
+      points.addAll( targets );
+      routingContext.cleanNogolist( points );
+
+      startTime = System.currentTimeMillis();
+      this.maxRunningTime = maxRunningTime;
+
+      List<MatchedWaypoint> matched = new ArrayList<MatchedWaypoint>();
+      for( OsmNodeNamed wp : points )
+      {
+        MatchedWaypoint mwp = new MatchedWaypoint();
+        mwp.waypoint = wp;
+        matched.add( mwp );
+      }
+      matchWaypointsToNodes( matched );
+      List<MatchedWaypoint> sourceWps = matched.subList( 0, waypoints.size() );
+      List<MatchedWaypoint> targetWps = matched.subList( waypoints.size(), matched.size() );
+
+      // target islands are skipped, a search to them would exhaust the graph
+      boolean[] islands = new boolean[targetWps.size()];
+      routingContext.inverseDirection = true;
+      airDistanceCostFactor = 0.;
+      for( int j=0; j<targetWps.size(); j++ )
+      {
+        nodeLimit = 200;
+        OsmTrack seg = findTrack( "target-island-check", targetWps.get(j), sourceWps.get(0), null, null, false );
+        islands[j] = seg == null && nodeLimit > 0;
+      }
+      routingContext.inverseDirection = false;
+      nodeLimit = 0;
+
+      RoutingMatrix matrix = new RoutingMatrix( sourceWps.size(), targetWps.size() );
+      if ( routingContext.sectionThreads > 1 && sourceWps.size() > 1 )
+      {
+        calcMatrixParallel( matrix, sourceWps, targetWps, islands );
+      }
+      else
+      {
+        for( int i=0; i<sourceWps.size(); i++ )
+        {
+          calcMatrixRow( matrix, i, sourceWps.get(i), targetWps, islands );
+        }
+      }
+      long endTime = System.currentTimeMillis();
+      logInfo( "matrix execution time = " + (endTime-startTime)/1000. + " seconds" );
+      return matrix;
+    }
+    catch( IllegalArgumentException e)
+    {
+      errorMessage = e.getMessage();
+      logInfo( "Exception (linksProcessed=" + linksProcessed + ": " + errorMessage );
+    }
+    catch( Exception e)
+    {
+      errorMessage = e.toString();
+      logInfo( "Exception (linksProcessed=" + linksProcessed + ": " + errorMessage );
+      logThrowable( e );
+    }
+    catch( Error e)
+    {
+      cleanOnOOM();
+      errorMessage = e.toString();
+      logInfo( "Error (linksProcessed=" + linksProcessed + ": " + errorMessage );
+      logThrowable( e );
+    }
+    finally
+    {
+      finishRun();
+    }
+    return null;
+  }
+
+  /**
+   * Reachability mode: expand from the first waypoint up to the cost limit
+   * and, if maxDistance > 0, the distance limit, reporting the reached links
+   * to the listener in the order of their costs. Links crossing a limit are
+   * reported cut at the limit and not expanded, so the search stops there
+   *
+   * @return false on error (see getErrorMessage)
+   */
+  public boolean doReachability( int maxCost, int maxDistance, ReachabilityListener listener, long maxRunningTime )
+  {
+    try
+    {
+      routingContext.cleanNogolist( waypoints );
+
+      startTime = System.currentTimeMillis();
+      this.maxRunningTime = maxRunningTime;
+
+      MatchedWaypoint startWp = new MatchedWaypoint();
+      startWp.waypoint = waypoints.get(0);
+      List<MatchedWaypoint> listOne = new ArrayList<MatchedWaypoint>();
+      listOne.add( startWp );
+      matchWaypointsToNodes( listOne );
+
+      findReachable( listOne.get(0), maxCost, maxDistance, listener );
+      long endTime = System.currentTimeMillis();
+      logInfo( "reachability execution time = " + (endTime-startTime)/1000. + " seconds" );
+      return true;
+    }
+    catch( IllegalArgumentException e)
+    {
+      errorMessage = e.getMessage();
+      logInfo( "Exception (linksProcessed=" + linksProcessed + ": " + errorMessage );
+    }
+    catch( Exception e)
+    {
+      errorMessage = e.toString();
+      logInfo( "Exception (linksProcessed=" + linksProcessed + ": " + errorMessage );
+      logThrowable( e );
+    }
+    catch( Error e)
+    {
+      cleanOnOOM();
+      errorMessage = e.toString();
+      logInfo( "Error (linksProcessed=" + linksProcessed + ": " + errorMessage );
+      logThrowable( e );
+    }
+    finally
+    {
+      finishRun();
+    }
+    return false;
+  }
+
+  /**
+   * Release the resources of a run and signal termination
+   */
+  private void finishRun()
+  {
+    ProfileCache.releaseProfile( routingContext );
+
+    if ( nodesCache != null )
+    {
+      usedDataFiles = nodesCache.getDataFiles();
+      for( File f : sectionDataFiles )
+      {
+        if ( !usedDataFiles.contains( f ) ) usedDataFiles.add( f );
+      }
+      nodesCache.close();
+      nodesCache = null;
+    }
+    openSet.clear();
+    finished = true; // this signals termination to outside
+
+    if ( infoLogWriter != null )
+    {
+      try { infoLogWriter.close(); } catch( Exception e ) {}
+      infoLogWriter = null;
+    }
+  }
+
   public void cleanOnOOM()
   {
       nodesMap = null;
@@ -349,8 +559,16 @@ public class RoutingEngine extends Thread
         if ( refTracks[i] == null ) refTracks[i] = new OsmTrack();
         refTracks[i].addNodes( lastTracks[i] );
       }
+    }
 
-      OsmTrack seg = searchTrack( matchedWaypoints.get(i), matchedWaypoints.get(i+1), i == matchedWaypoints.size()-2 ? nearbyTrack : null, refTracks[i] );
+    if ( routingContext.sectionThreads > 1 && matchedWaypoints.size() > 2 )
+    {
+      return findTrackParallel( refTracks, lastTracks, nearbyTrack );
+    }
+
+    for( int i=0; i<matchedWaypoints.size() -1; i++ )
+    {
+      OsmTrack seg = searchSection( matchedWaypoints.get(i), matchedWaypoints.get(i+1), i == matchedWaypoints.size()-2 ? nearbyTrack : null, refTracks[i] );
       if ( seg == null ) return null;
       totaltrack.appendTrack( seg );
       lastTracks[i] = seg;
@@ -358,6 +576,237 @@ public class RoutingEngine extends Thread
     return totaltrack;
   }
 
+  private OsmTrack searchSection( MatchedWaypoint startWp, MatchedWaypoint endWp, OsmTrack nearbyTrack, OsmTrack refTrack )
+  {
+    landmarks = null;
+    if ( routingContext.useLandmarks )
+    {
+      landmarks = LandmarkBounds.create( segmentDir, routingContext, endWp );
+      logInfo( landmarks == null ? "no landmark distances for profile and end point" : "using landmark bounds" );
+    }
+    try
+    {
+      return searchTrack( startWp, endWp, nearbyTrack, refTrack );
+    }
+    finally
+    {
+      landmarks = null;
+    }
+  }
+
+  /**
+   * Calculate the sections concurrently and concatenate them in order. Each
+   * of up to sectionThreads engines, with a copy of the routing context,
+   * takes the next section when done with one, so it re-uses its graph.
+   * The sections are independent once the waypoints are matched, so this
+   * gives the same result as the sequential calculation. If sections fail,
+   * the error of the first one is reported
+   */
+  private OsmTrack findTrackParallel( final OsmTrack[] refTracks, OsmTrack[] lastTracks, final OsmTrack nearbyTrack )
+  {
+    final int nsections = matchedWaypoints.size() - 1;
+    int nthreads = Math.min( routingContext.sectionThreads, nsections );
+    logInfo( "calculating " + nsections + " sections with " + nthreads + " threads" );
+
+    ExecutorService executor = getSectionExecutor();
+    List<Future<Object>> results = new ArrayList<Future<Object>>();
+    List<RoutingEngine> engines = new ArrayList<RoutingEngine>();
+    sectionEngines = engines;
+    final AtomicInteger nextSection = new AtomicInteger();
+    final OsmTrack[] tracks = new OsmTrack[nsections];
+    final RuntimeException[] errors = new RuntimeException[nsections];
+    final OsmTrack[] rawTrack = new OsmTrack[1]; // of the last section
+    try
+    {
+      for( int t=0; t<nthreads; t++ )
+      {
+        final RoutingEngine engine = new RoutingEngine( this, routingContext.createSectionContext() );
+        synchronized( engines )
+        {
+          engines.add( engine );
+          if ( terminated ) engine.terminate();
+        }
+        results.add( executor.submit( new Callable<Object>()
+        {
+          public Object call()
+          {
+            for( int i = nextSection.getAndIncrement(); i < nsections; i = nextSection.getAndIncrement() )
+            {
+              engine.foundRawTrack = null;
+              try
+              {
+                tracks[i] = engine.searchSection( matchedWaypoints.get(i).copy(), matchedWaypoints.get(i+1).copy(),
+                                                  i == nsections-1 ? nearbyTrack : null, refTracks[i] );
+              }
+              catch( RuntimeException e )
+              {
+                errors[i] = e;
+                break; // the following sections are left to the other engines
+              }
+              if ( i == nsections-1 )
+              {
+                rawTrack[0] = engine.foundRawTrack;
+              }
+            }
+            return null;
+          }
+        } ) );
+      }
+      for( Future<Object> result : results )
+      {
+        getSectionResult( result );
+      }
+
+      // sections are taken in order, so a section not calculated follows a failed one
+      OsmTrack totaltrack = new OsmTrack();
+      for( int i=0; i<nsections; i++ )
+      {
+        if ( errors[i] != null ) throw errors[i];
+        if ( tracks[i] == null ) return null;
+        totaltrack.appendTrack( tracks[i] );
+        lastTracks[i] = tracks[i];
+      }
+      foundRawTrack = rawTrack[0];
+      return totaltrack;
+    }
+    finally
+    {
+      releaseSectionEngines( engines, results );
+    }
+  }
+
+  /**
+   * Calculate the rows of the matrix concurrently, each engine taking
+   * the next source when done with one, so it re-uses its graph
+   */
+  private void calcMatrixParallel( final RoutingMatrix matrix, final List<MatchedWaypoint> sourceWps, List<MatchedWaypoint> targetWps, final boolean[] islands )
+  {
+    int nthreads = Math.min( routingContext.sectionThreads, sourceWps.size() );
+    logInfo( "calculating " + sourceWps.size() + " matrix rows with " + nthreads + " threads" );
+
+    ExecutorService executor = getSectionExecutor();
+    List<Future<Object>> results = new ArrayList<Future<Object>>();
+    List<RoutingEngine> engines = new ArrayList<RoutingEngine>();
+    sectionEngines = engines;
+    final AtomicInteger nextSource = new AtomicInteger();
+    try
+    {
+      for( int t=0; t<nthreads; t++ )
+      {
+        final RoutingEngine engine = new RoutingEngine( this, routingContext.createSectionContext() );
+        synchronized( engines )
+        {
+          engines.add( engine );
+          if ( terminated ) engine.terminate();
+        }
+        final List<MatchedWaypoint> targets = new ArrayList<MatchedWaypoint>();
+        for( MatchedWaypoint mwp : targetWps )
+        {
+          targets.add( mwp.copy() );
+        }
+        results.add( executor.submit( new Callable<Object>()
+        {
+          public Object call()
+          {
+            for( int i = nextSource.getAndIncrement(); i < sourceWps.size(); i = nextSource.getAndIncrement() )
+            {
+              engine.calcMatrixRow( matrix, i, sourceWps.get(i).copy(), targets, islands );
+            }
+            return null;
+          }
+        } ) );
+      }
+      for( Future<Object> result : results )
+      {
+        getSectionResult( result );
+      }
+    }
+    finally
+    {
+      releaseSectionEngines( engines, results );
+    }
+  }
+
+  /**
+   * The threads for the sections of all requests: sectionThreads limits
+   * the threads per request, the system property "sectionThreadPoolSize"
+   * (default: number of processors) the threads in total
+   */
+  private static synchronized ExecutorService getSectionExecutor()
+  {
+    if ( sectionExecutor == null )
+    {
+      int size = Integer.getInteger( "sectionThreadPoolSize", Runtime.getRuntime().availableProcessors() ).intValue();
+      sectionExecutor = Executors.newFixedThreadPool( Math.max( size, 1 ), new ThreadFactory()
+      {
+        public Thread newThread( Runnable r )
+        {
+          Thread t = new Thread( r, "section-engine" );
+          t.setDaemon( true );
+          return t;
+        }
+      } );
+    }
+    return sectionExecutor;
+  }
+
+  /**
+   * Stop the remaining engines after a failure, and wait for them
+   * before their profile contexts are returned
+   */
+  private void releaseSectionEngines( List<RoutingEngine> engines, List<? extends Future<?>> results )
+  {
+    synchronized( engines )
+    {
+      for( RoutingEngine engine : engines )
+      {
+        engine.terminate();
+      }
+    }
+    for( Future<?> f : results )
+    {
+      try
+      {
+        f.get();
+      }
+      catch( Exception e )
+      {
+        // reported by the caller
+      }
+    }
+    sectionEngines = null;
+    for( RoutingEngine engine : engines )
+    {
+      linksProcessed += engine.linksProcessed;
+      if ( engine.nodesCache != null )
+      {
+        sectionDataFiles.addAll( engine.nodesCache.getDataFiles() );
+        engine.nodesCache.close();
+        engine.nodesCache = null;
+      }
+      ProfileCache.releaseProfile( engine.routingContext );
+    }
+  }
+
+  private static <T> T getSectionResult( Future<T> result )
+  {
+    try
+    {
+      return result.get();
+    }
+    catch( InterruptedException e )
+    {
+      throw new IllegalArgumentException( "interrupted while calculating the sections" );
+    }
+    catch( ExecutionException e )
+    {
+      Throwable cause = e.getCause();
+      if ( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+      if ( cause instanceof Error ) throw (Error)cause;
+      throw new RuntimeException( cause );
+    }
+  }
+
   // geometric position matching finding the nearest routable way-section
   private void matchWaypointsToNodes( List<MatchedWaypoint> unmatchedWaypoints )
   {
@@ -487,10 +936,15 @@ public class RoutingEngine extends Thread
 
   // expand hollow link targets and resolve reverse links
   private void expandHollowLinkTargets( OsmNode n )
+  {
+    expandHollowLinkTargets( nodesCache, n );
+  }
+
+  static void expandHollowLinkTargets( NodesCache nc, OsmNode n )
   {
     for( OsmLink link = n.firstlink; link != null; link = link.next )
     {
-      nodesCache.obtainNonHollowNode( link.targetNode );
+      nc.obtainNonHollowNode( link.targetNode );
     }
   }
 
@@ -525,6 +979,24 @@ public class RoutingEngine extends Thread
       }
     }
 
+    boolean approximated = false;
+    if ( track == null && !skipApproximations )
+    {
+      if ( routingContext.useShortcuts )
+      {
+        track = findTrackByShortcuts( startWp, endWp );
+      }
+      if ( track == null && routingContext.bidirectionalSearch )
+      {
+        track = findTrackBidirectional( startWp, endWp, refTrack );
+        if ( track == null )
+        {
+          logInfo( "bidirectional search failed, using the unidirectional passes" );
+        }
+      }
+      approximated = track != null;
+    }
+
     if ( track == null )
     {
       for( int cfi = 0; cfi < airDistanceCostFactors.length; cfi++ )
@@ -594,32 +1066,100 @@ public class RoutingEngine extends Thread
     try
     {
       OsmTrack tt = findTrack( "re-tracking", startWp, endWp, null , refTrack, false );
+      if ( tt == null && approximated )
+      {
+        // the approximated costs were too far off, repeat unidirectional
+        logInfo( "error re-tracking the approximated track, using the unidirectional passes" );
+        skipApproximations = true;
+        try
+        {
+          return searchTrack( startWp, endWp, null, refTrack );
+        }
+        finally
+        {
+          skipApproximations = false;
+        }
+      }
       if ( tt == null ) throw new IllegalArgumentException( "error re-tracking track" );
+      if ( approximated )
+      {
+        track.cost = tt.cost; // the exact cost
+      }
       return tt;
     }
-    finally
+    finally
+    {
+      guideTrack = null;
+    }
+  }
+
+
+  private void resetCache()
+  {
+    if ( nodesMap == null )
+    {
+      nodesMap = new OsmNodesMap( routingContext.serversizing ? 65536 : 4096 );
+    }
+    else
     {
-      guideTrack = null;
+      nodesMap.clear(); // re-use the table, it is sized from the previous search
     }
+    SharedTileCache sharedTileCache = routingContext.serversizing ? SharedTileCache.getInstance() : null;
+    nodesCache = new NodesCache(segmentDir, nodesMap, routingContext.expctxWay, routingContext.carMode, routingContext.forceSecondaryData, nodesCache, sharedTileCache );
+    journal = null;
   }
 
+  /**
+   * Prepare the graph for a search: if possible, re-use the graph of the
+   * previous search (passes and re-tracking of a section, the following
+   * sections) with the changes of that search undone. Otherwise start
+   * with an empty graph that is kept for re-use
+   */
+  private void prepareGraph()
+  {
+    if ( journal != null && nodesCache.getParsedNodeCount() < MAX_REUSED_NODES )
+    {
+      journal.rollback();
+      return;
+    }
+    resetCache();
+    nodesCache.retainParsedNodes();
+    journal = new GraphJournal();
+  }
 
-  private void resetCache()
+  private void addLinkHolder( OsmLink link, OsmPath path )
   {
-    nodesMap = new OsmNodesMap();
-    nodesCache = new NodesCache(segmentDir, nodesMap, routingContext.expctxWay, routingContext.carMode, routingContext.forceSecondaryData, nodesCache );
+    if ( journal != null )
+    {
+      journal.addLinkHolder( link, path );
+    }
+    else
+    {
+      link.addLinkHolder( path );
+    }
   }
 
   private OsmNode getStartNode( long startId )
   {
+    return getStartNode( nodesCache, startId );
+  }
+
+  static OsmNode getStartNode( NodesCache nc, long startId )
+  {
+    OsmNode start = nc.getParsedNode( startId ); // when re-using the graph
+    if ( start != null )
+    {
+      return start;
+    }
+
     // initialize the start-node
-    OsmNode start = new OsmNode( startId );
+    start = new OsmNode( startId );
     start.setHollow();
-    if ( !nodesCache.obtainNonHollowNode( start ) )
+    if ( !nc.obtainNonHollowNode( start ) )
     {
       return null;
     }
-    expandHollowLinkTargets( start );
+    expandHollowLinkTargets( nc, start );
     return start;
   }
 
@@ -668,7 +1208,7 @@ public class RoutingEngine extends Thread
 
     
     
-  private OsmPath getStartPath( OsmNode n1, OsmNode n2, OsmNodeNamed wp, OsmNode endPos )
+  OsmPath getStartPath( OsmNode n1, OsmNode n2, OsmNodeNamed wp, OsmNode endPos )
   {
     try
     {
@@ -700,7 +1240,7 @@ public class RoutingEngine extends Thread
       }
       if ( bestLink != null )
       {
-        bestLink.addLinkHolder( bestPath );
+        addLinkHolder( bestLink, bestPath );
       }
       bestPath.treedepth = 1;
 
@@ -736,7 +1276,6 @@ public class RoutingEngine extends Thread
   {
     boolean verbose = guideTrack != null;
 
-    int maxTotalCost = 1000000000;
     int firstMatchCost = 1000000000;
     
     logInfo( "findtrack with airDistanceCostFactor=" + airDistanceCostFactor );
@@ -745,13 +1284,14 @@ public class RoutingEngine extends Thread
     matchPath = null;
     int nodesVisited = 0;
 
-    resetCache();
+    prepareGraph();
     long endNodeId1 = endWp == null ? -1L : endWp.node1.getIdFromPos();
     long endNodeId2 = endWp == null ? -1L : endWp.node2.getIdFromPos();
     long startNodeId1 = startWp.node1.getIdFromPos();
     long startNodeId2 = startWp.node2.getIdFromPos();
 
     OsmNodeNamed endPos = endWp == null ? null : endWp.crosspoint;
+    TrackExpander expander = new TrackExpander( refTrack, endNodeId1, endNodeId2, endPos );
     
     boolean sameSegmentSearch = ( startNodeId1 == endNodeId1 && startNodeId2 == endNodeId2 )
                              || ( startNodeId1 == endNodeId2 && startNodeId2 == endNodeId1 );
@@ -876,89 +1416,314 @@ public class RoutingEngine extends Thread
             int costEstimate = path.cost
                              + path.elevationCorrection( routingContext )
                              + ( costCuttingTrack.cost - pe.cost );
-            if ( costEstimate <= maxTotalCost )
+            if ( costEstimate <= expander.maxTotalCost )
             {
               matchPath = OsmPathElement.create( path, routingContext.countTraffic );
             }
-            if ( costEstimate < maxTotalCost )
+            if ( costEstimate < expander.maxTotalCost )
             {
-              logInfo( "maxcost " + maxTotalCost + " -> " + costEstimate );
-              maxTotalCost = costEstimate;
+              logInfo( "maxcost " + expander.maxTotalCost + " -> " + costEstimate );
+              expander.maxTotalCost = costEstimate;
             }
           }
         }
       }
 
       // recheck cutoff before doing expensive stuff
-      if ( path.cost + path.airdistance > maxTotalCost + 10 )
+      if ( path.cost + path.airdistance > expander.maxTotalCost + 10 )
       {
         path.unregisterUpTree( routingContext );
         continue;
       }
 
-      expandHollowLinkTargets( currentNode );
+      expander.expand( path, nodesCache );
+      path.unregisterUpTree( routingContext );
+    }
+    return null;
+  }
+
+  // the expansion of findTrack, following the guide track if any
+  private final class TrackExpander extends PathExpander
+  {
+    private long endNodeId1;
+    private long endNodeId2;
+    private OsmNodeNamed endPos; // null for the traffic simulation
+    int maxTotalCost = 1000000000;
+
+    TrackExpander( OsmTrack refTrack, long endNodeId1, long endNodeId2, OsmNodeNamed endPos )
+    {
+      super( RoutingEngine.this.routingContext, refTrack, guideTrack != null, RoutingEngine.this.journal );
+      this.endNodeId1 = endNodeId1;
+      this.endNodeId2 = endNodeId2;
+      this.endPos = endPos;
+    }
 
-      if ( sourceNode != null )
+    @Override
+    protected boolean acceptLink( OsmPath path, OsmNode currentNode, OsmLink link )
+    {
+      if ( guideTrack == null )
+      {
+        return true;
+      }
+      int gidx = path.treedepth + 1;
+      if ( gidx >= guideTrack.nodes.size() )
       {
-        sourceNode.unlinkLink ( currentLink );
+        return false;
       }
+      OsmPathElement guideNode = guideTrack.nodes.get( gidx );
+      OsmNode nextNode = link.targetNode;
+      return nextNode.getILat() == guideNode.getILat() && nextNode.getILon() == guideNode.getILon();
+    }
 
-      OsmLink counterLink = null;
-      for( OsmLink link = currentNode.firstlink; link != null; link = link.next )
+    @Override
+    protected OsmNodeNamed getFinalPos( OsmNode currentNode, OsmNode nextNode )
+    {
+      long currentNodeId = currentNode.getIdFromPos();
+      if ( currentNodeId == endNodeId1 || currentNodeId == endNodeId2 )
       {
-        OsmNode nextNode = link.targetNode;
+        long targetNodeId = nextNode.getIdFromPos();
+        if ( targetNodeId == endNodeId1 || targetNodeId == endNodeId2 )
+        {
+          return endPos;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    protected void addPath( OsmPath path, OsmLink link, OsmPath bestPath, boolean isFinalLink )
+    {
+      OsmNode nextNode = link.targetNode;
+      boolean trafficSim = endPos == null;
+
+      bestPath.airdistance = trafficSim ? path.airdistance : ( isFinalLink ? 0 : nextNode.calcDistance( endPos ) );
+
+      boolean inRadius = boundary == null || boundary.isInBoundary( nextNode, bestPath.cost );
+      if ( !inRadius || ( !isFinalLink && bestPath.cost + bestPath.airdistance > maxTotalCost + 10 ) )
+      {
+        return;
+      }
+
+      // add only if this may beat an existing path for that link
+      if ( !trafficSim && isDominated( bestPath, link ) )
+      {
+        return;
+      }
+      if ( trafficSim && boundary != null && path.cost == 0 && bestPath.cost > 0 )
+      {
+        bestPath.airdistance += boundary.getBoundaryDistance( nextNode );
+      }
+
+      bestPath.treedepth = path.treedepth + 1;
+      addLinkHolder( link, bestPath );
+      synchronized( openSet )
+      {
+        addToOpenset( bestPath );
+      }
+    }
+  }
 
-        if ( nextNode.isHollow() )
+  /**
+   * Calculate the routes from one source to the targets: the one-to-many
+   * search finds the paths, and these are re-tracked like the route
+   * of a section for the exact distance and ascend
+   */
+  private void calcMatrixRow( RoutingMatrix matrix, int source, MatchedWaypoint startWp, List<MatchedWaypoint> targets, boolean[] islands )
+  {
+    OsmTrack[] rawTracks = findTracksToTargets( startWp, targets, islands );
+    for( int j=0; j<targets.size(); j++ )
+    {
+      MatchedWaypoint endWp = targets.get(j);
+      OsmTrack track = null;
+      if ( isSameSegment( startWp, endWp ) )
+      {
+        track = searchTrack( startWp, endWp, null, null );
+      }
+      else if ( rawTracks[j] != null )
+      {
+        airDistanceCostFactor = 0.;
+        guideTrack = rawTracks[j];
+        try
         {
-          continue; // border node?
+          track = findTrack( "re-tracking", startWp, endWp, null, null, false );
         }
-        if ( nextNode.firstlink == null )
+        finally
         {
-          continue; // don't care about dead ends
+          guideTrack = null;
         }
-        if ( nextNode == sourceNode )
+        if ( track == null )
         {
-          counterLink = link;
-          continue; // border node?
+          track = rawTracks[j];
         }
+      }
+      if ( track != null )
+      {
+        matrix.setTrack( source, j, track );
+      }
+    }
+  }
+
+  private static boolean isSameSegment( MatchedWaypoint wp1, MatchedWaypoint wp2 )
+  {
+    long id11 = wp1.node1.getIdFromPos();
+    long id12 = wp1.node2.getIdFromPos();
+    long id21 = wp2.node1.getIdFromPos();
+    long id22 = wp2.node2.getIdFromPos();
+    return ( id11 == id21 && id12 == id22 ) || ( id11 == id22 && id12 == id21 );
+  }
+
+  /**
+   * One-to-many search: the exact search of findTrack (no heuristic), but
+   * with a final path for each target whose segment is reached, and
+   * running until the final paths of all targets are taken from the open
+   * set. Targets on the segment of the start are left to searchTrack
+   *
+   * @return the raw tracks to the targets, null for the ones not reached
+   */
+  private OsmTrack[] findTracksToTargets( MatchedWaypoint startWp, List<MatchedWaypoint> targets, boolean[] skip )
+  {
+    OsmTrack[] tracks = new OsmTrack[targets.size()];
+
+    // the targets by the nodes of their segments
+    HashMap<Long,List<Integer>> targetsByNode = new HashMap<Long,List<Integer>>();
+    int unreached = 0;
+    for( int j=0; j<targets.size(); j++ )
+    {
+      MatchedWaypoint endWp = targets.get(j);
+      if ( skip[j] || isSameSegment( startWp, endWp ) )
+      {
+        continue;
+      }
+      addTarget( targetsByNode, endWp.node1.getIdFromPos(), j );
+      addTarget( targetsByNode, endWp.node2.getIdFromPos(), j );
+      unreached++;
+    }
+    if ( unreached == 0 )
+    {
+      return tracks;
+    }
+
+    logInfo( "one-to-many search for " + unreached + " targets" );
+    airDistanceCostFactor = 0.;
+    prepareGraph();
+    long startNodeId2 = startWp.node2.getIdFromPos();
+    OsmNode start1 = getStartNode( startWp.node1.getIdFromPos() );
+    if ( start1 == null ) return tracks;
+    OsmNode start2 = null;
+    for( OsmLink link = start1.firstlink; link != null; link = link.next )
+    {
+      if ( link.targetNode.getIdFromPos() == startNodeId2 )
+      {
+        start2 = link.targetNode;
+        break;
+      }
+    }
+    if ( start2 == null ) return tracks;
 
-        if ( guideTrack != null )
+    TargetsExpander expander = new TargetsExpander( targets, tracks );
+    synchronized( openSet )
+    {
+      openSet.clear();
+      addToOpenset( getStartPath( start1, start2, startWp, null, false ) );
+      addToOpenset( getStartPath( start2, start1, startWp, null, false ) );
+    }
+    while( unreached > 0 )
+    {
+      checkRunningTime( "one-to-many search" );
+
+      OsmPath path = null;
+      synchronized( openSet )
+      {
+        path = openSet.popLowestKeyValue();
+      }
+      if ( path == null ) break;
+
+      Integer target = expander.finalPaths.remove( path );
+      if ( target != null )
+      {
+        int j = target.intValue();
+        if ( tracks[j] == null )
         {
-          int gidx = path.treedepth + 1;
-          if ( gidx >= guideTrack.nodes.size() )
-          {
-            continue;
-          }
-          OsmPathElement guideNode = guideTrack.nodes.get( gidx );
-          if ( nextNode.getILat() != guideNode.getILat() || nextNode.getILon() != guideNode.getILon() )
-          {
-            continue;
-          }
+          tracks[j] = compileTrack( path, false );
+          unreached--;
         }
+        continue;
+      }
+      if ( path.airdistance == -1 )
+      {
+        path.unregisterUpTree( routingContext );
+        continue;
+      }
+      linksProcessed++;
 
-        OsmPath bestPath = null;
+      expander.nodeTargets = targetsByNode.get( Long.valueOf( path.getLink().targetNode.getIdFromPos() ) );
+      expander.expand( path, nodesCache );
+      path.unregisterUpTree( routingContext );
+    }
+    logInfo( "one-to-many search done, unreached targets: " + unreached );
+    return tracks;
+  }
 
-        boolean isFinalLink = false;
-        long targetNodeId = link.targetNode.getIdFromPos();
-        if ( currentNodeId == endNodeId1 || currentNodeId == endNodeId2 )
+  private static void addTarget( HashMap<Long,List<Integer>> targetsByNode, long nodeId, int target )
+  {
+    Long key = Long.valueOf( nodeId );
+    List<Integer> nodeTargets = targetsByNode.get( key );
+    if ( nodeTargets == null )
+    {
+      nodeTargets = new ArrayList<Integer>();
+      targetsByNode.put( key, nodeTargets );
+    }
+    nodeTargets.add( Integer.valueOf( target ) );
+  }
+
+  // the expansion of findTracksToTargets, adding the final paths to the targets
+  private final class TargetsExpander extends PathExpander
+  {
+    private List<MatchedWaypoint> targets;
+    private OsmTrack[] tracks;
+    IdentityHashMap<OsmPath,Integer> finalPaths = new IdentityHashMap<OsmPath,Integer>();
+    List<Integer> nodeTargets; // the targets at the node of the expanded path, if any
+
+    TargetsExpander( List<MatchedWaypoint> targets, OsmTrack[] tracks )
+    {
+      super( RoutingEngine.this.routingContext, null, false, RoutingEngine.this.journal );
+      this.targets = targets;
+      this.tracks = tracks;
+    }
+
+    @Override
+    protected boolean acceptLink( OsmPath path, OsmNode currentNode, OsmLink link )
+    {
+      if ( nodeTargets != null )
+      {
+        addFinalPaths( currentNode, path.getLink(), link );
+      }
+      return true;
+    }
+
+    /**
+     * Add the paths ending at the targets on the segment of the link. These
+     * are not link holders, the search continues beyond the targets
+     */
+    private void addFinalPaths( OsmNode currentNode, OsmLink currentLink, OsmLink link )
+    {
+      long nextNodeId = link.targetNode.getIdFromPos();
+      for( Integer target : nodeTargets )
+      {
+        MatchedWaypoint endWp = targets.get( target.intValue() );
+        if ( tracks[target.intValue()] != null
+          || ( nextNodeId != endWp.node1.getIdFromPos() && nextNodeId != endWp.node2.getIdFromPos() ) )
         {
-          if ( targetNodeId == endNodeId1 || targetNodeId == endNodeId2 )
-          {
-            isFinalLink = true;
-          }
+          continue;
         }
-
+        OsmPath bestPath = null;
         for( OsmLinkHolder linkHolder = currentLink.firstlinkholder; linkHolder != null; linkHolder = linkHolder.getNextForLink() )
         {
-          OsmPath otherPath = (OsmPath)linkHolder;
           try
           {
-            if ( isFinalLink )
-            {
-              endPos.radius = 1e-5;
-              routingContext.setWaypoint( endPos, true );
-            }
-            OsmPath testPath = new OsmPath( currentNode, otherPath, link, refTrack, guideTrack != null, routingContext );
+            endWp.crosspoint.radius = 1e-5;
+            routingContext.setWaypoint( endWp.crosspoint, true );
+            OsmPath testPath = new OsmPath( currentNode, (OsmPath)linkHolder, link, null, false, routingContext );
             if ( testPath.cost >= 0 && ( bestPath == null || testPath.cost < bestPath.cost ) )
             {
               bestPath = testPath;
@@ -968,64 +1733,167 @@ public class RoutingEngine extends Thread
           {
             routingContext.unsetWaypoint();
           }
-          if ( otherPath != path )
-          {
-            otherPath.airdistance = -1; // invalidate the entry in the open set
-          }
         }
         if ( bestPath != null )
         {
-          boolean trafficSim = endPos == null;
-
-          bestPath.airdistance = trafficSim ? path.airdistance : ( isFinalLink ? 0 : nextNode.calcDistance( endPos ) );
-          
-          boolean inRadius = boundary == null || boundary.isInBoundary( nextNode, bestPath.cost );
-
-          if ( inRadius && ( isFinalLink || bestPath.cost + bestPath.airdistance <= maxTotalCost + 10 ) )
+          bestPath.airdistance = 0;
+          finalPaths.put( bestPath, target );
+          synchronized( openSet )
           {
-            // add only if this may beat an existing path for that link
-        	OsmLinkHolder dominator = link.firstlinkholder;
-            while( !trafficSim && dominator != null )
-            {
-              if ( bestPath.definitlyWorseThan( (OsmPath)dominator, routingContext ) )
-              {
-                break;
-              }
-              dominator = dominator.getNextForLink();
-            }
-
-        	if ( dominator == null )
-        	{
-              if ( trafficSim && boundary != null && path.cost == 0 && bestPath.cost > 0 )
-              {
-                bestPath.airdistance += boundary.getBoundaryDistance( nextNode );
-              }
-
-              bestPath.treedepth = path.treedepth + 1;
-              link.addLinkHolder( bestPath );
-              synchronized( openSet )
-              {
-                addToOpenset( bestPath );
-              }
-        	}
+            addToOpenset( bestPath );
           }
         }
       }
-      // if the counterlink does not yet have a path, remove it
-      if ( counterLink != null && counterLink.firstlinkholder == null )
+    }
+
+    @Override
+    protected void addPath( OsmPath path, OsmLink link, OsmPath bestPath, boolean isFinalLink )
+    {
+      bestPath.airdistance = 0;
+
+      // add only if this may beat an existing path for that link
+      if ( isDominated( bestPath, link ) )
+      {
+        return;
+      }
+      bestPath.treedepth = path.treedepth + 1;
+      addLinkHolder( link, bestPath );
+      synchronized( openSet )
       {
-        currentNode.unlinkLink(counterLink);
+        addToOpenset( bestPath );
       }
-      path.unregisterUpTree( routingContext );
     }
-    return null;
   }
-  
+
+  /**
+   * Exhaustive search up to the limits, see doReachability and ReachabilitySearch
+   */
+  private void findReachable( MatchedWaypoint startWp, int maxCost, int maxDistance, ReachabilityListener listener ) throws IOException
+  {
+    airDistanceCostFactor = 0.;
+    prepareGraph();
+    long startNodeId2 = startWp.node2.getIdFromPos();
+    OsmNode start1 = getStartNode( startWp.node1.getIdFromPos() );
+    OsmNode start2 = null;
+    for( OsmLink link = start1 == null ? null : start1.firstlink; link != null; link = link.next )
+    {
+      if ( link.targetNode.getIdFromPos() == startNodeId2 )
+      {
+        start2 = link.targetNode;
+        break;
+      }
+    }
+    if ( start2 == null )
+    {
+      throw new IllegalArgumentException( "start position not routable" );
+    }
+
+    OsmPath startPath1 = getStartPath( start1, start2, startWp, null, false );
+    OsmPath startPath2 = getStartPath( start2, start1, startWp, null, false );
+    synchronized( openSet )
+    {
+      openSet.clear();
+    }
+    ReachabilitySearch search = new ReachabilitySearch( this, routingContext, journal, openSet, maxCost, maxDistance, listener );
+    try
+    {
+      search.run( startWp.crosspoint, startPath1, startPath2, nodesCache );
+    }
+    finally
+    {
+      linksProcessed += search.nodesVisited;
+    }
+  }
+
+  /**
+   * Search on the precomputed shortcut overlay of the profile, if any
+   * (see ShortcutSearch). Like the bidirectional search, this yields
+   * a guide track for the re-tracking
+   *
+   * @return the guide track, or null to fall back to the other searches
+   */
+  private OsmTrack findTrackByShortcuts( MatchedWaypoint startWp, MatchedWaypoint endWp )
+  {
+    if ( routingContext.nogopoints != null && !routingContext.nogopoints.isEmpty() )
+    {
+      logInfo( "shortcut overlay not used with nogos, using the other searches" );
+      return null; // nogos are not part of the overlay
+    }
+    resetCache();
+    ShortcutSearch search = ShortcutSearch.create( this, segmentDir, nodesCache, routingContext );
+    if ( search == null )
+    {
+      logInfo( "no shortcut overlay for profile" );
+      return null;
+    }
+    OsmTrack track = search.search( startWp, endWp );
+    linksProcessed += search.nodesVisited;
+    logInfo( "shortcut search: " + ( track == null ? "not applicable" : "found track at cost " + track.cost )
+           + " nodesVisited = " + search.nodesVisited );
+    return track;
+  }
+
+  /**
+   * Bidirectional search (see BidirectionalSearch), the inverse side on its
+   * own graph. Its connection is an approximation, so it is only used as a
+   * guide track: the re-tracking in forward direction yields the exact costs
+   * (or falls back to the unidirectional passes if the guide track turns out
+   * to be invalid)
+   *
+   * @return the guide track, or null to fall back to the unidirectional passes
+   */
+  private OsmTrack findTrackBidirectional( MatchedWaypoint startWp, MatchedWaypoint endWp, OsmTrack refTrack )
+  {
+    if ( isSameSegment( startWp, endWp ) )
+    {
+      return null; // same segment, nothing to gain
+    }
+
+    double factor = routingContext.pass2coefficient >= 0. ? routingContext.pass2coefficient : routingContext.pass1coefficient;
+    logInfo( "findtrack bidirectional with airDistanceCostFactor=" + factor );
+
+    resetCache();
+    SharedTileCache sharedTileCache = routingContext.serversizing ? SharedTileCache.getInstance() : null;
+    NodesCache inverseCache = new NodesCache( segmentDir, new OsmNodesMap(), routingContext.expctxWay, routingContext.carMode,
+        routingContext.forceSecondaryData, null, sharedTileCache );
+    BidirectionalSearch search = new BidirectionalSearch( this, routingContext, startWp, endWp, factor, nodesCache, inverseCache, refTrack );
+    try
+    {
+      return search.run( startWp, endWp );
+    }
+    finally
+    {
+      linksProcessed += search.nodesVisited;
+      inverseCache.close();
+      routingContext.inverseDirection = false;
+    }
+  }
+
+  // for the searches outside findTrack
+  void checkRunningTime( String operationName )
+  {
+    if ( terminated )
+    {
+      throw new IllegalArgumentException( "operation killed by thread-priority-watchdog after " + ( System.currentTimeMillis() - startTime)/1000 + " seconds" );
+    }
+    if ( maxRunningTime > 0 && System.currentTimeMillis() - startTime > maxRunningTime )
+    {
+      throw new IllegalArgumentException( operationName + " timeout after " + (maxRunningTime/1000) + " seconds" );
+    }
+  }
+
   private void addToOpenset( OsmPath path )
   {
     if ( path.cost >= 0 )
     {
-      openSet.add( path.cost + (int)(path.airdistance*airDistanceCostFactor), path );
+      int heuristic = (int)(path.airdistance*airDistanceCostFactor);
+      if ( landmarks != null && path.airdistance > 0 )
+      {
+        // the landmark bound is admissible, so it can raise even the exact pass
+        int bound = landmarks.getBound( path.getLink().targetNode );
+        if ( bound > heuristic ) heuristic = bound;
+      }
+      openSet.add( path.cost + heuristic, path );
       path.registerUpTree();
     }
   }
@@ -1217,6 +2085,51 @@ public class RoutingEngine extends Thread
     return foundRawTrack;
   }
 
+  /**
+   * Write the info log (search statistics and decisions) to the given writer
+   */
+  public void setInfoLogWriter( Writer writer )
+  {
+    infoLogWriter = writer;
+  }
+
+  /**
+   * Use the given open set for the searches instead of the one
+   * of OpenSetFactory (e.g. to record the operations, see OpenSetBenchmark).
+   * Must be called before doRun
+   */
+  public void setOpenSet( OpenSet<OsmPath> openSet )
+  {
+    this.openSet = openSet;
+  }
+
+  /**
+   * Continue from the alternatives found by a previous run for the
+   * same waypoints, profile and nogos. Must be called before doRun
+   */
+  public void setAlternatives( AlternativeTracks previous )
+  {
+    alternatives = previous.copy();
+  }
+
+  /**
+   * @return the alternatives 0..alternativeIdx found by a successful run. So to
+   *         get several alternatives in one call, set the alternative index to
+   *         the highest one needed
+   */
+  public AlternativeTracks getAlternatives()
+  {
+    return alternatives;
+  }
+
+  /**
+   * @return the datafiles the last run was based on (available after doRun)
+   */
+  public List<File> getUsedDataFiles()
+  {
+    return usedDataFiles;
+  }
+
   public String getErrorMessage()
   {
     return errorMessage;
@@ -1225,6 +2138,17 @@ public class RoutingEngine extends Thread
   public void terminate()
   {
     terminated = true;
+    List<RoutingEngine> engines = sectionEngines;
+    if ( engines != null )
+    {
+      synchronized( engines )
+      {
+        for( RoutingEngine engine : engines )
+        {
+          engine.terminate();
+        }
+      }
+    }
   }
 
   public boolean isTerminated()
@@ -0,0 +1,123 @@
+package btools.router;
+
+/**
+ * Result of a matrix calculation (see RoutingEngine.doMatrix): distance,
+ * cost and filtered ascend of the routes from each of the sources to each
+ * of the targets, UNREACHABLE for pairs without a route
+ */
+public final class RoutingMatrix
+{
+  public static final int UNREACHABLE = -1;
+
+  private int sourceCount;
+  private int targetCount;
+
+  // [source*targetCount + target]
+  private int[] distances;
+  private int[] costs;
+  private int[] ascends;
+
+  RoutingMatrix( int sourceCount, int targetCount )
+  {
+    this.sourceCount = sourceCount;
+    this.targetCount = targetCount;
+    int n = sourceCount * targetCount;
+    distances = new int[n];
+    costs = new int[n];
+    ascends = new int[n];
+    for ( int i = 0; i < n; i++ )
+    {
+      distances[i] = UNREACHABLE;
+      costs[i] = UNREACHABLE;
+      ascends[i] = UNREACHABLE;
+    }
+  }
+
+  void setTrack( int source, int target, OsmTrack track )
+  {
+    int idx = source * targetCount + target;
+    distances[idx] = track.distance;
+    costs[idx] = track.cost;
+    ascends[idx] = track.ascend;
+  }
+
+  public int getSourceCount()
+  {
+    return sourceCount;
+  }
+
+  public int getTargetCount()
+  {
+    return targetCount;
+  }
+
+  /**
+   * @return the track length in meters, or UNREACHABLE
+   */
+  public int getDistance( int source, int target )
+  {
+    return distances[source * targetCount + target];
+  }
+
+  /**
+   * @return the cost of the route, or UNREACHABLE
+   */
+  public int getCost( int source, int target )
+  {
+    return costs[source * targetCount + target];
+  }
+
+  /**
+   * @return the filtered ascend in meters, or UNREACHABLE
+   */
+  public int getAscend( int source, int target )
+  {
+    return ascends[source * targetCount + target];
+  }
+
+  /**
+   * Format as JSON with one array per source for each of the values,
+   * null for the pairs without a route
+   */
+  public String formatAsJson()
+  {
+    StringBuilder sb = new StringBuilder( 64 + 24 * distances.length );
+    sb.append( "{\n" );
+    sb.append( "  \"sources\": " ).append( sourceCount ).append( ",\n" );
+    sb.append( "  \"targets\": " ).append( targetCount ).append( ",\n" );
+    appendValues( sb, "distance", distances );
+    sb.append( ",\n" );
+    appendValues( sb, "cost", costs );
+    sb.append( ",\n" );
+    appendValues( sb, "ascend", ascends );
+    sb.append( "\n}\n" );
+    return sb.toString();
+  }
+
+  private void appendValues( StringBuilder sb, String name, int[] values )
+  {
+    sb.append( "  \"" ).append( name ).append( "\": [" );
+    for ( int i = 0; i < sourceCount; i++ )
+    {
+      sb.append( i == 0 ? "\n    [" : ",\n    [" );
+      for ( int j = 0; j < targetCount; j++ )
+      {
+        if ( j > 0 )
+        {
+          sb.append( ", " );
+        }
+        int v = values[i * targetCount + j];
+        if ( v == UNREACHABLE )
+        {
+          sb.append( "null" );
+        }
+        else
+        {
+          sb.append( v );
+        }
+      }
+      sb.append( ']' );
+    }
+    sb.append( "\n  ]" );
+  }
+}
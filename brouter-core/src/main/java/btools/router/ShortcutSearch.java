@@ -0,0 +1,397 @@
+package btools.router;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import btools.mapaccess.NodesCache;
+import btools.mapaccess.OsmLink;
+import btools.mapaccess.OsmNode;
+import btools.mapaccess.ShortcutTile;
+import btools.util.SortedHeap;
+
+/**
+ * Search on the shortcut overlay (see ShortcutTile) for long routes:
+ *
+ * - a search on the detailed graph from the start to the boundary nodes of its cell
+ * - a search in inverse direction from the boundary nodes of the end-cell to the end
+ * - in between a search on the overlay only (shortcuts and cut links)
+ *
+ * The costs of the overlay are static, so the result is a guide track for
+ * the re-tracking, which calculates the real costs on the detailed graph
+ */
+final class ShortcutSearch
+{
+  private static SideFileCache<ShortcutTile> tileCache = new SideFileCache<ShortcutTile>( 64 )
+  {
+    protected ShortcutTile load( File f ) throws IOException
+    {
+      return ShortcutTile.readFrom( f );
+    }
+  };
+
+  // label of the searches on the detailed graph
+  private static final class LocalLabel
+  {
+    long id;
+    OsmNode node;
+    int cost;
+    LocalLabel pred;
+    boolean settled;
+    boolean boundary;
+  }
+
+  // label of the search on the overlay
+  private static final class Label
+  {
+    long id;
+    int cost;
+    Label pred;
+    int[] via; // the nodes between pred and this (null for a start label)
+    LocalLabel local; // for a start label: the label of the local search
+    boolean settled;
+  }
+
+  private static final int[] NO_NODES = new int[0];
+
+  private RoutingEngine engine;
+  private NodesCache nodesCache;
+  private RoutingContext rc;
+  private File segmentDir;
+  private File overlayDir;
+  private int profileCrc;
+
+  int nodesVisited;
+
+  private ShortcutSearch()
+  {
+  }
+
+  /**
+   * @return the search, or null if there is no overlay for the profile
+   */
+  static ShortcutSearch create( RoutingEngine engine, String segmentDir, NodesCache nodesCache, RoutingContext rc )
+  {
+    File profileFile = ProfileCache.getProfileFile( rc );
+    String profileName = profileFile.getName();
+    if ( profileName.endsWith( ".brf" ) )
+    {
+      profileName = profileName.substring( 0, profileName.length() - 4 );
+    }
+    ShortcutSearch s = new ShortcutSearch();
+    s.segmentDir = new File( segmentDir );
+    s.overlayDir = ShortcutTile.getDirectory( s.segmentDir, profileName );
+    if ( !s.overlayDir.isDirectory() )
+    {
+      return null;
+    }
+    try
+    {
+      s.profileCrc = ShortcutTile.getProfileCrc( profileFile );
+    }
+    catch (IOException ioe)
+    {
+      return null;
+    }
+    s.engine = engine;
+    s.nodesCache = nodesCache;
+    s.rc = rc;
+    return s;
+  }
+
+  /**
+   * @return the overlay for the datafile containing the position,
+   *         or null if missing or not matching profile or datafile
+   */
+  private ShortcutTile getTile( int ilon, int ilat )
+  {
+    String baseName = NodesCache.getFileBaseName( ilon / 1000000, ilat / 1000000 );
+    ShortcutTile tile = tileCache.get( new File( overlayDir, baseName + ShortcutTile.SUFFIX ) );
+    if ( tile == null )
+    {
+      return null;
+    }
+    File datafile = new File( segmentDir, baseName + ".rd5" );
+    if ( tile.profileCrc != profileCrc || tile.datafileLength != datafile.length() )
+    {
+      return null; // outdated
+    }
+    return tile;
+  }
+
+  private ShortcutTile getTile( long id )
+  {
+    return getTile( (int) ( id >> 32 ), (int) ( id & 0xffffffff ) );
+  }
+
+  /**
+   * @return the guide track, or null if the overlay is not applicable
+   */
+  OsmTrack search( MatchedWaypoint startWp, MatchedWaypoint endWp )
+  {
+    ShortcutTile startTile = getTile( startWp.node1.ilon, startWp.node1.ilat );
+    ShortcutTile endTile = getTile( endWp.node1.ilon, endWp.node1.ilat );
+    if ( startTile == null || endTile == null || startTile.cellSize != endTile.cellSize )
+    {
+      return null;
+    }
+    int cellSize = startTile.cellSize;
+
+    // for neighbour cells, the detailed search is faster
+    int dx = startWp.node1.ilon / cellSize - endWp.node1.ilon / cellSize;
+    int dy = startWp.node1.ilat / cellSize - endWp.node1.ilat / cellSize;
+    if ( dx >= -1 && dx <= 1 && dy >= -1 && dy <= 1 )
+    {
+      return null;
+    }
+
+    HashMap<Long, LocalLabel> fromStart = localSearch( startWp, startTile, false );
+    HashMap<Long, LocalLabel> toEnd = localSearch( endWp, endTile, true );
+
+    // search on the overlay
+    OsmNode endPos = endWp.crosspoint;
+    HashMap<Long, Label> labels = new HashMap<Long, Label>();
+    SortedHeap<Label> heap = new SortedHeap<Label>();
+    for ( LocalLabel ll : fromStart.values() )
+    {
+      if ( ll.boundary )
+      {
+        Label l = new Label();
+        l.id = ll.id;
+        l.cost = ll.cost;
+        l.local = ll;
+        labels.put( Long.valueOf( l.id ), l );
+        heap.add( l.cost + ll.node.calcDistance( endPos ), l );
+      }
+    }
+
+    int bestCost = Integer.MAX_VALUE;
+    Label bestLabel = null;
+    for ( ;; )
+    {
+      Label l = heap.popLowestKeyValue();
+      if ( l == null )
+      {
+        break;
+      }
+      if ( l.settled )
+      {
+        continue;
+      }
+      l.settled = true;
+      OsmNode n = new OsmNode( l.id );
+      if ( l.cost + n.calcDistance( endPos ) >= bestCost )
+      {
+        break;
+      }
+      if ( ( ++nodesVisited & 0xff ) == 0 )
+      {
+        engine.checkRunningTime( "shortcut search" );
+      }
+
+      LocalLabel ll = toEnd.get( Long.valueOf( l.id ) );
+      if ( ll != null && l.cost + ll.cost < bestCost )
+      {
+        bestCost = l.cost + ll.cost;
+        bestLabel = l;
+      }
+
+      ShortcutTile tile = getTile( l.id );
+      ShortcutTile.BoundaryNode b = tile == null ? null : tile.getNode( l.id );
+      if ( b == null )
+      {
+        continue;
+      }
+      for ( int i = 0; i < b.shortcutTargets.length; i++ )
+      {
+        relax( labels, heap, endPos, tile.getNode( b.shortcutTargets[i] ).id, l, b.shortcutCosts[i], b.shortcutNodes[i] );
+      }
+      for ( int i = 0; i < b.cutTargets.length; i++ )
+      {
+        relax( labels, heap, endPos, b.cutTargets[i], l, b.cutCosts[i], NO_NODES );
+      }
+    }
+    if ( bestLabel == null )
+    {
+      return null;
+    }
+    return compileGuideTrack( startWp, endWp, bestLabel, toEnd.get( Long.valueOf( bestLabel.id ) ), bestCost );
+  }
+
+  private void relax( HashMap<Long, Label> labels, SortedHeap<Label> heap, OsmNode endPos, long id, Label pred, int linkCost, int[] via )
+  {
+    int cost = pred.cost + linkCost;
+    Long key = Long.valueOf( id );
+    Label l = labels.get( key );
+    if ( l == null )
+    {
+      l = new Label();
+      l.id = id;
+      labels.put( key, l );
+    }
+    else if ( l.settled || cost >= l.cost )
+    {
+      return;
+    }
+    l.cost = cost;
+    l.pred = pred;
+    l.via = via;
+    l.local = null;
+    heap.add( cost + new OsmNode( id ).calcDistance( endPos ), l );
+  }
+
+  /**
+   * Dijkstra on the detailed graph, restricted to the cell of the waypoint
+   *
+   * @param inverse search the paths leading to the waypoint
+   * @return the labels of the nodes of the cell, boundary nodes flagged
+   */
+  private HashMap<Long, LocalLabel> localSearch( MatchedWaypoint wp, ShortcutTile tile, boolean inverse )
+  {
+    HashMap<Long, LocalLabel> labels = new HashMap<Long, LocalLabel>();
+    SortedHeap<LocalLabel> heap = new SortedHeap<LocalLabel>();
+    int cellSize = tile.cellSize;
+    long cell = ShortcutTile.getCell( wp.node1.ilon, wp.node1.ilat, cellSize );
+
+    OsmNode[] roots = new OsmNode[]{ wp.node1, wp.node2 };
+    for ( OsmNode r : roots )
+    {
+      if ( ShortcutTile.getCell( r.ilon, r.ilat, cellSize ) != cell )
+      {
+        continue;
+      }
+      OsmNode n = new OsmNode( r.ilon, r.ilat );
+      n.setHollow();
+      if ( !nodesCache.obtainNonHollowNode( n ) )
+      {
+        continue;
+      }
+      LocalLabel l = new LocalLabel();
+      l.id = n.getIdFromPos();
+      l.node = n;
+      labels.put( Long.valueOf( l.id ), l );
+      heap.add( 0, l );
+    }
+
+    for ( ;; )
+    {
+      LocalLabel l = heap.popLowestKeyValue();
+      if ( l == null )
+      {
+        break;
+      }
+      if ( l.settled )
+      {
+        continue;
+      }
+      l.settled = true;
+      l.boundary = tile.getNode( l.id ) != null;
+      if ( ( ++nodesVisited & 0xff ) == 0 )
+      {
+        engine.checkRunningTime( "shortcut search" );
+      }
+
+      OsmNode n = l.node;
+      for ( OsmLink link = n.firstlink; link != null; link = link.next )
+      {
+        OsmNode t = link.targetNode;
+        if ( ShortcutTile.getCell( t.ilon, t.ilat, cellSize ) != cell || !nodesCache.obtainNonHollowNode( t ) )
+        {
+          continue;
+        }
+        int linkCost = ShortcutTile.getLinkCost( n, link, inverse, rc.expctxWay, rc.expctxNode );
+        if ( linkCost < 0 )
+        {
+          continue;
+        }
+        int cost = l.cost + linkCost;
+        Long key = Long.valueOf( t.getIdFromPos() );
+        LocalLabel tl = labels.get( key );
+        if ( tl == null )
+        {
+          tl = new LocalLabel();
+          tl.id = key.longValue();
+          tl.node = t;
+          labels.put( key, tl );
+        }
+        else if ( tl.settled || cost >= tl.cost )
+        {
+          continue;
+        }
+        tl.cost = cost;
+        tl.pred = l;
+        heap.add( cost, tl );
+      }
+    }
+    return labels;
+  }
+
+  private OsmTrack compileGuideTrack( MatchedWaypoint startWp, MatchedWaypoint endWp, Label bestLabel, LocalLabel endLabel, int bestCost )
+  {
+    List<OsmPathElement> elements = new ArrayList<OsmPathElement>();
+
+    List<Label> chain = new ArrayList<Label>();
+    for ( Label l = bestLabel; l != null; l = l.pred )
+    {
+      chain.add( l );
+    }
+    Collections.reverse( chain );
+
+    // local path from the start, preceded by the other node of the start segment
+    List<LocalLabel> startChain = new ArrayList<LocalLabel>();
+    for ( LocalLabel ll = chain.get( 0 ).local; ll != null; ll = ll.pred )
+    {
+      startChain.add( ll );
+    }
+    Collections.reverse( startChain );
+    OsmNode root = startChain.get( 0 ).node;
+    OsmNode other = root.getIdFromPos() == startWp.node1.getIdFromPos() ? startWp.node2 : startWp.node1;
+    OsmPathElement pe = addElement( elements, null, other.ilon, other.ilat, 0 );
+    for ( LocalLabel ll : startChain )
+    {
+      pe = addElement( elements, pe, ll.node.ilon, ll.node.ilat, ll.cost );
+    }
+
+    // the overlay part
+    for ( int i = 1; i < chain.size(); i++ )
+    {
+      Label l = chain.get( i );
+      for ( int k = 0; k < l.via.length; k += 2 )
+      {
+        pe = addElement( elements, pe, l.via[k], l.via[k + 1], l.pred.cost );
+      }
+      pe = addElement( elements, pe, (int) ( l.id >> 32 ), (int) ( l.id & 0xffffffff ), l.cost );
+    }
+
+    // local path to the end, followed by the other node of the end segment
+    LocalLabel ll = endLabel.pred;
+    OsmNode last = endLabel.node;
+    for ( ; ll != null; ll = ll.pred )
+    {
+      pe = addElement( elements, pe, ll.node.ilon, ll.node.ilat, bestCost - ll.cost );
+      last = ll.node;
+    }
+    other = last.getIdFromPos() == endWp.node1.getIdFromPos() ? endWp.node2 : endWp.node1;
+    addElement( elements, pe, other.ilon, other.ilat, bestCost );
+
+    OsmTrack track = new OsmTrack();
+    for ( int i = elements.size() - 1; i >= 0; i-- )
+    {
+      track.addNode( elements.get( i ) );
+    }
+    track.cost = bestCost;
+    track.buildMap();
+    return track;
+  }
+
+  private static OsmPathElement addElement( List<OsmPathElement> elements, OsmPathElement origin, int ilon, int ilat, int cost )
+  {
+    OsmPathElement pe = OsmPathElement.create( ilon, ilat, Short.MIN_VALUE, origin, false );
+    pe.cost = cost;
+    elements.add( pe );
+    return pe;
+  }
+}
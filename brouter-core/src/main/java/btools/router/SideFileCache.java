@@ -0,0 +1,71 @@
+package btools.router;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU-cache for the precomputed side-files of the datafiles (shortcut
+ * overlays, landmark bounds), shared by all routing threads.
+ * A file is re-read if it was modified after loading
+ */
+abstract class SideFileCache<T>
+{
+  private static final class Entry<T>
+  {
+    T content;
+    long timestamp;
+  }
+
+  private Map<String, Entry<T>> entries;
+
+  SideFileCache( final int maxEntries )
+  {
+    entries = new LinkedHashMap<String, Entry<T>>( 16, 0.75f, true )
+    {
+      private static final long serialVersionUID = 1L;
+
+      protected boolean removeEldestEntry( Map.Entry<String, Entry<T>> eldest )
+      {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  protected abstract T load( File f ) throws IOException;
+
+  /**
+   * @return the content of the file, or null if missing or unreadable
+   */
+  T get( File f )
+  {
+    synchronized ( entries )
+    {
+      Entry<T> e = entries.get( f.getPath() );
+      if ( e != null && e.timestamp == f.lastModified() )
+      {
+        return e.content;
+      }
+    }
+    if ( !f.exists() )
+    {
+      return null;
+    }
+    Entry<T> e = new Entry<T>();
+    e.timestamp = f.lastModified();
+    try
+    {
+      e.content = load( f );
+    }
+    catch (IOException ioe)
+    {
+      return null;
+    }
+    synchronized ( entries )
+    {
+      entries.put( f.getPath(), e );
+    }
+    return e.content;
+  }
+}
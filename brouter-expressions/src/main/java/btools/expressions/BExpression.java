@@ -243,6 +243,144 @@ final class BExpression
     }
   }
 
+  // Emit the bytecode for that expression, leaving its value on the
+  // stack (except for the toplevel assignments, that leave nothing)
+  void compile( BExpressionCompiler c )
+  {
+    switch( typ )
+    {
+      case OR_EXP:
+      {
+        int lTrue = c.newLabel();
+        op1.compile(c); c.branchOnFloat( BExpressionCompiler.IFNE, lTrue );
+        op2.compile(c); c.branchOnFloat( BExpressionCompiler.IFNE, lTrue );
+        c.endCondition( lTrue, true );
+        return;
+      }
+      case AND_EXP:
+      {
+        int lFalse = c.newLabel();
+        op1.compile(c); c.branchOnFloat( BExpressionCompiler.IFEQ, lFalse );
+        op2.compile(c); c.branchOnFloat( BExpressionCompiler.IFEQ, lFalse );
+        c.endCondition( lFalse, false );
+        return;
+      }
+      case ADD_EXP: op1.compile(c); op2.compile(c); c.op( BExpressionCompiler.FADD, -1 ); return;
+      case MULTIPLY_EXP: op1.compile(c); op2.compile(c); c.op( BExpressionCompiler.FMUL, -1 ); return;
+      case MAX_EXP:
+      {
+        int v1 = c.newLocal( 1 );
+        int v2 = c.newLocal( 1 );
+        op1.compile(c); c.opLocal( BExpressionCompiler.FSTORE, v1, -1 );
+        op2.compile(c); c.opLocal( BExpressionCompiler.FSTORE, v2, -1 );
+        int lV2 = c.newLabel();
+        int lEnd = c.newLabel();
+        c.opLocal( BExpressionCompiler.FLOAD, v1, 1 );
+        c.opLocal( BExpressionCompiler.FLOAD, v2, 1 );
+        c.op( BExpressionCompiler.FCMPL, -1 );
+        c.branch( BExpressionCompiler.IFLE, lV2, -1 );
+        c.opLocal( BExpressionCompiler.FLOAD, v1, 1 );
+        c.branch( BExpressionCompiler.GOTO, lEnd, 0 );
+        c.placeLabel( lV2 );
+        c.stack--;
+        c.opLocal( BExpressionCompiler.FLOAD, v2, 1 );
+        c.placeLabel( lEnd );
+        c.releaseLocals( v1 );
+        return;
+      }
+      case EQUAL_EXP:
+      case GREATER_EXP:
+      {
+        int lFalse = c.newLabel();
+        op1.compile(c); op2.compile(c);
+        c.op( BExpressionCompiler.FCMPL, -1 );
+        c.branch( typ == EQUAL_EXP ? BExpressionCompiler.IFNE : BExpressionCompiler.IFLE, lFalse, -1 );
+        c.endCondition( lFalse, false );
+        return;
+      }
+      case SWITCH_EXP:
+      {
+        int lElse = c.newLabel();
+        int lEnd = c.newLabel();
+        op1.compile(c); c.branchOnFloat( BExpressionCompiler.IFEQ, lElse );
+        op2.compile(c);
+        c.branch( BExpressionCompiler.GOTO, lEnd, 0 );
+        c.placeLabel( lElse );
+        c.stack--;
+        op3.compile(c);
+        c.placeLabel( lEnd );
+        return;
+      }
+      case ASSIGN_EXP:
+        c.op( BExpressionCompiler.ALOAD_1, 1 );
+        c.pushInt( variableIdx );
+        op1.compile(c);
+        c.op( BExpressionCompiler.FASTORE, -3 );
+        return;
+      case LOOKUP_EXP: compileLookup( c ); return;
+      case NUMBER_EXP: c.pushFloat( numberValue ); return;
+      case VARIABLE_EXP:
+        c.op( BExpressionCompiler.ALOAD_1, 1 );
+        c.pushInt( variableIdx );
+        c.op( BExpressionCompiler.FALOAD, -1 );
+        return;
+      case NOT_EXP:
+      {
+        int lFalse = c.newLabel();
+        op1.compile(c); c.branchOnFloat( BExpressionCompiler.IFNE, lFalse );
+        c.endCondition( lFalse, false );
+        return;
+      }
+      default: throw new IllegalArgumentException( "op-code not compilable: " + typ );
+    }
+  }
+
+  // a lookup-match is compiled into a bit-test on the value-index
+  // (or a chain of compares if there are large value-indices)
+  private void compileLookup( BExpressionCompiler c )
+  {
+    long mask = 0L;
+    boolean useMask = lookupValueIdxArray.length > 1;
+    for( int i=0; i<lookupValueIdxArray.length; i++ )
+    {
+      int v = lookupValueIdxArray[i];
+      if ( v < 0 || v >= 64 ) useMask = false;
+      else mask |= 1L << v;
+    }
+    int t = c.newLocal( 1 );
+    c.op( BExpressionCompiler.ALOAD_2, 1 );
+    c.pushInt( lookupNameIdx );
+    c.op( BExpressionCompiler.IALOAD, -1 );
+    c.opLocal( BExpressionCompiler.ISTORE, t, -1 );
+    if ( useMask )
+    {
+      int lFalse = c.newLabel();
+      c.opLocal( BExpressionCompiler.ILOAD, t, 1 );
+      c.pushInt( 64 );
+      c.branch( BExpressionCompiler.IF_ICMPGE, lFalse, -2 );
+      c.pushLong( mask );
+      c.opLocal( BExpressionCompiler.ILOAD, t, 1 );
+      c.op( BExpressionCompiler.LUSHR, -1 );
+      c.op( BExpressionCompiler.L2I, -1 );
+      c.op( BExpressionCompiler.ICONST_1, 1 );
+      c.op( BExpressionCompiler.IAND, -1 );
+      c.branch( BExpressionCompiler.IFEQ, lFalse, -1 );
+      c.endCondition( lFalse, false );
+    }
+    else
+    {
+      int lTrue = c.newLabel();
+      for( int i=0; i<lookupValueIdxArray.length; i++ )
+      {
+        c.opLocal( BExpressionCompiler.ILOAD, t, 1 );
+        c.pushInt( lookupValueIdxArray[i] );
+        c.branch( BExpressionCompiler.IF_ICMPEQ, lTrue, -2 );
+      }
+      c.endCondition( lTrue, true );
+    }
+    c.releaseLocals( t );
+  }
+
   private float max( float v1, float v2 )
   {
     return v1 > v2 ? v1 : v2;
@@ -0,0 +1,16 @@
+package btools.expressions;
+
+/**
+ * Base class for the JVM classes generated by BExpressionCompiler
+ *
+ * It has to be public, because the generated classes are
+ * defined by their own classloader.
+ */
+public abstract class BExpressionCompiled
+{
+  /**
+   * Evaluate all expressions of a context, same as
+   * the interpreter does in BExpressionContext.evaluate
+   */
+  public abstract void evaluate( float[] variableData, int[] lookupData );
+}
@@ -0,0 +1,516 @@
+package btools.expressions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compiles the expression-list of a context into a generated
+ * JVM class (see BExpressionCompiled), so that a cache-miss
+ * runs straight-line bytecode instead of the tree-interpreter
+ *
+ * The classfile is written directly (version 50 = java 6,
+ * so no stack-map frames needed). Code generation for the
+ * individual operators is in BExpression.compile.
+ *
+ * Local variables of the generated method:
+ * 0 = this, 1 = variableData (float[]), 2 = lookupData (int[]), 3.. = temps
+ *
+ * Temps are allocated stack-like (see newLocal/releaseLocals), so their
+ * number is bounded by the nesting depth, not by the size of the profile
+ */
+final class BExpressionCompiler
+{
+  // opcodes used
+  static final int FCONST_0 = 0x0b;
+  static final int FCONST_1 = 0x0c;
+  static final int FCONST_2 = 0x0d;
+  static final int ICONST_0 = 0x03;
+  static final int ICONST_1 = 0x04;
+  static final int BIPUSH = 0x10;
+  static final int SIPUSH = 0x11;
+  static final int LDC = 0x12;
+  static final int LDC_W = 0x13;
+  static final int LDC2_W = 0x14;
+  static final int ILOAD = 0x15;
+  static final int FLOAD = 0x17;
+  static final int ALOAD_0 = 0x2a;
+  static final int ALOAD_1 = 0x2b;
+  static final int ALOAD_2 = 0x2c;
+  static final int IALOAD = 0x2e;
+  static final int FALOAD = 0x30;
+  static final int ISTORE = 0x36;
+  static final int FSTORE = 0x38;
+  static final int FASTORE = 0x51;
+  static final int FADD = 0x62;
+  static final int FMUL = 0x6a;
+  static final int IAND = 0x7e;
+  static final int LUSHR = 0x7d;
+  static final int L2I = 0x88;
+  static final int FCMPL = 0x95;
+  static final int IFEQ = 0x99;
+  static final int IFNE = 0x9a;
+  static final int IFLE = 0x9e;
+  static final int IF_ICMPEQ = 0x9f;
+  static final int IF_ICMPNE = 0xa0;
+  static final int IF_ICMPGE = 0xa2;
+  static final int GOTO = 0xa7;
+  static final int RETURN = 0xb1;
+  static final int INVOKESPECIAL = 0xb7;
+
+  private static final int CP_UTF8 = 1;
+  private static final int CP_INTEGER = 3;
+  private static final int CP_FLOAT = 4;
+  private static final int CP_LONG = 5;
+  private static final int CP_CLASS = 7;
+  private static final int CP_METHODREF = 10;
+  private static final int CP_NAMEANDTYPE = 12;
+
+  private static int classCounter;
+
+  // constant pool
+  private byte[] cp = new byte[1024];
+  private int cpLen;
+  private int cpCount = 1;
+  private HashMap<String, Integer> cpIndex = new HashMap<String, Integer>();
+
+  // code of the evaluate method
+  private byte[] code = new byte[4096];
+  private int codeLen;
+
+  int stack;
+  private int maxStack;
+  private int maxLocals = 3;
+  private int nextLocal = 3;
+
+  private ArrayList<int[]> fixups = new ArrayList<int[]>(); // position of branch-opcode, label
+  private int[] labelPos = new int[64];
+  private int nlabels;
+
+  /**
+   * Compile the given expression-list
+   *
+   * @return the compiled expressions or null if compilation
+   *         is not possible (e.g. unsupported operator or platform)
+   */
+  static BExpressionCompiled compileOrNull( List<BExpression> expressionList )
+  {
+    try
+    {
+      return new BExpressionCompiler().compile( expressionList );
+    }
+    catch( Exception e ) // not compilable, or class definition not supported (android)
+    {
+      System.out.println( "profile not compiled, using the interpreter: " + e );
+    }
+    catch( LinkageError e ) // generated class rejected by the vm
+    {
+      System.out.println( "profile not compiled, using the interpreter: " + e );
+    }
+    return null;
+  }
+
+  private BExpressionCompiled compile( List<BExpression> expressionList ) throws Exception
+  {
+    for( BExpression exp : expressionList )
+    {
+      exp.compile( this );
+    }
+    op( RETURN, 0 );
+
+    for( int[] fixup : fixups )
+    {
+      int offset = labelPos[fixup[1]] - fixup[0];
+      if ( offset < Short.MIN_VALUE || offset > Short.MAX_VALUE )
+      {
+        throw new IllegalArgumentException( "branch offset too large" );
+      }
+      code[fixup[0]+1] = (byte)(offset >> 8);
+      code[fixup[0]+2] = (byte)offset;
+    }
+    if ( codeLen > 65535 )
+    {
+      throw new IllegalArgumentException( "method too large" );
+    }
+
+    String className;
+    synchronized( BExpressionCompiler.class )
+    {
+      className = "btools/expressions/generated/CompiledProfile" + (++classCounter);
+    }
+    byte[] classFile = writeClassFile( className );
+    Class<?> clazz = new Loader( BExpressionCompiled.class.getClassLoader() ).define( className.replace( '/', '.' ), classFile );
+    return (BExpressionCompiled)clazz.getDeclaredConstructor().newInstance();
+  }
+
+  private static final class Loader extends ClassLoader
+  {
+    Loader( ClassLoader parent )
+    {
+      super( parent );
+    }
+
+    Class<?> define( String name, byte[] b )
+    {
+      return defineClass( name, b, 0, b.length );
+    }
+  }
+
+  // ---- code emitting, used by BExpression.compile
+
+  void op( int opcode, int stackDelta )
+  {
+    u1code( opcode );
+    adjustStack( stackDelta );
+  }
+
+  void opLocal( int opcode, int local, int stackDelta )
+  {
+    u1code( opcode );
+    u1code( local );
+    adjustStack( stackDelta );
+  }
+
+  void pushInt( int v )
+  {
+    if ( v >= -128 && v < 128 )
+    {
+      u1code( BIPUSH );
+      u1code( v );
+    }
+    else if ( v >= Short.MIN_VALUE && v <= Short.MAX_VALUE )
+    {
+      u1code( SIPUSH );
+      u2code( v );
+    }
+    else
+    {
+      ldc( constant( "I" + v, CP_INTEGER, v ) );
+    }
+    adjustStack( 1 );
+  }
+
+  void pushFloat( float f )
+  {
+    int bits = Float.floatToIntBits( f );
+    if ( bits == Float.floatToIntBits( 0.f ) ) u1code( FCONST_0 );
+    else if ( bits == Float.floatToIntBits( 1.f ) ) u1code( FCONST_1 );
+    else if ( bits == Float.floatToIntBits( 2.f ) ) u1code( FCONST_2 );
+    else ldc( constant( "F" + bits, CP_FLOAT, bits ) );
+    adjustStack( 1 );
+  }
+
+  void pushLong( long v )
+  {
+    int idx = cpIndex( "J" + v );
+    if ( idx == 0 )
+    {
+      idx = cpCount;
+      cpIndex.put( "J" + v, Integer.valueOf( idx ) );
+      u1cp( CP_LONG );
+      u4cp( (int)(v >>> 32) );
+      u4cp( (int)v );
+      cpCount += 2; // longs take 2 slots
+    }
+    u1code( LDC2_W );
+    u2code( idx );
+    adjustStack( 2 );
+  }
+
+  int newLabel()
+  {
+    if ( nlabels == labelPos.length )
+    {
+      int[] a = new int[2*nlabels];
+      System.arraycopy( labelPos, 0, a, 0, nlabels );
+      labelPos = a;
+    }
+    labelPos[nlabels] = -1;
+    return nlabels++;
+  }
+
+  void placeLabel( int label )
+  {
+    labelPos[label] = codeLen;
+  }
+
+  void branch( int opcode, int label, int stackDelta )
+  {
+    fixups.add( new int[]{ codeLen, label } );
+    u1code( opcode );
+    u2code( 0 );
+    adjustStack( stackDelta );
+  }
+
+  int newLocal( int size )
+  {
+    int idx = nextLocal;
+    nextLocal += size;
+    if ( nextLocal > 255 )
+    {
+      throw new IllegalArgumentException( "too many locals" );
+    }
+    if ( nextLocal > maxLocals ) maxLocals = nextLocal;
+    return idx;
+  }
+
+  /**
+   * release the given local and all allocated after it
+   */
+  void releaseLocals( int local )
+  {
+    nextLocal = local;
+  }
+
+  /**
+   * compare the float on top of stack against 0 and branch
+   */
+  void branchOnFloat( int opcode, int label )
+  {
+    pushFloat( 0.f );
+    op( FCMPL, -1 );
+    branch( opcode, label, -1 );
+  }
+
+  /**
+   * finish a boolean expression: the fall-through path gives
+   * !labelValue, the path jumping to the label gives labelValue
+   */
+  void endCondition( int label, boolean labelValue )
+  {
+    int d = stack;
+    int lEnd = newLabel();
+    pushFloat( labelValue ? 0.f : 1.f );
+    branch( GOTO, lEnd, 0 );
+    placeLabel( label );
+    stack = d;
+    pushFloat( labelValue ? 1.f : 0.f );
+    placeLabel( lEnd );
+  }
+
+  private void adjustStack( int delta )
+  {
+    stack += delta;
+    if ( stack > maxStack ) maxStack = stack;
+  }
+
+  private void ldc( int idx )
+  {
+    if ( idx < 256 )
+    {
+      u1code( LDC );
+      u1code( idx );
+    }
+    else
+    {
+      u1code( LDC_W );
+      u2code( idx );
+    }
+  }
+
+  private void u1code( int v )
+  {
+    if ( codeLen + 3 > code.length )
+    {
+      byte[] a = new byte[2*code.length];
+      System.arraycopy( code, 0, a, 0, codeLen );
+      code = a;
+    }
+    code[codeLen++] = (byte)v;
+  }
+
+  private void u2code( int v )
+  {
+    u1code( v >> 8 );
+    u1code( v );
+  }
+
+  // ---- constant pool and classfile
+
+  private int cpIndex( String key )
+  {
+    Integer idx = cpIndex.get( key );
+    return idx == null ? 0 : idx.intValue();
+  }
+
+  private int constant( String key, int tag, int value )
+  {
+    int idx = cpIndex( key );
+    if ( idx == 0 )
+    {
+      idx = cpCount++;
+      cpIndex.put( key, Integer.valueOf( idx ) );
+      u1cp( tag );
+      u4cp( value );
+    }
+    return idx;
+  }
+
+  private int utf8( String s )
+  {
+    int idx = cpIndex( "U" + s );
+    if ( idx == 0 )
+    {
+      idx = cpCount++;
+      cpIndex.put( "U" + s, Integer.valueOf( idx ) );
+      u1cp( CP_UTF8 );
+      u2cp( s.length() ); // ascii only
+      for( int i=0; i<s.length(); i++ ) u1cp( s.charAt( i ) );
+    }
+    return idx;
+  }
+
+  private int classRef( String name )
+  {
+    int nameIdx = utf8( name );
+    int idx = cpIndex( "C" + name );
+    if ( idx == 0 )
+    {
+      idx = cpCount++;
+      cpIndex.put( "C" + name, Integer.valueOf( idx ) );
+      u1cp( CP_CLASS );
+      u2cp( nameIdx );
+    }
+    return idx;
+  }
+
+  private int methodRef( String owner, String name, String desc )
+  {
+    int classIdx = classRef( owner );
+    int nameIdx = utf8( name );
+    int descIdx = utf8( desc );
+    int ntIdx = cpCount++;
+    u1cp( CP_NAMEANDTYPE );
+    u2cp( nameIdx );
+    u2cp( descIdx );
+    int idx = cpCount++;
+    u1cp( CP_METHODREF );
+    u2cp( classIdx );
+    u2cp( ntIdx );
+    return idx;
+  }
+
+  private void u1cp( int v )
+  {
+    if ( cpLen + 1 > cp.length )
+    {
+      byte[] a = new byte[2*cp.length];
+      System.arraycopy( cp, 0, a, 0, cpLen );
+      cp = a;
+    }
+    cp[cpLen++] = (byte)v;
+  }
+
+  private void u2cp( int v )
+  {
+    u1cp( v >> 8 );
+    u1cp( v );
+  }
+
+  private void u4cp( int v )
+  {
+    u2cp( v >> 16 );
+    u2cp( v );
+  }
+
+  private byte[] writeClassFile( String className )
+  {
+    String superName = BExpressionCompiled.class.getName().replace( '.', '/' );
+    int thisIdx = classRef( className );
+    int superIdx = classRef( superName );
+    int superInit = methodRef( superName, "<init>", "()V" );
+    int codeIdx = utf8( "Code" );
+    int initName = utf8( "<init>" );
+    int initDesc = utf8( "()V" );
+    int evalName = utf8( "evaluate" );
+    int evalDesc = utf8( "([F[I)V" );
+
+    ClassFileWriter w = new ClassFileWriter( cpLen + codeLen + 256 );
+    w.u4( 0xcafebabe );
+    w.u2( 0 );
+    w.u2( 50 );
+    w.u2( cpCount );
+    w.bytes( cp, cpLen );
+    w.u2( 0x0031 ); // public final super
+    w.u2( thisIdx );
+    w.u2( superIdx );
+    w.u2( 0 ); // interfaces
+    w.u2( 0 ); // fields
+    w.u2( 2 ); // methods
+
+    // constructor
+    w.u2( 0x0001 );
+    w.u2( initName );
+    w.u2( initDesc );
+    w.u2( 1 );
+    w.u2( codeIdx );
+    w.u4( 12 + 5 );
+    w.u2( 1 ); // max stack
+    w.u2( 1 ); // max locals
+    w.u4( 5 );
+    w.u1( ALOAD_0 );
+    w.u1( INVOKESPECIAL );
+    w.u2( superInit );
+    w.u1( RETURN );
+    w.u2( 0 ); // exception table
+    w.u2( 0 ); // attributes
+
+    // evaluate method
+    w.u2( 0x0001 );
+    w.u2( evalName );
+    w.u2( evalDesc );
+    w.u2( 1 );
+    w.u2( codeIdx );
+    w.u4( 12 + codeLen );
+    w.u2( maxStack );
+    w.u2( maxLocals );
+    w.u4( codeLen );
+    w.bytes( code, codeLen );
+    w.u2( 0 ); // exception table
+    w.u2( 0 ); // attributes
+
+    w.u2( 0 ); // class attributes
+    return w.toByteArray();
+  }
+
+  private static final class ClassFileWriter
+  {
+    private byte[] ab;
+    private int len;
+
+    ClassFileWriter( int size )
+    {
+      ab = new byte[size];
+    }
+
+    void u1( int v )
+    {
+      ab[len++] = (byte)v;
+    }
+
+    void u2( int v )
+    {
+      u1( v >> 8 );
+      u1( v );
+    }
+
+    void u4( int v )
+    {
+      u2( v >> 16 );
+      u2( v );
+    }
+
+    void bytes( byte[] b, int n )
+    {
+      System.arraycopy( b, 0, ab, len, n );
+      len += n;
+    }
+
+    byte[] toByteArray()
+    {
+      byte[] res = new byte[len];
+      System.arraycopy( ab, 0, res, 0, len );
+      return res;
+    }
+  }
+}
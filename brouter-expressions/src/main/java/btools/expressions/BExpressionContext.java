@@ -18,7 +18,7 @@ import java.util.StringTokenizer;
 import java.util.TreeMap;
 
 import btools.util.BitCoderContext;
-import btools.util.Crc32;
+import btools.util.MixHash;
 import java.util.Random;
 
 
@@ -49,10 +49,18 @@ public abstract class BExpressionContext
   private float[] variableData;
 
 
-  // hash-cache for function results
+  // set-associative hash-cache for function results: the slots of
+  // a set are adjacent, with pseudo-LRU bits per set (see touchWay)
+  private static final int CACHE_WAYS = 4;
   private byte[][] _arrayBitmap;
   private boolean[] _arrayInverse;
   private int[] _arrayCrc;
+  private byte[] _arrayLru;
+  private int cacheWays;
+  private int cacheSets;
+
+  // optional second tier, shared by the contexts of a profile
+  private BExpressionSharedCache sharedCache;
 
   private int currentHashBucket = -1;
   private byte[] currentByteArray = null;
@@ -60,6 +68,14 @@ public abstract class BExpressionContext
 
   public List<BExpression> expressionList;
 
+  // optional compiled version of expressionList, see BExpressionCompiler
+  private BExpressionCompiled compiledExpressions;
+  private boolean checkCompiledExpressions;
+
+  // -DcompileProfiles=true compiles profiles to bytecode, =check additionally
+  // verifies every compiled evaluation against the interpreter
+  private static final String compileProfiles = System.getProperty( "compileProfiles" );
+
   private int minWriteIdx;
 
   // build-in variable indexes for fast access
@@ -102,6 +118,9 @@ public abstract class BExpressionContext
      _arrayBitmap = new byte[hashSize][];
      _arrayInverse = new boolean[hashSize];
      _arrayCrc = new int[hashSize];
+     cacheWays = Math.min( hashSize, CACHE_WAYS );
+     cacheSets = hashSize / cacheWays;
+     _arrayLru = new byte[cacheSets];
 
      // create the build-in variables cache     
      int nBuildInVars = getBuildInVariableNames().length;
@@ -264,15 +283,53 @@ public abstract class BExpressionContext
   public void evaluate( int[] lookupData2 )
   {
     lookupData = lookupData2;
+    if ( compiledExpressions != null )
+    {
+      compiledExpressions.evaluate( variableData, lookupData );
+      if ( !checkCompiledExpressions )
+      {
+        return;
+      }
+      float[] compiledData = new float[variableData.length];
+      System.arraycopy( variableData, 0, compiledData, 0, variableData.length );
+      for( BExpression exp: expressionList)
+      {
+        exp.evaluate( this );
+      }
+      for( int i=0; i<variableData.length; i++ )
+      {
+        if ( Float.floatToIntBits( variableData[i] ) != Float.floatToIntBits( compiledData[i] ) )
+        {
+          throw new RuntimeException( "compiled/interpreted mismatch in variable " + variableName(i) + " "
+             + compiledData[i] + "<->" + variableData[i] + "\ntags = " + getKeyValueDescription( false, encode()  ) );
+        }
+      }
+      return;
+    }
     for( BExpression exp: expressionList)
     {
       exp.evaluate( this );
     }
   }
 
+  /**
+   * Compile the expressions of this context into bytecode
+   *
+   * @param check if true, verify each evaluation against the interpreter
+   * @return true if compiled, false if falling back to the interpreter
+   */
+  public boolean compileExpressions( boolean check )
+  {
+    compiledExpressions = BExpressionCompiler.compileOrNull( expressionList );
+    checkCompiledExpressions = check;
+    return compiledExpressions != null;
+  }
+
   public long requests;
   public long requests2;
   public long cachemisses;
+  public long cacheevictions;
+  public long sharedcachehits;
 
   /**
    * evaluates the data in the given byte array
@@ -281,63 +338,163 @@ public abstract class BExpressionContext
    */
   public boolean evaluate( boolean inverseDirection, byte[] ab, BExpressionReceiver receiver )
   {
-	 requests ++;
-	 lookupDataValid = false; // this is an assertion for a nasty pifall
-
-	 int inverseBitByteIndex = 0;
-
-	 // calc hash bucket from crc
-	 int lastHashBucket = currentHashBucket;
-     int crc  = Crc32.crcWithInverseBit(ab, inverseDirection ? inverseBitByteIndex : -1 );
-     int hashSize = _arrayBitmap.length;
-     currentHashBucket =  (crc & 0xfffffff) % hashSize;
-     currentByteArray = ab;
-     currentInverseDirection = inverseDirection;
-     byte[] abBucket = _arrayBitmap[currentHashBucket];
-     boolean inverseBucket = _arrayInverse[currentHashBucket];
-	 if ( ab == abBucket && inverseBucket == inverseDirection ) // fast identity check
-     {
-	   return lastHashBucket == currentHashBucket;
-	 }
-	 requests2++;
+    requests ++;
+    lookupDataValid = false; // this is an assertion for a nasty pifall
 
-	 // compare input value to hash bucket content
-     boolean hashBucketEquals = false;
-     if ( crc == _arrayCrc[currentHashBucket] )
-     {
-       int abLen = ab.length;
-       if ( abBucket != null && abBucket.length == ab.length )
-       {
-    	 hashBucketEquals = true;
-    	 boolean isInverse = inverseDirection ^ inverseBucket;
-         for( int i=0; i<abLen; i++ )
-         {
-           byte b = ab[i];
-           if ( isInverse && i == inverseBitByteIndex ) b ^= 1;
-    	   if ( abBucket[i] != b ) { hashBucketEquals = false; break; }
-         }
-       }
-     }
-     if ( hashBucketEquals ) return lastHashBucket == currentHashBucket;
-     cachemisses++;
-     
-     _arrayBitmap[currentHashBucket] = currentByteArray;
-     _arrayInverse[currentHashBucket] = currentInverseDirection;
-     _arrayCrc[currentHashBucket] = crc;
+    int inverseBitByteIndex = 0;
 
-     _receiver = receiver;
+    // calc the cache set from a hash of the (possibly inverted) data,
+    // only used in memory (also by the shared cache), see MixHash
+    int lastHashBucket = currentHashBucket;
+    int crc  = MixHash.intHash( MixHash.hashWithInverseBit(ab, inverseDirection ? inverseBitByteIndex : -1 ) );
+    int set = (crc & 0xfffffff) % cacheSets;
+    int firstSlot = set * cacheWays;
+    int endSlot = firstSlot + cacheWays;
+    currentByteArray = ab;
+    currentInverseDirection = inverseDirection;
 
-     decode( lookupData, currentInverseDirection, currentByteArray );
-     evaluate( lookupData );
+    for( int slot=firstSlot; slot<endSlot; slot++ )
+    {
+      if ( ab == _arrayBitmap[slot] && inverseDirection == _arrayInverse[slot] ) // fast identity check
+      {
+        return cacheHit( set, slot, lastHashBucket );
+      }
+    }
+    requests2++;
 
-     for( int vi=0; vi<buildInVariableIdx.length; vi++ )
-     {
-       int idx = buildInVariableIdx[vi];
-       arrayBuildInVariablesCache[vi][currentHashBucket] = idx == -1 ? 0.f : variableData[idx];
-     }
+    // compare input value to the content of the set
+    for( int slot=firstSlot; slot<endSlot; slot++ )
+    {
+      if ( crc == _arrayCrc[slot] && _arrayBitmap[slot] != null
+        && equalsData( ab, inverseDirection, _arrayBitmap[slot], _arrayInverse[slot], inverseBitByteIndex ) )
+      {
+        return cacheHit( set, slot, lastHashBucket );
+      }
+    }
+    cachemisses++;
+
+    currentHashBucket = firstSlot + getLruWay( set );
+    if ( _arrayBitmap[currentHashBucket] != null ) cacheevictions++;
+    touchWay( set, currentHashBucket - firstSlot );
+
+    _arrayBitmap[currentHashBucket] = currentByteArray;
+    _arrayInverse[currentHashBucket] = currentInverseDirection;
+    _arrayCrc[currentHashBucket] = crc;
+
+    if ( sharedCache != null )
+    {
+      float[] values = sharedCache.get( crc, ab, inverseDirection, inverseBitByteIndex );
+      if ( values != null )
+      {
+        sharedcachehits++;
+        for( int vi=0; vi<values.length; vi++ )
+        {
+          arrayBuildInVariablesCache[vi][currentHashBucket] = values[vi];
+        }
+        return false;
+      }
+    }
+
+    _receiver = receiver;
+
+    decode( lookupData, currentInverseDirection, currentByteArray );
+    evaluate( lookupData );
+
+    for( int vi=0; vi<buildInVariableIdx.length; vi++ )
+    {
+      int idx = buildInVariableIdx[vi];
+      arrayBuildInVariablesCache[vi][currentHashBucket] = idx == -1 ? 0.f : variableData[idx];
+    }
 
-     _receiver = null;
-     return false;
+    _receiver = null;
+
+    if ( sharedCache != null && _arrayBitmap[currentHashBucket] != null ) // (not if warnings)
+    {
+      float[] values = new float[buildInVariableIdx.length];
+      for( int vi=0; vi<values.length; vi++ )
+      {
+        values[vi] = arrayBuildInVariablesCache[vi][currentHashBucket];
+      }
+      sharedCache.put( crc, ab, inverseDirection, values );
+    }
+    return false;
+  }
+
+  private boolean cacheHit( int set, int slot, int lastHashBucket )
+  {
+    touchWay( set, slot - set * cacheWays );
+    currentHashBucket = slot;
+    return lastHashBucket == slot;
+  }
+
+  // pseudo-LRU (for 4 ways): bit 0 points to the pair holding the victim,
+  // bit 1 to the victim within ways 0/1, bit 2 within ways 2/3
+  private int getLruWay( int set )
+  {
+    if ( cacheWays < CACHE_WAYS )
+    {
+      return 0;
+    }
+    int bits = _arrayLru[set];
+    return ( bits & 1 ) == 0 ? ( bits >> 1 ) & 1 : 2 + ( ( bits >> 2 ) & 1 );
+  }
+
+  // let the LRU bits point away from the given way
+  private void touchWay( int set, int way )
+  {
+    if ( cacheWays < CACHE_WAYS )
+    {
+      return;
+    }
+    int bits = _arrayLru[set];
+    if ( way < 2 )
+    {
+      bits = ( bits & 4 ) | 1 | ( way == 0 ? 2 : 0 );
+    }
+    else
+    {
+      bits = ( bits & 2 ) | ( way == 2 ? 4 : 0 );
+    }
+    _arrayLru[set] = (byte)bits;
+  }
+
+  /**
+   * @return true if the data in ab1 (with bit 0 of the given byte inverted
+   *         if inverse1) equals the data in ab2 (likewise)
+   */
+  static boolean equalsData( byte[] ab1, boolean inverse1, byte[] ab2, boolean inverse2, int inverseBitByteIndex )
+  {
+    int abLen = ab1.length;
+    if ( ab2.length != abLen )
+    {
+      return false;
+    }
+    boolean isInverse = inverse1 ^ inverse2;
+    for( int i=0; i<abLen; i++ )
+    {
+      byte b = ab1[i];
+      if ( isInverse && i == inverseBitByteIndex ) b ^= 1;
+      if ( ab2[i] != b ) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Create a cache to be shared by the contexts of this profile,
+   * see setSharedCache. It has the size of the cache of this context
+   */
+  public BExpressionSharedCache createSharedCache()
+  {
+    return new BExpressionSharedCache( _arrayBitmap.length );
+  }
+
+  /**
+   * Use the given cache (created by createSharedCache of a context
+   * of the same type and profile) as second tier behind the own one
+   */
+  public void setSharedCache( BExpressionSharedCache sharedCache )
+  {
+    this.sharedCache = sharedCache;
   }
 
   public void dumpStatistics()
@@ -626,6 +783,10 @@ public abstract class BExpressionContext
         throw new IllegalArgumentException( file.getAbsolutePath()
              + " does not contain expressions for context " + context + " (old version?)" );
     }
+    if ( compileProfiles != null && !"false".equals( compileProfiles ) )
+    {
+      compileExpressions( "check".equals( compileProfiles ) );
+    }
   }
 
   private List<BExpression> _parseFile( File file ) throws Exception
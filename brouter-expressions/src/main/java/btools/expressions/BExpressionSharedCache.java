@@ -0,0 +1,57 @@
+package btools.expressions;
+
+/**
+ * Cache for the build-in variables of a context, shared by the contexts
+ * of the same profile (see ProfileCache), as a second tier behind their
+ * own caches, so results computed for one request benefit the others
+ *
+ * It is direct-mapped and lock-free: the entries are immutable, so a
+ * reader sees either a complete entry or none (final field semantics),
+ * and a lost write just costs a later evaluation
+ */
+public final class BExpressionSharedCache
+{
+  private static final class Entry
+  {
+    final int crc;
+    final byte[] ab;
+    final boolean inverse;
+    final float[] values;
+
+    Entry( int crc, byte[] ab, boolean inverse, float[] values )
+    {
+      this.crc = crc;
+      this.ab = ab;
+      this.inverse = inverse;
+      this.values = values;
+    }
+  }
+
+  private Entry[] entries;
+
+  BExpressionSharedCache( int size )
+  {
+    entries = new Entry[size];
+  }
+
+  /**
+   * @return the build-in variables for the given data, or null if not cached
+   */
+  float[] get( int crc, byte[] ab, boolean inverse, int inverseBitByteIndex )
+  {
+    Entry e = entries[( crc & 0xfffffff ) % entries.length];
+    if ( e != null && e.crc == crc && BExpressionContext.equalsData( ab, inverse, e.ab, e.inverse, inverseBitByteIndex ) )
+    {
+      return e.values;
+    }
+    return null;
+  }
+
+  /**
+   * @param values the build-in variables, not to be modified afterwards
+   */
+  void put( int crc, byte[] ab, boolean inverse, float[] values )
+  {
+    entries[( crc & 0xfffffff ) % entries.length] = new Entry( crc, ab, inverse, values );
+  }
+}
@@ -19,9 +19,20 @@ public final class ProfileComparator
 {
   public static void main( String[] args )
   {
+    if ( args.length == 3 )
+    {
+      // compare compiled against interpreted evaluation of a single profile
+      File lookupFile = new File( args[0] );
+      File profileFile = new File( args[1] );
+      int nsamples = Integer.parseInt( args[2] );
+      testCompiled( lookupFile, profileFile, nsamples, false );
+      testCompiled( lookupFile, profileFile, nsamples, true );
+      return;
+    }
     if ( args.length != 4 )
     {
       System.out.println( "usage: java ProfileComparator <lookup-file> <profile1> <profile2> <nsamples>" );
+      System.out.println( "   or: java ProfileComparator <lookup-file> <profile> <nsamples>" );
       return;
     }
 
@@ -34,6 +45,29 @@ public final class ProfileComparator
 
   }
   
+  /**
+   * Check the bytecode-compiled expressions of a profile
+   * against the interpreter for random input data
+   */
+  public static void testCompiled( File lookupFile, File profileFile, int nsamples, boolean nodeContext )
+  {
+    BExpressionMetaData meta = new BExpressionMetaData();
+    BExpressionContext expctx = nodeContext ? new BExpressionContextNode( meta ) : new BExpressionContextWay( meta );
+    meta.readMetaData( lookupFile );
+    expctx.parseFile( profileFile, "global" );
+    if ( !expctx.compileExpressions( true ) )
+    {
+      throw new RuntimeException( "profile " + profileFile + " not compilable" );
+    }
+
+    Random rnd = new Random( 4711 );
+    for( int i=0; i<nsamples; i++ )
+    {
+      int[] data = expctx.generateRandomValues( rnd );
+      expctx.evaluate( data ); // throws on mismatch
+    }
+  }
+
   private static void testContext( File lookupFile, File profile1File, File profile2File, int nsamples, boolean nodeContext )
   {
     // read lookup.dat + profiles
@@ -46,7 +80,7 @@ public final class ProfileComparator
     expctx1.parseFile( profile1File, "global" );
     expctx2.parseFile( profile2File, "global" );
 
-    Random rnd = new Random();
+    Random rnd = new Random( 4711 );
     for( int i=0; i<nsamples; i++ )
     {
       int[] data = expctx1.generateRandomValues( rnd );
@@ -0,0 +1,50 @@
+package btools.expressions;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.net.URL;
+
+import org.junit.Test;
+
+public class CompiledProfileTest
+{
+  @Test
+  public void compiledProfileTest()
+  {
+    URL testpurl = this.getClass().getResource( "/dummy.txt" );
+    File workingDir = new File(testpurl.getFile()).getParentFile();
+    File profileDir = new File( workingDir, "/../../../misc/profiles2" );
+    File lookupFile = new File( profileDir, "lookups.dat" );
+
+    String[] profiles = { "trekking.brf", "fastbike.brf", "car-test.brf", "moped.brf", "shortest.brf", "all.brf" };
+
+    // compiled and interpreted evaluation must give identical results
+    for( String profile : profiles )
+    {
+      File profileFile = new File( profileDir, profile );
+      ProfileComparator.testCompiled( lookupFile, profileFile, 20000, false );
+      ProfileComparator.testCompiled( lookupFile, profileFile, 20000, true );
+    }
+  }
+
+  @Test
+  public void manyTempsTest() throws Exception
+  {
+    URL testpurl = this.getClass().getResource( "/dummy.txt" );
+    File workingDir = new File(testpurl.getFile()).getParentFile();
+    File lookupFile = new File( workingDir, "/../../../misc/profiles2/lookups.dat" );
+
+    // each lookup and max uses temps, more than the 252 free local slots in total
+    File profileFile = new File( workingDir, "manytemps.brf" );
+    FileWriter fw = new FileWriter( profileFile );
+    fw.write( "---context:global\nassign dummy 0\n---context:way\nassign costfactor\n" );
+    for( int i=0; i<200; i++ )
+    {
+      fw.write( "  add max highway=primary surface=asphalt\n" );
+    }
+    fw.write( "  1\n---context:node\nassign initialcost 0\n" );
+    fw.close();
+
+    ProfileComparator.testCompiled( lookupFile, profileFile, 1000, false );
+  }
+}
@@ -0,0 +1,69 @@
+package btools.expressions;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExpressionCacheTest
+{
+  @Test
+  public void expressionCacheTest()
+  {
+    URL testpurl = this.getClass().getResource( "/dummy.txt" );
+    File workingDir = new File(testpurl.getFile()).getParentFile();
+    File profileDir = new File( workingDir, "/../../../misc/profiles2" );
+    File lookupFile = new File( profileDir, "lookups.dat" );
+    File profileFile = new File( profileDir, "trekking.brf" );
+
+    // a reference with a large cache, small caches (4 sets) with evictions,
+    // two of them sharing a second-tier cache
+    BExpressionContextWay reference = createContext( lookupFile, profileFile, 65536 );
+    BExpressionContextWay small = createContext( lookupFile, profileFile, 16 );
+    BExpressionContextWay shared1 = createContext( lookupFile, profileFile, 16 );
+    BExpressionContextWay shared2 = createContext( lookupFile, profileFile, 16 );
+    BExpressionSharedCache sharedCache = shared1.createSharedCache();
+    shared1.setSharedCache( sharedCache );
+    shared2.setSharedCache( sharedCache );
+
+    Random rnd = new Random( 4711 );
+    ArrayList<byte[]> descriptions = new ArrayList<byte[]>();
+    while( descriptions.size() < 50 )
+    {
+      byte[] description = reference.encode( reference.generateRandomValues( rnd ) );
+      if ( description != null ) descriptions.add( description );
+    }
+
+    BExpressionContextWay[] contexts = { small, shared1, shared2 };
+    int nvars = reference.getBuildInVariableNames().length;
+    for( int i=0; i<20000; i++ )
+    {
+      // skewed, so some descriptions are frequent
+      byte[] description = descriptions.get( Math.min( rnd.nextInt( 50 ), rnd.nextInt( 50 ) ) );
+      boolean inverse = rnd.nextBoolean();
+      reference.evaluate( inverse, description, null );
+      for( BExpressionContextWay ctx : contexts )
+      {
+        ctx.evaluate( inverse, description, null );
+        for( int vi=0; vi<nvars; vi++ )
+        {
+          Assert.assertEquals( "variable " + vi, reference.getBuildInVariable( vi ), ctx.getBuildInVariable( vi ), 0.f );
+        }
+      }
+    }
+    Assert.assertTrue( small.cacheevictions > 0 );
+    Assert.assertTrue( shared2.sharedcachehits > 0 );
+  }
+
+  private static BExpressionContextWay createContext( File lookupFile, File profileFile, int hashSize )
+  {
+    BExpressionMetaData meta = new BExpressionMetaData();
+    BExpressionContextWay expctxWay = new BExpressionContextWay( hashSize, meta );
+    meta.readMetaData( lookupFile );
+    expctxWay.parseFile( profileFile, "global" );
+    return expctxWay;
+  }
+}
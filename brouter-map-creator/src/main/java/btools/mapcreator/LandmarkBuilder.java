@@ -0,0 +1,347 @@
+package btools.mapcreator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import btools.expressions.BExpressionContextNode;
+import btools.expressions.BExpressionContextWay;
+import btools.expressions.BExpressionMetaData;
+import btools.mapaccess.LandmarkTile;
+import btools.mapaccess.NodesCache;
+import btools.mapaccess.OsmLink;
+import btools.mapaccess.OsmNode;
+import btools.mapaccess.OsmNodesMap;
+import btools.mapaccess.ShortcutTile;
+import btools.util.LongList;
+import btools.util.SortedHeap;
+
+/**
+ * LandmarkBuilder precomputes the landmark distances (see LandmarkTile) of the
+ * rd5 files in a segment directory for one profile and writes them to
+ * the subdirectory landmarks/&lt;profile-name&gt; of the segment directory
+ *
+ * The landmarks are selected from the graph of all rd5 files, each
+ * one being the node farthest from the ones selected before, and the
+ * distances are calculated on that whole graph, so they are lower
+ * bounds for routes across datafiles
+ *
+ * As the whole graph is held in memory, together with the distances
+ * to and from each landmark, this is limited to regional extracts,
+ * not the planet
+ *
+ * The distances are used by profiles with "assign useLandmarks true" and
+ * have to be re-built whenever the profile or the rd5 files change
+ *
+ * @author ab
+ */
+public class LandmarkBuilder
+{
+  // size of the micro-caches in the rd5 files
+  private static final int MICROCACHE_SIZE = 1000000 / 32;
+
+  // size of the blocks the datafiles are read in
+  private static final int BLOCK_SIZE = 8 * MICROCACHE_SIZE;
+
+  private static final int UNREACHABLE = LandmarkTile.UNREACHABLE;
+
+  private BExpressionContextWay expctxWay;
+  private BExpressionContextNode expctxNode;
+
+  // the graph of all datafiles: nodes sorted by id, links by source index
+  private long[] ids;
+  private int[] firstLink;
+  private int[] linkTargets;
+  private int[] linkCosts;
+  private int[] firstReverseLink;
+  private int[] reverseLinkTargets;
+  private int[] reverseLinkCosts;
+
+  public static void main( String[] args ) throws Exception
+  {
+    System.out.println( "*** LandmarkBuilder: precompute the landmark distances for a profile" );
+    if ( args.length != 3 && args.length != 4 )
+    {
+      System.out.println( "usage: java LandmarkBuilder <segments-dir> <lookup-file> <profile-file> [<number of landmarks, default 8>]" );
+      return;
+    }
+    int landmarkCount = args.length == 4 ? Integer.parseInt( args[3] ) : 8;
+    new LandmarkBuilder().process( new File( args[0] ), new File( args[1] ), new File( args[2] ), landmarkCount );
+  }
+
+  public void process( File segmentDir, File lookupFile, File profileFile, int landmarkCount ) throws Exception
+  {
+    if ( landmarkCount < 1 )
+    {
+      throw new IllegalArgumentException( "invalid number of landmarks: " + landmarkCount );
+    }
+
+    BExpressionMetaData meta = new BExpressionMetaData();
+    expctxWay = new BExpressionContextWay( meta );
+    expctxNode = new BExpressionContextNode( meta );
+    meta.readMetaData( lookupFile );
+    expctxWay.parseFile( profileFile, "global" );
+    expctxNode.parseFile( profileFile, "global" );
+
+    String profileName = profileFile.getName();
+    if ( profileName.endsWith( ".brf" ) )
+    {
+      profileName = profileName.substring( 0, profileName.length() - 4 );
+    }
+    int profileCrc = ShortcutTile.getProfileCrc( profileFile );
+    File outDir = LandmarkTile.getDirectory( segmentDir, profileName );
+    outDir.mkdirs();
+
+    List<File> datafiles = new ArrayList<File>();
+    File[] files = segmentDir.listFiles();
+    Arrays.sort( files );
+    for ( File f : files )
+    {
+      if ( f.getName().endsWith( ".rd5" ) )
+      {
+        datafiles.add( f );
+      }
+    }
+
+    loadGraph( segmentDir, datafiles );
+    int n = ids.length;
+    System.out.println( "loaded graph: " + n + " nodes, " + linkTargets.length + " links" );
+    if ( n == 0 )
+    {
+      return;
+    }
+
+    // farthest landmark selection, starting from the node farthest from the first one
+    int[][] costsTo = new int[landmarkCount][];
+    int[][] costsFrom = new int[landmarkCount][];
+    int[] minCost = dijkstra( 0, firstLink, linkTargets, linkCosts );
+    for ( int k = 0; k < landmarkCount; k++ )
+    {
+      int landmark = 0;
+      int maxCost = -1;
+      for ( int i = 0; i < n; i++ )
+      {
+        if ( minCost[i] != UNREACHABLE && minCost[i] > maxCost )
+        {
+          maxCost = minCost[i];
+          landmark = i;
+        }
+      }
+      costsFrom[k] = dijkstra( landmark, firstLink, linkTargets, linkCosts );
+      costsTo[k] = dijkstra( landmark, firstReverseLink, reverseLinkTargets, reverseLinkCosts );
+      for ( int i = 0; i < n; i++ )
+      {
+        if ( k == 0 || costsFrom[k][i] < minCost[i] )
+        {
+          minCost[i] = costsFrom[k][i];
+        }
+      }
+      System.out.println( "landmark " + k + ": " + ids[landmark] );
+    }
+
+    // write by datafile
+    HashMap<String, List<Integer>> tileNodes = new HashMap<String, List<Integer>>();
+    for ( int i = 0; i < n; i++ )
+    {
+      String baseName = NodesCache.getFileBaseName( (int) ( ids[i] >> 32 ) / 1000000, (int) ( ids[i] & 0xffffffff ) / 1000000 );
+      List<Integer> nodes = tileNodes.get( baseName );
+      if ( nodes == null )
+      {
+        nodes = new ArrayList<Integer>();
+        tileNodes.put( baseName, nodes );
+      }
+      nodes.add( Integer.valueOf( i ) );
+    }
+    for ( File f : datafiles )
+    {
+      String baseName = f.getName().substring( 0, f.getName().length() - 4 );
+      List<Integer> nodes = tileNodes.get( baseName );
+      int size = nodes == null ? 0 : nodes.size();
+      long[] tileIds = new long[size];
+      int[] tileCostsTo = new int[size * landmarkCount];
+      int[] tileCostsFrom = new int[size * landmarkCount];
+      for ( int j = 0; j < size; j++ )
+      {
+        int i = nodes.get( j ).intValue();
+        tileIds[j] = ids[i];
+        for ( int k = 0; k < landmarkCount; k++ )
+        {
+          tileCostsTo[j * landmarkCount + k] = costsTo[k][i];
+          tileCostsFrom[j * landmarkCount + k] = costsFrom[k][i];
+        }
+      }
+      LandmarkTile tile = new LandmarkTile( profileName, profileCrc, f.length(), landmarkCount, tileIds, tileCostsTo, tileCostsFrom );
+      tile.writeTo( new File( outDir, baseName + LandmarkTile.SUFFIX ) );
+      System.out.println( "wrote " + baseName + ": " + size + " nodes" );
+    }
+  }
+
+  /**
+   * Load the nodes and links of all datafiles, with the links weighted
+   * by the lower bounds of their costs
+   */
+  private void loadGraph( File segmentDir, List<File> datafiles )
+  {
+    LongList nodeIds = new LongList( 1024 );
+    LongList linkSources = new LongList( 1024 );
+    LongList linkTargetIds = new LongList( 1024 );
+    LongList linkCostList = new LongList( 1024 );
+
+    NodesCache nodesCache = null;
+    for ( File f : datafiles )
+    {
+      int[] origin = ShortcutBuilder.getTileOrigin( f.getName().substring( 0, f.getName().length() - 4 ) );
+      for ( int blon = origin[0]; blon < origin[0] + 5000000; blon += BLOCK_SIZE )
+      {
+        for ( int blat = origin[1]; blat < origin[1] + 5000000; blat += BLOCK_SIZE )
+        {
+          nodesCache = new NodesCache( segmentDir.getPath(), new OsmNodesMap(), expctxWay, false, false, nodesCache );
+          int nodeCount = 0;
+          for ( int mlon = blon; mlon < blon + BLOCK_SIZE; mlon += MICROCACHE_SIZE )
+          {
+            for ( int mlat = blat; mlat < blat + BLOCK_SIZE; mlat += MICROCACHE_SIZE )
+            {
+              nodeCount += nodesCache.loadSegmentFor( mlon, mlat );
+            }
+          }
+          if ( nodeCount == 0 )
+          {
+            continue;
+          }
+          List<OsmNode> blockNodes = nodesCache.getAllNodes();
+          for ( OsmNode n : blockNodes )
+          {
+            nodesCache.obtainNonHollowNode( n );
+          }
+          // links with the data written at the other end get it by decoding that end
+          for ( OsmNode n : blockNodes )
+          {
+            for ( OsmLink link = n.firstlink; link != null; link = link.next )
+            {
+              if ( link.descriptionBitmap == null )
+              {
+                nodesCache.obtainNonHollowNode( link.targetNode );
+              }
+            }
+          }
+          for ( OsmNode n : blockNodes )
+          {
+            long id = n.getIdFromPos();
+            nodeIds.add( id );
+            for ( OsmLink link = n.firstlink; link != null; link = link.next )
+            {
+              if ( link.targetNode == n )
+              {
+                continue;
+              }
+              int cost = LandmarkTile.getLinkLowerBound( n, link, expctxWay, expctxNode );
+              if ( cost >= 0 )
+              {
+                linkSources.add( id );
+                linkTargetIds.add( link.targetNode.getIdFromPos() );
+                linkCostList.add( cost );
+              }
+            }
+          }
+        }
+      }
+    }
+    if ( nodesCache != null )
+    {
+      nodesCache.close();
+    }
+
+    int n = nodeIds.size();
+    ids = new long[n];
+    for ( int i = 0; i < n; i++ )
+    {
+      ids[i] = nodeIds.get( i );
+    }
+    Arrays.sort( ids );
+
+    // links to nodes outside of the datafiles are dropped
+    int nlinks = linkSources.size();
+    int[] sources = new int[nlinks];
+    int[] targets = new int[nlinks];
+    int[] costs = new int[nlinks];
+    int m = 0;
+    for ( int i = 0; i < nlinks; i++ )
+    {
+      int t = Arrays.binarySearch( ids, linkTargetIds.get( i ) );
+      if ( t >= 0 )
+      {
+        sources[m] = Arrays.binarySearch( ids, linkSources.get( i ) );
+        targets[m] = t;
+        costs[m] = (int) linkCostList.get( i );
+        m++;
+      }
+    }
+    firstLink = new int[n + 1];
+    linkTargets = new int[m];
+    linkCosts = new int[m];
+    fillLinks( sources, targets, costs, m, firstLink, linkTargets, linkCosts );
+    firstReverseLink = new int[n + 1];
+    reverseLinkTargets = new int[m];
+    reverseLinkCosts = new int[m];
+    fillLinks( targets, sources, costs, m, firstReverseLink, reverseLinkTargets, reverseLinkCosts );
+  }
+
+  // links grouped by source: the links of node i are first[i]..first[i+1]-1
+  private static void fillLinks( int[] sources, int[] targets, int[] costs, int m, int[] first, int[] outTargets, int[] outCosts )
+  {
+    for ( int i = 0; i < m; i++ )
+    {
+      first[sources[i] + 1]++;
+    }
+    for ( int i = 1; i < first.length; i++ )
+    {
+      first[i] += first[i - 1];
+    }
+    int[] pos = new int[first.length];
+    System.arraycopy( first, 0, pos, 0, first.length );
+    for ( int i = 0; i < m; i++ )
+    {
+      int p = pos[sources[i]]++;
+      outTargets[p] = targets[i];
+      outCosts[p] = costs[i];
+    }
+  }
+
+  private int[] dijkstra( int source, int[] first, int[] targets, int[] costs )
+  {
+    int n = ids.length;
+    int[] dist = new int[n];
+    boolean[] settled = new boolean[n];
+    Arrays.fill( dist, UNREACHABLE );
+    dist[source] = 0;
+    SortedHeap<Integer> heap = new SortedHeap<Integer>();
+    heap.add( 0, Integer.valueOf( source ) );
+    for ( ;; )
+    {
+      Integer next = heap.popLowestKeyValue();
+      if ( next == null )
+      {
+        break;
+      }
+      int k = next.intValue();
+      if ( settled[k] )
+      {
+        continue;
+      }
+      settled[k] = true;
+      for ( int j = first[k]; j < first[k + 1]; j++ )
+      {
+        int t = targets[j];
+        int d = dist[k] + costs[j];
+        if ( !settled[t] && d < dist[t] )
+        {
+          dist[t] = d;
+          heap.add( d, Integer.valueOf( t ) );
+        }
+      }
+    }
+    return dist;
+  }
+}
@@ -0,0 +1,366 @@
+package btools.mapcreator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import btools.expressions.BExpressionContextNode;
+import btools.expressions.BExpressionContextWay;
+import btools.expressions.BExpressionMetaData;
+import btools.mapaccess.NodesCache;
+import btools.mapaccess.OsmLink;
+import btools.mapaccess.OsmNode;
+import btools.mapaccess.OsmNodesMap;
+import btools.mapaccess.ShortcutTile;
+import btools.util.SortedHeap;
+
+/**
+ * ShortcutBuilder precomputes the shortcut overlay (see ShortcutTile) of the
+ * rd5 files in a segment directory for one profile and writes it to
+ * the subdirectory shortcuts/&lt;profile-name&gt; of the segment directory
+ *
+ * The overlay is used by profiles with "assign useShortcuts true" and
+ * has to be re-built whenever the profile or the rd5 files change
+ *
+ * @author ab
+ */
+public class ShortcutBuilder
+{
+  // size of the micro-caches in the rd5 files
+  private static final int MICROCACHE_SIZE = 1000000 / 32;
+
+  private BExpressionContextWay expctxWay;
+  private BExpressionContextNode expctxNode;
+  private int cellSize;
+
+  // a boundary node with the target-ids of its shortcuts, before indexing
+  private static final class PendingNode
+  {
+    ShortcutTile.BoundaryNode node = new ShortcutTile.BoundaryNode();
+    long[] targetIds;
+  }
+
+  public static void main( String[] args ) throws Exception
+  {
+    System.out.println( "*** ShortcutBuilder: precompute the shortcut overlay for a profile" );
+    if ( args.length != 3 && args.length != 4 )
+    {
+      System.out.println( "usage: java ShortcutBuilder <segments-dir> <lookup-file> <profile-file> [<cellsize in micro-degrees, default 250000>]" );
+      return;
+    }
+    int cellSize = args.length == 4 ? Integer.parseInt( args[3] ) : 250000;
+    new ShortcutBuilder().process( new File( args[0] ), new File( args[1] ), new File( args[2] ), cellSize );
+  }
+
+  public void process( File segmentDir, File lookupFile, File profileFile, int cellSize ) throws Exception
+  {
+    // cells must neither span tiles nor micro-caches
+    boolean validSize = cellSize > 0 && 5000000 % cellSize == 0
+        && ( MICROCACHE_SIZE % cellSize == 0 || cellSize % MICROCACHE_SIZE == 0 );
+    if ( !validSize )
+    {
+      throw new IllegalArgumentException( "invalid cellsize: " + cellSize );
+    }
+    this.cellSize = cellSize;
+
+    BExpressionMetaData meta = new BExpressionMetaData();
+    expctxWay = new BExpressionContextWay( meta );
+    expctxNode = new BExpressionContextNode( meta );
+    meta.readMetaData( lookupFile );
+    expctxWay.parseFile( profileFile, "global" );
+    expctxNode.parseFile( profileFile, "global" );
+
+    String profileName = profileFile.getName();
+    if ( profileName.endsWith( ".brf" ) )
+    {
+      profileName = profileName.substring( 0, profileName.length() - 4 );
+    }
+    int profileCrc = ShortcutTile.getProfileCrc( profileFile );
+    File outDir = ShortcutTile.getDirectory( segmentDir, profileName );
+    outDir.mkdirs();
+
+    File[] files = segmentDir.listFiles();
+    Arrays.sort( files );
+    for ( File f : files )
+    {
+      String name = f.getName();
+      if ( name.endsWith( ".rd5" ) )
+      {
+        String baseName = name.substring( 0, name.length() - 4 );
+        ShortcutTile tile = processTile( segmentDir, baseName, profileName, profileCrc, f.length() );
+        tile.writeTo( new File( outDir, baseName + ShortcutTile.SUFFIX ) );
+        System.out.println( "wrote " + baseName + ": " + tile.size() + " boundary nodes" );
+      }
+    }
+  }
+
+  private ShortcutTile processTile( File segmentDir, String baseName, String profileName, int profileCrc, long datafileLength )
+  {
+    int[] origin = getTileOrigin( baseName );
+    int ilon0 = origin[0];
+    int ilat0 = origin[1];
+
+    List<PendingNode> pending = new ArrayList<PendingNode>();
+
+    // process the tile in blocks of whole cells and whole micro-caches
+    int blockSize = cellSize > MICROCACHE_SIZE ? cellSize : MICROCACHE_SIZE;
+    NodesCache nodesCache = null;
+    for ( int blon = ilon0; blon < ilon0 + 5000000; blon += blockSize )
+    {
+      for ( int blat = ilat0; blat < ilat0 + 5000000; blat += blockSize )
+      {
+        nodesCache = new NodesCache( segmentDir.getPath(), new OsmNodesMap(), expctxWay, false, false, nodesCache );
+        int nodeCount = 0;
+        for ( int mlon = blon; mlon < blon + blockSize; mlon += MICROCACHE_SIZE )
+        {
+          for ( int mlat = blat; mlat < blat + blockSize; mlat += MICROCACHE_SIZE )
+          {
+            nodeCount += nodesCache.loadSegmentFor( mlon, mlat );
+          }
+        }
+        if ( nodeCount == 0 )
+        {
+          continue;
+        }
+        HashMap<Long, List<OsmNode>> cells = new HashMap<Long, List<OsmNode>>();
+        for ( OsmNode n : nodesCache.getAllNodes() )
+        {
+          Long cell = Long.valueOf( ShortcutTile.getCell( n.ilon, n.ilat, cellSize ) );
+          List<OsmNode> cellNodes = cells.get( cell );
+          if ( cellNodes == null )
+          {
+            cellNodes = new ArrayList<OsmNode>();
+            cells.put( cell, cellNodes );
+          }
+          cellNodes.add( n );
+        }
+        for ( List<OsmNode> cellNodes : cells.values() )
+        {
+          for ( OsmNode n : cellNodes )
+          {
+            nodesCache.obtainNonHollowNode( n );
+          }
+        }
+        // links with the data written at the other end get it by decoding that end
+        for ( List<OsmNode> cellNodes : cells.values() )
+        {
+          for ( OsmNode n : cellNodes )
+          {
+            for ( OsmLink link = n.firstlink; link != null; link = link.next )
+            {
+              if ( link.descriptionBitmap == null )
+              {
+                nodesCache.obtainNonHollowNode( link.targetNode );
+              }
+            }
+          }
+        }
+        for ( List<OsmNode> cellNodes : cells.values() )
+        {
+          processCell( cellNodes, pending );
+        }
+      }
+    }
+    if ( nodesCache != null )
+    {
+      nodesCache.close();
+    }
+
+    // sort by id and resolve the shortcut targets to indices
+    PendingNode[] sorted = pending.toArray( new PendingNode[pending.size()] );
+    Arrays.sort( sorted, new Comparator<PendingNode>()
+    {
+      public int compare( PendingNode p1, PendingNode p2 )
+      {
+        return p1.node.id < p2.node.id ? -1 : ( p1.node.id > p2.node.id ? 1 : 0 );
+      }
+    } );
+    HashMap<Long, Integer> indexMap = new HashMap<Long, Integer>();
+    ShortcutTile.BoundaryNode[] nodes = new ShortcutTile.BoundaryNode[sorted.length];
+    for ( int i = 0; i < sorted.length; i++ )
+    {
+      nodes[i] = sorted[i].node;
+      indexMap.put( Long.valueOf( nodes[i].id ), Integer.valueOf( i ) );
+    }
+    for ( PendingNode p : sorted )
+    {
+      p.node.shortcutTargets = new int[p.targetIds.length];
+      for ( int i = 0; i < p.targetIds.length; i++ )
+      {
+        p.node.shortcutTargets[i] = indexMap.get( Long.valueOf( p.targetIds[i] ) ).intValue();
+      }
+    }
+    return new ShortcutTile( profileName, profileCrc, datafileLength, cellSize, nodes );
+  }
+
+  /**
+   * @return the lower left corner of a datafile (e.g. E5_N45) as ilon/ilat
+   */
+  static int[] getTileOrigin( String baseName )
+  {
+    int idx = baseName.indexOf( '_' );
+    int lon = Integer.parseInt( baseName.substring( 1, idx ) ) * ( baseName.charAt( 0 ) == 'W' ? -1 : 1 );
+    int lat = Integer.parseInt( baseName.substring( idx + 2 ) ) * ( baseName.charAt( idx + 1 ) == 'S' ? -1 : 1 );
+    return new int[]{ ( lon + 180 ) * 1000000, ( lat + 90 ) * 1000000 };
+  }
+
+  private void processCell( List<OsmNode> cellNodes, List<PendingNode> pending )
+  {
+    int size = cellNodes.size();
+    HashMap<Long, Integer> index = new HashMap<Long, Integer>();
+    for ( int i = 0; i < size; i++ )
+    {
+      index.put( Long.valueOf( cellNodes.get( i ).getIdFromPos() ), Integer.valueOf( i ) );
+    }
+
+    // the graph of the cell, plus the links leaving the cell
+    int[][] targets = new int[size][];
+    int[][] costs = new int[size][];
+    boolean[] isBoundary = new boolean[size];
+    List<PendingNode> boundaryNodes = new ArrayList<PendingNode>();
+    int[] boundaryIndex = new int[size];
+    for ( int i = 0; i < size; i++ )
+    {
+      OsmNode n = cellNodes.get( i );
+      List<Integer> t = new ArrayList<Integer>();
+      List<Integer> c = new ArrayList<Integer>();
+      List<Long> cutTargets = new ArrayList<Long>();
+      List<Integer> cutCosts = new ArrayList<Integer>();
+      for ( OsmLink link = n.firstlink; link != null; link = link.next )
+      {
+        OsmNode target = link.targetNode;
+        if ( target == n )
+        {
+          continue;
+        }
+        Integer ti = index.get( Long.valueOf( target.getIdFromPos() ) );
+        if ( ti == null )
+        {
+          isBoundary[i] = true;
+        }
+        int cost = ShortcutTile.getLinkCost( n, link, false, expctxWay, expctxNode );
+        if ( cost < 0 )
+        {
+          continue;
+        }
+        if ( ti == null )
+        {
+          cutTargets.add( Long.valueOf( target.getIdFromPos() ) );
+          cutCosts.add( Integer.valueOf( cost ) );
+        }
+        else
+        {
+          t.add( ti );
+          c.add( Integer.valueOf( cost ) );
+        }
+      }
+      targets[i] = toIntArray( t );
+      costs[i] = toIntArray( c );
+      if ( isBoundary[i] )
+      {
+        PendingNode p = new PendingNode();
+        p.node.id = n.getIdFromPos();
+        p.node.cutTargets = new long[cutTargets.size()];
+        for ( int k = 0; k < cutTargets.size(); k++ )
+        {
+          p.node.cutTargets[k] = cutTargets.get( k ).longValue();
+        }
+        p.node.cutCosts = toIntArray( cutCosts );
+        boundaryIndex[i] = boundaryNodes.size();
+        boundaryNodes.add( p );
+      }
+    }
+
+    // dijkstra from each boundary node, not expanding other boundary nodes
+    int[] dist = new int[size];
+    int[] pred = new int[size];
+    boolean[] settled = new boolean[size];
+    SortedHeap<Integer> heap = new SortedHeap<Integer>();
+    for ( int i = 0; i < size; i++ )
+    {
+      if ( !isBoundary[i] )
+      {
+        continue;
+      }
+      Arrays.fill( dist, Integer.MAX_VALUE );
+      Arrays.fill( settled, false );
+      heap.clear();
+      dist[i] = 0;
+      pred[i] = -1;
+      heap.add( 0, Integer.valueOf( i ) );
+
+      List<Integer> reached = new ArrayList<Integer>();
+      for ( ;; )
+      {
+        Integer next = heap.popLowestKeyValue();
+        if ( next == null )
+        {
+          break;
+        }
+        int k = next.intValue();
+        if ( settled[k] )
+        {
+          continue;
+        }
+        settled[k] = true;
+        if ( k != i && isBoundary[k] )
+        {
+          reached.add( next );
+          continue;
+        }
+        for ( int j = 0; j < targets[k].length; j++ )
+        {
+          int t = targets[k][j];
+          int d = dist[k] + costs[k][j];
+          if ( !settled[t] && d < dist[t] )
+          {
+            dist[t] = d;
+            pred[t] = k;
+            heap.add( d, Integer.valueOf( t ) );
+          }
+        }
+      }
+
+      PendingNode p = boundaryNodes.get( boundaryIndex[i] );
+      int nr = reached.size();
+      p.targetIds = new long[nr];
+      p.node.shortcutCosts = new int[nr];
+      p.node.shortcutNodes = new int[nr][];
+      for ( int r = 0; r < nr; r++ )
+      {
+        int t = reached.get( r ).intValue();
+        p.targetIds[r] = cellNodes.get( t ).getIdFromPos();
+        p.node.shortcutCosts[r] = dist[t];
+
+        int nvia = 0;
+        for ( int k = pred[t]; k != i; k = pred[k] )
+        {
+          nvia++;
+        }
+        int[] via = new int[2 * nvia];
+        int vi = via.length;
+        for ( int k = pred[t]; k != i; k = pred[k] )
+        {
+          OsmNode n = cellNodes.get( k );
+          via[--vi] = n.ilat;
+          via[--vi] = n.ilon;
+        }
+        p.node.shortcutNodes[r] = via;
+      }
+    }
+    pending.addAll( boundaryNodes );
+  }
+
+  private static int[] toIntArray( List<Integer> list )
+  {
+    int[] a = new int[list.size()];
+    for ( int i = 0; i < a.length; i++ )
+    {
+      a[i] = list.get( i ).intValue();
+    }
+    return a;
+  }
+}
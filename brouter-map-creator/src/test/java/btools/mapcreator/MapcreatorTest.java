@@ -73,5 +73,11 @@ public class MapcreatorTest
     carsubset.mkdir();
     File profileCarFile = new File( profileDir, "car-test.brf" );
     new WayLinker().process( unodes55, waytiles55, bordernodes, lookupFile, profileCarFile, carsubset, "cd5" );
+
+    // run ShortcutBuilder, with small cells to have some on the test-map
+    new ShortcutBuilder().process( segments, lookupFile, profileReport, 1250 );
+
+    // run LandmarkBuilder
+    new LandmarkBuilder().process( segments, lookupFile, profileReport, 4 );
   }
 }
@@ -0,0 +1,235 @@
+/**
+ * Landmark distances of one datafile
+ *
+ * @author ab
+ */
+package btools.mapaccess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import btools.expressions.BExpressionContextNode;
+import btools.expressions.BExpressionContextWay;
+
+/**
+ * Landmark distances of the nodes of a 5*5 degree datafile, precomputed for one profile
+ *
+ * For each node and each landmark, the tile stores the cost from the node
+ * to the landmark and from the landmark to the node. The costs are lower
+ * bounds of the router's costs (see getLinkLowerBound), so by the triangle
+ * inequality
+ *
+ *   cost(v,t) >= costTo(v,L) - costTo(t,L)
+ *   cost(v,t) >= costFrom(t,L) - costFrom(v,L)
+ *
+ * gives a lower bound of the cost from any node v to a target t
+ */
+public final class LandmarkTile
+{
+  public static final String DIRECTORY = "landmarks";
+  public static final String SUFFIX = ".lm5";
+
+  public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+  private static final int MAGIC = 0x5c5c1001;
+
+  public String profileName;
+  public int profileCrc;
+  public long datafileLength;
+  public int landmarkCount;
+
+  private long[] ids; // sorted
+  private int[] costsTo; // [idx*landmarkCount + landmark]
+  private int[] costsFrom;
+
+  public LandmarkTile( String profileName, int profileCrc, long datafileLength, int landmarkCount, long[] ids, int[] costsTo, int[] costsFrom )
+  {
+    this.profileName = profileName;
+    this.profileCrc = profileCrc;
+    this.datafileLength = datafileLength;
+    this.landmarkCount = landmarkCount;
+    this.ids = ids;
+    this.costsTo = costsTo;
+    this.costsFrom = costsFrom;
+  }
+
+  /**
+   * @return the directory of the landmark distances for a profile
+   */
+  public static File getDirectory( File segmentDir, String profileName )
+  {
+    return new File( new File( segmentDir, DIRECTORY ), profileName );
+  }
+
+  public int size()
+  {
+    return ids.length;
+  }
+
+  /**
+   * @return the index of the node with the given id, or -1 if not contained
+   */
+  public int indexOf( long id )
+  {
+    int idx = Arrays.binarySearch( ids, id );
+    return idx < 0 ? -1 : idx;
+  }
+
+  /**
+   * @return the cost from the node to the landmark, or UNREACHABLE
+   */
+  public int getCostTo( int idx, int landmark )
+  {
+    return costsTo[idx * landmarkCount + landmark];
+  }
+
+  /**
+   * @return the cost from the landmark to the node, or UNREACHABLE
+   */
+  public int getCostFrom( int idx, int landmark )
+  {
+    return costsFrom[idx * landmarkCount + landmark];
+  }
+
+  /**
+   * Calculate a lower bound of the router's cost of a link: the distance
+   * weighted by the lowest of the costfactors (uphill and downhill included)
+   * plus the initial cost of the node at the end of the link. Turn costs,
+   * elevation costs and initial costs of ways are left out, they are never
+   * negative
+   *
+   * @return the lower bound, or -1 if the link cannot be used
+   */
+  public static int getLinkLowerBound( OsmNode source, OsmLink link, BExpressionContextWay ctxWay, BExpressionContextNode ctxNode )
+  {
+    if ( link.descriptionBitmap == null )
+    {
+      return -1;
+    }
+    double cost = 0.;
+    OsmNode target = link.targetNode;
+    OsmNode p = source;
+    OsmTransferNode transferNode = link.decodeFirsttransfer( source );
+    for ( ;; )
+    {
+      OsmNode p2 = transferNode == null ? target : new OsmNode( transferNode.ilon, transferNode.ilat );
+      byte[] description = transferNode == null ? link.descriptionBitmap : transferNode.descriptionBitmap;
+      ctxWay.evaluate( link.counterLinkWritten, description, null );
+      float costfactor = ctxWay.getCostfactor();
+      if ( costfactor > 9999. )
+      {
+        return -1;
+      }
+      float uphillcostfactor = ctxWay.getUphillCostfactor();
+      float downhillcostfactor = ctxWay.getDownhillCostfactor();
+      float minfactor = costfactor;
+      if ( uphillcostfactor != 0.f && uphillcostfactor < minfactor )
+      {
+        minfactor = uphillcostfactor;
+      }
+      if ( downhillcostfactor != 0.f && downhillcostfactor < minfactor )
+      {
+        minfactor = downhillcostfactor;
+      }
+      int dist = p.calcDistance( p2 ) - 1; // calcDistance rounds up
+      if ( dist > 0 )
+      {
+        cost += dist * minfactor;
+      }
+      if ( transferNode == null )
+      {
+        break;
+      }
+      p = p2;
+      transferNode = transferNode.next;
+    }
+
+    if ( target.nodeDescription != null && ctxNode != null )
+    {
+      boolean nodeAccessGranted = ctxWay.getNodeAccessGranted() != 0.;
+      ctxNode.evaluate( nodeAccessGranted, target.nodeDescription, null );
+      float initialcost = ctxNode.getInitialcost();
+      if ( initialcost >= 1000000. )
+      {
+        return -1;
+      }
+      cost += initialcost;
+    }
+
+    // 1% margin for the distance calculation of the router
+    return (int) ( cost * 0.99 );
+  }
+
+  public void writeTo( File f ) throws IOException
+  {
+    DataOutputStream dos = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( f ) ) );
+    try
+    {
+      dos.writeInt( MAGIC );
+      dos.writeUTF( profileName );
+      dos.writeInt( profileCrc );
+      dos.writeLong( datafileLength );
+      dos.writeInt( landmarkCount );
+      dos.writeInt( ids.length );
+      for ( int i = 0; i < ids.length; i++ )
+      {
+        dos.writeLong( ids[i] );
+      }
+      for ( int i = 0; i < costsTo.length; i++ )
+      {
+        dos.writeInt( costsTo[i] );
+      }
+      for ( int i = 0; i < costsFrom.length; i++ )
+      {
+        dos.writeInt( costsFrom[i] );
+      }
+    }
+    finally
+    {
+      dos.close();
+    }
+  }
+
+  public static LandmarkTile readFrom( File f ) throws IOException
+  {
+    DataInputStream dis = new DataInputStream( new BufferedInputStream( new FileInputStream( f ) ) );
+    try
+    {
+      if ( dis.readInt() != MAGIC )
+      {
+        throw new IOException( "not a landmark file: " + f );
+      }
+      String profileName = dis.readUTF();
+      int profileCrc = dis.readInt();
+      long datafileLength = dis.readLong();
+      int landmarkCount = dis.readInt();
+      long[] ids = new long[dis.readInt()];
+      for ( int i = 0; i < ids.length; i++ )
+      {
+        ids[i] = dis.readLong();
+      }
+      int[] costsTo = new int[ids.length * landmarkCount];
+      for ( int i = 0; i < costsTo.length; i++ )
+      {
+        costsTo[i] = dis.readInt();
+      }
+      int[] costsFrom = new int[ids.length * landmarkCount];
+      for ( int i = 0; i < costsFrom.length; i++ )
+      {
+        costsFrom[i] = dis.readInt();
+      }
+      return new LandmarkTile( profileName, profileCrc, datafileLength, landmarkCount, ids, costsTo, costsFrom );
+    }
+    finally
+    {
+      dis.close();
+    }
+  }
+}
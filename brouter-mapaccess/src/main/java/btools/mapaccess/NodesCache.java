@@ -31,6 +31,8 @@ public final class NodesCache
 
   private HashMap<String, PhysicalFile> fileCache;
   private DataBuffers dataBuffers;
+  private SharedTileCache sharedTileCache;
+  private boolean memoryMapped = Boolean.getBoolean( "useMemoryMap" ); // -DuseMemoryMap=true: shared mappings instead of RandomAccessFile
 
   private OsmFile[][] fileRows;
   private ArrayList<MicroCache> segmentList = new ArrayList<MicroCache>();
@@ -39,6 +41,8 @@ public final class NodesCache
 
   public WaypointMatcher waypointMatcher;
 
+  private OsmNodesMap parsedNodes; // see retainParsedNodes
+
   public boolean first_file_access_failed = false;
   public String first_file_access_name;
 
@@ -47,6 +51,16 @@ public final class NodesCache
 
   public NodesCache( String segmentDir, OsmNodesMap nodesMap, BExpressionContextWay ctxWay, boolean carMode, boolean forceSecondaryData,
       NodesCache oldCache )
+  {
+    this( segmentDir, nodesMap, ctxWay, carMode, forceSecondaryData, oldCache, null );
+  }
+
+  /**
+   * @param sharedTileCache optional cache for decoded tiles shared with other
+   *        NodesCache instances (possibly in other threads), null = no sharing
+   */
+  public NodesCache( String segmentDir, OsmNodesMap nodesMap, BExpressionContextWay ctxWay, boolean carMode, boolean forceSecondaryData,
+      NodesCache oldCache, SharedTileCache sharedTileCache )
   {
     this.segmentDir = new File( segmentDir );
     this.nodesMap = nodesMap;
@@ -55,6 +69,7 @@ public final class NodesCache
     this.lookupMinorVersion = ctxWay.meta.lookupMinorVersion;
     this.carMode = carMode;
     this.forceSecondaryData = forceSecondaryData;
+    this.sharedTileCache = sharedTileCache;
 
     first_file_access_failed = false;
     first_file_access_name = null;
@@ -198,6 +213,33 @@ public final class NodesCache
     }
   }
 
+  /**
+   * Keep track of the parsed nodes, so they can be found by getParsedNode.
+   * This allows to re-use the decoded graph for another search: the nodes
+   * are parsed only once, a new proxy for a parsed node would stay hollow
+   */
+  public void retainParsedNodes()
+  {
+    if ( parsedNodes == null )
+    {
+      parsedNodes = new OsmNodesMap();
+    }
+  }
+
+  /**
+   * @return the parsed node with the given id, or null if not parsed
+   *         (or not retained, see retainParsedNodes)
+   */
+  public OsmNode getParsedNode( long id )
+  {
+    return parsedNodes == null ? null : parsedNodes.get( id );
+  }
+
+  public int getParsedNodeCount()
+  {
+    return parsedNodes == null ? 0 : parsedNodes.size();
+  }
+
   public boolean obtainNonHollowNode( OsmNode node )
   {
     if ( !node.isHollow() )
@@ -213,6 +255,10 @@ public final class NodesCache
     if ( segment.getAndClear( id ) )
     {
       node.parseNodeBody( segment, nodesMap, distanceChecker );
+      if ( parsedNodes != null )
+      {
+        parsedNodes.put( node );
+      }
     }
 
     if ( garbageCollectionEnabled ) // garbage collection
@@ -223,7 +269,11 @@ public final class NodesCache
     return !node.isHollow();
   }
 
-  private OsmFile fileForSegment( int lonDegree, int latDegree ) throws Exception
+  /**
+   * @return the base name of the datafile (e.g. E5_N45) containing a position,
+   *         given in degrees with offsets (0..360, 0..180)
+   */
+  public static String getFileBaseName( int lonDegree, int latDegree )
   {
     int lonMod5 = lonDegree % 5;
     int latMod5 = latDegree % 5;
@@ -233,7 +283,12 @@ public final class NodesCache
     int lat = latDegree - 90 - latMod5;
 
     String slat = lat < 0 ? "S" + ( -lat ) : "N" + lat;
-    String filenameBase = slon + "_" + slat;
+    return slon + "_" + slat;
+  }
+
+  private OsmFile fileForSegment( int lonDegree, int latDegree ) throws Exception
+  {
+    String filenameBase = getFileBaseName( lonDegree, latDegree );
 
     currentFileName = filenameBase + ".rd5/cd5";
 
@@ -271,7 +326,12 @@ public final class NodesCache
       if ( f != null )
       {
         currentFileName = f.getName();
-        ra = new PhysicalFile( f, dataBuffers, lookupVersion, lookupMinorVersion );
+        ra = new PhysicalFile( f, dataBuffers, lookupVersion, lookupMinorVersion, memoryMapped );
+        if ( sharedTileCache != null )
+        {
+          ra.sharedTileCache = sharedTileCache;
+          ra.sharedFileId = sharedTileCache.getFileId( f );
+        }
       }
       fileCache.put( filenameBase, ra );
     }
@@ -308,6 +368,22 @@ public final class NodesCache
     return all;
   }
 
+  /**
+   * @return the datafiles opened by this cache (and its predecessors)
+   */
+  public List<File> getDataFiles()
+  {
+    List<File> files = new ArrayList<File>();
+    for ( PhysicalFile f : fileCache.values() )
+    {
+      if ( f != null )
+      {
+        files.add( f.file );
+      }
+    }
+    return files;
+  }
+
   public void close()
   {
     for ( PhysicalFile f : fileCache.values() )
@@ -315,7 +391,7 @@ public final class NodesCache
       try
       {
         if ( f != null )
-          f.ra.close();
+          f.close();
       }
       catch (IOException ioe)
       {
@@ -6,9 +6,9 @@
 package btools.mapaccess;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 
 import btools.codec.DataBuffers;
+import btools.codec.DecodedTile;
 import btools.codec.MicroCache;
 import btools.codec.MicroCache1;
 import btools.codec.MicroCache2;
@@ -17,9 +17,9 @@ import btools.codec.WaypointMatcher;
 import btools.util.ByteDataReader;
 import btools.util.Crc32;
 
-final class OsmFile
+public final class OsmFile
 {
-  private RandomAccessFile is = null;
+  private PhysicalFile rafile = null;
   private long fileOffset;
 
   private int[] posIdx;
@@ -37,17 +37,23 @@ final class OsmFile
   private int ncaches;
   private int indexsize;
 
+  private int tileIndex;
+  private SharedTileCache sharedTileCache;
+  private int sharedFileId;
+
   public OsmFile( PhysicalFile rafile, int lonDegree, int latDegree, DataBuffers dataBuffers ) throws Exception
   {
     this.lonDegree = lonDegree;
     this.latDegree = latDegree;
     int lonMod5 = lonDegree % 5;
     int latMod5 = latDegree % 5;
-    int tileIndex = lonMod5 * 5 + latMod5;
+    tileIndex = lonMod5 * 5 + latMod5;
 
     if ( rafile != null )
     {
       divisor = rafile.divisor;
+      sharedTileCache = rafile.sharedTileCache;
+      sharedFileId = rafile.sharedFileId;
 
       cellsize = 1000000 / divisor;
       ncaches = divisor * divisor;
@@ -61,11 +67,10 @@ final class OsmFile
       if ( fileOffset == index[tileIndex] )
         return; // empty
 
-      is = rafile.ra;
+      this.rafile = rafile;
       posIdx = new int[ncaches];
       microCaches = new MicroCache[ncaches];
-      is.seek( fileOffset );
-      is.readFully( iobuffer, 0, indexsize );
+      rafile.readFully( fileOffset, iobuffer, indexsize );
 
       if ( rafile.fileHeaderCrcs != null )
       {
@@ -120,10 +125,9 @@ final class OsmFile
     int size = endPos - startPos;
     if ( size > 0 )
     {
-      is.seek( fileOffset + startPos );
       if ( size <= iobuffer.length )
       {
-        is.readFully( iobuffer, 0, size );
+        rafile.readFully( fileOffset + startPos, iobuffer, size );
       }
     }
     return size;
@@ -134,6 +138,17 @@ final class OsmFile
   {
     int subIdx = ( latIdx - divisor * latDegree ) * divisor + ( lonIdx - divisor * lonDegree );
 
+    long sharedKey = 0L;
+    if ( sharedTileCache != null && reallyDecode )
+    {
+      sharedKey = SharedTileCache.getKey( sharedFileId, tileIndex, subIdx );
+      DecodedTile tile = sharedTileCache.get( sharedKey );
+      if ( tile != null && tile.matches( lonIdx, latIdx, divisor ) )
+      {
+        return new MicroCache2( tile, dataBuffers, wayValidator, waypointMatcher );
+      }
+    }
+
     byte[] ab = dataBuffers.iobuffer;
     int asize = getDataInputForSubIdx( subIdx, ab );
 
@@ -158,7 +173,17 @@ final class OsmFile
     }
     if ( ( crcData ^ 2 ) == crcFooter )
     {
-      return reallyDecode ? new MicroCache2( dataBuffers, lonIdx, latIdx, divisor, wayValidator, waypointMatcher ) : null;
+      if ( !reallyDecode )
+      {
+        return null;
+      }
+      if ( sharedTileCache != null )
+      {
+        DecodedTile tile = new DecodedTile( dataBuffers, lonIdx, latIdx, divisor, true );
+        sharedTileCache.put( sharedKey, tile );
+        return new MicroCache2( tile, dataBuffers, wayValidator, waypointMatcher );
+      }
+      return new MicroCache2( dataBuffers, lonIdx, latIdx, divisor, wayValidator, waypointMatcher );
     }
     throw new IOException( "checkum error" );
   }
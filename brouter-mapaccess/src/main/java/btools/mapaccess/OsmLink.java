@@ -30,10 +30,82 @@ public class OsmLink
 
   public byte state;
 
+  // the transfer nodes decoded by decodeGeometry, in the direction of the link:
+  // lon,lat,elev triples, and for the old format the descriptions
+  private int[] transferGeometry;
+  private byte[][] transferDescriptions;
+
+  private static final int[] NO_TRANSFER_NODES = new int[0];
+
   public void setGeometry( byte[] geometry )
   {
     this.geometry = geometry;
     hasNewGeometry = true;
+    transferGeometry = null;
+  }
+
+  /**
+   * Decode the transfer nodes once and keep them with the link, so that
+   * evaluating the link again (e.g. from another path) needs no decoding
+   * and no allocation. Access them by getTransferLon/Lat/Elev/Description
+   *
+   * @param sourceNode the node this link belongs to
+   * @return the number of transfer nodes
+   */
+  final public int decodeGeometry( OsmNode sourceNode )
+  {
+    if ( transferGeometry == null )
+    {
+      if ( geometry == null )
+      {
+        transferGeometry = NO_TRANSFER_NODES;
+      }
+      else
+      {
+        OsmTransferNode firstTransferNode = decodeFirsttransfer( sourceNode );
+        int n = 0;
+        for ( OsmTransferNode tn = firstTransferNode; tn != null; tn = tn.next )
+        {
+          n++;
+        }
+        int[] g = new int[3 * n];
+        byte[][] descriptions = hasNewGeometry ? null : new byte[n][];
+        int i = 0;
+        for ( OsmTransferNode tn = firstTransferNode; tn != null; tn = tn.next )
+        {
+          if ( descriptions != null )
+          {
+            descriptions[i / 3] = tn.descriptionBitmap;
+          }
+          g[i++] = tn.ilon;
+          g[i++] = tn.ilat;
+          g[i++] = tn.selev;
+        }
+        transferDescriptions = descriptions;
+        transferGeometry = g;
+      }
+    }
+    return transferGeometry.length / 3;
+  }
+
+  final public int getTransferLon( int idx )
+  {
+    return transferGeometry[3 * idx];
+  }
+
+  final public int getTransferLat( int idx )
+  {
+    return transferGeometry[3 * idx + 1];
+  }
+
+  final public short getTransferElev( int idx )
+  {
+    return (short) transferGeometry[3 * idx + 2];
+  }
+
+  final public byte[] getTransferDescription( int idx )
+  {
+    return transferDescriptions == null ? descriptionBitmap : transferDescriptions[idx];
   }
 
   final public OsmTransferNode decodeFirsttransfer( OsmNode sourceNode )
@@ -85,6 +157,7 @@ public class OsmLink
   {
     if ( firsttransfer == null ) geometry = null;
     else geometry = OsmTransferNode.encode( firsttransfer );
+    transferGeometry = null;
   }
 
    final public void addLinkHolder( OsmLinkHolder holder )
@@ -5,38 +5,125 @@
  */
 package btools.mapaccess;
 
-import java.util.*;
+import java.util.Arrays;
 
 import btools.util.ByteArrayUnifier;
 
+/**
+ * Map of the nodes of the routing graph, keyed by their position-id
+ *
+ * This is an open-addressing hash-table with linear probing on
+ * primitive long keys (no entry objects, no key objects),
+ * removal is done by backward shifting, so there are no tombstones.
+ *
+ * clear() keeps the table size, so a map re-used for the
+ * next search is already sized for the previous one.
+ */
 public final class OsmNodesMap
 {
-  private HashMap<OsmNode,OsmNode> hmap = new HashMap<OsmNode,OsmNode>();
-  
+  private long[] keys;
+  private OsmNode[] nodes;
+  private int size;
+  private int mask;
+  private int shift;
+  private int maxFill;
+
   private ByteArrayUnifier abUnifier = new ByteArrayUnifier( 16384, false );
 
-  private OsmNode testKey = new OsmNode();
+  public OsmNodesMap()
+  {
+    this( 4096 );
+  }
+
+  /**
+   * @param expectedSize the number of nodes expected, to avoid re-hashing
+   */
+  public OsmNodesMap( int expectedSize )
+  {
+    int capacity = 16;
+    while (capacity < 2 * expectedSize && capacity < ( 1 << 30 ))
+    {
+      capacity <<= 1;
+    }
+    allocate( capacity );
+  }
+
+  private void allocate( int capacity )
+  {
+    keys = new long[capacity];
+    nodes = new OsmNode[capacity];
+    mask = capacity - 1;
+    shift = 64 - Integer.numberOfTrailingZeros( capacity );
+    maxFill = capacity / 2;
+  }
+
+  // fibonacci hashing: take the high bits of the product
+  private int slot( long id )
+  {
+    return (int) ( ( id * 0x9E3779B97F4A7C15L ) >>> shift );
+  }
 
   public ByteArrayUnifier getByteArrayUnifier()
   {
     return abUnifier;
   }
-  
+
   /**
    * Get a node from the map
    * @return the node for the given id if exist, else null
    */
   public OsmNode get( long id )
   {
-    testKey.ilon = (int)(id >> 32);
-    testKey.ilat = (int)(id & 0xffffffff);
-    return hmap.get( testKey );
+    for ( int idx = slot( id );; idx = ( idx + 1 ) & mask )
+    {
+      OsmNode n = nodes[idx];
+      if ( n == null || keys[idx] == id )
+      {
+        return n;
+      }
+    }
   }
 
 
   public void remove( OsmNode node )
   {
-    hmap.remove( node );
+    long id = node.getIdFromPos();
+    int idx = slot( id );
+    for ( ;; idx = ( idx + 1 ) & mask )
+    {
+      if ( nodes[idx] == null )
+      {
+        return;
+      }
+      if ( keys[idx] == id )
+      {
+        break;
+      }
+    }
+    size--;
+
+    // shift back following entries that would not be found anymore
+    for ( ;; )
+    {
+      int free = idx;
+      for ( ;; )
+      {
+        idx = ( idx + 1 ) & mask;
+        if ( nodes[idx] == null )
+        {
+          nodes[free] = null;
+          return;
+        }
+        int home = slot( keys[idx] );
+        // entry can move to free if its home is not within (free, idx]
+        if ( free <= idx ? ( home <= free || home > idx ) : ( home <= free && home > idx ) )
+        {
+          break;
+        }
+      }
+      keys[free] = keys[idx];
+      nodes[free] = nodes[idx];
+    }
   }
 
   /**
@@ -45,16 +132,65 @@ public final class OsmNodesMap
    */
   public OsmNode put( OsmNode node )
   {
-    return hmap.put( node, node );
+    long id = node.getIdFromPos();
+    int idx = slot( id );
+    for ( ;; idx = ( idx + 1 ) & mask )
+    {
+      OsmNode n = nodes[idx];
+      if ( n == null )
+      {
+        break;
+      }
+      if ( keys[idx] == id )
+      {
+        nodes[idx] = node;
+        return n;
+      }
+    }
+    keys[idx] = id;
+    nodes[idx] = node;
+    if ( ++size > maxFill )
+    {
+      rehash();
+    }
+    return null;
   }
 
+  private void rehash()
+  {
+    long[] oldKeys = keys;
+    OsmNode[] oldNodes = nodes;
+    allocate( oldNodes.length * 2 );
+    for ( int i = 0; i < oldNodes.length; i++ )
+    {
+      if ( oldNodes[i] != null )
+      {
+        int idx = slot( oldKeys[i] );
+        while (nodes[idx] != null)
+        {
+          idx = ( idx + 1 ) & mask;
+        }
+        keys[idx] = oldKeys[i];
+        nodes[idx] = oldNodes[i];
+      }
+    }
+  }
+
+  /**
+   * remove all nodes, but keep the table size
+   */
+  public void clear()
+  {
+    Arrays.fill( nodes, null );
+    size = 0;
+  }
 
   /**
    * @return the number of nodes in that map
    */
   public int size()
   {
-    return hmap.size();
+    return size;
   }
 
 }
@@ -5,9 +5,15 @@
  */
 package btools.mapaccess;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import btools.codec.DataBuffers;
 import btools.util.ByteDataReader;
@@ -15,7 +21,27 @@ import btools.util.Crc32;
 
 final public class PhysicalFile
 {
+  // memory-mapped datafiles, mapped once per JVM and shared by all requests,
+  // keyed by path, least-recently-used beyond -DmaxMappedFiles (default 256)
+  private static final int maxMappedFiles = Integer.getInteger( "maxMappedFiles", 256 ).intValue();
+  private static LinkedHashMap<String, MappedFile> mappedFiles = new LinkedHashMap<String, MappedFile>( 16, 0.75f, true )
+  {
+    @Override
+    protected boolean removeEldestEntry( Map.Entry<String, MappedFile> eldest )
+    {
+      return size() > maxMappedFiles;
+    }
+  };
+
+  private static final class MappedFile
+  {
+    String version;
+    MappedByteBuffer buffer;
+  }
+
   RandomAccessFile ra = null;
+  private MappedByteBuffer mapped;
+  private long fileLength;
   long[] fileIndex = new long[25];
   int[] fileHeaderCrcs;
    
@@ -23,6 +49,11 @@ final public class PhysicalFile
   public long creationTime;
 
   String fileName;
+  File file;
+
+  // optional cache for decoded tiles, shared between requests
+  SharedTileCache sharedTileCache;
+  int sharedFileId;
   
   public int divisor = 80;
 
@@ -64,7 +95,7 @@ final public class PhysicalFile
       if ( pf != null )
         try
         {
-          pf.ra.close();
+          pf.close();
         }
         catch (Exception ee)
         {
@@ -74,11 +105,34 @@ final public class PhysicalFile
   }
 
   public PhysicalFile( File f, DataBuffers dataBuffers, int lookupVersion, int lookupMinorVersion ) throws Exception
+  {
+    this( f, dataBuffers, lookupVersion, lookupMinorVersion, false );
+  }
+
+  /**
+   * @param memoryMapped if true, access the file via a memory mapping
+   *        that is shared between all instances for the same file
+   *        instead of seek+read on a private RandomAccessFile
+   */
+  public PhysicalFile( File f, DataBuffers dataBuffers, int lookupVersion, int lookupMinorVersion, boolean memoryMapped ) throws Exception
   {
     fileName = f.getName();
+    file = f;
     byte[] iobuffer = dataBuffers.iobuffer;
-    ra = new RandomAccessFile( f, "r" );
-    ra.readFully( iobuffer, 0, 200 );
+    if ( memoryMapped )
+    {
+      mapped = getMappedBuffer( f );
+    }
+    if ( mapped != null )
+    {
+      fileLength = mapped.capacity();
+    }
+    else
+    {
+      ra = new RandomAccessFile( f, "r" );
+      fileLength = ra.length();
+    }
+    readFully( 0L, iobuffer, 200 );
     fileIndexCrc = Crc32.crc( iobuffer, 0, 200 );
     ByteDataReader dis = new ByteDataReader( iobuffer );
     for( int i=0; i<25; i++ )
@@ -99,7 +153,7 @@ final public class PhysicalFile
     }
 
     // read some extra info from the end of the file, if present
-    long len = ra.length();
+    long len = fileLength;
 
     long pos = fileIndex[24];
     int extraLen = 8 + 26*4;
@@ -111,8 +165,7 @@ final public class PhysicalFile
       throw new IOException( "file of size " + len + " too short, should be " + (pos+extraLen) );
     }
     
-    ra.seek( pos );
-    ra.readFully( iobuffer, 0, extraLen );
+    readFully( pos, iobuffer, extraLen );
     dis = new ByteDataReader( iobuffer );
     creationTime = dis.readLong();
 
@@ -135,4 +188,66 @@ final public class PhysicalFile
       fileHeaderCrcs[i] = dis.readInt();
     }
   }
+
+  /**
+   * Read len bytes at the given file position into the buffer.
+   *
+   * In memory-mapped mode, this does not touch any shared
+   * state and is safe for concurrent use
+   */
+  void readFully( long pos, byte[] buffer, int len ) throws IOException
+  {
+    if ( mapped == null )
+    {
+      ra.seek( pos );
+      ra.readFully( buffer, 0, len );
+      return;
+    }
+    if ( pos + len > fileLength )
+    {
+      throw new EOFException( "read beyond end of " + fileName );
+    }
+    ByteBuffer bb = mapped.duplicate();
+    bb.position( (int) pos );
+    bb.get( buffer, 0, len );
+  }
+
+  public void close() throws IOException
+  {
+    if ( ra != null )
+    {
+      ra.close();
+    }
+    // mapped buffers are kept for the next user, evicted ones are released by the gc
+  }
+
+  private static synchronized MappedByteBuffer getMappedBuffer( File f ) throws IOException
+  {
+    long len = f.length();
+    if ( len > Integer.MAX_VALUE )
+    {
+      return null; // too big for a single mapping, fall back to RandomAccessFile
+    }
+    String path = f.getAbsolutePath();
+    String version = f.lastModified() + "|" + len;
+    MappedFile mf = mappedFiles.get( path );
+    if ( mf == null || !mf.version.equals( version ) ) // new or replaced file
+    {
+      MappedByteBuffer mbb;
+      RandomAccessFile raf = new RandomAccessFile( f, "r" );
+      try
+      {
+        mbb = raf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0L, len );
+      }
+      finally
+      {
+        raf.close(); // mapping stays valid after closing the channel
+      }
+      mf = new MappedFile();
+      mf.version = version;
+      mf.buffer = mbb;
+      mappedFiles.put( path, mf );
+    }
+    return mf.buffer;
+  }
 }
@@ -0,0 +1,159 @@
+/**
+ * process-wide cache for decoded micro-tiles
+ *
+ * @author ab
+ */
+package btools.mapaccess;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import btools.codec.DecodedTile;
+
+/**
+ * SharedTileCache keeps the profile-independent result of decoding
+ * micro-tiles (see DecodedTile) across routing requests, so that
+ * concurrent or consecutive requests covering the same area do not
+ * re-read and re-decode the datafiles.
+ *
+ * Eviction is least-recently-used within a byte budget
+ * configured via the system property "tileCacheSize" (in MB, default 64)
+ *
+ * Tiles are keyed by a file-id that changes with the file's modification
+ * time and length, so replacing a datafile invalidates its tiles. The
+ * tiles of the replaced file are dropped together with its id
+ */
+public final class SharedTileCache
+{
+  private static SharedTileCache instance;
+
+  private static final class FileEntry
+  {
+    String version;
+    int id;
+  }
+
+  private LinkedHashMap<Long, DecodedTile> tiles;
+  private HashMap<String, FileEntry> fileIds = new HashMap<String, FileEntry>();
+  private int lastFileId;
+
+  private long maxSize;
+  private long currentSize;
+
+  private long hits;
+  private long misses;
+
+  public static synchronized SharedTileCache getInstance()
+  {
+    if ( instance == null )
+    {
+      long mb = Long.getLong( "tileCacheSize", 64L ).longValue();
+      instance = new SharedTileCache( mb * 1024L * 1024L );
+    }
+    return instance;
+  }
+
+  public SharedTileCache( long maxSize )
+  {
+    this.maxSize = maxSize;
+    tiles = new LinkedHashMap<Long, DecodedTile>( 1024, 0.75f, true );
+  }
+
+  /**
+   * @return an id for the given datafile that changes when the file is replaced
+   */
+  public synchronized int getFileId( File f )
+  {
+    String path = f.getAbsolutePath();
+    String version = f.lastModified() + "|" + f.length();
+    FileEntry e = fileIds.get( path );
+    if ( e == null )
+    {
+      e = new FileEntry();
+      fileIds.put( path, e );
+    }
+    else if ( e.version.equals( version ) )
+    {
+      return e.id;
+    }
+    else
+    {
+      removeTiles( e.id ); // file was replaced
+    }
+    e.version = version;
+    e.id = ++lastFileId;
+    return e.id;
+  }
+
+  private void removeTiles( int fileId )
+  {
+    Iterator<Map.Entry<Long, DecodedTile>> it = tiles.entrySet().iterator();
+    while (it.hasNext())
+    {
+      Map.Entry<Long, DecodedTile> entry = it.next();
+      if ( (int) ( entry.getKey().longValue() >>> 32 ) == fileId )
+      {
+        currentSize -= entry.getValue().getDataSize();
+        it.remove();
+      }
+    }
+  }
+
+  public static long getKey( int fileId, int tileIndex, int subIdx )
+  {
+    return ( (long) fileId ) << 32 | tileIndex << 16 | subIdx;
+  }
+
+  public synchronized DecodedTile get( long key )
+  {
+    DecodedTile tile = tiles.get( Long.valueOf( key ) );
+    if ( tile == null )
+    {
+      misses++;
+    }
+    else
+    {
+      hits++;
+    }
+    return tile;
+  }
+
+  public synchronized void put( long key, DecodedTile tile )
+  {
+    DecodedTile old = tiles.put( Long.valueOf( key ), tile );
+    if ( old != null )
+    {
+      currentSize -= old.getDataSize();
+    }
+    currentSize += tile.getDataSize();
+
+    Iterator<Map.Entry<Long, DecodedTile>> it = tiles.entrySet().iterator();
+    while (currentSize > maxSize && it.hasNext())
+    {
+      currentSize -= it.next().getValue().getDataSize();
+      it.remove();
+    }
+  }
+
+  public synchronized void clear()
+  {
+    tiles.clear();
+    currentSize = 0;
+  }
+
+  /**
+   * @return the number of lookups served from the cache
+   */
+  public synchronized long getHits()
+  {
+    return hits;
+  }
+
+  public synchronized String getStatistics()
+  {
+    return "tiles=" + tiles.size() + " size=" + currentSize + " hits=" + hits + " misses=" + misses;
+  }
+}
@@ -0,0 +1,283 @@
+/**
+ * Shortcut overlay of one datafile
+ *
+ * @author ab
+ */
+package btools.mapaccess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import btools.expressions.BExpressionContextNode;
+import btools.expressions.BExpressionContextWay;
+import btools.util.Crc32;
+
+/**
+ * Shortcut overlay of a 5*5 degree datafile, precomputed for one profile
+ *
+ * The tile is divided into square cells. Boundary nodes are the nodes with
+ * a link into another cell. For each boundary node, the overlay stores these
+ * links ("cut links") and the shortcuts to the other boundary nodes of its
+ * cell, with the node sequence of the shortcut and its cost. Shortcuts that
+ * would pass another boundary node are omitted, they are a concatenation
+ * of two others.
+ *
+ * The costs are static (see getLinkCost), so they approximate the path
+ * dependent costs of the router (no turn-costs, no elevation buffers)
+ */
+public final class ShortcutTile
+{
+  public static final String DIRECTORY = "shortcuts";
+  public static final String SUFFIX = ".sc5";
+
+  private static final int MAGIC = 0x5c5c0001;
+
+  public static final class BoundaryNode
+  {
+    public long id;
+
+    // links into other cells
+    public long[] cutTargets;
+    public int[] cutCosts;
+
+    // shortcuts to boundary nodes of the same cell
+    public int[] shortcutTargets; // index into the tile's boundary nodes
+    public int[] shortcutCosts;
+    public int[][] shortcutNodes; // ilon/ilat pairs of the nodes between
+  }
+
+  public String profileName;
+  public int profileCrc;
+  public long datafileLength;
+  public int cellSize;
+
+  private BoundaryNode[] nodes; // sorted by id
+
+  public ShortcutTile( String profileName, int profileCrc, long datafileLength, int cellSize, BoundaryNode[] nodes )
+  {
+    this.profileName = profileName;
+    this.profileCrc = profileCrc;
+    this.datafileLength = datafileLength;
+    this.cellSize = cellSize;
+    this.nodes = nodes;
+  }
+
+  /**
+   * @return the directory of the overlay for a profile
+   */
+  public static File getDirectory( File segmentDir, String profileName )
+  {
+    return new File( new File( segmentDir, DIRECTORY ), profileName );
+  }
+
+  /**
+   * @return the checksum of the profile file the overlay is computed for
+   */
+  public static int getProfileCrc( File profileFile ) throws IOException
+  {
+    byte[] ab = new byte[(int) profileFile.length()];
+    DataInputStream dis = new DataInputStream( new FileInputStream( profileFile ) );
+    try
+    {
+      dis.readFully( ab );
+    }
+    finally
+    {
+      dis.close();
+    }
+    return Crc32.crc( ab, 0, ab.length );
+  }
+
+  public int size()
+  {
+    return nodes.length;
+  }
+
+  public BoundaryNode getNode( int idx )
+  {
+    return nodes[idx];
+  }
+
+  /**
+   * @return the boundary node for the given id, or null if that's not a boundary node
+   */
+  public BoundaryNode getNode( long id )
+  {
+    int lo = 0;
+    int hi = nodes.length - 1;
+    while (lo <= hi)
+    {
+      int mid = ( lo + hi ) >>> 1;
+      long midId = nodes[mid].id;
+      if ( midId < id )
+      {
+        lo = mid + 1;
+      }
+      else if ( midId > id )
+      {
+        hi = mid - 1;
+      }
+      else
+      {
+        return nodes[mid];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the cell index for a position, the same for all nodes of a cell
+   */
+  public static long getCell( int ilon, int ilat, int cellSize )
+  {
+    return ( (long) ( ilon / cellSize ) ) << 32 | ( ilat / cellSize );
+  }
+
+  /**
+   * Calculate the static cost of a link: the distance weighted by the costfactor
+   * plus the initial cost of the node at the end of the link
+   *
+   * @param inverse if true, the cost to travel the link in opposite direction
+   * @return the cost, or -1 if the link cannot be used
+   */
+  public static int getLinkCost( OsmNode source, OsmLink link, boolean inverse, BExpressionContextWay ctxWay, BExpressionContextNode ctxNode )
+  {
+    if ( link.descriptionBitmap == null )
+    {
+      return -1;
+    }
+    int cost = 0;
+    OsmNode target = link.targetNode;
+    OsmNode p = source;
+    OsmTransferNode transferNode = link.decodeFirsttransfer( source );
+    for ( ;; )
+    {
+      OsmNode p2 = transferNode == null ? target : new OsmNode( transferNode.ilon, transferNode.ilat );
+      byte[] description = transferNode == null ? link.descriptionBitmap : transferNode.descriptionBitmap;
+      ctxWay.evaluate( inverse ^ link.counterLinkWritten, description, null );
+      float costfactor = ctxWay.getCostfactor();
+      if ( costfactor > 9999. )
+      {
+        return -1;
+      }
+      cost += (int) ( p.calcDistance( p2 ) * costfactor + 0.5f );
+      if ( transferNode == null )
+      {
+        break;
+      }
+      p = p2;
+      transferNode = transferNode.next;
+    }
+
+    OsmNode n = inverse ? source : target;
+    if ( n.nodeDescription != null && ctxNode != null )
+    {
+      boolean nodeAccessGranted = ctxWay.getNodeAccessGranted() != 0.;
+      ctxNode.evaluate( nodeAccessGranted, n.nodeDescription, null );
+      float initialcost = ctxNode.getInitialcost();
+      if ( initialcost >= 1000000. )
+      {
+        return -1;
+      }
+      cost += (int) initialcost;
+    }
+    return cost;
+  }
+
+  public void writeTo( File f ) throws IOException
+  {
+    DataOutputStream dos = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( f ) ) );
+    try
+    {
+      dos.writeInt( MAGIC );
+      dos.writeUTF( profileName );
+      dos.writeInt( profileCrc );
+      dos.writeLong( datafileLength );
+      dos.writeInt( cellSize );
+      dos.writeInt( nodes.length );
+      for ( BoundaryNode n : nodes )
+      {
+        dos.writeLong( n.id );
+        dos.writeInt( n.cutTargets.length );
+        for ( int i = 0; i < n.cutTargets.length; i++ )
+        {
+          dos.writeLong( n.cutTargets[i] );
+          dos.writeInt( n.cutCosts[i] );
+        }
+        dos.writeInt( n.shortcutTargets.length );
+        for ( int i = 0; i < n.shortcutTargets.length; i++ )
+        {
+          dos.writeInt( n.shortcutTargets[i] );
+          dos.writeInt( n.shortcutCosts[i] );
+          int[] via = n.shortcutNodes[i];
+          dos.writeInt( via.length );
+          for ( int k = 0; k < via.length; k++ )
+          {
+            dos.writeInt( via[k] );
+          }
+        }
+      }
+    }
+    finally
+    {
+      dos.close();
+    }
+  }
+
+  public static ShortcutTile readFrom( File f ) throws IOException
+  {
+    DataInputStream dis = new DataInputStream( new BufferedInputStream( new FileInputStream( f ) ) );
+    try
+    {
+      if ( dis.readInt() != MAGIC )
+      {
+        throw new IOException( "not a shortcut file: " + f );
+      }
+      String profileName = dis.readUTF();
+      int profileCrc = dis.readInt();
+      long datafileLength = dis.readLong();
+      int cellSize = dis.readInt();
+      BoundaryNode[] nodes = new BoundaryNode[dis.readInt()];
+      for ( int ni = 0; ni < nodes.length; ni++ )
+      {
+        BoundaryNode n = new BoundaryNode();
+        n.id = dis.readLong();
+        int ncuts = dis.readInt();
+        n.cutTargets = new long[ncuts];
+        n.cutCosts = new int[ncuts];
+        for ( int i = 0; i < ncuts; i++ )
+        {
+          n.cutTargets[i] = dis.readLong();
+          n.cutCosts[i] = dis.readInt();
+        }
+        int nshortcuts = dis.readInt();
+        n.shortcutTargets = new int[nshortcuts];
+        n.shortcutCosts = new int[nshortcuts];
+        n.shortcutNodes = new int[nshortcuts][];
+        for ( int i = 0; i < nshortcuts; i++ )
+        {
+          n.shortcutTargets[i] = dis.readInt();
+          n.shortcutCosts[i] = dis.readInt();
+          int[] via = new int[dis.readInt()];
+          for ( int k = 0; k < via.length; k++ )
+          {
+            via[k] = dis.readInt();
+          }
+          n.shortcutNodes[i] = via;
+        }
+        nodes[ni] = n;
+      }
+      return new ShortcutTile( profileName, profileCrc, datafileLength, cellSize, nodes );
+    }
+    finally
+    {
+      dis.close();
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package btools.mapaccess;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OsmNodesMapTest
+{
+  @Test
+  public void hashMapComparisonTest()
+  {
+    hashMapComparison( 1, 10, 100 );
+    hashMapComparison( 10, 100, 10000 );
+    hashMapComparison( 100, 20000, 100000 );
+  }
+
+  private void hashMapComparison( int initialSize, int keyRange, int nops )
+  {
+    Random rand = new Random( 12345 );
+    HashMap<Long,OsmNode> hmap = new HashMap<Long,OsmNode>();
+    OsmNodesMap nmap = new OsmNodesMap( initialSize );
+
+    for( int i=0; i<nops; i++ )
+    {
+      // clustered positions, like the nodes of a tile
+      int ilon = 8000000 + rand.nextInt( keyRange );
+      int ilat = 50000000 + rand.nextInt( 4 );
+      OsmNode n = new OsmNode( ilon, ilat );
+      Long id = Long.valueOf( n.getIdFromPos() );
+
+      int op = rand.nextInt( 3 );
+      if ( op == 0 )
+      {
+        Assert.assertTrue( "put missmatch", hmap.put( id, n ) == nmap.put( n ) );
+      }
+      else if ( op == 1 )
+      {
+        hmap.remove( id );
+        nmap.remove( n );
+      }
+      Assert.assertTrue( "get missmatch", hmap.get( id ) == nmap.get( id.longValue() ) );
+      Assert.assertEquals( "size missmatch", hmap.size(), nmap.size() );
+    }
+
+    // all remaining entries must still be found after the removals
+    for( Long id : hmap.keySet() )
+    {
+      Assert.assertTrue( "get missmatch", hmap.get( id ) == nmap.get( id.longValue() ) );
+    }
+
+    nmap.clear();
+    Assert.assertEquals( 0, nmap.size() );
+    for( Long id : hmap.keySet() )
+    {
+      Assert.assertNull( "found after clear", nmap.get( id.longValue() ) );
+    }
+  }
+}
@@ -14,7 +14,8 @@ import btools.router.OsmPathElement;
 import btools.router.OsmTrack;
 import btools.router.RoutingContext;
 import btools.router.RoutingEngine;
-import btools.util.SortedHeap;
+import btools.util.OpenSet;
+import btools.util.OpenSetFactory;
 
 
 final class ScheduledRouter
@@ -35,7 +36,7 @@ final class ScheduledRouter
 	private OsmNodeP start;
 	private OsmNodeP end;
 
-    SortedHeap<ScheduledTrip> openSet = new SortedHeap<ScheduledTrip>();
+    OpenSet<ScheduledTrip> openSet = OpenSetFactory.create();
 
 	ScheduledRouter( GraphLoader graph, RoutingContext rc, RoutingEngine re )
 	{
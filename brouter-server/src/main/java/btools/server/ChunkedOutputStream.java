@@ -0,0 +1,82 @@
+package btools.server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream for HTTP/1.1 "Transfer-Encoding: chunked"
+ *
+ * Data is collected into chunks of the buffer size. close()
+ * writes the terminating chunk but does not close the underlying
+ * stream, so the connection can be kept alive
+ */
+public final class ChunkedOutputStream extends FilterOutputStream
+{
+  private byte[] buf;
+  private int count;
+  private boolean finished;
+
+  public ChunkedOutputStream( OutputStream os, int chunkSize )
+  {
+    super( os );
+    buf = new byte[chunkSize];
+  }
+
+  @Override
+  public void write( int b ) throws IOException
+  {
+    if ( count == buf.length )
+    {
+      writeChunk();
+    }
+    buf[count++] = (byte) b;
+  }
+
+  @Override
+  public void write( byte[] b, int off, int len ) throws IOException
+  {
+    while ( len > 0 )
+    {
+      if ( count == buf.length )
+      {
+        writeChunk();
+      }
+      int n = Math.min( len, buf.length - count );
+      System.arraycopy( b, off, buf, count, n );
+      count += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException
+  {
+    writeChunk();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    if ( !finished )
+    {
+      writeChunk();
+      out.write( "0\r\n\r\n".getBytes( "ISO-8859-1" ) );
+      out.flush();
+      finished = true;
+    }
+  }
+
+  private void writeChunk() throws IOException
+  {
+    if ( count > 0 )
+    {
+      out.write( ( Integer.toHexString( count ) + "\r\n" ).getBytes( "ISO-8859-1" ) );
+      out.write( buf, 0, count );
+      out.write( "\r\n".getBytes( "ISO-8859-1" ) );
+      count = 0;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package btools.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+
+/**
+ * A parsed HTTP/1.x request: request line, headers and
+ * (if announced by Content-Length) the body
+ *
+ * Reading from a buffered stream that is kept open between
+ * requests, this also works for pipelined requests
+ */
+public final class HttpRequest
+{
+  // limits against garbage or malicious input
+  private static final int MAX_LINE_LENGTH = 65536;
+  private static final int MAX_HEADERS = 100;
+  private static final int MAX_BODY_LENGTH = 1000000;
+
+  public String requestLine;
+  public String method;
+  public String url;
+  public String version;
+  public byte[] body;
+
+  private HashMap<String, String> headers = new HashMap<String, String>();
+
+  /**
+   * Read the next request from the stream
+   *
+   * @return the request, or null if the stream ended before a request started
+   */
+  public static HttpRequest read( InputStream is ) throws IOException
+  {
+    String line;
+    do
+    {
+      line = readLine( is );
+      if ( line == null )
+      {
+        return null;
+      }
+    }
+    while ( line.length() == 0 ); // tolerate empty lines between requests
+
+    HttpRequest r = new HttpRequest();
+    r.requestLine = line;
+    String[] tokens = line.split( " " );
+    if ( tokens.length < 2 )
+    {
+      throw new IllegalArgumentException( "invalid request line: " + line );
+    }
+    r.method = tokens[0];
+    r.url = tokens[1];
+    r.version = tokens.length > 2 ? tokens[2] : "HTTP/1.0";
+
+    for ( int i = 0;; i++ )
+    {
+      line = readLine( is );
+      if ( line == null || line.length() == 0 )
+      {
+        break;
+      }
+      if ( i >= MAX_HEADERS )
+      {
+        throw new IllegalArgumentException( "too many headers" );
+      }
+      int idx = line.indexOf( ':' );
+      if ( idx > 0 )
+      {
+        r.headers.put( line.substring( 0, idx ).trim().toLowerCase(), line.substring( idx + 1 ).trim() );
+      }
+    }
+
+    String te = r.getHeader( "transfer-encoding" );
+    if ( te != null && !"identity".equalsIgnoreCase( te ) )
+    {
+      throw new IllegalArgumentException( "request transfer-encoding not supported: " + te );
+    }
+    String cl = r.getHeader( "content-length" );
+    if ( cl != null )
+    {
+      int len = Integer.parseInt( cl );
+      if ( len < 0 || len > MAX_BODY_LENGTH )
+      {
+        throw new IllegalArgumentException( "invalid content-length: " + len );
+      }
+      r.body = new byte[len];
+      int n = 0;
+      while ( n < len )
+      {
+        int got = is.read( r.body, n, len - n );
+        if ( got < 0 )
+        {
+          throw new IOException( "unexpected end of request body" );
+        }
+        n += got;
+      }
+    }
+    return r;
+  }
+
+  /**
+   * @return the header value for the given (lowercase) name, or null
+   */
+  public String getHeader( String name )
+  {
+    return headers.get( name );
+  }
+
+  public boolean isHttp11()
+  {
+    return "HTTP/1.1".equals( version );
+  }
+
+  /**
+   * @return true if the client wants the connection to stay open
+   */
+  public boolean isKeepAlive()
+  {
+    String connection = getHeader( "connection" );
+    if ( isHttp11() )
+    {
+      return connection == null || !"close".equalsIgnoreCase( connection );
+    }
+    return connection != null && "keep-alive".equalsIgnoreCase( connection );
+  }
+
+  public boolean acceptsGzip()
+  {
+    String ae = getHeader( "accept-encoding" );
+    return ae != null && ae.toLowerCase().indexOf( "gzip" ) >= 0;
+  }
+
+  // read a CRLF or LF terminated line (iso-8859-1)
+  private static String readLine( InputStream is ) throws IOException
+  {
+    StringBuilder sb = new StringBuilder();
+    for ( ;; )
+    {
+      int c = is.read();
+      if ( c < 0 )
+      {
+        return sb.length() == 0 ? null : sb.toString();
+      }
+      if ( c == '\n' )
+      {
+        break;
+      }
+      if ( c != '\r' )
+      {
+        if ( sb.length() >= MAX_LINE_LENGTH )
+        {
+          throw new IllegalArgumentException( "line too long" );
+        }
+        sb.append( (char) c );
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,200 @@
+package btools.server;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import btools.router.AlternativeTracks;
+import btools.router.OsmNodeNamed;
+import btools.router.OsmNogoPolygon;
+import btools.router.ProfileCache;
+import btools.router.RoutingContext;
+
+/**
+ * Cache for routing results, so that repeated requests (shared links,
+ * page reloads..) are answered without routing again
+ *
+ * Results are keyed by the waypoint positions (in the integer microdegree
+ * resolution the router works with), the profile identity incl. the
+ * modification time of profile and lookup file and the nogo checksums
+ * (the same criteria as used to validate a reference track)
+ *
+ * All alternatives found so far are kept together, so a request for the
+ * next alternative continues from the cached ones (see AlternativeTracks)
+ *
+ * Each entry remembers the datafiles the route was based on and is dropped
+ * on access if one of them was modified
+ *
+ * System properties:
+ *   routeCacheSize: max. number of cached routes (default: 1000, 0 = disabled)
+ *   routeCacheTtl: max. age of a cached route in seconds (default: 3600)
+ */
+public final class RouteCache
+{
+  private static RouteCache instance;
+
+  private LinkedHashMap<String, CacheEntry> entries;
+  private int maxEntries;
+  private long ttl;
+
+  private long hits;
+  private long misses;
+
+  private static final class CacheEntry
+  {
+    AlternativeTracks alternatives;
+    File[] files;
+    long[] fileTimestamps;
+    long[] fileLengths;
+    long created;
+
+    boolean isCurrent( long now, long ttl )
+    {
+      if ( now - created > ttl )
+      {
+        return false;
+      }
+      for ( int i = 0; i < files.length; i++ )
+      {
+        if ( files[i].lastModified() != fileTimestamps[i] || files[i].length() != fileLengths[i] )
+        {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * @return the cache as configured by the system properties, or null if disabled
+   */
+  public static synchronized RouteCache getInstance()
+  {
+    if ( instance == null )
+    {
+      int maxEntries = Integer.getInteger( "routeCacheSize", 1000 ).intValue();
+      long ttl = Long.getLong( "routeCacheTtl", 3600L ).longValue() * 1000L;
+      if ( maxEntries <= 0 )
+      {
+        return null;
+      }
+      instance = new RouteCache( maxEntries, ttl );
+    }
+    return instance;
+  }
+
+  public RouteCache( int maxEntries, long ttl )
+  {
+    this.maxEntries = maxEntries;
+    this.ttl = ttl;
+    entries = new LinkedHashMap<String, CacheEntry>( 256, 0.75f, true );
+  }
+
+  /**
+   * @return the cache key for routing the given waypoints with the given context
+   *
+   * The nogos are included exactly (not via the checksums, which may collide),
+   * point nogos as "p", polygons as "P" and polylines as "L"
+   */
+  public static String getKey( RoutingContext rc, List<OsmNodeNamed> wplist )
+  {
+    StringBuilder sb = new StringBuilder( 128 );
+    sb.append( ProfileCache.getProfileIdentity( rc ) );
+    sb.append( "|nogos=" );
+    if ( rc.nogopoints != null )
+    {
+      for ( OsmNodeNamed nogo : rc.nogopoints )
+      {
+        if ( nogo instanceof OsmNogoPolygon )
+        {
+          OsmNogoPolygon polygon = (OsmNogoPolygon) nogo;
+          sb.append( polygon.isClosed ? 'P' : 'L' ).append( nogo.radius );
+          for ( int k = 0; k < polygon.getVertexCount(); k++ )
+          {
+            sb.append( ',' ).append( polygon.getVertexLon( k ) ).append( ',' ).append( polygon.getVertexLat( k ) );
+          }
+        }
+        else
+        {
+          sb.append( 'p' ).append( nogo.radius ).append( ',' ).append( nogo.ilon ).append( ',' ).append( nogo.ilat );
+        }
+        sb.append( ';' );
+      }
+    }
+    sb.append( "|wps=" );
+    for ( OsmNodeNamed wp : wplist )
+    {
+      sb.append( wp.ilon ).append( ',' ).append( wp.ilat ).append( ';' );
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return the cached alternatives, or null if not found or outdated
+   */
+  public synchronized AlternativeTracks get( String key )
+  {
+    CacheEntry e = entries.get( key );
+    if ( e != null && !e.isCurrent( System.currentTimeMillis(), ttl ) )
+    {
+      entries.remove( key );
+      e = null;
+    }
+    if ( e == null )
+    {
+      misses++;
+      return null;
+    }
+    hits++;
+    return e.alternatives;
+  }
+
+  /**
+   * Add or replace the alternatives for a key. They must not be modified
+   * afterwards, they are shared between the requests that hit the cache
+   *
+   * @param files the datafiles the alternatives were calculated from
+   */
+  public synchronized void put( String key, AlternativeTracks alternatives, List<File> files )
+  {
+    CacheEntry old = entries.get( key );
+    if ( old != null && old.alternatives.size() > alternatives.size() )
+    {
+      return; // a concurrent request found more alternatives already
+    }
+    CacheEntry e = new CacheEntry();
+    e.alternatives = alternatives;
+    int n = files == null ? 0 : files.size();
+    e.files = new File[n];
+    e.fileTimestamps = new long[n];
+    e.fileLengths = new long[n];
+    for ( int i = 0; i < n; i++ )
+    {
+      File f = files.get( i );
+      e.files[i] = f;
+      e.fileTimestamps[i] = f.lastModified();
+      e.fileLengths[i] = f.length();
+    }
+    e.created = System.currentTimeMillis();
+    entries.put( key, e );
+
+    Iterator<Map.Entry<String, CacheEntry>> it = entries.entrySet().iterator();
+    while (entries.size() > maxEntries && it.hasNext())
+    {
+      it.next();
+      it.remove();
+    }
+  }
+
+  public synchronized void clear()
+  {
+    entries.clear();
+  }
+
+  public synchronized String getStatistics()
+  {
+    return "routes=" + entries.size() + " hits=" + hits + " misses=" + misses;
+  }
+}
@@ -1,46 +1,86 @@
 package btools.server;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Map;
+import java.net.SocketTimeoutException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.StringTokenizer;
-import java.util.TreeMap;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 
+import btools.router.AlternativeTracks;
+import btools.router.Isochrone;
 import btools.router.OsmNodeNamed;
 import btools.router.OsmTrack;
 import btools.router.RoutingContext;
 import btools.router.RoutingEngine;
+import btools.router.RoutingMatrix;
 import btools.server.request.ProfileUploadHandler;
+import btools.server.request.IsochroneHandler;
+import btools.server.request.MatrixHandler;
 import btools.server.request.RequestHandler;
 import btools.server.request.ServerHandler;
 
-public class RouteServer extends Thread
+/**
+ * Simple http-server for the routing service
+ *
+ * Requests are executed by a fixed pool of worker threads (maxthreads, 0 = number of cores)
+ * fed by a bounded queue. If the queue is full, or a request waited longer than the
+ * queue timeout, or a client has too many requests pending, the request is rejected with
+ * "503 Service Unavailable" instead of killing routes already running.
+ *
+ * System properties:
+ *   maxQueueSize: capacity of the admission queue (default: 4*maxthreads)
+ *   queueTimeout: max. seconds a request may wait in the queue (default: 10)
+ *   maxRequestsPerClient: max. queued+running requests per client ip (default: 0 = unlimited)
+ *
+ * Connections follow HTTP/1.1 keep-alive semantics (pipelined requests are answered
+ * in order). An idle connection is closed as soon as other connections wait for a worker.
+ *   keepAliveTimeout: seconds an idle connection is kept open (default: 5)
+ *   maxKeepAliveRequests: max. requests per connection (default: 100)
+ *
+ * Routing results are cached, see RouteCache
+ *
+ * Distance/cost matrices are served at /brouter/matrix, see MatrixHandler,
+ * the reachable areas at /brouter/isochrone, see IsochroneHandler
+ */
+public class RouteServer implements Runnable
 {
   public static final String PROFILE_UPLOAD_URL = "/brouter/profile";
+  public static final String MATRIX_URL = "/brouter/matrix";
+  public static final String ISOCHRONE_URL = "/brouter/isochrone";
 
 	public ServiceContext serviceContext;
 
   private Socket clientSocket = null;
-  private RoutingEngine cr = null;
-  private volatile boolean terminated;
-
-  public void stopRouter()
-  {
-    RoutingEngine e = cr;
-    if ( e != null ) e.terminate();
-  }
+  private String clientKey;
+  private long enqueueTime;
+
+  private static ThreadPoolExecutor threadPool;
+  private static long queueTimeout;
+  private static int keepAliveTimeout;
+  private static int maxKeepAliveRequests;
+  private static int maxRequestsPerClient;
+  private static final int IDLE_POLL_INTERVAL = 100; // ms
+  private static HashMap<String,Integer> clientRequests = new HashMap<String,Integer>();
     
   private static DateFormat tsFormat = new SimpleDateFormat( "dd.MM.yy HH:mm", new Locale( "en", "US" ) );
 
@@ -54,48 +94,117 @@ public class RouteServer extends Thread
 
   public void run()
   {
-          BufferedReader br = null;
-          BufferedWriter bw = null;
+          InputStream is = null;
+          OutputStream os = null;
           try
           {
-            br = new BufferedReader( new InputStreamReader( clientSocket.getInputStream() ) );
-            bw = new BufferedWriter( new OutputStreamWriter( clientSocket.getOutputStream() ) );
+            is = new BufferedInputStream( clientSocket.getInputStream() );
+            os = new BufferedOutputStream( clientSocket.getOutputStream() );
+
+            if ( queueTimeout > 0 && System.currentTimeMillis() - enqueueTime > queueTimeout )
+            {
+              writeServiceUnavailable( os, "request timed out in queue" );
+              return;
+            }
+
+            // connection loop: keep-alive and pipelined requests are handled
+            // sequentially, responses are written in request order
+            for( int nrequests = 1;; nrequests++ )
+            {
+              if ( nrequests > 1 && !waitForNextRequest( is ) )
+              {
+                break; // idle connection
+              }
+              clientSocket.setSoTimeout( keepAliveTimeout );
+              HttpRequest request;
+              try
+              {
+                request = HttpRequest.read( is );
+              }
+              catch( SocketTimeoutException ste )
+              {
+                break; // idle or stalled connection
+              }
+              catch( IllegalArgumentException iae )
+              {
+                writeResponse( os, "400 Bad Request", "text/plain", null, null, iae.getMessage() + "\n", false );
+                break;
+              }
+              if ( request == null )
+              {
+                break;
+              }
+
+              // don't block a worker with an idle connection if requests are waiting
+              boolean keepAlive = request.isKeepAlive() && nrequests < maxKeepAliveRequests
+                                  && ( threadPool == null || threadPool.getQueue().isEmpty() );
+
+              handleRequest( request, os, keepAlive );
+              os.flush();
+              if ( !keepAlive )
+              {
+                break;
+              }
+            }
+          }
+          catch (Throwable e)
+          {
+             System.out.println("RouteServer got exception (will continue): "+e);
+             e.printStackTrace();
+          }
+          finally
+          {
+              if ( is != null ) try { is.close(); } catch( Exception e ) {}
+              if ( os != null ) try { os.close(); } catch( Exception e ) {}
+              if ( clientSocket != null ) try { clientSocket.close(); } catch( Exception e ) {}
+              releaseClient( clientKey );
+          }
+  }
 
-            // we just read the first line
-            String getline = br.readLine();
-            if ( getline == null || getline.startsWith("GET /favicon.ico") )
+  private void handleRequest( HttpRequest request, OutputStream os, boolean keepAlive ) throws Exception
+  {
+            String getline = request.requestLine;
+            if ( getline.startsWith("GET /favicon.ico") )
             {
-            	return;
+              writeResponse( os, "404 Not Found", "text/plain", null, null, "", keepAlive );
+              return;
             }
 
             InetAddress ip = clientSocket.getInetAddress();
             System.out.println( formattedTimestamp() + " ip=" + (ip==null ? "null" : ip.toString() ) + " -> " + getline );
 
-            String url = getline.split(" ")[1];
+            String url = request.url;
             HashMap<String,String> params = getUrlParams(url);
 
             long maxRunningTime = getMaxRunningTime();
 
             RequestHandler handler;
-            if ( params.containsKey( "lonlats" ) && params.containsKey( "profile" ) )
+            if ( url.startsWith( MATRIX_URL ) )
+            {
+              handleMatrixRequest( new MatrixHandler( serviceContext, params ), os, keepAlive, maxRunningTime );
+              return;
+            }
+            else if ( url.startsWith( ISOCHRONE_URL ) )
+            {
+              handleIsochroneRequest( new IsochroneHandler( serviceContext, params ), request, os, keepAlive, maxRunningTime );
+              return;
+            }
+            else if ( params.containsKey( "lonlats" ) && params.containsKey( "profile" ) )
             {
             	handler = new ServerHandler( serviceContext, params );
             }
             else if ( url.startsWith( PROFILE_UPLOAD_URL ) )
             {
-              if ( getline.startsWith("OPTIONS") )
+              if ( "OPTIONS".equals( request.method ) )
               {
                 // handle CORS preflight request (Safari)
-                String corsHeaders = "Access-Control-Allow-Methods: GET, POST\n"
-                                   + "Access-Control-Allow-Headers: Content-Type\n";
-                writeHttpHeader( bw, "text/plain", null, corsHeaders );
-                bw.flush();
+                String corsHeaders = "Access-Control-Allow-Methods: GET, POST\r\n"
+                                   + "Access-Control-Allow-Headers: Content-Type\r\n";
+                writeResponse( os, "200 OK", "text/plain", null, corsHeaders, "", keepAlive );
                 return;
               }
               else
               {
-                writeHttpHeader(bw, "application/json");
-
                 String profileId = null;
                 if ( url.length() > PROFILE_UPLOAD_URL.length() + 1 )
                 {
@@ -103,54 +212,173 @@ public class RouteServer extends Thread
                   profileId = url.substring(PROFILE_UPLOAD_URL.length() + 1);
                 }
 
+                byte[] content = request.body == null ? new byte[0] : request.body;
+                StringWriter sw = new StringWriter();
+                BufferedWriter bw = new BufferedWriter( sw );
                 ProfileUploadHandler uploadHandler = new ProfileUploadHandler( serviceContext );
-                uploadHandler.handlePostRequest( profileId, br, bw );
-
+                uploadHandler.handlePostRequest( profileId, new InputStreamReader( new ByteArrayInputStream( content ), "UTF-8" ), bw );
                 bw.flush();
+
+                writeResponse( os, "200 OK", "application/json", null, null, sw.toString(), keepAlive );
                 return;
               }
             }
             else
             {
-            	throw new IllegalArgumentException( "unknown request syntax: " + getline );
+              writeResponse( os, "400 Bad Request", "text/plain", null, null, "unknown request syntax: " + getline + "\n", keepAlive );
+              return;
             }
             RoutingContext rc = handler.readRoutingContext();
             List<OsmNodeNamed> wplist = handler.readWayPointList();
 
-            cr = new RoutingEngine( null, null, serviceContext.segmentDir, wplist, rc );
-            cr.quite = true;
-            cr.doRun( maxRunningTime );
-
-            if ( cr.getErrorMessage() != null )
+            RouteCache routeCache = RouteCache.getInstance();
+            String cacheKey = routeCache == null ? null : RouteCache.getKey( rc, wplist );
+            AlternativeTracks alternatives = cacheKey == null ? null : routeCache.get( cacheKey );
+            int altIdx = rc.getAlternativeIdx();
+            OsmTrack track;
+            if ( alternatives != null && altIdx < alternatives.size() )
             {
-              writeHttpHeader(bw);
-              bw.write( cr.getErrorMessage() );
-              bw.write( "\n" );
+              track = alternatives.getTrack( altIdx );
             }
             else
             {
-              OsmTrack track = cr.getFoundTrack();
-              writeHttpHeader(bw, handler.getMimeType(), handler.getFileName());
-              if ( track != null )
+              RoutingEngine cr = new RoutingEngine( null, null, serviceContext.segmentDir, wplist, rc );
+              cr.quite = true;
+              if ( alternatives != null )
               {
-                bw.write( handler.formatTrack(track) );
+                cr.setAlternatives( alternatives ); // continue with the next alternative
+              }
+              cr.doRun( maxRunningTime );
+
+              if ( cr.getErrorMessage() != null )
+              {
+                writeResponse( os, "200 OK", "text/plain", null, null, cr.getErrorMessage() + "\n", keepAlive );
+                return;
+              }
+              track = cr.getFoundTrack();
+              if ( cacheKey != null && track != null )
+              {
+                routeCache.put( cacheKey, cr.getAlternatives(), cr.getUsedDataFiles() );
               }
             }
-            bw.flush();
-          }
-          catch (Throwable e)
-          {
-             System.out.println("RouteServer got exception (will continue): "+e);
-             e.printStackTrace();
-          }
-          finally
-          {
-              cr = null;
-              if ( br != null ) try { br.close(); } catch( Exception e ) {}
-              if ( bw != null ) try { bw.close(); } catch( Exception e ) {}
-              if ( clientSocket != null ) try { clientSocket.close(); } catch( Exception e ) {}
-              terminated = true;
-          }
+
+            if ( track != null && request.isHttp11() )
+            {
+              writeStreamedTrack( os, handler, track, keepAlive, request.acceptsGzip() );
+            }
+            else
+            {
+              String body = track == null ? "" : handler.formatTrack(track);
+              writeResponse( os, "200 OK", handler.getMimeType(), handler.getFileName(), null, body, keepAlive );
+            }
+  }
+
+  private void handleMatrixRequest( MatrixHandler handler, OutputStream os, boolean keepAlive, long maxRunningTime ) throws Exception
+  {
+    RoutingMatrix matrix = null;
+    String errorMessage;
+    try
+    {
+      List<OsmNodeNamed> sources = handler.readSourceList();
+      List<OsmNodeNamed> targets = handler.readTargetList();
+      handler.checkMatrixSize( sources.size(), targets.size() );
+      RoutingContext rc = handler.readRoutingContext();
+      RoutingEngine cr = new RoutingEngine( null, null, serviceContext.segmentDir, sources, rc );
+      cr.quite = true;
+      matrix = cr.doMatrix( targets, maxRunningTime );
+      errorMessage = cr.getErrorMessage();
+    }
+    catch( IllegalArgumentException e )
+    {
+      errorMessage = e.getMessage();
+    }
+    if ( matrix == null )
+    {
+      writeResponse( os, "200 OK", "text/plain", null, null, errorMessage + "\n", keepAlive );
+      return;
+    }
+    writeResponse( os, "200 OK", handler.getMimeType(), null, null, handler.formatMatrix( matrix ), keepAlive );
+  }
+
+  /**
+   * Stream the links reached from the start (if requested) and the
+   * outline of the reachable area as GeoJSON, see Isochrone
+   */
+  private void handleIsochroneRequest( IsochroneHandler handler, HttpRequest request, OutputStream os,
+                                       boolean keepAlive, long maxRunningTime ) throws Exception
+  {
+    RoutingEngine cr;
+    List<OsmNodeNamed> wplist;
+    int maxCost;
+    int maxDistance;
+    try
+    {
+      RoutingContext rc = handler.readRoutingContext();
+      maxCost = handler.getMaxCost();
+      maxDistance = handler.getMaxDistance();
+      wplist = handler.readWayPointList();
+      cr = new RoutingEngine( null, null, serviceContext.segmentDir, wplist, rc );
+    }
+    catch( IllegalArgumentException e )
+    {
+      writeResponse( os, "200 OK", "text/plain", null, null, e.getMessage() + "\n", keepAlive );
+      return;
+    }
+    cr.quite = true;
+
+    boolean streamed = request.isHttp11();
+    Writer w = streamed ? new StreamedResponseWriter( os, handler.getMimeType(), null, keepAlive, request.acceptsGzip() )
+                        : new StringWriter();
+    Isochrone isochrone = new Isochrone( wplist.get( 0 ), w, handler.isWriteLinks() );
+    boolean ok = cr.doReachability( maxCost, maxDistance, isochrone, maxRunningTime );
+    if ( !ok && isochrone.getLinkCount() == 0 )
+    {
+      writeResponse( os, "200 OK", "text/plain", null, null, cr.getErrorMessage() + "\n", keepAlive );
+      return;
+    }
+    isochrone.finish( ok ? null : cr.getErrorMessage() );
+    if ( streamed )
+    {
+      w.close();
+    }
+    else
+    {
+      writeResponse( os, "200 OK", handler.getMimeType(), null, null, w.toString(), keepAlive );
+    }
+  }
+
+  /**
+   * Wait for the first byte of the next request on a kept-alive connection,
+   * giving up after keepAliveTimeout, or as soon as work is queued
+   * (so an idle connection does not hold back a worker)
+   *
+   * @return true if a request is arriving
+   */
+  private boolean waitForNextRequest( InputStream is ) throws IOException
+  {
+    long idleStart = System.currentTimeMillis();
+    clientSocket.setSoTimeout( IDLE_POLL_INTERVAL );
+    for(;;)
+    {
+      try
+      {
+        is.mark( 1 );
+        if ( is.read() < 0 )
+        {
+          return false; // closed by client
+        }
+        is.reset();
+        return true;
+      }
+      catch( SocketTimeoutException ste )
+      {
+        if ( System.currentTimeMillis() - idleStart >= keepAliveTimeout
+            || ( threadPool != null && !threadPool.getQueue().isEmpty() ) )
+        {
+          return false;
+        }
+      }
+    }
   }
 
   public static void main(String[] args) throws Exception
@@ -170,51 +398,103 @@ public class RouteServer extends Thread
         serviceContext.customProfileDir = args[2];
 
         int maxthreads = Integer.parseInt( args[4] );
+        if ( maxthreads <= 0 )
+        {
+          maxthreads = Runtime.getRuntime().availableProcessors();
+        }
+        int maxQueueSize = Integer.parseInt( System.getProperty( "maxQueueSize", "" + 4*maxthreads ) );
+        queueTimeout = Integer.parseInt( System.getProperty( "queueTimeout", "10" ) ) * 1000L;
+        maxRequestsPerClient = Integer.parseInt( System.getProperty( "maxRequestsPerClient", "0" ) );
+
+        keepAliveTimeout = Integer.parseInt( System.getProperty( "keepAliveTimeout", "5" ) ) * 1000;
+        maxKeepAliveRequests = Integer.parseInt( System.getProperty( "maxKeepAliveRequests", "100" ) );
 
-        TreeMap<Long,RouteServer> threadMap = new TreeMap<Long,RouteServer>();
+        threadPool = new ThreadPoolExecutor( maxthreads, maxthreads, 0L, TimeUnit.MILLISECONDS,
+                                                 new ArrayBlockingQueue<Runnable>( maxQueueSize ) );
 
         ServerSocket serverSocket = new ServerSocket(Integer.parseInt(args[3]));
-        long last_ts = 0;
         for (;;)
         {
           Socket clientSocket = serverSocket.accept();
           RouteServer server = new RouteServer();
           server.serviceContext = serviceContext;
           server.clientSocket = clientSocket;
+          server.enqueueTime = System.currentTimeMillis();
 
-          // cleanup thread list
-          for(;;)
+          InetAddress ip = clientSocket.getInetAddress();
+          String clientKey = ip == null ? "null" : ip.getHostAddress();
+          if ( !acquireClient( clientKey ) )
           {
-            boolean removedItem = false;
-            for (Map.Entry<Long,RouteServer> e : threadMap.entrySet())
-            {
-              if ( e.getValue().terminated )
-              {
-                threadMap.remove( e.getKey() );
-                removedItem = true;
-                break;
-              }
-            }
-            if ( !removedItem ) break;
+            reject( clientSocket, "too many requests from " + clientKey );
+            continue;
           }
-
-          // kill thread if limit reached
-          if ( threadMap.size() >= maxthreads )
+          server.clientKey = clientKey;
+          try
           {
-             Long k = threadMap.firstKey();
-             RouteServer victim = threadMap.get( k );
-             threadMap.remove( k );
-             victim.stopRouter();
+            threadPool.execute( server );
+          }
+          catch( RejectedExecutionException ree )
+          {
+            releaseClient( clientKey );
+            reject( clientSocket, "server busy" );
           }
-
-          long ts = System.currentTimeMillis();
-          while ( ts <=  last_ts ) ts++;
-          threadMap.put( Long.valueOf( ts ), server );
-          last_ts = ts;
-          server.start();
         }
   }
 
+  // per-client fairness: count queued+running requests per client
+  private static synchronized boolean acquireClient( String clientKey )
+  {
+    if ( maxRequestsPerClient <= 0 )
+    {
+      return true;
+    }
+    Integer n = clientRequests.get( clientKey );
+    int cnt = n == null ? 0 : n.intValue();
+    if ( cnt >= maxRequestsPerClient )
+    {
+      return false;
+    }
+    clientRequests.put( clientKey, Integer.valueOf( cnt+1 ) );
+    return true;
+  }
+
+  private static synchronized void releaseClient( String clientKey )
+  {
+    if ( clientKey == null || maxRequestsPerClient <= 0 )
+    {
+      return;
+    }
+    Integer n = clientRequests.get( clientKey );
+    if ( n == null || n.intValue() <= 1 )
+    {
+      clientRequests.remove( clientKey );
+    }
+    else
+    {
+      clientRequests.put( clientKey, Integer.valueOf( n.intValue()-1 ) );
+    }
+  }
+
+  // fast rejection path, executed in the accept-thread
+  private static void reject( Socket clientSocket, String reason )
+  {
+    System.out.println( formattedTimestamp() + " rejected: " + reason );
+    OutputStream os = null;
+    try
+    {
+      os = new BufferedOutputStream( clientSocket.getOutputStream() );
+      writeServiceUnavailable( os, reason );
+    }
+    catch( Exception e )
+    {
+      // ignore, client may be gone already
+    }
+    finally
+    {
+      if ( os != null ) try { os.close(); } catch( Exception e ) {}
+      try { clientSocket.close(); } catch( Exception e ) {}
+    }
+  }
 
   private static HashMap<String,String> getUrlParams( String url )
   {
@@ -247,36 +527,67 @@ public class RouteServer extends Thread
     return maxRunningTime;
   }
 
-  private static void writeHttpHeader( BufferedWriter bw ) throws IOException
-  {
-    writeHttpHeader( bw, "text/plain" );
-  }
-
-  private static void writeHttpHeader( BufferedWriter bw, String mimeType ) throws IOException
+  /**
+   * Write a complete response with a Content-Length
+   */
+  private static void writeResponse( OutputStream os, String status, String mimeType, String fileName, String headers,
+                                     String body, boolean keepAlive ) throws IOException
   {
-    writeHttpHeader( bw, mimeType, null );
+    byte[] content = body.getBytes( "UTF-8" );
+    writeHttpHeader( os, status, mimeType, fileName, headers, keepAlive, false, content.length );
+    os.write( content );
   }
 
-  private static void writeHttpHeader( BufferedWriter bw, String mimeType, String fileName ) throws IOException
+  /**
+   * Stream a track to the client while it is being formatted, using
+   * chunked transfer-encoding and (if accepted) gzip content-encoding
+   */
+  private static void writeStreamedTrack( OutputStream os, RequestHandler handler, OsmTrack track,
+                                          boolean keepAlive, boolean gzip ) throws IOException
   {
-    writeHttpHeader( bw, mimeType, fileName, null);
+    StreamedResponseWriter w = new StreamedResponseWriter( os, handler.getMimeType(), handler.getFileName(), keepAlive, gzip );
+    handler.writeTrack( track, w );
+    w.close();
   }
 
-  private static void writeHttpHeader( BufferedWriter bw, String mimeType, String fileName, String headers ) throws IOException
+  /**
+   * @param contentLength the body length, or -1 for chunked transfer-encoding
+   */
+  static void writeHttpHeader( OutputStream os, String status, String mimeType, String fileName, String headers,
+                                       boolean keepAlive, boolean gzip, int contentLength ) throws IOException
   {
-    // http-header
-    bw.write( "HTTP/1.1 200 OK\n" );
-    bw.write( "Connection: close\n" );
-    bw.write( "Content-Type: " + mimeType + "; charset=utf-8\n" );
+    StringBuilder sb = new StringBuilder();
+    sb.append( "HTTP/1.1 " ).append( status ).append( "\r\n" );
+    sb.append( keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n" );
+    sb.append( "Content-Type: " ).append( mimeType ).append( "; charset=utf-8\r\n" );
     if ( fileName != null )
     {
-      bw.write( "Content-Disposition: attachment; filename=" + fileName + "\n" );
+      sb.append( "Content-Disposition: attachment; filename=" ).append( fileName ).append( "\r\n" );
     }
-    bw.write( "Access-Control-Allow-Origin: *\n" );
+    sb.append( "Access-Control-Allow-Origin: *\r\n" );
     if ( headers != null )
     {
-      bw.write( headers );
+      sb.append( headers );
     }
-    bw.write( "\n" );
+    if ( gzip )
+    {
+      sb.append( "Content-Encoding: gzip\r\n" );
+    }
+    if ( contentLength < 0 )
+    {
+      sb.append( "Transfer-Encoding: chunked\r\n" );
+    }
+    else
+    {
+      sb.append( "Content-Length: " ).append( contentLength ).append( "\r\n" );
+    }
+    sb.append( "\r\n" );
+    os.write( sb.toString().getBytes( "ISO-8859-1" ) );
+  }
+
+  private static void writeServiceUnavailable( OutputStream os, String reason ) throws IOException
+  {
+    writeResponse( os, "503 Service Unavailable", "text/plain", null, "Retry-After: 1\r\n", reason + "\n", false );
+    os.flush();
   }
 }
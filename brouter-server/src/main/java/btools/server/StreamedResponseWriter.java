@@ -0,0 +1,74 @@
+package btools.server;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writer for a response streamed to the client while it is being formatted,
+ * using chunked transfer-encoding and (if accepted) gzip content-encoding
+ *
+ * The HTTP header is written with the first output, so up to that point
+ * the request can still be answered otherwise (e.g. by an error message).
+ * close() finishes the response, but keeps the connection open
+ */
+final class StreamedResponseWriter extends Writer
+{
+  private OutputStream os;
+  private String mimeType;
+  private String fileName;
+  private boolean keepAlive;
+  private boolean gzip;
+  private Writer out;
+
+  StreamedResponseWriter( OutputStream os, String mimeType, String fileName, boolean keepAlive, boolean gzip )
+  {
+    this.os = os;
+    this.mimeType = mimeType;
+    this.fileName = fileName;
+    this.keepAlive = keepAlive;
+    this.gzip = gzip;
+  }
+
+  private Writer getOut() throws IOException
+  {
+    if ( out == null )
+    {
+      RouteServer.writeHttpHeader( os, "200 OK", mimeType, fileName, null, keepAlive, gzip, -1 );
+      ChunkedOutputStream cos = new ChunkedOutputStream( os, 8192 );
+      OutputStream target = gzip ? new GZIPOutputStream( cos, 8192 ) : cos;
+      out = new BufferedWriter( new OutputStreamWriter( target, "UTF-8" ), 8192 );
+    }
+    return out;
+  }
+
+  @Override
+  public void write( char[] cbuf, int off, int len ) throws IOException
+  {
+    getOut().write( cbuf, off, len );
+  }
+
+  @Override
+  public void write( String str, int off, int len ) throws IOException
+  {
+    getOut().write( str, off, len );
+  }
+
+  @Override
+  public void flush() throws IOException
+  {
+    if ( out != null )
+    {
+      out.flush();
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    getOut().close(); // finishes gzip and writes the last chunk, keeps os open
+  }
+}
@@ -0,0 +1,93 @@
+package btools.server.request;
+
+import btools.router.OsmNodeNamed;
+import btools.router.RoutingContext;
+import btools.server.ServiceContext;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * URL query parameter handler for reachability requests, see Isochrone
+ *
+ * Parameters:
+ *
+ * lonlats = lon,lat (the start)
+ * maxcost = cost limit (optional if maxdistance is given)
+ * maxdistance = limit of the track length in meters (optional)
+ * nogos = lon,lat,radius|... (optional, radius in meters)
+ * profile = profile file name without .brf
+ * links = [0|1] (optional, default 0: just the outline of the reachable area)
+ *
+ * Example URL:
+ * http://localhost:17777/brouter/isochrone?lonlats=8.799297,49.565883&maxcost=5000&profile=trekking&links=1
+ */
+public class IsochroneHandler extends ServerHandler
+{
+  public IsochroneHandler( ServiceContext serviceContext, HashMap<String, String> params )
+  {
+    super( serviceContext, params );
+  }
+
+  @Override
+  public RoutingContext readRoutingContext()
+  {
+    if ( params.get( "profile" ) == null ) throw new IllegalArgumentException( "profile parameter not set" );
+    if ( params.get( "maxcost" ) == null && params.get( "maxdistance" ) == null )
+    {
+      throw new IllegalArgumentException( "maxcost or maxdistance parameter not set" );
+    }
+    if ( params.get( "alternativeidx" ) == null )
+    {
+      params.put( "alternativeidx", "0" ); // no alternatives for the reachability
+    }
+    return super.readRoutingContext();
+  }
+
+  @Override
+  public List<OsmNodeNamed> readWayPointList()
+  {
+    // lon,lat
+    String lonLats = params.get( "lonlats" );
+    if ( lonLats == null ) throw new IllegalArgumentException( "lonlats parameter not set" );
+
+    String[] lonLat = lonLats.split( "," );
+    if ( lonLat.length != 2 ) throw new IllegalArgumentException( "we need exactly one lat/lon point!" );
+
+    List<OsmNodeNamed> wplist = new ArrayList<OsmNodeNamed>();
+    wplist.add( readPosition( lonLat[0], lonLat[1], "from" ) );
+    return wplist;
+  }
+
+  public int getMaxCost()
+  {
+    String maxCost = params.get( "maxcost" );
+    return maxCost == null ? Integer.MAX_VALUE : Integer.parseInt( maxCost );
+  }
+
+  /**
+   * @return the distance limit, or 0 for none
+   */
+  public int getMaxDistance()
+  {
+    String maxDistance = params.get( "maxdistance" );
+    return maxDistance == null ? 0 : Integer.parseInt( maxDistance );
+  }
+
+  public boolean isWriteLinks()
+  {
+    return "1".equals( params.get( "links" ) );
+  }
+
+  @Override
+  public String getMimeType()
+  {
+    return "application/vnd.geo+json";
+  }
+
+  @Override
+  public String getFileName()
+  {
+    return null;
+  }
+}
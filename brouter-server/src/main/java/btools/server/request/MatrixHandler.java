@@ -0,0 +1,109 @@
+package btools.server.request;
+
+import btools.router.OsmNodeNamed;
+import btools.router.RoutingContext;
+import btools.router.RoutingMatrix;
+import btools.server.ServiceContext;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * URL query parameter handler for distance/cost matrices, see RoutingMatrix
+ *
+ * Parameters:
+ *
+ * sources = lon,lat|... (list of lon,lat origins separated by |)
+ * targets = lon,lat|... (list of lon,lat destinations separated by |)
+ * nogos = lon,lat,radius|... (optional, radius in meters)
+ * profile = profile file name without .brf
+ *
+ * The rows of the matrix are calculated concurrently if the
+ * system property "sectionThreads" is set to more than 1
+ *
+ * Matrices with more than sources x targets = 2500 entries are
+ * rejected, the limit is set by the system property "maxMatrixEntries"
+ *
+ * Example URL:
+ * http://localhost:17777/brouter/matrix?sources=8.799297,49.565883|8.811764,49.563606&targets=8.802,49.561|8.807,49.568&profile=trekking
+ */
+public class MatrixHandler extends ServerHandler
+{
+  public MatrixHandler( ServiceContext serviceContext, HashMap<String, String> params )
+  {
+    super( serviceContext, params );
+  }
+
+  @Override
+  public RoutingContext readRoutingContext()
+  {
+    if ( params.get( "profile" ) == null ) throw new IllegalArgumentException( "profile parameter not set" );
+    if ( params.get( "alternativeidx" ) == null )
+    {
+      params.put( "alternativeidx", "0" ); // no alternatives for matrices
+    }
+    return super.readRoutingContext();
+  }
+
+  @Override
+  public List<OsmNodeNamed> readWayPointList()
+  {
+    return readSourceList();
+  }
+
+  public List<OsmNodeNamed> readSourceList()
+  {
+    return readPositionList( "sources", "source" );
+  }
+
+  public List<OsmNodeNamed> readTargetList()
+  {
+    return readPositionList( "targets", "target" );
+  }
+
+  /**
+   * @throws IllegalArgumentException if the matrix exceeds the size limit
+   */
+  public void checkMatrixSize( int sourceCount, int targetCount )
+  {
+    long maxEntries = Long.getLong( "maxMatrixEntries", 2500L ).longValue();
+    if ( (long)sourceCount * targetCount > maxEntries )
+    {
+      throw new IllegalArgumentException( "matrix too large: " + sourceCount + " x " + targetCount + " > " + maxEntries + " entries" );
+    }
+  }
+
+  private List<OsmNodeNamed> readPositionList( String paramName, String namePrefix )
+  {
+    // lon,lat|...
+    String lonLats = params.get( paramName );
+    if ( lonLats == null ) throw new IllegalArgumentException( paramName + " parameter not set" );
+
+    String[] coords = lonLats.split( "\\|" );
+    List<OsmNodeNamed> list = new ArrayList<OsmNodeNamed>();
+    for ( int i = 0; i < coords.length; i++ )
+    {
+      String[] lonLat = coords[i].split( "," );
+      if ( lonLat.length != 2 ) throw new IllegalArgumentException( "invalid position in " + paramName + ": " + coords[i] );
+      list.add( readPosition( lonLat[0], lonLat[1], namePrefix + i ) );
+    }
+    return list;
+  }
+
+  public String formatMatrix( RoutingMatrix matrix )
+  {
+    return matrix.formatAsJson();
+  }
+
+  @Override
+  public String getMimeType()
+  {
+    return "application/json";
+  }
+
+  @Override
+  public String getFileName()
+  {
+    return null;
+  }
+}
@@ -3,12 +3,12 @@ package btools.server.request;
 import btools.router.RoutingContext;
 import btools.router.RoutingEngine;
 import btools.server.ServiceContext;
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -30,7 +30,7 @@ public class ProfileUploadHandler
 		this.serviceContext = serviceContext;
 	}
 
-  public void handlePostRequest(String profileId, BufferedReader br, BufferedWriter response) throws IOException
+  public void handlePostRequest(String profileId, Reader br, BufferedWriter response) throws IOException
   {
     BufferedWriter fileWriter = null;
 
@@ -78,41 +78,20 @@ public class ProfileUploadHandler
     return customProfileDir;
   }
 
-  // reads HTTP POST content from input into output stream/writer
-  private static void readPostData( BufferedReader ir, BufferedWriter bw, String id ) throws IOException
+  // copies the HTTP POST content (already separated from the headers) into the profile file
+  private static void readPostData( Reader ir, BufferedWriter bw, String id ) throws IOException
   {
     // Content-Type: text/plain;charset=UTF-8
-
+    int numChars = 0;
     for(;;)
     {
-      // headers
-      String line = ir.readLine();
-      if ( line == null ) break;
+      int c = ir.read();
+      if ( c == -1) break;
+      bw.write( c );
 
-      // blank line before content after headers
-      if ( line.length() == 0 )
-      {
-        int numChars = 0;
-
-        // Content-Length header is in bytes (!= characters for UTF8),
-        // but Reader reads characters, so don't know number of characters to read
-        for(;;)
-        {
-          // read will block when false, occurs at end of stream rather than -1
-          if (!ir.ready()) {
-        	  try { Thread.sleep(1000); } catch( Exception e ) {}
-        	  if ( !ir.ready() ) break;
-          }
-          int c = ir.read();
-          if ( c == -1) break;
-          bw.write( c );
-          
-          numChars++;
-          if (numChars > MAX_LENGTH)
-            throw new IOException("Maximum number of characters exceeded (" + MAX_LENGTH + ", " + id + ")");
-        }
-        break;
-      }
+      numChars++;
+      if (numChars > MAX_LENGTH)
+        throw new IOException("Maximum number of characters exceeded (" + MAX_LENGTH + ", " + id + ")");
     }
   }
 
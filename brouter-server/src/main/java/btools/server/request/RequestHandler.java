@@ -1,5 +1,7 @@
 package btools.server.request;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.List;
 
@@ -25,6 +27,15 @@ public abstract class RequestHandler
 
 	public abstract String formatTrack(OsmTrack track);
 
+  /**
+   * write the formatted track to the given writer. Handlers that
+   * can stream the output should override this
+   */
+  public void writeTrack( OsmTrack track, Writer w ) throws IOException
+  {
+    w.write( formatTrack( track ) );
+  }
+
   public abstract String getMimeType();
 
   public abstract String getFileName();
@@ -1,12 +1,15 @@
 package btools.server.request;
 
 import btools.router.OsmNodeNamed;
+import btools.router.OsmNogoPolygon;
 import btools.router.OsmTrack;
 import btools.router.RoutingContext;
 import btools.server.ServiceContext;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -19,10 +22,16 @@ import java.util.List;
  * 
  * lonlats = lon,lat|... (unlimited list of lon,lat waypoints separated by |)
  * nogos = lon,lat,radius|... (optional, radius in meters)
+ * polygons = lon,lat,lon,lat,...|... (optional, nogo areas, at least 3 vertices each)
+ * polylines = lon,lat,lon,lat,...|... (optional, nogo lines, at least 2 vertices each)
  * profile = profile file name without .brf
  * alternativeidx = [0|1|2|3] (optional, default 0)
  * format = [kml|gpx|geojson] (optional, default gpx)
  *
+ * The sections of routes with via points are calculated concurrently
+ * if the system property "sectionThreads" is set to more than 1
+ * (the maximum number of threads per request)
+ *
  * Example URLs:
  * http://localhost:17777/brouter?lonlats=8.799297,49.565883|8.811764,49.563606&nogos=&profile=trekking&alternativeidx=0&format=gpx
  * http://localhost:17777/brouter?lonlats=1.1,1.2|2.1,2.2|3.1,3.2|4.1,4.2&nogos=-1.1,-1.2,1|-2.1,-2.2,2&profile=shortest&alternativeidx=1&format=kml
@@ -42,6 +51,7 @@ public class ServerHandler extends RequestHandler {
   {
     rc = new RoutingContext();
     rc.serversizing = true;
+    rc.sectionThreads = Integer.getInteger( "sectionThreads", 0 ).intValue();
 
     String profile = params.get( "profile" );
     // when custom profile replace prefix with directory path
@@ -58,8 +68,15 @@ public class ServerHandler extends RequestHandler {
     if ( nogoList != null )
     {
       rc.prepareNogoPoints( nogoList );
-      rc.nogopoints = nogoList;
     }
+    List<OsmNodeNamed> polygonList = readNogoPolygons( "polygons", true );
+    polygonList.addAll( readNogoPolygons( "polylines", false ) );
+    if ( !polygonList.isEmpty() )
+    {
+      if ( nogoList == null ) nogoList = new ArrayList<OsmNodeNamed>();
+      nogoList.addAll( polygonList );
+    }
+    rc.nogopoints = nogoList;
 
     return rc;
   }
@@ -128,6 +145,30 @@ public class ServerHandler extends RequestHandler {
     return result;
   }
 
+  @Override
+  public void writeTrack( OsmTrack track, Writer w ) throws IOException
+  {
+    // optional, may be null
+    String format = params.get( "format" );
+
+    if (format == null || "gpx".equals(format))
+    {
+      track.writeGpx( w );
+    }
+    else if ("kml".equals(format))
+    {
+      track.writeKml( w );
+    }
+    else if ("geojson".equals(format))
+    {
+      track.writeGeoJson( w );
+    }
+    else
+    {
+      w.write( formatTrack( track ) );
+    }
+  }
+
   @Override
   public String getMimeType()
   {
@@ -173,7 +214,7 @@ public class ServerHandler extends RequestHandler {
     return fileName;
   }
 
-  private static OsmNodeNamed readPosition( String vlon, String vlat, String name )
+  protected static OsmNodeNamed readPosition( String vlon, String vlat, String name )
   {
     if ( vlon == null ) throw new IllegalArgumentException( "lon " + name + " not found in input" );
     if ( vlat == null ) throw new IllegalArgumentException( "lat " + name + " not found in input" );
@@ -208,6 +249,30 @@ public class ServerHandler extends RequestHandler {
     return nogoList;
   }
   
+  private List<OsmNodeNamed> readNogoPolygons( String paramName, boolean closed )
+  {
+    // lon,lat,lon,lat,...|...
+    List<OsmNodeNamed> result = new ArrayList<OsmNodeNamed>();
+    String polygons = params.get( paramName );
+    if ( polygons == null || polygons.length() == 0 ) return result;
+
+    String[] polygonList = polygons.split("\\|");
+    for (int i = 0; i < polygonList.length; i++)
+    {
+      String[] lonLatList = polygonList[i].split(",");
+      if ( lonLatList.length % 2 != 0 ) throw new IllegalArgumentException( "odd number of coordinates in " + paramName + ": " + polygonList[i] );
+      int[] ilons = new int[lonLatList.length / 2];
+      int[] ilats = new int[lonLatList.length / 2];
+      for (int j = 0; j < ilons.length; j++)
+      {
+        ilons[j] = (int)( ( Double.parseDouble( lonLatList[2*j] ) + 180. ) *1000000. + 0.5);
+        ilats[j] = (int)( ( Double.parseDouble( lonLatList[2*j+1] ) +  90. ) *1000000. + 0.5);
+      }
+      result.add( new OsmNogoPolygon( ilons, ilats, closed ) );
+    }
+    return result;
+  }
+
   private static OsmNodeNamed readNogo( String lon, String lat, String radius )
   {
     return readNogo(Double.parseDouble( lon ), Double.parseDouble( lat ), Integer.parseInt( radius ) );
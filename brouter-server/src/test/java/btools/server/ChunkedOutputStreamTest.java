@@ -0,0 +1,56 @@
+package btools.server;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChunkedOutputStreamTest
+{
+  @Test
+  public void chunkFramingTest() throws Exception
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ChunkedOutputStream cos = new ChunkedOutputStream( bos, 16 );
+
+    cos.write( 'a' );
+    cos.write( "0123456789abcdefXYZ".getBytes( "ISO-8859-1" ) ); // crosses the chunk boundary
+    cos.flush();
+    cos.flush(); // no empty chunk, which would end the body
+    cos.write( "tail".getBytes( "ISO-8859-1" ) );
+    cos.close();
+    cos.close(); // only one terminating chunk
+
+    Assert.assertEquals( "10\r\na0123456789abcde\r\n"
+                       + "4\r\nfXYZ\r\n"
+                       + "4\r\ntail\r\n"
+                       + "0\r\n\r\n", bos.toString( "ISO-8859-1" ) );
+  }
+
+  @Test
+  public void emptyBodyTest() throws Exception
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ChunkedOutputStream cos = new ChunkedOutputStream( bos, 16 );
+    cos.close();
+    Assert.assertEquals( "0\r\n\r\n", bos.toString( "ISO-8859-1" ) );
+  }
+
+  @Test
+  public void underlyingStreamStaysOpenTest() throws Exception
+  {
+    final boolean[] closed = new boolean[1];
+    ByteArrayOutputStream bos = new ByteArrayOutputStream()
+    {
+      @Override
+      public void close()
+      {
+        closed[0] = true;
+      }
+    };
+    ChunkedOutputStream cos = new ChunkedOutputStream( bos, 16 );
+    cos.write( 'x' );
+    cos.close();
+    Assert.assertFalse( "connection must stay open for keep-alive", closed[0] );
+  }
+}
@@ -0,0 +1,105 @@
+package btools.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HttpRequestTest
+{
+  @Test
+  public void pipelinedRequestsTest() throws Exception
+  {
+    InputStream is = stream( "GET /brouter?lonlats=8.7,50.0|8.8,50.1 HTTP/1.1\r\n"
+                           + "Host: localhost\r\n"
+                           + "Accept-Encoding: gzip, deflate\r\n"
+                           + "\r\n"
+                           + "POST /brouter/profile HTTP/1.1\r\n"
+                           + "Content-Length: 5\r\n"
+                           + "Connection: close\r\n"
+                           + "\r\n"
+                           + "abcde"
+                           + "\n" // stray empty line between requests
+                           + "GET / HTTP/1.0\n\n" );
+
+    HttpRequest r1 = HttpRequest.read( is );
+    Assert.assertEquals( "GET", r1.method );
+    Assert.assertEquals( "/brouter?lonlats=8.7,50.0|8.8,50.1", r1.url );
+    Assert.assertEquals( "localhost", r1.getHeader( "host" ) );
+    Assert.assertTrue( r1.isHttp11() );
+    Assert.assertTrue( r1.isKeepAlive() );
+    Assert.assertTrue( r1.acceptsGzip() );
+    Assert.assertNull( r1.body );
+
+    HttpRequest r2 = HttpRequest.read( is );
+    Assert.assertEquals( "POST", r2.method );
+    Assert.assertEquals( "abcde", new String( r2.body, "ISO-8859-1" ) );
+    Assert.assertFalse( r2.isKeepAlive() );
+    Assert.assertFalse( r2.acceptsGzip() );
+
+    HttpRequest r3 = HttpRequest.read( is );
+    Assert.assertEquals( "HTTP/1.0", r3.version );
+    Assert.assertFalse( "HTTP/1.0 closes by default", r3.isKeepAlive() );
+
+    Assert.assertNull( "end of stream", HttpRequest.read( is ) );
+  }
+
+  @Test
+  public void keepAliveTest() throws Exception
+  {
+    HttpRequest r = HttpRequest.read( stream( "GET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n" ) );
+    Assert.assertTrue( r.isKeepAlive() );
+
+    r = HttpRequest.read( stream( "GET /\r\n\r\n" ) );
+    Assert.assertEquals( "HTTP/1.0", r.version );
+  }
+
+  @Test
+  public void invalidRequestsTest() throws Exception
+  {
+    assertInvalid( "GARBAGE\r\n\r\n" );
+    assertInvalid( "POST / HTTP/1.1\r\nContent-Length: -1\r\n\r\n" );
+    assertInvalid( "POST / HTTP/1.1\r\nContent-Length: 100000000\r\n\r\n" );
+    assertInvalid( "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n" );
+
+    StringBuilder sb = new StringBuilder( "GET / HTTP/1.1\r\n" );
+    for( int i=0; i<=100; i++ )
+    {
+      sb.append( "X-Header" + i + ": x\r\n" );
+    }
+    assertInvalid( sb.append( "\r\n" ).toString() );
+
+    sb = new StringBuilder( "GET /" );
+    for( int i=0; i<70000; i++ )
+    {
+      sb.append( 'a' );
+    }
+    assertInvalid( sb.append( " HTTP/1.1\r\n\r\n" ).toString() );
+  }
+
+  @Test( expected = java.io.IOException.class )
+  public void truncatedBodyTest() throws Exception
+  {
+    HttpRequest.read( stream( "POST / HTTP/1.1\r\nContent-Length: 10\r\n\r\nabc" ) );
+  }
+
+  private static void assertInvalid( String request ) throws Exception
+  {
+    try
+    {
+      HttpRequest.read( stream( request ) );
+      Assert.fail( "request should be rejected: " + request.substring( 0, Math.min( 40, request.length() ) ) );
+    }
+    catch( IllegalArgumentException e )
+    {
+      // expected
+    }
+  }
+
+  private static InputStream stream( String s ) throws Exception
+  {
+    return new BufferedInputStream( new ByteArrayInputStream( s.getBytes( "ISO-8859-1" ) ) );
+  }
+}
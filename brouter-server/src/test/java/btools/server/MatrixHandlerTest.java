@@ -0,0 +1,43 @@
+package btools.server;
+
+import java.util.HashMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import btools.server.request.MatrixHandler;
+
+public class MatrixHandlerTest
+{
+  @Test
+  public void matrixSizeTest() throws Exception
+  {
+    HashMap<String, String> params = new HashMap<String, String>();
+    params.put( "sources", "8.72,50.00|8.73,50.01|8.74,50.02" );
+    params.put( "targets", "8.72,49.99|8.73,49.98" );
+    MatrixHandler handler = new MatrixHandler( new ServiceContext(), params );
+    Assert.assertEquals( 3, handler.readSourceList().size() );
+    Assert.assertEquals( 2, handler.readTargetList().size() );
+
+    handler.checkMatrixSize( 50, 50 ); // the default limit
+
+    System.setProperty( "maxMatrixEntries", "5" );
+    try
+    {
+      handler.checkMatrixSize( 1, 5 );
+      try
+      {
+        handler.checkMatrixSize( 3, 2 );
+        Assert.fail( "matrix above the limit accepted" );
+      }
+      catch( IllegalArgumentException e )
+      {
+        Assert.assertTrue( e.getMessage(), e.getMessage().indexOf( "matrix too large" ) >= 0 );
+      }
+    }
+    finally
+    {
+      System.clearProperty( "maxMatrixEntries" );
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package btools.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import btools.router.AlternativeTracks;
+import btools.router.OsmNodeNamed;
+import btools.router.OsmNogoPolygon;
+import btools.router.RoutingContext;
+
+public class RouteCacheTest
+{
+  @Test
+  public void routeCacheTest() throws Exception
+  {
+    File f = File.createTempFile( "routecache", ".rd5" );
+    f.deleteOnExit();
+    writeFile( f, 10 );
+    List<File> files = new ArrayList<File>();
+    files.add( f );
+
+    RouteCache cache = new RouteCache( 2, 60000L );
+    AlternativeTracks t1 = new AlternativeTracks();
+    AlternativeTracks t2 = new AlternativeTracks();
+    AlternativeTracks t3 = new AlternativeTracks();
+
+    cache.put( "k1", t1, files );
+    cache.put( "k2", t2, files );
+    Assert.assertTrue( "cache hit expected", cache.get( "k1" ) == t1 );
+    Assert.assertTrue( "cache hit expected", cache.get( "k2" ) == t2 );
+    Assert.assertNull( "unexpected hit", cache.get( "k3" ) );
+
+    // least recently used entry is evicted
+    cache.get( "k1" );
+    cache.put( "k3", t3, files );
+    Assert.assertNull( "k2 should be evicted", cache.get( "k2" ) );
+    Assert.assertTrue( "cache hit expected", cache.get( "k1" ) == t1 );
+
+    // modified datafile invalidates
+    writeFile( f, 20 );
+    Assert.assertNull( "outdated entry returned", cache.get( "k1" ) );
+
+    // expired entry
+    RouteCache expiring = new RouteCache( 10, -1L );
+    expiring.put( "k1", t1, files );
+    Assert.assertNull( "expired entry returned", expiring.get( "k1" ) );
+  }
+
+  @Test
+  public void nogoKeyTest()
+  {
+    List<OsmNodeNamed> wplist = new ArrayList<OsmNodeNamed>();
+    wplist.add( node( 8720897, 50002515, 0. ) );
+    wplist.add( node( 8723658, 49997510, 0. ) );
+
+    // same sums of the coordinates, as used by the nogo checksums
+    String k1 = getKey( node( 8721000, 50001000, 0.1 ), node( 8722000, 50002000, 0.1 ), wplist );
+    String k2 = getKey( node( 8721000, 50002000, 0.1 ), node( 8722000, 50001000, 0.1 ), wplist );
+    Assert.assertFalse( "swapped coordinates give the same key", k1.equals( k2 ) );
+
+    // same vertices, but polygon vs. polyline
+    int[] lons = { 8721000, 8722000, 8722000 };
+    int[] lats = { 50001000, 50001000, 50002000 };
+    String k3 = getKey( new OsmNogoPolygon( lons, lats, true ), null, wplist );
+    String k4 = getKey( new OsmNogoPolygon( lons, lats, false ), null, wplist );
+    Assert.assertFalse( "polygon and polyline give the same key", k3.equals( k4 ) );
+
+    Assert.assertEquals( k1, getKey( node( 8721000, 50001000, 0.1 ), node( 8722000, 50002000, 0.1 ), wplist ) );
+  }
+
+  private static String getKey( OsmNodeNamed nogo1, OsmNodeNamed nogo2, List<OsmNodeNamed> wplist )
+  {
+    RoutingContext rc = new RoutingContext();
+    rc.localFunction = "/profiles/trekking.brf";
+    List<OsmNodeNamed> nogos = new ArrayList<OsmNodeNamed>();
+    nogos.add( nogo1 );
+    if ( nogo2 != null )
+    {
+      nogos.add( nogo2 );
+    }
+    rc.nogopoints = nogos;
+    return RouteCache.getKey( rc, wplist );
+  }
+
+  private static OsmNodeNamed node( int ilon, int ilat, double radius )
+  {
+    OsmNodeNamed n = new OsmNodeNamed();
+    n.ilon = ilon;
+    n.ilat = ilat;
+    n.radius = radius;
+    n.isNogo = radius > 0.;
+    return n;
+  }
+
+  private static void writeFile( File f, int size ) throws Exception
+  {
+    FileOutputStream fos = new FileOutputStream( f );
+    fos.write( new byte[size] );
+    fos.close();
+  }
+}
@@ -3,9 +3,11 @@ package btools.server;
 import java.util.*;
 
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 import java.net.URL;
 import java.io.File;
+import java.io.StringWriter;
 
 import btools.router.*;
 import btools.mapaccess.*;
@@ -14,14 +16,35 @@ public class RouterTest
 {
   private File workingDir;
 
-  @Test
-  public void routerTest() throws Exception
+  // from, to
+  private static final double[] TEST_ROUTE = new double[]{ 8.720897, 50.002515, 8.723658, 49.997510 };
+
+  // the reference route (alternative 0), calculated once for all tests
+  private static OsmTrack referenceTrack;
+
+  @Before
+  public void setUp() throws Exception
   {
     URL resulturl = this.getClass().getResource( "/testtrack0.gpx" );
     Assert.assertTrue( "reference result not found: ", resulturl != null );
     File resultfile = new File(resulturl.getFile());
     workingDir = resultfile.getParentFile();
+  }
+
+  private OsmTrack getReferenceTrack() throws Exception
+  {
+    if ( referenceTrack == null )
+    {
+      RoutingEngine first = runEngine( 0, null );
+      Assert.assertTrue( "routing failed: " + first.getErrorMessage(), first.getErrorMessage() == null );
+      referenceTrack = first.getFoundTrack();
+    }
+    return referenceTrack;
+  }
 
+  @Test
+  public void routerTest() throws Exception
+  {
     String msg;
 
     // first test: route within dreiech test-map crossing tile border
@@ -42,7 +65,345 @@ public class RouterTest
     Assert.assertTrue( msg, msg != null && msg.indexOf( "not found" ) >= 0 );
   }
 
+  @Test
+  public void sharedTileCacheTest() throws Exception
+  {
+    // same route using the shared tile-cache, first cold, then warm
+
+    File a1 = new File( workingDir, "testtrack1.gpx" );
+    long coldHits = 0;
+    for( int i=0; i<2; i++ )
+    {
+      a1.delete();
+      String msg = calcRoute( 8.720897, 50.002515, 8.723658, 49.997510, "testtrack", true );
+      Assert.assertTrue( "routing failed: " + msg, msg == null  );
+      Assert.assertTrue( "result content missmatch with shared tile-cache", a1.exists() );
+      if ( i == 0 )
+      {
+        coldHits = SharedTileCache.getInstance().getHits();
+      }
+    }
+    Assert.assertTrue( "warm run not served by the shared tile-cache", SharedTileCache.getInstance().getHits() > coldHits );
+  }
+
+  @Test
+  public void memoryMapTest() throws Exception
+  {
+    // same route using memory-mapped datafiles
+
+    File a1 = new File( workingDir, "testtrack1.gpx" );
+    System.setProperty( "useMemoryMap", "true" );
+    try
+    {
+      a1.delete();
+      String msg = calcRoute( 8.720897, 50.002515, 8.723658, 49.997510, "testtrack" );
+      Assert.assertTrue( "routing failed: " + msg, msg == null  );
+      Assert.assertTrue( "result content missmatch with memory-mapped datafiles", a1.exists() );
+    }
+    finally
+    {
+      System.clearProperty( "useMemoryMap" );
+    }
+  }
+
+  @Test
+  public void alternativesTest() throws Exception
+  {
+    // continuing from alternative 0 must give the same alternative 1 as a direct calculation
+
+    RoutingEngine direct = runEngine( 1, null );
+    RoutingEngine first = runEngine( 0, null );
+    RoutingEngine next = runEngine( 1, first.getAlternatives() );
+    Assert.assertTrue( "routing failed: " + next.getErrorMessage(), next.getErrorMessage() == null );
+    Assert.assertEquals( 2, next.getAlternatives().size() );
+    Assert.assertTrue( "continued alternative differs", next.getFoundTrack().equalsTrack( direct.getFoundTrack() ) );
+  }
+
+  @Test
+  public void bidirectionalTest() throws Exception
+  {
+    // the bidirectional search must find the same track
+
+    RoutingEngine bidirectional = runEngine( 0, null, true );
+    Assert.assertTrue( "routing failed: " + bidirectional.getErrorMessage(), bidirectional.getErrorMessage() == null );
+    Assert.assertTrue( "bidirectional track differs", bidirectional.getFoundTrack().equalsTrack( getReferenceTrack() ) );
+    Assert.assertEquals( getReferenceTrack().cost, bidirectional.getFoundTrack().cost );
+  }
+
+  @Test
+  public void shortcutTest() throws Exception
+  {
+    // the search on the shortcut overlay gives an approximation
+
+    RoutingEngine shortcuts = runEngine( 0, null, false, true );
+    Assert.assertTrue( "routing failed: " + shortcuts.getErrorMessage(), shortcuts.getErrorMessage() == null );
+    Assert.assertTrue( "shortcut track too expensive", shortcuts.getFoundTrack().cost <= getReferenceTrack().cost * 1.1 );
+  }
+
+  @Test
+  public void shortcutNogoTest() throws Exception
+  {
+    // with nogos the shortcut overlay is not used, the exact passes give the reference track
+
+    List<OsmNodeNamed> nogos = new ArrayList<OsmNodeNamed>();
+    OsmNodeNamed nogo = new OsmNodeNamed();
+    nogo.name = "nogo50";
+    nogo.ilon = 180000000 + 8650000;
+    nogo.ilat =  90000000 + 50050000;
+    nogo.isNogo = true;
+    nogos.add( nogo );
+    RoutingContext.prepareNogoPoints( nogos );
+
+    RoutingContext rctx = createContext();
+    rctx.nogopoints = nogos;
+    RoutingEngine re = createEngine( TEST_ROUTE, rctx );
+    rctx.useShortcuts = true; // the profile was read by the constructor
+    StringWriter log = new StringWriter();
+    re.setInfoLogWriter( log );
+    re.doRun( 0 );
+    Assert.assertTrue( "routing failed: " + re.getErrorMessage(), re.getErrorMessage() == null );
+    Assert.assertTrue( "no fallback logged", log.toString().indexOf( "shortcut overlay not used with nogos" ) >= 0 );
+    Assert.assertTrue( "track differs", re.getFoundTrack().equalsTrack( getReferenceTrack() ) );
+  }
+
+  @Test
+  public void landmarkTest() throws Exception
+  {
+    // the landmark bounds must not change the result, but visit fewer nodes
+
+    double[] lonlats = TEST_ROUTE;
+    RoutingEngine plain = createEngine( lonlats, 0 );
+    plain.doRun( 0 );
+    Assert.assertTrue( "routing failed: " + plain.getErrorMessage(), plain.getErrorMessage() == null );
+
+    RoutingContext rctx = createContext();
+    RoutingEngine landmarks = createEngine( lonlats, rctx );
+    rctx.useLandmarks = true; // the profile was read by the constructor
+    StringWriter log = new StringWriter();
+    landmarks.setInfoLogWriter( log );
+    landmarks.doRun( 0 );
+    Assert.assertTrue( "routing failed: " + landmarks.getErrorMessage(), landmarks.getErrorMessage() == null );
+    Assert.assertTrue( "landmark bounds not used", log.toString().indexOf( "using landmark bounds" ) >= 0 );
+    Assert.assertTrue( "landmark track differs", landmarks.getFoundTrack().equalsTrack( plain.getFoundTrack() ) );
+    Assert.assertEquals( plain.getFoundTrack().cost, landmarks.getFoundTrack().cost );
+    Assert.assertTrue( "no nodes saved: " + landmarks.getLinksProcessed() + " >= " + plain.getLinksProcessed(),
+                       landmarks.getLinksProcessed() < plain.getLinksProcessed() );
+  }
+
+  @Test
+  public void parallelSectionsTest() throws Exception
+  {
+    // the sections of a route with via points calculated concurrently must give the same track
+
+    RoutingEngine sequential = runViaEngine( 0 );
+    Assert.assertTrue( "routing failed: " + sequential.getErrorMessage(), sequential.getErrorMessage() == null );
+    RoutingEngine parallel = runViaEngine( 2 );
+    Assert.assertTrue( "routing failed: " + parallel.getErrorMessage(), parallel.getErrorMessage() == null );
+    Assert.assertTrue( "parallel track differs", parallel.getFoundTrack().equalsTrack( sequential.getFoundTrack() ) );
+    Assert.assertEquals( sequential.getFoundTrack().cost, parallel.getFoundTrack().cost );
+  }
+
+  @Test
+  public void matrixTest() throws Exception
+  {
+    // the entries of a matrix must match the routes between the points
+
+    double[] sources = new double[]{ 8.720897, 50.002515, 8.721800, 49.998800 };
+    double[] targets = new double[]{ 8.722800, 50.000100, 8.723658, 49.997510 };
+    for( int threads=0; threads<=2; threads+=2 )
+    {
+      RoutingEngine me = createEngine( sources, threads );
+      RoutingMatrix matrix = me.doMatrix( createWaypoints( targets ), 0 );
+      Assert.assertTrue( "matrix failed: " + me.getErrorMessage(), matrix != null );
+      for( int i=0; i<2; i++ )
+      {
+        for( int j=0; j<2; j++ )
+        {
+          double[] pair = new double[]{ sources[2*i], sources[2*i+1], targets[2*j], targets[2*j+1] };
+          RoutingEngine re = createEngine( pair, 0 );
+          re.doRun( 0 );
+          Assert.assertTrue( "routing failed: " + re.getErrorMessage(), re.getErrorMessage() == null );
+          Assert.assertEquals( "matrix cost " + i + "," + j, re.getFoundTrack().cost, matrix.getCost( i, j ) );
+          Assert.assertEquals( "matrix distance " + i + "," + j, re.getFoundTrack().distance, matrix.getDistance( i, j ) );
+        }
+      }
+    }
+  }
+
+  @Test
+  public void reachabilityTest() throws Exception
+  {
+    // the reachability search must stop exactly at the cost limit
+
+    int maxCost = getReferenceTrack().cost / 2;
+    final int[] maxReached = new int[1];
+    RoutingEngine reachability = createEngine( new double[]{ 8.720897, 50.002515 }, 0 );
+    boolean reached = reachability.doReachability( maxCost, 0, new ReachabilityListener()
+    {
+      public void linkReached( int[] ilons, int[] ilats, int startCost, int endCost, int endDistance )
+      {
+        maxReached[0] = Math.max( maxReached[0], endCost );
+      }
+    }, 0 );
+    Assert.assertTrue( "reachability failed: " + reachability.getErrorMessage(), reached );
+    Assert.assertEquals( maxCost, maxReached[0] );
+
+    StringWriter sw = new StringWriter();
+    reachability = createEngine( new double[]{ 8.720897, 50.002515 }, 0 );
+    Isochrone isochrone = new Isochrone( createWaypoints( new double[]{ 8.720897, 50.002515 } ).get( 0 ), sw, true );
+    Assert.assertTrue( "reachability failed: " + reachability.getErrorMessage(), reachability.doReachability( maxCost, 0, isochrone, 0 ) );
+    isochrone.finish( null );
+    Assert.assertTrue( "no outline of the reachable area", isochrone.getPolygon() != null );
+    Assert.assertTrue( sw.toString().indexOf( "\"Polygon\"" ) > 0 );
+  }
+
+  @Test
+  public void nogoTest() throws Exception
+  {
+    // nogos away from the track must not change it, a nogo line across it must
+
+    List<OsmNodeNamed> farNogos = new ArrayList<OsmNodeNamed>();
+    for( int i=0; i<400; i++ )
+    {
+      OsmNodeNamed nogo = new OsmNodeNamed();
+      nogo.name = "nogo50";
+      nogo.ilon = 180000000 + 8650000 + ( i % 20 ) * 10000;
+      nogo.ilat =  90000000 + 50050000 + ( i / 20 ) * 10000;
+      nogo.isNogo = true;
+      farNogos.add( nogo );
+    }
+    RoutingContext.prepareNogoPoints( farNogos );
+    RoutingEngine farNogoEngine = createEngine( TEST_ROUTE, 0, farNogos );
+    farNogoEngine.doRun( 0 );
+    Assert.assertTrue( "routing failed: " + farNogoEngine.getErrorMessage(), farNogoEngine.getErrorMessage() == null );
+    Assert.assertTrue( "track changed by far nogos", farNogoEngine.getFoundTrack().equalsTrack( getReferenceTrack() ) );
+
+    OsmTrack firstTrack = getReferenceTrack();
+    OsmPathElement a = firstTrack.nodes.get( firstTrack.nodes.size() / 2 - 1 );
+    OsmPathElement b = firstTrack.nodes.get( firstTrack.nodes.size() / 2 );
+    int mlon = ( a.getILon() + b.getILon() ) / 2;
+    int mlat = ( a.getILat() + b.getILat() ) / 2;
+    int dlon = ( b.getILat() - a.getILat() ) * 20; // perpendicular to the segment
+    int dlat = ( a.getILon() - b.getILon() ) * 20;
+    List<OsmNodeNamed> lineNogos = new ArrayList<OsmNodeNamed>( farNogos );
+    lineNogos.add( new OsmNogoPolygon( new int[]{ mlon - dlon, mlon + dlon }, new int[]{ mlat - dlat, mlat + dlat }, false ) );
+    RoutingEngine lineNogoEngine = createEngine( TEST_ROUTE, 0, lineNogos );
+    lineNogoEngine.doRun( 0 );
+    Assert.assertTrue( "routing failed: " + lineNogoEngine.getErrorMessage(), lineNogoEngine.getErrorMessage() == null );
+    Assert.assertTrue( "nogo line not avoided", lineNogoEngine.getFoundTrack().cost > firstTrack.cost );
+  }
+
+  @Test
+  public void nogoListTest() throws Exception
+  {
+    OsmNodeNamed wp = new OsmNodeNamed();
+    wp.ilon = 180000000 + 8720897;
+    wp.ilat =  90000000 + 50002515;
+    OsmNogoPolygon lineAtWp = new OsmNogoPolygon( new int[]{ wp.ilon - 1000, wp.ilon + 1000 }, new int[]{ wp.ilat - 50, wp.ilat + 50 }, false );
+    OsmNogoPolygon lineAway = new OsmNogoPolygon( new int[]{ wp.ilon - 1000, wp.ilon + 1000 }, new int[]{ wp.ilat + 5000, wp.ilat + 5000 }, false );
+    OsmNogoPolygon areaAway = new OsmNogoPolygon( new int[]{ wp.ilon - 1000, wp.ilon + 1000, wp.ilon }, new int[]{ wp.ilat + 5000, wp.ilat + 5000, wp.ilat + 6000 }, true );
+
+    // order and kind of the nogos count in the checksums
+    RoutingContext rc = new RoutingContext();
+    rc.nogopoints = Arrays.<OsmNodeNamed>asList( lineAway, areaAway );
+    long[] cs = rc.getNogoChecksums();
+    rc.nogopoints = Arrays.<OsmNodeNamed>asList( areaAway, lineAway );
+    Assert.assertFalse( "order not in the checksums", Arrays.equals( cs, rc.getNogoChecksums() ) );
+    OsmNogoPolygon lineOfArea = new OsmNogoPolygon( new int[]{ wp.ilon - 1000, wp.ilon + 1000, wp.ilon }, new int[]{ wp.ilat + 5000, wp.ilat + 5000, wp.ilat + 6000 }, false );
+    rc.nogopoints = Arrays.<OsmNodeNamed>asList( lineOfArea );
+    cs = rc.getNogoChecksums();
+    rc.nogopoints = Arrays.<OsmNodeNamed>asList( areaAway );
+    Assert.assertFalse( "closed flag not in the checksums", Arrays.equals( cs, rc.getNogoChecksums() ) );
+
+    // a nogo line through a waypoint is dropped
+    rc.nogopoints = new ArrayList<OsmNodeNamed>( Arrays.<OsmNodeNamed>asList( lineAtWp, lineAway, areaAway ) );
+    rc.cleanNogolist( Collections.singletonList( wp ) );
+    Assert.assertEquals( Arrays.<OsmNodeNamed>asList( lineAway, areaAway ), rc.nogopoints );
+  }
+
+  private RoutingEngine runEngine( int alternativeIdx, AlternativeTracks previous ) throws Exception
+  {
+    return runEngine( alternativeIdx, previous, false, false );
+  }
+
+  private RoutingEngine runEngine( int alternativeIdx, AlternativeTracks previous, boolean bidirectional ) throws Exception
+  {
+    return runEngine( alternativeIdx, previous, bidirectional, false );
+  }
+
+  private RoutingEngine runEngine( int alternativeIdx, AlternativeTracks previous, boolean bidirectional, boolean shortcuts ) throws Exception
+  {
+    RoutingContext rctx = createContext();
+    rctx.setAlternativeIdx( alternativeIdx );
+    RoutingEngine re = createEngine( TEST_ROUTE, rctx );
+    rctx.bidirectionalSearch = bidirectional; // the profile was read by the constructor
+    rctx.useShortcuts = shortcuts;
+    if ( previous != null )
+    {
+      re.setAlternatives( previous );
+    }
+    re.doRun( 0 );
+    return re;
+  }
+
+  private RoutingEngine runViaEngine( int sectionThreads ) throws Exception
+  {
+    double[] lonlats = new double[]{ 8.720897, 50.002515, 8.722800, 50.000100, 8.721800, 49.998800, 8.723658, 49.997510 };
+    RoutingEngine re = createEngine( lonlats, sectionThreads );
+    re.doRun( 0 );
+    return re;
+  }
+
+  private RoutingEngine createEngine( double[] lonlats, int sectionThreads ) throws Exception
+  {
+    return createEngine( lonlats, sectionThreads, null );
+  }
+
+  private RoutingEngine createEngine( double[] lonlats, int sectionThreads, List<OsmNodeNamed> nogos ) throws Exception
+  {
+    RoutingContext rctx = createContext();
+    rctx.sectionThreads = sectionThreads;
+    rctx.nogopoints = nogos;
+    return createEngine( lonlats, rctx );
+  }
+
+  private RoutingContext createContext()
+  {
+    RoutingContext rctx = new RoutingContext();
+    rctx.localFunction = workingDir.getAbsolutePath() + "/../../../misc/profiles2/trekking.brf";
+    return rctx;
+  }
+
+  private RoutingEngine createEngine( double[] lonlats, RoutingContext rctx ) throws Exception
+  {
+    String wd = workingDir.getAbsolutePath();
+
+    RoutingEngine re = new RoutingEngine( null, null,
+        wd + "/../../../brouter-map-creator/target/test-classes/tmp/segments", createWaypoints( lonlats ), rctx );
+    re.quite = true;
+    return re;
+  }
+
+  private List<OsmNodeNamed> createWaypoints( double[] lonlats )
+  {
+    List<OsmNodeNamed> wplist = new ArrayList<OsmNodeNamed>();
+    for( int i=0; i<lonlats.length; i+=2 )
+    {
+      OsmNodeNamed n = new OsmNodeNamed();
+      n.name = i == 0 ? "from" : ( i == lonlats.length-2 ? "to" : "via" + i/2 );
+      n.ilon = 180000000 +  (int)(lonlats[i]*1000000 + 0.5);
+      n.ilat =  90000000 + (int)(lonlats[i+1]*1000000 + 0.5);
+      wplist.add( n );
+    }
+    return wplist;
+  }
+
   private String calcRoute( double flon, double flat, double tlon, double tlat, String trackname ) throws Exception
+  {
+    return calcRoute( flon, flat, tlon, tlat, trackname, false );
+  }
+
+  private String calcRoute( double flon, double flat, double tlon, double tlat, String trackname, boolean serversizing ) throws Exception
   {
     String wd = workingDir.getAbsolutePath();
 
@@ -62,6 +423,7 @@ public class RouterTest
 
     RoutingContext rctx = new RoutingContext();
     rctx.localFunction = wd + "/../../../misc/profiles2/trekking.brf";
+    rctx.serversizing = serversizing;
     //   c.setAlternativeIdx( 1 );
 
     RoutingEngine re = new RoutingEngine(
@@ -27,7 +27,7 @@ public final class ByteArrayUnifier
 
   public byte[] unify( byte[] ab, int offset, int len )
   {
-    int crc = Crc32.crc( ab, offset, len );
+    int crc = MixHash.intHash( MixHash.hash( ab, offset, len ) );
     int idx = ( crc & 0xfffffff ) % size;
     byte[] abc = byteArrayCache[idx];
     if ( abc != null && abc.length == len )
@@ -47,7 +47,7 @@ public final class ByteArrayUnifier
       if ( byteArrayCache[idx] != null )
       {
         byte[] abold = byteArrayCache[idx];
-        int crcold = Crc32.crc( abold, 0, abold.length );
+        int crcold = MixHash.intHash( MixHash.hash( abold, 0, abold.length ) );
         if ( crcold != crcCrosscheck[idx] )
           throw new IllegalArgumentException( "ByteArrayUnifier: immutablity validation failed!" );
       }
@@ -1,5 +1,7 @@
 package btools.util;
 
+import java.util.zip.CRC32;
+
 /**
  * checksum stuff
  *
@@ -7,6 +9,18 @@ package btools.util;
  */
 public class Crc32
 {
+  // below that, the table lookup is cheaper than the call
+  private static final int MIN_LENGTH_ZIP_CRC = 32;
+
+  private static final ThreadLocal<CRC32> zipCrcs = new ThreadLocal<CRC32>()
+  {
+    @Override
+    protected CRC32 initialValue()
+    {
+      return new CRC32();
+    }
+  };
+
   public static int crc( long bitmap )
   {
     int crc  = 0xFFFFFFFF;
@@ -19,8 +33,20 @@ public class Crc32
     return crc;
   }
      
+  /**
+   * Crc of the given range, as used in the file formats: the standard CRC-32
+   * without the final inversion. Longer ranges go through java.util.zip.CRC32,
+   * which the JVM implements with the CPU's crc instructions where available
+   */
   public static int crc( byte[] ab, int offset, int len )
   {
+    if ( len >= MIN_LENGTH_ZIP_CRC )
+    {
+      CRC32 zipCrc = zipCrcs.get();
+      zipCrc.reset();
+      zipCrc.update( ab, offset, len );
+      return ~(int) zipCrc.getValue();
+    }
     int crc  = 0xFFFFFFFF;
     int end = offset + len;
     for( int j=offset; j<end; j++ )
@@ -0,0 +1,87 @@
+package btools.util;
+
+/**
+ * 64-bit mixing hash over byte arrays, for cache keys only
+ *
+ * Takes 8 bytes per step (that of MurmurHash3) instead of one table lookup
+ * per byte like Crc32, but the values are not stable across versions:
+ * never use them for anything written to disk (see Crc32 for that)
+ */
+public final class MixHash
+{
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  public static long hash( byte[] ab, int offset, int len )
+  {
+    return hash( ab, offset, len, -1 );
+  }
+
+  /**
+   * Hash of the whole array, with bit 0 of the given byte inverted
+   * (-1 for none), see BExpressionContext.evaluate
+   */
+  public static long hashWithInverseBit( byte[] ab, int inverseBitByteIndex )
+  {
+    return hash( ab, 0, ab.length, inverseBitByteIndex );
+  }
+
+  /**
+   * @return the hash folded to an int
+   */
+  public static int intHash( long hash )
+  {
+    return (int) ( hash ^ ( hash >>> 32 ) );
+  }
+
+  // the block step of MurmurHash3 (x64)
+  private static long mix( long h, long w )
+  {
+    w *= C1;
+    w = Long.rotateLeft( w, 31 );
+    w *= C2;
+    h ^= w;
+    return Long.rotateLeft( h, 27 ) * 5 + 0x52dce729;
+  }
+
+  private static long hash( byte[] ab, int offset, int len, int inverseBitByteIndex )
+  {
+    long h = len * C1;
+    int end = offset + len;
+    int i = offset;
+    for ( ; i + 8 <= end; i += 8 )
+    {
+      long w = ( ab[i] & 0xffL )
+             | ( ab[i + 1] & 0xffL ) << 8
+             | ( ab[i + 2] & 0xffL ) << 16
+             | ( ab[i + 3] & 0xffL ) << 24
+             | ( ab[i + 4] & 0xffL ) << 32
+             | ( ab[i + 5] & 0xffL ) << 40
+             | ( ab[i + 6] & 0xffL ) << 48
+             | ( ab[i + 7] & 0xffL ) << 56;
+      if ( inverseBitByteIndex >= i - offset && inverseBitByteIndex < i - offset + 8 )
+      {
+        w ^= 1L << ( ( inverseBitByteIndex - i + offset ) << 3 );
+      }
+      h = mix( h, w );
+    }
+    if ( i < end )
+    {
+      long w = 0L;
+      for ( int shift = 0; i < end; i++, shift += 8 )
+      {
+        long b = ab[i] & 0xffL;
+        if ( i - offset == inverseBitByteIndex ) b ^= 1L;
+        w |= b << shift;
+      }
+      h = mix( h, w );
+    }
+    // finalization as in MurmurHash3
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
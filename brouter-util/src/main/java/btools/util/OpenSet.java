@@ -0,0 +1,32 @@
+package btools.util;
+
+import java.util.List;
+
+/**
+ * Priority queue for the open set of a search: values with int keys
+ * (the path costs), taken out lowest key first
+ *
+ * Implementations: SortedHeap (any key order), RadixHeap (cheaper for
+ * keys growing monotonically), see OpenSetFactory
+ */
+public interface OpenSet<V>
+{
+  /**
+   * add a key value pair
+   */
+  void add( int key, V value );
+
+  /**
+   * @return the value with the lowest key, or null if empty
+   */
+  V popLowestKeyValue();
+
+  void clear();
+
+  int getSize();
+
+  /**
+   * @return a sample of (at most about 1000) values, e.g. for display
+   */
+  List<V> getExtract();
+}
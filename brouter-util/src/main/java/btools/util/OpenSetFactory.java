@@ -0,0 +1,33 @@
+package btools.util;
+
+/**
+ * Creates the open sets of the searches, the implementation is chosen by
+ * the system property "openSet": "sorted" for SortedHeap (the default),
+ * "radix" for RadixHeap
+ */
+public final class OpenSetFactory
+{
+  private static final String type = System.getProperty( "openSet", "sorted" );
+
+  private OpenSetFactory()
+  {
+  }
+
+  public static <V> OpenSet<V> create()
+  {
+    return create( type );
+  }
+
+  public static <V> OpenSet<V> create( String type )
+  {
+    if ( "radix".equals( type ) )
+    {
+      return new RadixHeap<V>();
+    }
+    if ( "sorted".equals( type ) )
+    {
+      return new SortedHeap<V>();
+    }
+    throw new IllegalArgumentException( "unknown open set type: " + type );
+  }
+}
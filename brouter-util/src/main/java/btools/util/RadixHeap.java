@@ -0,0 +1,181 @@
+package btools.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Radix heap: an open set for keys that grow monotonically (like the
+ * costs in a dijkstra or A* search with a consistent heuristic)
+ *
+ * The entries are kept in buckets by the highest bit in which their key
+ * differs from the last popped key. A pop takes from bucket 0 (keys equal
+ * to the last one) or else redistributes the lowest non-empty bucket, so
+ * every entry moves down at most 32 times, and there is no sorting at all.
+ *
+ * Keys below the last popped one (an inconsistent heuristic) are accepted
+ * as well: they go to a SortedHeap that is emptied first, so the pop order
+ * is still exact. Entries with the same key come out in no defined order
+ */
+public final class RadixHeap<V> implements OpenSet<V>
+{
+  private static final int NBUCKETS = 33;
+
+  private int[][] keys = new int[NBUCKETS][];
+  private Object[][] values = new Object[NBUCKETS][];
+  private int[] sizes = new int[NBUCKETS];
+  private long nonEmpty; // bit i set if bucket i has entries
+
+  private int last; // the last popped key, as unsigned (see toUnsigned)
+  private int size;
+
+  private SortedHeap<V> lateEntries = new SortedHeap<V>();
+  private int lateSize;
+
+  public RadixHeap()
+  {
+    for ( int i = 0; i < NBUCKETS; i++ )
+    {
+      keys[i] = new int[4];
+      values[i] = new Object[4];
+    }
+    last = toUnsigned( Integer.MIN_VALUE );
+  }
+
+  // map the signed order to the unsigned one (and back)
+  private static int toUnsigned( int key )
+  {
+    return key ^ Integer.MIN_VALUE;
+  }
+
+  private static int bucketOf( int ukey, int ulast )
+  {
+    return 32 - Integer.numberOfLeadingZeros( ukey ^ ulast );
+  }
+
+  @Override
+  public void add( int key, V value )
+  {
+    size++;
+    int ukey = toUnsigned( key );
+    if ( key < toUnsigned( last ) ) // below the last popped key
+    {
+      lateEntries.add( key, value );
+      lateSize++;
+      return;
+    }
+    put( bucketOf( ukey, last ), ukey, value );
+  }
+
+  private void put( int bucket, int ukey, Object value )
+  {
+    int n = sizes[bucket];
+    if ( n == keys[bucket].length )
+    {
+      int[] newKeys = new int[2 * n];
+      Object[] newValues = new Object[2 * n];
+      System.arraycopy( keys[bucket], 0, newKeys, 0, n );
+      System.arraycopy( values[bucket], 0, newValues, 0, n );
+      keys[bucket] = newKeys;
+      values[bucket] = newValues;
+    }
+    keys[bucket][n] = ukey;
+    values[bucket][n] = value;
+    sizes[bucket] = n + 1;
+    nonEmpty |= 1L << bucket;
+  }
+
+  @Override
+  @SuppressWarnings( "unchecked" )
+  public V popLowestKeyValue()
+  {
+    if ( lateSize > 0 )
+    {
+      lateSize--;
+      size--;
+      return lateEntries.popLowestKeyValue();
+    }
+    if ( nonEmpty == 0L )
+    {
+      return null;
+    }
+    if ( sizes[0] == 0 )
+    {
+      // redistribute the lowest non-empty bucket around its minimum
+      int bucket = Long.numberOfTrailingZeros( nonEmpty );
+      int[] bkeys = keys[bucket];
+      Object[] bvalues = values[bucket];
+      int n = sizes[bucket];
+      int min = bkeys[0];
+      for ( int i = 1; i < n; i++ )
+      {
+        if ( toUnsigned( bkeys[i] ) < toUnsigned( min ) ) // (back to signed for the compare)
+        {
+          min = bkeys[i];
+        }
+      }
+      last = min;
+      sizes[bucket] = 0;
+      nonEmpty &= ~( 1L << bucket );
+      for ( int i = 0; i < n; i++ )
+      {
+        put( bucketOf( bkeys[i], last ), bkeys[i], bvalues[i] );
+        bvalues[i] = null;
+      }
+    }
+    int n = --sizes[0];
+    if ( n == 0 )
+    {
+      nonEmpty &= ~1L;
+    }
+    V value = (V) values[0][n];
+    values[0][n] = null;
+    size--;
+    return value;
+  }
+
+  @Override
+  public void clear()
+  {
+    for ( int b = 0; b < NBUCKETS; b++ )
+    {
+      Object[] bvalues = values[b];
+      for ( int i = 0; i < sizes[b]; i++ )
+      {
+        bvalues[i] = null;
+      }
+      sizes[b] = 0;
+    }
+    nonEmpty = 0L;
+    last = toUnsigned( Integer.MIN_VALUE );
+    size = 0;
+    lateEntries.clear();
+    lateSize = 0;
+  }
+
+  @Override
+  public int getSize()
+  {
+    return size;
+  }
+
+  @Override
+  @SuppressWarnings( "unchecked" )
+  public List<V> getExtract()
+  {
+    int div = size / 1000 + 1;
+    ArrayList<V> res = new ArrayList<V>( size / div + 1 );
+    int cnt = 0;
+    for ( int b = 0; b < NBUCKETS; b++ )
+    {
+      for ( int i = 0; i < sizes[b]; i++ )
+      {
+        if ( ( ++cnt ) % div == 0 )
+        {
+          res.add( (V) values[b][i] );
+        }
+      }
+    }
+    res.addAll( lateEntries.getExtract() );
+    return res;
+  }
+}
@@ -11,7 +11,7 @@ import java.util.List;
  *
  * @author ab
  */
-public class SortedHeap<V>
+public class SortedHeap<V> implements OpenSet<V>
 {
   private int[][] al;
   private int[] pa;
@@ -201,6 +201,11 @@ public class SortedHeap<V>
     while(--idx > 0) lp[idx] = al[idx].length;
   }
 
+  public int getSize()
+  {
+    return size;
+  }
+
   public void clear()
   {
 	  if ( !isClear )
@@ -0,0 +1,32 @@
+package btools.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Crc32Test
+{
+  @Test
+  public void formatTest()
+  {
+    // the standard check value 0xcbf43926, without the final inversion
+    byte[] ab = "123456789".getBytes();
+    Assert.assertEquals( ~0xcbf43926, Crc32.crc( ab, 0, ab.length ) );
+  }
+
+  @Test
+  public void zipCrcTest()
+  {
+    // the long ranges (java.util.zip.CRC32) must match the table lookup
+    Random rnd = new Random( 4711 );
+    for ( int len = 0; len < 300; len++ )
+    {
+      byte[] ab = new byte[len + 7];
+      rnd.nextBytes( ab );
+      byte[] range = new byte[len];
+      System.arraycopy( ab, 3, range, 0, len );
+      Assert.assertEquals( "crc test len=" + len, Crc32.crcWithInverseBit( range, -1 ), Crc32.crc( ab, 3, len ) );
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package btools.util;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MixHashTest
+{
+  @Test
+  public void inverseBitTest()
+  {
+    Random rnd = new Random( 4711 );
+    for ( int len = 1; len < 40; len++ )
+    {
+      byte[] ab = new byte[len];
+      rnd.nextBytes( ab );
+      for ( int idx = 0; idx < len; idx++ )
+      {
+        byte[] inverse = (byte[]) ab.clone();
+        inverse[idx] ^= 1;
+        Assert.assertEquals( "inverse bit test", MixHash.hash( inverse, 0, len ), MixHash.hashWithInverseBit( ab, idx ) );
+      }
+      Assert.assertEquals( MixHash.hash( ab, 0, len ), MixHash.hashWithInverseBit( ab, -1 ) );
+    }
+  }
+
+  @Test
+  public void collisionTest()
+  {
+    // single bit changes and different lengths must give different hashes
+    byte[] ab = new byte[20];
+    HashSet<Long> hashes = new HashSet<Long>();
+    for ( int len = 0; len <= ab.length; len++ )
+    {
+      Assert.assertTrue( hashes.add( Long.valueOf( MixHash.hash( ab, 0, len ) ) ) );
+    }
+    for ( int bit = 0; bit < 8 * ab.length; bit++ )
+    {
+      ab[bit >> 3] ^= 1 << ( bit & 7 );
+      Assert.assertTrue( hashes.add( Long.valueOf( MixHash.hash( ab, 0, ab.length ) ) ) );
+      ab[bit >> 3] ^= 1 << ( bit & 7 );
+    }
+  }
+}
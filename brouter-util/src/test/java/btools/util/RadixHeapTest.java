@@ -0,0 +1,67 @@
+package btools.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RadixHeapTest
+{
+  @Test
+  public void monotoneTest()
+  {
+    // dijkstra-like: new keys not below the last popped one
+    RadixHeap<String> rh = new RadixHeap<String>();
+    Random rnd = new Random( 4711 );
+    rh.add( 0, "0" );
+    int cnt = 0;
+    int lastval = 0;
+    for(;;)
+    {
+      String s = rh.popLowestKeyValue();
+      if ( s == null ) break;
+      cnt++;
+      int val = Integer.parseInt( s );
+      Assert.assertTrue( "sorting test", val >= lastval );
+      lastval = val;
+      if ( cnt < 50000 )
+      {
+        int k1 = val + rnd.nextInt( 1000 );
+        int k2 = val + rnd.nextInt( 1000 );
+        rh.add( k1, "" + k1 );
+        rh.add( k2, "" + k2 );
+      }
+    }
+    Assert.assertEquals( "total count test", 1 + 2 * 49999, cnt );
+    Assert.assertEquals( 0, rh.getSize() );
+  }
+
+  @Test
+  public void randomOrderTest()
+  {
+    // keys below the last popped one must still come out in order, compared to SortedHeap
+    RadixHeap<Integer> rh = new RadixHeap<Integer>();
+    SortedHeap<Integer> sh = new SortedHeap<Integer>();
+    Random rnd = new Random( 4711 );
+    for( int i = 0; i < 100000; i++ )
+    {
+      int val = rnd.nextInt( 2000000 ) - 1000000;
+      rh.add( val, Integer.valueOf( val ) );
+      sh.add( val, Integer.valueOf( val ) );
+      val = rnd.nextInt( 2000000 ) - 1000000;
+      rh.add( val, Integer.valueOf( val ) );
+      sh.add( val, Integer.valueOf( val ) );
+      Assert.assertEquals( "pop test", sh.popLowestKeyValue(), rh.popLowestKeyValue() );
+    }
+    Assert.assertEquals( sh.getSize(), rh.getSize() );
+    for(;;)
+    {
+      Integer v = sh.popLowestKeyValue();
+      Assert.assertEquals( "drain test", v, rh.popLowestKeyValue() );
+      if ( v == null ) break;
+    }
+    rh.add( 5, Integer.valueOf( 5 ) );
+    rh.clear();
+    Assert.assertNull( rh.popLowestKeyValue() );
+  }
+}